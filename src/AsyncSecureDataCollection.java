@@ -0,0 +1,339 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+Funzione di astrazione:
+    f(c) = <container, executor> -->
+    dove ogni operazione viene eseguita su container da un thread di executor
+
+Invariante di rappresentazione:
+    container != null && executor != null && (lock == null => container può essere usato da più thread)
+*/
+
+//Adattatore asincrono di una qualsiasi implementazione di SecureDataContainer
+public class AsyncSecureDataCollection<E> implements AsyncSecureDataContainer<E> {
+    private final SecureDataContainer<E> container;
+    private final Executor executor;
+
+    //Serializza le operazioni sulle implementazioni che non possono essere usate da più thread (null se non serve)
+    private final ReentrantLock lock;
+
+    /*
+     *   OVERVIEW: Crea un adattatore che esegue le operazioni sull'esecutore condiviso (Vedi virtualThreadExecutor)
+     *   REQUIRES: container != null
+     *   MODIFIES: this
+     *   EFFECTS: Come AsyncSecureDataCollection(container, executor) con un esecutore condiviso da tutti gli adattatori creati così
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public AsyncSecureDataCollection(SecureDataContainer<E> container) {
+        this(container, SharedExecutor.INSTANCE);
+    }
+
+    /*
+     *   OVERVIEW: Crea un adattatore che esegue le operazioni sull'esecutore fornito
+     *   REQUIRES: container, executor != null
+     *   MODIFIES: this
+     *   EFFECTS: Crea un adattatore di container. Le operazioni su SecureDataCollectionConcurrent vengono eseguite in parallelo,
+     *            quelle sulle altre implementazioni (Non thread-safe) una alla volta
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public AsyncSecureDataCollection(SecureDataContainer<E> container, Executor executor) {
+        this(container, executor, container instanceof SecureDataCollectionConcurrent);
+    }
+
+    /*
+     *   OVERVIEW: Crea un adattatore che esegue le operazioni sull'esecutore fornito
+     *   REQUIRES: container, executor != null
+     *   MODIFIES: this
+     *   EFFECTS: Crea un adattatore di container. Se threadSafe == false le operazioni vengono eseguite una alla volta,
+     *            altrimenti in parallelo (container deve poter essere usato da più thread).
+     *            Gli iteratori ritornati da getIterator vanno comunque consumati da un solo thread alla volta: se threadSafe == false
+     *            ogni loro passo (Che legge la collezione e decifra sul thread del chiamante) viene serializzato con le altre operazioni
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public AsyncSecureDataCollection(SecureDataContainer<E> container, Executor executor, boolean threadSafe) {
+        if(container == null || executor == null)
+            throw new NullPointerException();
+
+        this.container = container;
+        this.executor = executor;
+        this.lock = threadSafe ? null : new ReentrantLock();
+    }
+
+    /*
+     *   OVERVIEW: Crea un esecutore con un thread virtuale per ogni operazione
+     *   REQUIRES:
+     *   MODIFIES:
+     *   EFFECTS: Ritorna Executors.newVirtualThreadPerTaskExecutor() se l'ambiente lo supporta (Java 21 o successivo), altrimenti
+     *            un esecutore con thread daemon creati su richiesta e riusati. Il chiamante è responsabile di chiuderlo
+     *   THROWS:
+     */
+    public static ExecutorService virtualThreadExecutor() {
+        //Riflessione: il codice è compilato per Java 8, dove i thread virtuali non esistono
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch(ReflectiveOperationException | RuntimeException e) {
+            return Executors.newCachedThreadPool(new DaemonFactory());
+        }
+    }
+
+    /*
+     *   OVERVIEW: Ritorna l'implementazione sincrona adattata
+     */
+    public SecureDataContainer<E> getContainer() {
+        return container;
+    }
+
+    @Override
+    public CompletableFuture<Void> createUser(String id, String passw) {
+        return submit(() -> {
+            container.createUser(id, passw);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Integer> getSize(String owner, String passw) {
+        return submit(() -> container.getSize(owner, passw));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> put(String owner, String passw, E data) {
+        return submit(() -> container.put(owner, passw, data));
+    }
+
+    @Override
+    public CompletableFuture<E> get(String owner, String passw, E data) {
+        return submit(() -> container.get(owner, passw, data));
+    }
+
+    @Override
+    public CompletableFuture<E> remove(String owner, String passw, E data) {
+        return submit(() -> container.remove(owner, passw, data));
+    }
+
+    @Override
+    public CompletableFuture<Void> copy(String owner, String passw, E data) {
+        return submit(() -> {
+            container.copy(owner, passw, data);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> share(String owner, String passw, String other, E data) {
+        return submit(() -> {
+            container.share(owner, passw, other, data);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Iterator<E>> getIterator(String owner, String passw) {
+        return submit(() -> serialized(container.getIterator(owner, passw)));
+    }
+
+    @Override
+    public CompletableFuture<SessionToken> login(String id, String passw) {
+        return submit(() -> container.login(id, passw));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> logout(SessionToken session) {
+        return submit(() -> container.logout(session));
+    }
+
+    @Override
+    public CompletableFuture<Integer> getSize(SessionToken session) {
+        return submit(() -> container.getSize(session));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> put(SessionToken session, E data) {
+        return submit(() -> container.put(session, data));
+    }
+
+    @Override
+    public CompletableFuture<E> get(SessionToken session, E data) {
+        return submit(() -> container.get(session, data));
+    }
+
+    @Override
+    public CompletableFuture<E> remove(SessionToken session, E data) {
+        return submit(() -> container.remove(session, data));
+    }
+
+    @Override
+    public CompletableFuture<Void> copy(SessionToken session, E data) {
+        return submit(() -> {
+            container.copy(session, data);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> share(SessionToken session, String other, E data) {
+        return submit(() -> {
+            container.share(session, other, data);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Iterator<E>> getIterator(SessionToken session) {
+        return submit(() -> serialized(container.getIterator(session)));
+    }
+
+    @Override
+    public CompletableFuture<BatchResult<Boolean>> putAll(SessionToken session, Collection<? extends E> data) {
+        return submit(() -> container.putAll(session, data));
+    }
+
+    @Override
+    public CompletableFuture<BatchResult<E>> getAll(SessionToken session, Collection<? extends E> data) {
+        return submit(() -> container.getAll(session, data));
+    }
+
+    @Override
+    public CompletableFuture<BatchResult<E>> removeAll(SessionToken session, Collection<? extends E> data) {
+        return submit(() -> container.removeAll(session, data));
+    }
+
+    /*
+     *   OVERVIEW: Esegue l'operazione sull'esecutore e ritorna il future del suo risultato
+     *   REQUIRES: operation != null
+     *   MODIFIES:
+     *   EFFECTS: Ritorna un future completato con il risultato di operation o con l'eccezione lanciata (Anche RejectedExecutionException
+     *            se l'esecutore rifiuta l'operazione)
+     *   THROWS:
+     */
+    private <T> CompletableFuture<T> submit(Callable<T> operation) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                if(future.isDone())
+                    return;
+
+                try {
+                    future.complete(invoke(operation));
+                } catch(Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch(RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private <T> T invoke(Callable<T> operation) throws Exception {
+        if(lock == null)
+            return operation.call();
+
+        lock.lock();
+        try {
+            return operation.call();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     *   OVERVIEW: Ritorna l'iteratore fornito, i cui passi vengono serializzati con le altre operazioni se la collezione non è thread-safe.
+     *            Gli iteratori delle collezioni decifrano in modo pigro (Vedi DecryptingIterator) e leggono la collezione a ogni passo
+     */
+    private Iterator<E> serialized(Iterator<E> iterator) {
+        return lock == null ? iterator : new LockedIterator<>(iterator, lock);
+    }
+
+    //Iteratore i cui passi vengono eseguiti con il lock che serializza le operazioni sulla collezione
+    private static final class LockedIterator<E> implements Iterator<E>, AutoCloseable {
+        private final Iterator<E> iterator;
+        private final ReentrantLock lock;
+
+        private LockedIterator(Iterator<E> iterator, ReentrantLock lock) {
+            this.iterator = iterator;
+            this.lock = lock;
+        }
+
+        @Override
+        public boolean hasNext() {
+            lock.lock();
+            try {
+                return iterator.hasNext();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public E next() {
+            lock.lock();
+            try {
+                return iterator.next();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void remove() {
+            lock.lock();
+            try {
+                iterator.remove();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        //Chiude l'iteratore della collezione (Vedi DecryptingIterator.close), se lo prevede
+        @Override
+        public void close() {
+            if(!(iterator instanceof DecryptingIterator))
+                return;
+
+            lock.lock();
+            try {
+                ((DecryptingIterator<E>) iterator).close();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    //Esecutore usato dagli adattatori creati senza esecutore (Creato al primo uso, mai chiuso: i thread non virtuali sono daemon)
+    private static final class SharedExecutor {
+        private static final ExecutorService INSTANCE = virtualThreadExecutor();
+    }
+
+    private static final class DaemonFactory implements ThreadFactory {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "async-container-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
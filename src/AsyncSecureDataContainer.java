@@ -0,0 +1,117 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+
+/*
+ *   Variante asincrona di SecureDataContainer: ogni metodo ritorna subito un CompletableFuture che viene completato
+ *   con il risultato del metodo corrispondente di SecureDataContainer, oppure con l'eccezione che avrebbe lanciato
+ *   (Checked o Unchecked, senza essere avvolta). I metodi void sono completati con null
+ */
+public interface AsyncSecureDataContainer<E> {
+    /*
+     *   OVERVIEW: Come SecureDataContainer.createUser(id, passw)
+     */
+    public CompletableFuture<Void> createUser(String id, String passw);
+
+    /*
+     *   OVERVIEW: Come SecureDataContainer.getSize(owner, passw)
+     */
+    public CompletableFuture<Integer> getSize(String owner, String passw);
+
+    /*
+     *   OVERVIEW: Come SecureDataContainer.put(owner, passw, data)
+     */
+    public CompletableFuture<Boolean> put(String owner, String passw, E data);
+
+    /*
+     *   OVERVIEW: Come SecureDataContainer.get(owner, passw, data)
+     */
+    public CompletableFuture<E> get(String owner, String passw, E data);
+
+    /*
+     *   OVERVIEW: Come SecureDataContainer.remove(owner, passw, data)
+     */
+    public CompletableFuture<E> remove(String owner, String passw, E data);
+
+    /*
+     *   OVERVIEW: Come SecureDataContainer.copy(owner, passw, data)
+     */
+    public CompletableFuture<Void> copy(String owner, String passw, E data);
+
+    /*
+     *   OVERVIEW: Come SecureDataContainer.share(owner, passw, other, data)
+     */
+    public CompletableFuture<Void> share(String owner, String passw, String other, E data);
+
+    /*
+     *   OVERVIEW: Come SecureDataContainer.getIterator(owner, passw)
+     */
+    public CompletableFuture<Iterator<E>> getIterator(String owner, String passw);
+
+    /*
+     *   OVERVIEW: Come SecureDataContainer.login(id, passw)
+     */
+    public CompletableFuture<SessionToken> login(String id, String passw);
+
+    /*
+     *   OVERVIEW: Come SecureDataContainer.logout(session)
+     */
+    public CompletableFuture<Boolean> logout(SessionToken session);
+
+    /*
+     *   OVERVIEW: Come SecureDataContainer.getSize(session)
+     */
+    public CompletableFuture<Integer> getSize(SessionToken session);
+
+    /*
+     *   OVERVIEW: Come SecureDataContainer.put(session, data)
+     */
+    public CompletableFuture<Boolean> put(SessionToken session, E data);
+
+    /*
+     *   OVERVIEW: Come SecureDataContainer.get(session, data)
+     */
+    public CompletableFuture<E> get(SessionToken session, E data);
+
+    /*
+     *   OVERVIEW: Come SecureDataContainer.remove(session, data)
+     */
+    public CompletableFuture<E> remove(SessionToken session, E data);
+
+    /*
+     *   OVERVIEW: Come SecureDataContainer.copy(session, data)
+     */
+    public CompletableFuture<Void> copy(SessionToken session, E data);
+
+    /*
+     *   OVERVIEW: Come SecureDataContainer.share(session, other, data)
+     */
+    public CompletableFuture<Void> share(SessionToken session, String other, E data);
+
+    /*
+     *   OVERVIEW: Come SecureDataContainer.getIterator(session)
+     */
+    public CompletableFuture<Iterator<E>> getIterator(SessionToken session);
+
+    /*
+     *   OVERVIEW: Come SecureDataContainer.putAll(session, data)
+     */
+    public CompletableFuture<BatchResult<Boolean>> putAll(SessionToken session, Collection<? extends E> data);
+
+    /*
+     *   OVERVIEW: Come SecureDataContainer.getAll(session, data)
+     */
+    public CompletableFuture<BatchResult<E>> getAll(SessionToken session, Collection<? extends E> data);
+
+    /*
+     *   OVERVIEW: Come SecureDataContainer.removeAll(session, data)
+     */
+    public CompletableFuture<BatchResult<E>> removeAll(SessionToken session, Collection<? extends E> data);
+}
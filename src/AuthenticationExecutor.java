@@ -0,0 +1,192 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+Funzione di astrazione:
+    f(ae) = <workers, queue, {(id, n)0,...,(id, n)k}> -->
+    dove workers sono i thread che eseguono le autenticazioni, queue è la coda di ammissione delle autenticazioni in attesa
+    e n è il numero di autenticazioni dell'utente id in coda o in esecuzione
+
+Invariante di rappresentazione:
+    pool != null && perUserLimit > 0 && forall((id, n) appartenente a pending) => (id != null && 0 < n <= perUserLimit)
+*/
+
+//Esecutore dedicato alle autenticazioni: le derivazioni PBKDF2 di una raffica di login non occupano i thread delle richieste
+public final class AuthenticationExecutor implements AutoCloseable {
+    //Capacità predefinita della coda di ammissione
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    //Numero predefinito di autenticazioni in coda o in esecuzione per utente
+    public static final int DEFAULT_PER_USER_LIMIT = 2;
+
+    private final ThreadPoolExecutor pool;
+    private final int perUserLimit;
+
+    //Autenticazioni in coda o in esecuzione per utente (Un utente senza autenticazioni in corso non è presente)
+    private final ConcurrentHashMap<String, Integer> pending = new ConcurrentHashMap<>();
+
+    /*
+     *   OVERVIEW: Crea un esecutore con metà dei core disponibili (almeno uno) e i limiti predefiniti
+     */
+    public AuthenticationExecutor() {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), DEFAULT_QUEUE_CAPACITY, DEFAULT_PER_USER_LIMIT);
+    }
+
+    /*
+     *   OVERVIEW: Crea un esecutore con i limiti forniti
+     *   REQUIRES: threads > 0, queueCapacity > 0, perUserLimit > 0
+     *   MODIFIES: this
+     *   EFFECTS: Crea un esecutore con threads thread (daemon), una coda di ammissione di queueCapacity autenticazioni
+     *            e al più perUserLimit autenticazioni in coda o in esecuzione per ogni utente
+     *   THROWS:
+     *      IllegalArgumentException, quando i limiti non sono validi (Unchecked)
+     */
+    public AuthenticationExecutor(int threads, int queueCapacity, int perUserLimit) throws IllegalArgumentException {
+        if(threads <= 0 || queueCapacity <= 0 || perUserLimit <= 0)
+            throw new IllegalArgumentException("threads, queueCapacity e perUserLimit devono essere > 0");
+
+        this.perUserLimit = perUserLimit;
+        this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new WorkerFactory(), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /*
+     *   OVERVIEW: Esegue il login sull'esecutore
+     *   REQUIRES: container, id, passw != null. container deve poter essere usato da più thread (Vedi SecureDataCollectionConcurrent)
+     *             oppure il chiamante non deve usarlo finché il login non è completato
+     *   MODIFIES: container
+     *   EFFECTS: Ritorna subito un CompletableFuture completato con il token di sessione, oppure con l'eccezione lanciata da login.
+     *            Viene completato con AuthenticationRejectedException senza eseguire nulla se la coda è piena o se l'utente
+     *            ha già troppe autenticazioni in corso
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public <E> CompletableFuture<SessionToken> login(final SecureDataContainer<E> container, final String id, final String passw) {
+        if(container == null || id == null || passw == null)
+            throw new NullPointerException();
+
+        return submit(id, new Callable<SessionToken>() {
+            public SessionToken call() throws Exception {
+                return container.login(id, passw);
+            }
+        });
+    }
+
+    /*
+     *   OVERVIEW: Esegue sull'esecutore un'operazione che autentica l'utente id tramite password
+     *   REQUIRES: id, task != null
+     *   MODIFIES:
+     *   EFFECTS: Ritorna subito un CompletableFuture completato con il risultato di task, oppure con l'eccezione lanciata.
+     *            Viene completato con AuthenticationRejectedException se la coda è piena, se l'utente ha già perUserLimit
+     *            autenticazioni in corso o se l'esecutore è stato chiuso. Un future cancellato prima dell'esecuzione non esegue task
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public <T> CompletableFuture<T> submit(final String id, final Callable<T> task) {
+        if(id == null || task == null)
+            throw new NullPointerException();
+
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        if(!admit(id)) {
+            future.completeExceptionally(new AuthenticationRejectedException("Troppe autenticazioni in corso per l'utente " + id));
+            return future;
+        }
+
+        try {
+            pool.execute(new Runnable() {
+                public void run() {
+                    //Il posto dell'utente viene liberato prima di completare il future: chi attende il risultato può autenticarsi di nuovo
+                    if(future.isDone()) {
+                        release(id);
+                        return;
+                    }
+
+                    T result = null;
+                    Throwable error = null;
+                    try {
+                        result = task.call();
+                    } catch(Throwable e) {
+                        error = e;
+                    }
+                    release(id);
+
+                    if(error == null)
+                        future.complete(result);
+                    else
+                        future.completeExceptionally(error);
+                }
+            });
+        } catch(RejectedExecutionException e) {
+            release(id);
+            future.completeExceptionally(new AuthenticationRejectedException(pool.isShutdown() ? "Esecutore delle autenticazioni chiuso" : "Coda delle autenticazioni piena"));
+        }
+        return future;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna il numero di autenticazioni dell'utente in coda o in esecuzione
+     */
+    public int getPending(String id) {
+        Integer count = pending.get(id);
+        return count == null ? 0 : count;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna il numero di autenticazioni in coda (Non ancora in esecuzione)
+     */
+    public int getQueued() {
+        return pool.getQueue().size();
+    }
+
+    /*
+     *   OVERVIEW: Chiude l'esecutore: le autenticazioni già ammesse vengono completate, le nuove vengono rifiutate
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    //Riserva un posto all'utente, se non ha già raggiunto il limite (Atomico per utente)
+    private boolean admit(String id) {
+        final boolean[] admitted = new boolean[1];
+        pending.compute(id, (key, count) -> {
+            int current = count == null ? 0 : count;
+            if(current >= perUserLimit)
+                return count;
+            admitted[0] = true;
+            return current + 1;
+        });
+        return admitted[0];
+    }
+
+    private void release(String id) {
+        pending.computeIfPresent(id, (key, count) -> count == 1 ? null : count - 1);
+    }
+
+    //Thread daemon con nome riconoscibile: un esecutore non chiuso non impedisce la terminazione della JVM
+    private static final class WorkerFactory implements ThreadFactory {
+        private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+        private final int poolId = POOL_COUNT.incrementAndGet();
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "auth-" + poolId + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
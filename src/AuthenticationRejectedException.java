@@ -0,0 +1,12 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+public class AuthenticationRejectedException extends Exception {
+    public AuthenticationRejectedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+Funzione di astrazione:
+    f(r) = <results, errors> -->
+    <(result, error)0,...,(result, error)n-1> -->
+    dove l'elemento i descrive l'esito dell'operazione sull'i-esimo dato del lotto: error == null se l'operazione è riuscita
+
+Invariante di rappresentazione:
+    results != null && errors != null && results.size() == errors.size() &&
+    forall(i < errors.size()) => (errors.get(i) == null || results.get(i) == null)
+*/
+
+//Esito di un'operazione su un lotto di dati (putAll, getAll, removeAll): un risultato o un errore per ogni dato, nell'ordine del lotto
+public final class BatchResult<T> {
+    private final List<T> results;
+    private final List<Exception> errors;
+
+    /*
+     *   OVERVIEW: Crea un esito vuoto (Solo tramite le operazioni sui lotti)
+     *   REQUIRES: capacity >= 0
+     *   MODIFIES: this
+     *   EFFECTS: Crea un esito senza elementi
+     *   THROWS:
+     *
+     */
+    BatchResult(int capacity) {
+        this.results = new ArrayList<>(capacity);
+        this.errors = new ArrayList<>(capacity);
+    }
+
+    //Aggiunge l'esito positivo del dato successivo del lotto
+    void succeeded(T result) {
+        results.add(result);
+        errors.add(null);
+    }
+
+    //Aggiunge l'errore del dato successivo del lotto
+    void failed(Exception error) {
+        if(error == null)
+            throw new NullPointerException();
+
+        results.add(null);
+        errors.add(error);
+    }
+
+    /*
+     *   OVERVIEW: Ritorna il numero di dati del lotto
+     *   REQUIRES:
+     *   MODIFIES:
+     *   EFFECTS: Ritorna il numero di esiti, uguale al numero di dati del lotto
+     *   THROWS:
+     *
+     */
+    public int size() {
+        return results.size();
+    }
+
+    /*
+     *   OVERVIEW: Controlla se l'operazione sull'i-esimo dato è riuscita
+     *   REQUIRES: 0 <= index < size()
+     *   MODIFIES:
+     *   EFFECTS: Ritorna true se l'operazione sull'i-esimo dato non ha lanciato eccezioni, altrimenti false
+     *   THROWS:
+     *      IndexOutOfBoundsException, quando l'indice non è valido (Unchecked)
+     */
+    public boolean isSuccess(int index) {
+        return errors.get(index) == null;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna il risultato dell'operazione sull'i-esimo dato
+     *   REQUIRES: 0 <= index < size()
+     *   MODIFIES:
+     *   EFFECTS: Ritorna il valore che l'operazione singola avrebbe ritornato (put, get, remove), null se l'operazione è fallita
+     *   THROWS:
+     *      IndexOutOfBoundsException, quando l'indice non è valido (Unchecked)
+     */
+    public T getResult(int index) {
+        return results.get(index);
+    }
+
+    /*
+     *   OVERVIEW: Ritorna l'errore dell'operazione sull'i-esimo dato
+     *   REQUIRES: 0 <= index < size()
+     *   MODIFIES:
+     *   EFFECTS: Ritorna l'eccezione che l'operazione singola avrebbe lanciato, null se l'operazione è riuscita
+     *   THROWS:
+     *      IndexOutOfBoundsException, quando l'indice non è valido (Unchecked)
+     */
+    public Exception getError(int index) {
+        return errors.get(index);
+    }
+
+    /*
+     *   OVERVIEW: Ritorna il numero di operazioni riuscite
+     */
+    public int getSuccessCount() {
+        int count = 0;
+        for(Exception error : errors)
+            if(error == null)
+                count++;
+        return count;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna la lista dei risultati (null per le operazioni fallite)
+     *   REQUIRES:
+     *   MODIFIES:
+     *   EFFECTS: Ritorna una vista non modificabile dei risultati, nell'ordine del lotto
+     *   THROWS:
+     *
+     */
+    public List<T> getResults() {
+        return Collections.unmodifiableList(results);
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult[" + getSuccessCount() + "/" + size() + " riuscite]";
+    }
+}
@@ -0,0 +1,407 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/*
+ *   Misura le prestazioni di ogni operazione di SecureDataContainer sulle implementazioni della collezione.
+ *
+ *   Uso: java BenchmarkClass [sizes=10,1000,100000] [payloads=16,1024,16384] [impl=prima,seconda,terza,crypto] [warmup=ms] [time=ms]
+ *
+ *   Per ogni implementazione, numero di dati dell'utente (sizes) e dimensione dei dati in caratteri (payloads) stampa:
+ *      ops/s       throughput dell'operazione
+ *      p50 ... max latenza in microsecondi (percentili calcolati su tutti i campioni misurati)
+ *      B/op        byte allocati dal thread per operazione (Solo se la JVM lo supporta, altrimenti n/d)
+ *
+ *   impl=terza-metriche misura la terza implementazione decorata da MeteredSecureDataContainer (Costo delle metriche).
+ *   impl=crypto confronta, per ogni dimensione dei dati in byte (payloads), il costo per operazione delle primitive crittografiche
+ *   create a ogni chiamata (getInstance, new SecureRandom) con quello delle istanze riutilizzate di CryptoEngine.
+ *
+ *   Le operazioni di supporto (ad esempio la rimozione del dato appena inserito, per mantenere costante la dimensione della collezione)
+ *   sono escluse dalle misure.
+ */
+public class BenchmarkClass {
+    private static final String OWNER = "bench";
+    private static final String PASSW = "bench-password";
+    private static final String OTHER = "bench-other";
+
+    //Numero massimo di campioni di latenza per operazione (Oltre il limite la misura termina)
+    private static final int MAX_SAMPLES = 1 << 20;
+
+    private static final com.sun.management.ThreadMXBean allocationBean = allocationBean();
+
+    private static long warmupMillis = 1000;
+    private static long measureMillis = 2000;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {10, 1000, 100000};
+        int[] payloads = {16, 1024, 16384};
+        List<String> implementations = Arrays.asList("prima", "seconda", "terza");
+
+        for(String arg : args) {
+            String[] option = arg.split("=", 2);
+            if(option.length != 2)
+                throw new IllegalArgumentException("Opzione non valida: " + arg);
+
+            switch(option[0]) {
+                case "sizes": sizes = parseInts(option[1]); break;
+                case "payloads": payloads = parseInts(option[1]); break;
+                case "impl": implementations = Arrays.asList(option[1].split(",")); break;
+                case "warmup": warmupMillis = Long.parseLong(option[1]); break;
+                case "time": measureMillis = Long.parseLong(option[1]); break;
+                default: throw new IllegalArgumentException("Opzione sconosciuta: " + option[0]);
+            }
+        }
+
+        System.out.println(String.format("%-8s %-18s %8s %7s %12s %9s %9s %9s %9s %9s %10s",
+                "impl", "operazione", "dati", "payload", "ops/s", "p50", "p90", "p99", "p99.9", "max", "B/op"));
+
+        for(String implementation : implementations)
+            for(int size : sizes)
+                for(int payload : payloads)
+                    if(implementation.equals("crypto")) {
+                        //Le primitive non dipendono dal numero di dati
+                        if(size == sizes[0])
+                            benchmarkCrypto(payload);
+                    } else {
+                        benchmark(implementation, factory(implementation), size, payload);
+                    }
+    }
+
+    //Esegue tutte le operazioni su una collezione con size dati di payload caratteri dell'utente OWNER
+    private static void benchmark(String implementation, Supplier<SecureDataContainer<String>> factory, int size, int payload) throws Exception {
+        SecureDataContainer<String> container = factory.get();
+        container.createUser(OWNER, PASSW);
+        container.createUser(OTHER, PASSW);
+
+        Random random = new Random(42);
+        List<String> data = new ArrayList<>(size);
+        for(int i = 0; i < size; i++)
+            data.add(payload(random, "dato-" + i + "-", payload));
+        BatchResult<Boolean> loaded = container.putAll(OWNER, PASSW, data);
+        if(loaded.getSuccessCount() != size)
+            throw new IllegalStateException("Caricamento fallito: " + loaded);
+
+        SessionToken session = container.login(OWNER, PASSW);
+        SessionToken otherSession = container.login(OTHER, PASSW);
+        int[] counter = {0};
+
+        Map<String, Operation> operations = new LinkedHashMap<>();
+        operations.put("createUser", new Operation() {
+            void timed() throws Exception {
+                container.createUser("utente-" + counter[0]++, PASSW);
+            }
+        });
+        operations.put("put", new Operation() {
+            String fresh;
+            void before() {
+                fresh = payload(random, "nuovo-" + counter[0]++ + "-", payload);
+            }
+            void timed() throws Exception {
+                container.put(OWNER, PASSW, fresh);
+            }
+            void after() throws Exception {
+                container.remove(session, fresh);
+            }
+        });
+        operations.put("put (sessione)", new Operation() {
+            String fresh;
+            void before() {
+                fresh = payload(random, "nuovo-" + counter[0]++ + "-", payload);
+            }
+            void timed() throws Exception {
+                container.put(session, fresh);
+            }
+            void after() throws Exception {
+                container.remove(session, fresh);
+            }
+        });
+        operations.put("get", new Operation() {
+            String existing;
+            void before() {
+                existing = data.get(random.nextInt(size));
+            }
+            void timed() throws Exception {
+                container.get(OWNER, PASSW, existing);
+            }
+        });
+        operations.put("get (sessione)", new Operation() {
+            String existing;
+            void before() {
+                existing = data.get(random.nextInt(size));
+            }
+            void timed() throws Exception {
+                container.get(session, existing);
+            }
+        });
+        operations.put("remove", new Operation() {
+            String fresh;
+            void before() throws Exception {
+                fresh = payload(random, "nuovo-" + counter[0]++ + "-", payload);
+                container.put(session, fresh);
+            }
+            void timed() throws Exception {
+                container.remove(OWNER, PASSW, fresh);
+            }
+        });
+        //Il dato da copiare viene condiviso da OTHER: nella seconda implementazione si possono copiare solo i dati condivisi
+        operations.put("copy", new Operation() {
+            String fresh;
+            void before() throws Exception {
+                fresh = payload(random, "nuovo-" + counter[0]++ + "-", payload);
+                container.put(otherSession, fresh);
+                container.share(otherSession, OWNER, fresh);
+            }
+            void timed() throws Exception {
+                container.copy(OWNER, PASSW, fresh);
+            }
+            void after() throws Exception {
+                discard(container, session, fresh);
+                discard(container, otherSession, fresh);
+            }
+        });
+        operations.put("share", new Operation() {
+            String fresh;
+            void before() throws Exception {
+                fresh = payload(random, "nuovo-" + counter[0]++ + "-", payload);
+                container.put(session, fresh);
+            }
+            void timed() throws Exception {
+                container.share(OWNER, PASSW, OTHER, fresh);
+            }
+            void after() throws Exception {
+                discard(container, session, fresh);
+                discard(container, otherSession, fresh);
+            }
+        });
+        operations.put("getSize", new Operation() {
+            void timed() throws Exception {
+                container.getSize(OWNER, PASSW);
+            }
+        });
+        operations.put("getIterator", new Operation() {
+            void timed() throws Exception {
+                Iterator<String> iter = container.getIterator(OWNER, PASSW);
+                while(iter.hasNext())
+                    iter.next();
+            }
+        });
+
+        for(Map.Entry<String, Operation> entry : operations.entrySet()) {
+            Result result = run(entry.getValue());
+            System.out.println(String.format("%-8s %-18s %8d %7d %12.1f %9.1f %9.1f %9.1f %9.1f %9.1f %10s",
+                    implementation, entry.getKey(), size, payload, result.throughput,
+                    result.percentile(0.50), result.percentile(0.90), result.percentile(0.99), result.percentile(0.999), result.percentile(1.0),
+                    result.allocatedPerOp < 0 ? "n/d" : Long.toString(result.allocatedPerOp)));
+        }
+
+        container.logout(session);
+        container.logout(otherSession);
+    }
+
+    //Confronta le primitive create a ogni operazione con quelle riutilizzate di CryptoEngine su dati di payload byte
+    private static void benchmarkCrypto(int payload) throws Exception {
+        byte[] plain = new byte[payload];
+        byte[] salt = new byte[16];
+        byte[] iv = new byte[12];
+        CryptoEngine.nextBytes(plain);
+        javax.crypto.spec.SecretKeySpec key = new javax.crypto.spec.SecretKeySpec(new byte[32], "AES");
+        javax.crypto.spec.SecretKeySpec macKey = new javax.crypto.spec.SecretKeySpec(salt, CryptoEngine.HMAC_SHA256);
+        char[] password = PASSW.toCharArray();
+
+        Map<String, Operation> operations = new LinkedHashMap<>();
+        operations.put("random nuovo", new Operation() {
+            void timed() {
+                new java.security.SecureRandom().nextBytes(iv);
+            }
+        });
+        operations.put("random condiviso", new Operation() {
+            void timed() {
+                CryptoEngine.nextBytes(iv);
+            }
+        });
+        operations.put("aes-gcm nuovo", new Operation() {
+            void timed() throws Exception {
+                CryptoEngine.nextBytes(iv);
+                javax.crypto.Cipher cipher = javax.crypto.Cipher.getInstance(CryptoEngine.AES_GCM);
+                cipher.init(javax.crypto.Cipher.ENCRYPT_MODE, key, new javax.crypto.spec.GCMParameterSpec(128, iv));
+                cipher.doFinal(plain);
+            }
+        });
+        operations.put("aes-gcm riusato", new Operation() {
+            void timed() throws Exception {
+                CryptoEngine.nextBytes(iv);
+                javax.crypto.Cipher cipher = CryptoEngine.aesGcm();
+                cipher.init(javax.crypto.Cipher.ENCRYPT_MODE, key, new javax.crypto.spec.GCMParameterSpec(128, iv));
+                cipher.doFinal(plain);
+            }
+        });
+        operations.put("hmac nuovo", new Operation() {
+            void timed() throws Exception {
+                javax.crypto.Mac mac = javax.crypto.Mac.getInstance(CryptoEngine.HMAC_SHA256);
+                mac.init(macKey);
+                mac.doFinal(plain);
+            }
+        });
+        operations.put("hmac riusato", new Operation() {
+            void timed() throws Exception {
+                javax.crypto.Mac mac = CryptoEngine.hmacSha256();
+                mac.init(macKey);
+                mac.doFinal(plain);
+            }
+        });
+        //PBKDF2 con il numero minimo di iterazioni: il risparmio è costante, il costo cresce con le iterazioni
+        operations.put("pbkdf2 nuovo", new Operation() {
+            void timed() throws Exception {
+                javax.crypto.SecretKeyFactory.getInstance(CryptoEngine.PBKDF2)
+                        .generateSecret(new javax.crypto.spec.PBEKeySpec(password, salt, PasswordPolicy.MIN_ITERATIONS, 512));
+            }
+        });
+        operations.put("pbkdf2 riusato", new Operation() {
+            void timed() throws Exception {
+                CryptoEngine.pbkdf2()
+                        .generateSecret(new javax.crypto.spec.PBEKeySpec(password, salt, PasswordPolicy.MIN_ITERATIONS, 512));
+            }
+        });
+
+        for(Map.Entry<String, Operation> entry : operations.entrySet()) {
+            Result result = run(entry.getValue());
+            System.out.println(String.format("%-8s %-18s %8s %7d %12.1f %9.1f %9.1f %9.1f %9.1f %9.1f %10s",
+                    "crypto", entry.getKey(), "-", payload, result.throughput,
+                    result.percentile(0.50), result.percentile(0.90), result.percentile(0.99), result.percentile(0.999), result.percentile(1.0),
+                    result.allocatedPerOp < 0 ? "n/d" : Long.toString(result.allocatedPerOp)));
+        }
+    }
+
+    //Esegue l'operazione per warmupMillis senza misurarla, poi per measureMillis raccogliendo latenze e allocazioni
+    private static Result run(Operation operation) throws Exception {
+        long warmupEnd = System.nanoTime() + warmupMillis * 1000000L;
+        while(System.nanoTime() < warmupEnd) {
+            operation.before();
+            operation.timed();
+            operation.after();
+        }
+
+        long[] samples = new long[1024];
+        int count = 0;
+        long measured = 0;
+        long allocated = 0;
+        boolean allocation = allocationBean != null;
+        long threadId = Thread.currentThread().getId();
+
+        long measureEnd = System.nanoTime() + measureMillis * 1000000L;
+        while((System.nanoTime() < measureEnd || count == 0) && count < MAX_SAMPLES) {
+            operation.before();
+
+            long allocatedStart = allocation ? allocationBean.getThreadAllocatedBytes(threadId) : 0;
+            long start = System.nanoTime();
+            operation.timed();
+            long elapsed = System.nanoTime() - start;
+            if(allocation)
+                allocated += allocationBean.getThreadAllocatedBytes(threadId) - allocatedStart;
+
+            operation.after();
+
+            if(count == samples.length)
+                samples = Arrays.copyOf(samples, samples.length * 2);
+            samples[count++] = elapsed;
+            measured += elapsed;
+        }
+
+        Arrays.sort(samples, 0, count);
+        return new Result(Arrays.copyOf(samples, count), count * 1e9 / measured, allocation ? allocated / count : -1);
+    }
+
+    private static Supplier<SecureDataContainer<String>> factory(String implementation) {
+        switch(implementation) {
+            case "prima": return SecureDataCollection::new;
+            case "seconda": return SecureDataCollectionSecImp::new;
+            case "terza": return SecureDataCollectionConcurrent::new;
+            case "terza-metriche": return () -> new MeteredSecureDataContainer<>(new SecureDataCollectionConcurrent<>());
+            default: throw new IllegalArgumentException("Implementazione sconosciuta: " + implementation);
+        }
+    }
+
+    //Dato univoco (prefix) completato con caratteri casuali fino a length caratteri
+    private static String payload(Random random, String prefix, int length) {
+        StringBuilder builder = new StringBuilder(Math.max(length, prefix.length())).append(prefix);
+        while(builder.length() < length)
+            builder.append((char) ('a' + random.nextInt(26)));
+        return builder.toString();
+    }
+
+    //Rimuove tutte le copie del dato visibili all'utente della sessione (Le implementazioni differiscono per copie e condivisioni)
+    //Gli altri errori interrompono il benchmark: una rimozione fallita falserebbe le misure successive
+    private static void discard(SecureDataContainer<String> container, SessionToken session, String data) throws Exception {
+        try {
+            while(container.remove(session, data) != null) {
+            }
+        } catch(NoSuchElementException e) {
+            //Il dato non è più presente
+        }
+    }
+
+    private static int[] parseInts(String list) {
+        String[] parts = list.split(",");
+        int[] result = new int[parts.length];
+        for(int i = 0; i < parts.length; i++)
+            result[i] = Integer.parseInt(parts[i].trim());
+        return result;
+    }
+
+    //Misura dei byte allocati per thread (Estensione HotSpot/OpenJ9, null se non disponibile)
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if(!(bean instanceof com.sun.management.ThreadMXBean))
+            return null;
+
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) bean;
+        if(!allocationBean.isThreadAllocatedMemorySupported())
+            return null;
+        allocationBean.setThreadAllocatedMemoryEnabled(true);
+        return allocationBean;
+    }
+
+    //Operazione misurata: before e after preparano e ripristinano lo stato della collezione fuori dalla misura
+    private abstract static class Operation {
+        void before() throws Exception {
+        }
+
+        abstract void timed() throws Exception;
+
+        void after() throws Exception {
+        }
+    }
+
+    private static class Result {
+        private final long[] sortedSamples;
+        private final double throughput;
+        private final long allocatedPerOp;
+
+        Result(long[] sortedSamples, double throughput, long allocatedPerOp) {
+            this.sortedSamples = sortedSamples;
+            this.throughput = throughput;
+            this.allocatedPerOp = allocatedPerOp;
+        }
+
+        //Percentile (nearest-rank) in microsecondi
+        double percentile(double p) {
+            int rank = (int) Math.ceil(p * sortedSamples.length);
+            return sortedSamples[Math.max(0, Math.min(sortedSamples.length - 1, rank - 1))] / 1000.0;
+        }
+    }
+}
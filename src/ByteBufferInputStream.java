@@ -0,0 +1,60 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+//InputStream che legge da un ByteBuffer avanzandone la posizione (Permette di usare DataInputStream su un file mappato in memoria)
+class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    /*
+     *   OVERVIEW: Crea uno stream che legge i byte tra la posizione e il limite del buffer
+     *   REQUIRES: buffer != null
+     *   MODIFIES: this
+     *   EFFECTS: Crea lo stream senza copiare il buffer. Ogni lettura avanza la posizione del buffer
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    ByteBufferInputStream(ByteBuffer buffer) {
+        if(buffer == null)
+            throw new NullPointerException();
+
+        this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+        if(!buffer.hasRemaining())
+            return -1;
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+        if(length == 0)
+            return 0;
+        if(!buffer.hasRemaining())
+            return -1;
+
+        int n = Math.min(length, buffer.remaining());
+        buffer.get(bytes, offset, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/*
+Funzione di astrazione:
+    f(e) = <sequence, timestamp, type, user, target, hash, payload> -->
+    dove sequence è la posizione della modifica nel ChangeLog, user l'utente che l'ha eseguita, target l'utente con cui il dato
+    è stato condiviso, hash l'hash del dato non cifrato e payload il contenuto opaco della modifica (Vedi ChangeType)
+
+Invariante di rappresentazione:
+    sequence >= 1 && type != null && user != null &&
+    (target != null <=> type == ELEMENT_SHARED) && (hash == null <=> type == USER_CREATED) &&
+    (payload == null <=> type == ELEMENT_REMOVED)
+*/
+
+//Modifica di una collezione (Immutabile). Il contenuto non viene mai decifrato: è lo stesso stato scritto nell'archivio (Vedi LogStore)
+public final class ChangeEvent {
+    private final long sequence;
+    private final long timestamp;
+    private final ChangeType type;
+    private final String user;
+    private final String target;
+    private final byte[] hash;
+    private final byte[] payload;
+
+    ChangeEvent(long sequence, long timestamp, ChangeType type, String user, String target, byte[] hash, byte[] payload) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.type = type;
+        this.user = user;
+        this.target = target;
+        this.hash = hash;
+        this.payload = payload;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna la sequenza della modifica (Crescente e senza buchi a partire da 1)
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna l'istante della modifica in millisecondi (System.currentTimeMillis)
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public ChangeType getType() {
+        return type;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna l'utente che ha eseguito la modifica (Il nuovo utente per USER_CREATED)
+     */
+    public String getUser() {
+        return user;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna l'utente con cui il dato è stato condiviso, null se la modifica non è ELEMENT_SHARED
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna una copia dell'hash del dato non cifrato, null per USER_CREATED
+     */
+    public byte[] getHash() {
+        return hash == null ? null : hash.clone();
+    }
+
+    /*
+     *   OVERVIEW: Ritorna una vista in sola lettura del contenuto della modifica (Vedi ChangeType), null per ELEMENT_REMOVED
+     */
+    public ByteBuffer getPayload() {
+        return payload == null ? null : ByteBuffer.wrap(payload).asReadOnlyBuffer();
+    }
+
+    /*
+     *   OVERVIEW: Scrive la modifica (Ad esempio in un file o verso un processo di replica)
+     *   REQUIRES: out != null
+     *   MODIFIES: out
+     *   EFFECTS: Scrive in out tutto il necessario per ricostruire la modifica con readFrom
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente (Unchecked)
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeLong(sequence);
+        out.writeLong(timestamp);
+        out.writeByte(type.ordinal());
+        out.writeUTF(user);
+        out.writeBoolean(target != null);
+        if(target != null)
+            out.writeUTF(target);
+        writeBytes(out, hash);
+        writeBytes(out, payload);
+    }
+
+    /*
+     *   OVERVIEW: Ricostruisce una modifica scritta con writeTo
+     *   REQUIRES: in != null
+     *   MODIFIES:
+     *   EFFECTS: Ritorna la modifica letta da in
+     *   THROWS:
+     *      IOException, quando i dati non sono validi (Unchecked)
+     */
+    public static ChangeEvent readFrom(DataInput in) throws IOException {
+        long sequence = in.readLong();
+        long timestamp = in.readLong();
+        int ordinal = in.readUnsignedByte();
+        if(sequence < 1 || ordinal >= ChangeType.values().length)
+            throw new IOException("Modifica non valida");
+
+        ChangeType type = ChangeType.values()[ordinal];
+        String user = in.readUTF();
+        String target = in.readBoolean() ? in.readUTF() : null;
+        return new ChangeEvent(sequence, timestamp, type, user, target, readBytes(in), readBytes(in));
+    }
+
+    private static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+        out.writeInt(bytes == null ? -1 : bytes.length);
+        if(bytes != null)
+            out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInput in) throws IOException {
+        int length = in.readInt();
+        if(length < -1)
+            throw new IOException("Lunghezza non valida: " + length);
+        if(length == -1)
+            return null;
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeEvent[" + sequence + ", " + type + ", user=" + user
+                + (target != null ? ", target=" + target : "")
+                + (hash != null ? ", hash=" + Base64.getEncoder().encodeToString(hash).substring(0, 8) : "")
+                + (payload != null ? ", payload=" + payload.length + " byte" : "") + "]";
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+//Consumatore delle modifiche di una collezione (Vedi ChangeLog.subscribe). Viene chiamato da un solo thread, in ordine di sequenza
+public interface ChangeListener {
+    /*
+     *   OVERVIEW: Riceve la modifica successiva
+     *   REQUIRES: event != null
+     *   MODIFIES:
+     *   EFFECTS: Elabora event. Un'eccezione termina la sottoscrizione (Vedi ChangeLog.Subscription.getFailure)
+     */
+    void onChange(ChangeEvent event);
+
+    /*
+     *   OVERVIEW: Notifica che il consumatore è rimasto indietro oltre la capacità del ChangeLog: la sottoscrizione termina
+     *   REQUIRES:
+     *   MODIFIES:
+     *   EFFECTS: Non fa nulla. firstSequence è la prima sequenza ancora disponibile
+     */
+    default void onTruncated(long firstSequence) {
+    }
+}
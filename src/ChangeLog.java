@@ -0,0 +1,277 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+Funzione di astrazione:
+    f(c) = <{event_firstSequence,...,event_(nextSequence-1)}> -->
+    dove event_s è la modifica con sequenza s, nell'ordine in cui le modifiche sono state applicate alla collezione
+
+Invariante di rappresentazione:
+    events != null && events.length == capacity && capacity > 0 &&
+    1 <= firstSequence <= nextSequence && nextSequence - firstSequence <= capacity &&
+    forall(s. firstSequence <= s < nextSequence) => (events[(s - 1) % capacity].getSequence() == s)
+*/
+
+/*
+ *   OVERVIEW: Flusso ordinato delle modifiche di una collezione (Change data capture, Vedi setChangeLog delle collezioni).
+ *             Ogni modifica riceve una sequenza crescente e senza buchi, assegnata mentre la collezione applica la modifica:
+ *             l'ordine delle sequenze è quello in cui le modifiche sono avvenute. Vengono mantenute in memoria le ultime capacity modifiche.
+ *             I consumatori leggono a partire da una sequenza (read, await) oppure si iscrivono da una sequenza (subscribe) e ricevono
+ *             le modifiche già presenti e poi quelle nuove. Un consumatore rimasto indietro oltre la capacità riceve ChangeLogTruncatedException
+ *             e deve ripartire da uno snapshot. Tutte le operazioni sono thread-safe.
+ */
+public final class ChangeLog {
+    public static final int DEFAULT_CAPACITY = 65536;
+
+    //Modifiche consegnate in un solo passo a una sottoscrizione
+    private static final int SUBSCRIPTION_BATCH = 256;
+
+    private final int capacity;
+    private final ChangeEvent[] events;
+    private long firstSequence = 1;
+    private long nextSequence = 1;
+
+    /*
+     *   OVERVIEW: Crea un flusso vuoto con la capacità predefinita
+     */
+    public ChangeLog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /*
+     *   OVERVIEW: Crea un flusso vuoto che mantiene le ultime capacity modifiche
+     *   REQUIRES: capacity > 0
+     *   MODIFIES: this
+     *   EFFECTS: Crea un flusso vuoto: la prima modifica avrà sequenza 1
+     *   THROWS:
+     *      IllegalArgumentException, quando capacity <= 0 (Unchecked)
+     */
+    public ChangeLog(int capacity) throws IllegalArgumentException {
+        if(capacity <= 0)
+            throw new IllegalArgumentException("capacity deve essere > 0");
+
+        this.capacity = capacity;
+        this.events = new ChangeEvent[capacity];
+    }
+
+    //Scrive il contenuto di una modifica (Ad esempio SecureDataInfo::writeTo)
+    interface PayloadWriter {
+        void writeTo(DataOutput out) throws IOException;
+    }
+
+    /*
+     *   OVERVIEW: Aggiunge una modifica
+     *   REQUIRES: type, user != null, la modifica è già stata applicata alla collezione e il chiamante impedisce modifiche concorrenti
+     *             dello stesso dato o utente (Così l'ordine delle sequenze è quello delle modifiche)
+     *   MODIFIES: this
+     *   EFFECTS: Aggiunge la modifica con la sequenza successiva, scrivendone il contenuto con payload (Nessun contenuto se payload == null),
+     *            risveglia i consumatori in attesa e ritorna la modifica. Se il flusso è pieno la modifica più vecchia viene scartata
+     */
+    ChangeEvent append(ChangeType type, String user, String target, byte[] hash, PayloadWriter payload) {
+        byte[] bytes = null;
+        if(payload != null) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            try {
+                payload.writeTo(new DataOutputStream(buffer));
+            } catch(IOException e) {
+                //Scrittura in memoria
+                throw new UncheckedIOException(e);
+            }
+            bytes = buffer.toByteArray();
+        }
+
+        synchronized(this) {
+            long sequence = nextSequence++;
+            ChangeEvent event = new ChangeEvent(sequence, System.currentTimeMillis(), type, user, target, hash, bytes);
+            events[index(sequence)] = event;
+            if(nextSequence - firstSequence > capacity)
+                firstSequence++;
+            notifyAll();
+            return event;
+        }
+    }
+
+    /*
+     *   OVERVIEW: Legge le modifiche a partire da una sequenza
+     *   REQUIRES: fromSequence >= 1, max > 0
+     *   MODIFIES:
+     *   EFFECTS: Ritorna al massimo max modifiche a partire da fromSequence, in ordine (Vuota se non ce ne sono ancora)
+     *   THROWS:
+     *      ChangeLogTruncatedException, quando la modifica fromSequence è già stata scartata (Checked)
+     *      IllegalArgumentException, quando fromSequence < 1 o max <= 0 (Unchecked)
+     */
+    public synchronized List<ChangeEvent> read(long fromSequence, int max) throws ChangeLogTruncatedException, IllegalArgumentException {
+        if(fromSequence < 1 || max <= 0)
+            throw new IllegalArgumentException("fromSequence deve essere >= 1 e max > 0");
+
+        if(fromSequence < firstSequence)
+            throw new ChangeLogTruncatedException("La modifica " + fromSequence + " non è più disponibile (Prima disponibile: " + firstSequence + ")");
+
+        long end = Math.min(nextSequence, fromSequence + max);
+        List<ChangeEvent> result = new ArrayList<>((int) Math.max(0, end - fromSequence));
+        for(long sequence = fromSequence; sequence < end; sequence++)
+            result.add(events[index(sequence)]);
+        return result;
+    }
+
+    /*
+     *   OVERVIEW: Come read, attendendo fino a timeoutMillis millisecondi se non ci sono ancora modifiche a partire da fromSequence
+     *   THROWS:
+     *      ChangeLogTruncatedException, quando la modifica fromSequence è già stata scartata (Checked)
+     *      InterruptedException, quando il thread viene interrotto durante l'attesa (Checked)
+     *      IllegalArgumentException, quando fromSequence < 1, max <= 0 o timeoutMillis < 0 (Unchecked)
+     */
+    public synchronized List<ChangeEvent> await(long fromSequence, int max, long timeoutMillis) throws ChangeLogTruncatedException, InterruptedException, IllegalArgumentException {
+        if(timeoutMillis < 0)
+            throw new IllegalArgumentException("timeoutMillis deve essere >= 0");
+
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while(nextSequence <= fromSequence) {
+            long remaining = deadline - System.currentTimeMillis();
+            if(remaining <= 0)
+                break;
+            wait(remaining);
+        }
+        return read(fromSequence, max);
+    }
+
+    /*
+     *   OVERVIEW: Iscrive un consumatore a partire da una sequenza
+     *   REQUIRES: fromSequence >= 1, listener != null
+     *   MODIFIES: this
+     *   EFFECTS: Avvia un thread (daemon) che consegna a listener, in ordine, le modifiche da fromSequence in poi: prima quelle già presenti,
+     *            poi quelle nuove man mano che vengono aggiunte. Ritorna la sottoscrizione, da chiudere quando non serve più
+     *   THROWS:
+     *      ChangeLogTruncatedException, quando la modifica fromSequence è già stata scartata (Checked)
+     *      IllegalArgumentException, quando fromSequence < 1 (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public Subscription subscribe(long fromSequence, ChangeListener listener) throws ChangeLogTruncatedException, IllegalArgumentException {
+        if(listener == null)
+            throw new NullPointerException();
+
+        read(fromSequence, 1);
+        Subscription subscription = new Subscription(fromSequence, listener);
+        subscription.thread.start();
+        return subscription;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna la sequenza della modifica più vecchia ancora disponibile
+     */
+    public synchronized long getFirstSequence() {
+        return firstSequence;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna la sequenza che avrà la prossima modifica (Ultima sequenza + 1)
+     */
+    public synchronized long getNextSequence() {
+        return nextSequence;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private int index(long sequence) {
+        return (int) ((sequence - 1) % capacity);
+    }
+
+    /*
+     *   OVERVIEW: Sottoscrizione di un consumatore (Vedi subscribe). Termina con close, quando il consumatore rimane indietro oltre la capacità
+     *             del flusso (ChangeListener.onTruncated) oppure quando il consumatore lancia un'eccezione (getFailure)
+     */
+    public final class Subscription implements AutoCloseable {
+        private final ChangeListener listener;
+        private final Thread thread;
+        private volatile long nextSequence;
+        private volatile boolean closed;
+        private volatile RuntimeException failure;
+
+        private Subscription(long fromSequence, ChangeListener listener) {
+            this.listener = listener;
+            this.nextSequence = fromSequence;
+            this.thread = new Thread(this::deliver, "ChangeLog-subscription");
+            this.thread.setDaemon(true);
+        }
+
+        private void deliver() {
+            try {
+                while(!closed) {
+                    List<ChangeEvent> batch = await(nextSequence, SUBSCRIPTION_BATCH, 1000);
+                    for(ChangeEvent event : batch) {
+                        if(closed)
+                            return;
+                        listener.onChange(event);
+                        nextSequence = event.getSequence() + 1;
+                    }
+                }
+            } catch(ChangeLogTruncatedException e) {
+                closed = true;
+                listener.onTruncated(getFirstSequence());
+            } catch(InterruptedException e) {
+                //Chiusura della sottoscrizione
+            } catch(RuntimeException e) {
+                failure = e;
+            } finally {
+                closed = true;
+            }
+        }
+
+        /*
+         *   OVERVIEW: Ritorna la sequenza della prossima modifica da consegnare (Il consumatore ha ricevuto tutte quelle precedenti)
+         */
+        public long getNextSequence() {
+            return nextSequence;
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+
+        /*
+         *   OVERVIEW: Ritorna l'eccezione lanciata dal consumatore, null se non ce n'è stata
+         */
+        public RuntimeException getFailure() {
+            return failure;
+        }
+
+        /*
+         *   OVERVIEW: Termina la sottoscrizione
+         *   REQUIRES:
+         *   MODIFIES: this
+         *   EFFECTS: Interrompe la consegna e, se chiamato da un altro thread, attende che la modifica in consegna sia terminata
+         */
+        @Override
+        public void close() {
+            closed = true;
+            if(Thread.currentThread() == thread)
+                return;
+
+            thread.interrupt();
+            boolean interrupted = false;
+            while(thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch(InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if(interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,13 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+//Le modifiche richieste non sono più nel ChangeLog (Il consumatore deve ripartire da uno snapshot)
+public class ChangeLogTruncatedException extends Exception {
+    public ChangeLogTruncatedException(String message) {
+        super(message);
+    }
+}
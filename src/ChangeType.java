@@ -0,0 +1,20 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+//Tipi di modifica di una collezione registrati nel ChangeLog (Vedi ChangeEvent)
+public enum ChangeType {
+    //Nuovo utente: il contenuto è la password cifrata seguita dal portachiavi
+    USER_CREATED,
+    //Nuovo dato: il contenuto è lo stato del dato così com'è (Vedi SecureDataInfo.writeTo)
+    ELEMENT_PUT,
+    //Dato rimosso per tutti i suoi owners: nessun contenuto, il dato è identificato dall'utente e dall'hash
+    ELEMENT_REMOVED,
+    //Copia di un dato: il contenuto è lo stato della copia
+    ELEMENT_COPIED,
+    //Dato condiviso con un altro utente (target): il contenuto è lo stato del dato, ora pubblico
+    ELEMENT_SHARED
+}
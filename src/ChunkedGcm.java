@@ -0,0 +1,279 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/*
+ *   Cifratura AES-GCM a blocchi indipendenti dei dati grandi.
+ *
+ *   Il dato codificato viene diviso in blocchi di chunkSize byte (l'ultimo può essere più corto, ma non vuoto se il dato non è vuoto).
+ *   Ogni blocco i viene cifrato separatamente con la chiave del dato e:
+ *      IV    = IV del dato con gli ultimi 4 byte in XOR con i (Mai ripetuto per la stessa chiave)
+ *      AAD   = i (4 byte) seguito da 1 se è l'ultimo blocco, altrimenti 0
+ *   Il dato cifrato è la concatenazione dei blocchi cifrati, ognuno seguito dal proprio tag di 16 byte.
+ *   L'AAD impedisce di riordinare, rimuovere o troncare i blocchi senza che la decifratura fallisca.
+ *   Cifratura e decifratura usano un buffer di un solo blocco, qualunque sia la dimensione del dato.
+ */
+final class ChunkedGcm {
+    //Dimensione predefinita di un blocco in chiaro
+    static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    static final int TAG_LENGTH = 16;
+
+    private ChunkedGcm() {
+    }
+
+    /*
+     *   OVERVIEW: Ritorna la lunghezza del dato cifrato a blocchi di un dato in chiaro lungo plainLength
+     */
+    static long encryptedLength(long plainLength, int chunkSize) {
+        long chunks = Math.max(1, (plainLength + chunkSize - 1) / chunkSize);
+        return plainLength + chunks * TAG_LENGTH;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna la lunghezza del dato in chiaro di un dato cifrato a blocchi
+     *   REQUIRES: chunkSize > 0
+     *   MODIFIES:
+     *   EFFECTS: Ritorna la lunghezza del dato in chiaro di un dato cifrato lungo encryptedLength
+     *   THROWS:
+     *      IOException, quando encryptedLength non è la lunghezza di un dato cifrato a blocchi valido (Unchecked)
+     */
+    static long plainLength(long encryptedLength, int chunkSize) throws IOException {
+        long fullChunk = (long) chunkSize + TAG_LENGTH;
+        long chunks = (encryptedLength + fullChunk - 1) / fullChunk;
+        long last = encryptedLength - (chunks - 1) * fullChunk;
+        if(chunks < 1 || last < TAG_LENGTH || (last == TAG_LENGTH && chunks > 1))
+            throw new IOException("Lunghezza del dato cifrato a blocchi non valida: " + encryptedLength);
+
+        return encryptedLength - chunks * TAG_LENGTH;
+    }
+
+    /*
+     *   OVERVIEW: Cifra a blocchi length byte di plain a partire da offset
+     *   REQUIRES: key, iv, plain != null, iv.length == 12, chunkSize > 0, encryptedLength(length, chunkSize) <= Integer.MAX_VALUE
+     *   MODIFIES:
+     *   EFFECTS: Ritorna il dato cifrato a blocchi. L'unico array allocato è quello del risultato, di dimensione esatta
+     *   THROWS:
+     *      NoSuchAlgorithmException, quando viene chiesto di usare un algoritmo di crittografia non presente nell'ambiente (Unchecked)
+     *      IllegalArgumentException, quando il dato è troppo grande per un array (Unchecked)
+     *      IllegalStateException, quando il cifrario AES-GCM non è utilizzabile nell'ambiente (Unchecked)
+     */
+    static byte[] encrypt(SecretKeySpec key, byte[] iv, byte[] plain, int offset, int length, int chunkSize) throws NoSuchAlgorithmException, IllegalArgumentException {
+        long total = encryptedLength(length, chunkSize);
+        if(total > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("Dato troppo grande: " + length + " byte");
+
+        byte[] output = new byte[(int) total];
+        try {
+            Cipher cipher = CryptoEngine.aesGcm();
+            int outputOffset = 0;
+            int index = 0;
+            int position = 0;
+            do {
+                int size = Math.min(chunkSize, length - position);
+                boolean last = position + size == length;
+                init(cipher, Cipher.ENCRYPT_MODE, key, iv, index, last);
+                outputOffset += cipher.doFinal(plain, offset + position, size, output, outputOffset);
+                position += size;
+                index++;
+            } while(position < length);
+        } catch(NoSuchAlgorithmException e) {
+            throw e;
+        } catch(GeneralSecurityException e) {
+            throw new IllegalStateException("Impossibile cifrare il dato", e);
+        }
+        return output;
+    }
+
+    /*
+     *   OVERVIEW: Decifra tutto un dato cifrato a blocchi
+     *   REQUIRES: key, iv, ciphertext != null, chunkSize > 0
+     *   MODIFIES:
+     *   EFFECTS: Ritorna il dato in chiaro, letto da ciphertext senza modificarne la posizione (Anche un file mappato in memoria)
+     *            Oltre al risultato viene allocato solo il cifrario: ogni blocco viene decifrato direttamente nel risultato
+     *   THROWS:
+     *      NoSuchAlgorithmException, quando viene chiesto di usare un algoritmo di crittografia non presente nell'ambiente (Unchecked)
+     *      NoSuchPaddingException, quando viene chiesto di usare un particolare meccanismo di padding non presente nell'ambiente (Unchecked)
+     *      AEADBadTagException, quando un blocco è stato alterato, riordinato o rimosso (Unchecked)
+     *      IOException, quando la lunghezza del dato cifrato non è valida (Unchecked)
+     *      IllegalStateException, quando il cifrario AES-GCM non è utilizzabile nell'ambiente (Unchecked)
+     */
+    static byte[] decrypt(SecretKeySpec key, byte[] iv, ByteBuffer ciphertext, int chunkSize) throws NoSuchAlgorithmException, NoSuchPaddingException, AEADBadTagException, IOException {
+        ByteBuffer input = ciphertext.duplicate();
+        long plainLength = plainLength(input.remaining(), chunkSize);
+        byte[] output = new byte[(int) plainLength];
+        ByteBuffer target = ByteBuffer.wrap(output);
+        try {
+            Cipher cipher = CryptoEngine.aesGcm();
+            int index = 0;
+            while(input.hasRemaining()) {
+                decryptChunk(cipher, key, iv, index++, input, target, chunkSize);
+            }
+        } catch(AEADBadTagException e) {
+            Arrays.fill(output, (byte) 0);
+            throw e;
+        }
+        return output;
+    }
+
+    /*
+     *   OVERVIEW: Apre uno stream che decifra un dato cifrato a blocchi un blocco alla volta
+     *   REQUIRES: key, iv, ciphertext != null, chunkSize > 0, skip >= 0
+     *   MODIFIES:
+     *   EFFECTS: Ritorna uno stream dei byte in chiaro a partire da skip. Lo stream usa un buffer di un solo blocco, che viene azzerato
+     *            alla chiusura. Un blocco alterato viene rilevato prima che i suoi byte siano letti: read lancia IOException
+     *   THROWS:
+     *      NoSuchAlgorithmException, quando viene chiesto di usare un algoritmo di crittografia non presente nell'ambiente (Unchecked)
+     *      NoSuchPaddingException, quando viene chiesto di usare un particolare meccanismo di padding non presente nell'ambiente (Unchecked)
+     *      IOException, quando la lunghezza del dato cifrato non è valida (Unchecked)
+     */
+    static InputStream openStream(SecretKeySpec key, byte[] iv, ByteBuffer ciphertext, int chunkSize, long skip) throws NoSuchAlgorithmException, NoSuchPaddingException, IOException {
+        ByteBuffer input = ciphertext.duplicate();
+        plainLength(input.remaining(), chunkSize);
+        ChunkStream stream = new ChunkStream(key, iv, input, chunkSize, Cipher.getInstance(CryptoEngine.AES_GCM));
+        stream.skipFully(skip);
+        return stream;
+    }
+
+    //Decifra il prossimo blocco di input in output
+    private static void decryptChunk(Cipher cipher, SecretKeySpec key, byte[] iv, int index, ByteBuffer input, ByteBuffer output, int chunkSize) throws AEADBadTagException {
+        int size = (int) Math.min((long) chunkSize + TAG_LENGTH, input.remaining());
+        boolean last = size == input.remaining();
+        ByteBuffer chunk = input.duplicate();
+        chunk.limit(chunk.position() + size);
+        try {
+            init(cipher, Cipher.DECRYPT_MODE, key, iv, index, last);
+            cipher.doFinal(chunk, output);
+        } catch(AEADBadTagException e) {
+            throw e;
+        } catch(ShortBufferException e) {
+            //Non può accadere: output ha spazio per un blocco intero
+            throw new IllegalStateException(e);
+        } catch(GeneralSecurityException e) {
+            throw new IllegalStateException("Impossibile decifrare il dato", e);
+        }
+        input.position(input.position() + size);
+    }
+
+    private static void init(Cipher cipher, int mode, SecretKeySpec key, byte[] iv, int index, boolean last) throws GeneralSecurityException {
+        byte[] chunkIv = Arrays.copyOf(iv, iv.length);
+        chunkIv[8] ^= (byte) (index >>> 24);
+        chunkIv[9] ^= (byte) (index >>> 16);
+        chunkIv[10] ^= (byte) (index >>> 8);
+        chunkIv[11] ^= (byte) index;
+        cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH * 8, chunkIv));
+        cipher.updateAAD(new byte[] { (byte) (index >>> 24), (byte) (index >>> 16), (byte) (index >>> 8), (byte) index, (byte) (last ? 1 : 0) });
+    }
+
+    //Stream che decifra un blocco alla volta (Non thread-safe, come ogni InputStream)
+    private static final class ChunkStream extends InputStream {
+        private final SecretKeySpec key;
+        private final byte[] iv;
+        private final ByteBuffer input;
+        private final int chunkSize;
+        private final Cipher cipher;
+        private final ByteBuffer plain;
+        private int index;
+        private boolean closed;
+
+        private ChunkStream(SecretKeySpec key, byte[] iv, ByteBuffer input, int chunkSize, Cipher cipher) {
+            this.key = key;
+            this.iv = Arrays.copyOf(iv, iv.length);
+            this.input = input;
+            this.chunkSize = chunkSize;
+            this.cipher = cipher;
+            //Spazio per il tag: alcuni provider scrivono il blocco solo se l'output può contenere anche il tag
+            this.plain = ByteBuffer.allocate(chunkSize + TAG_LENGTH);
+            this.plain.limit(0);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if(!fill())
+                return -1;
+            return plain.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(off < 0 || len < 0 || len > b.length - off)
+                throw new IndexOutOfBoundsException();
+            if(len == 0)
+                return 0;
+            if(!fill())
+                return -1;
+
+            int count = Math.min(len, plain.remaining());
+            plain.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while(skipped < n && fill()) {
+                int count = (int) Math.min(n - skipped, plain.remaining());
+                plain.position(plain.position() + count);
+                skipped += count;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return closed ? 0 : plain.remaining();
+        }
+
+        @Override
+        public void close() {
+            if(closed)
+                return;
+
+            closed = true;
+            Arrays.fill(plain.array(), (byte) 0);
+            plain.limit(0);
+        }
+
+        private void skipFully(long n) throws IOException {
+            if(skip(n) < n)
+                throw new IOException("Il dato è più corto di " + n + " byte");
+        }
+
+        //Decifra il prossimo blocco se quello corrente è stato letto tutto. Ritorna false alla fine del dato
+        private boolean fill() throws IOException {
+            if(closed)
+                throw new IOException("Stream chiuso");
+
+            while(!plain.hasRemaining()) {
+                if(!input.hasRemaining())
+                    return false;
+
+                plain.clear();
+                try {
+                    decryptChunk(cipher, key, iv, index++, input, plain, chunkSize);
+                } catch(AEADBadTagException e) {
+                    close();
+                    throw new IOException("Il blocco " + (index - 1) + " del dato cifrato non è valido", e);
+                }
+                plain.flip();
+            }
+            return true;
+        }
+    }
+}
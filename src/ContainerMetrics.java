@@ -0,0 +1,264 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+Funzione di astrazione:
+    f(m) = <name, {(op, LatencyHistogram, failures)0,...,(op, LatencyHistogram, failures)n}, {(phase, LatencyHistogram)}, {(reason, count)}> -->
+    dove per ogni operazione op sono registrate le durate e il numero di fallimenti, per ogni fase interna le durate
+    e per ogni causa di fallimento (nome semplice della classe dell'eccezione) il numero di occorrenze
+
+Invariante di rappresentazione:
+    name != null && operations != null && failures != null && reasons != null &&
+    phases != null && forall(p appartenente a OperationPhase) => phases.get(p) != null
+*/
+
+//Metriche di una collezione: contatori, istogrammi di latenza per operazione e per fase, cause di fallimento. Esportabili tramite JMX o MetricsSink
+public final class ContainerMetrics {
+    //Dominio JMX delle metriche (ObjectName: SecureDataContainer:type=Metrics,name=<name>)
+    public static final String JMX_DOMAIN = "SecureDataContainer";
+
+    private final String name;
+    private final ConcurrentHashMap<String, LatencyHistogram> operations = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> failures = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> reasons = new ConcurrentHashMap<>();
+    private final EnumMap<OperationPhase, LatencyHistogram> phases = new EnumMap<>(OperationPhase.class);
+
+    private ObjectName registeredName;
+
+    /*
+     *   OVERVIEW: Crea metriche vuote con il nome fornito
+     *   REQUIRES: name != null, name != ""
+     *   MODIFIES: this
+     *   EFFECTS: Crea metriche vuote identificate da name (Nei report e in JMX)
+     *   THROWS:
+     *      IllegalArgumentException, quando name non contiene almeno un carattere (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public ContainerMetrics(String name) throws IllegalArgumentException {
+        if(name == null)
+            throw new NullPointerException();
+
+        if(name.equals(""))
+            throw new IllegalArgumentException("name deve contenere almeno un carattere");
+
+        this.name = name;
+        for(OperationPhase phase : OperationPhase.values())
+            phases.put(phase, new LatencyHistogram());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /*
+     *   OVERVIEW: Registra un'operazione terminata
+     *   REQUIRES: operation != null
+     *   MODIFIES: this
+     *   EFFECTS: Registra la durata di operation e, se failure != null, il fallimento e la sua causa
+     */
+    void recordOperation(String operation, long nanos, Throwable failure) {
+        LatencyHistogram histogram = operations.get(operation);
+        if(histogram == null)
+            histogram = operations.computeIfAbsent(operation, k -> new LatencyHistogram());
+        histogram.record(nanos);
+
+        if(failure != null) {
+            counter(failures, operation).increment();
+            counter(reasons, failure.getClass().getSimpleName()).increment();
+        }
+    }
+
+    /*
+     *   OVERVIEW: Registra la durata di una fase interna (Vedi Tracing)
+     */
+    void recordPhase(OperationPhase phase, long nanos) {
+        phases.get(phase).record(nanos);
+    }
+
+    private static LongAdder counter(ConcurrentHashMap<String, LongAdder> counters, String key) {
+        LongAdder counter = counters.get(key);
+        return counter != null ? counter : counters.computeIfAbsent(key, k -> new LongAdder());
+    }
+
+    /*
+     *   OVERVIEW: Ritorna l'istogramma delle durate dell'operazione, null se l'operazione non è mai stata eseguita
+     */
+    public LatencyHistogram getOperation(String operation) {
+        return operations.get(operation);
+    }
+
+    /*
+     *   OVERVIEW: Ritorna i nomi delle operazioni eseguite almeno una volta, in ordine alfabetico
+     */
+    public SortedSet<String> getOperationNames() {
+        return new TreeSet<>(operations.keySet());
+    }
+
+    /*
+     *   OVERVIEW: Ritorna il numero di esecuzioni fallite dell'operazione
+     */
+    public long getFailureCount(String operation) {
+        LongAdder counter = failures.get(operation);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /*
+     *   OVERVIEW: Ritorna il numero di fallimenti per causa (Nome semplice della classe dell'eccezione, ad esempio InvalidAuthenticationException)
+     */
+    public SortedMap<String, Long> getFailureReasons() {
+        SortedMap<String, Long> result = new TreeMap<>();
+        for(Map.Entry<String, LongAdder> entry : reasons.entrySet())
+            result.put(entry.getKey(), entry.getValue().sum());
+        return result;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna l'istogramma delle durate della fase
+     */
+    public LatencyHistogram getPhase(OperationPhase phase) {
+        if(phase == null)
+            throw new NullPointerException();
+
+        return phases.get(phase);
+    }
+
+    /*
+     *   OVERVIEW: Ritorna un'istantanea di tutte le metriche
+     *   REQUIRES:
+     *   MODIFIES:
+     *   EFFECTS: Ritorna una mappa non modificabile, ordinata per nome, con:
+     *              operation.<op>.count, operation.<op>.failures, operation.<op>.mean_us, .p50_us, .p99_us, .p999_us, .max_us
+     *              phase.<fase>.count e le stesse latenze per ogni fase eseguita almeno una volta
+     *              failure.<causa> per ogni causa di fallimento
+     *            Le latenze sono in microsecondi (Vedi LatencyHistogram.getPercentileNanos per la precisione)
+     */
+    public Map<String, Number> snapshot() {
+        SortedMap<String, Number> result = new TreeMap<>();
+        for(Map.Entry<String, LatencyHistogram> entry : operations.entrySet()) {
+            String prefix = "operation." + entry.getKey();
+            latencies(result, prefix, entry.getValue());
+            result.put(prefix + ".failures", getFailureCount(entry.getKey()));
+        }
+        for(Map.Entry<OperationPhase, LatencyHistogram> entry : phases.entrySet()) {
+            if(entry.getValue().getCount() > 0)
+                latencies(result, "phase." + entry.getKey().getName(), entry.getValue());
+        }
+        for(Map.Entry<String, Long> entry : getFailureReasons().entrySet())
+            result.put("failure." + entry.getKey(), entry.getValue());
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static void latencies(Map<String, Number> result, String prefix, LatencyHistogram histogram) {
+        result.put(prefix + ".count", histogram.getCount());
+        result.put(prefix + ".mean_us", histogram.getMeanNanos() / 1000.0);
+        result.put(prefix + ".p50_us", histogram.getPercentileNanos(0.50) / 1000.0);
+        result.put(prefix + ".p99_us", histogram.getPercentileNanos(0.99) / 1000.0);
+        result.put(prefix + ".p999_us", histogram.getPercentileNanos(0.999) / 1000.0);
+        result.put(prefix + ".max_us", histogram.getMaxNanos() / 1000.0);
+    }
+
+    /*
+     *   OVERVIEW: Invia un'istantanea delle metriche a sink
+     *   REQUIRES: sink != null
+     *   MODIFIES:
+     *   EFFECTS: Chiama sink.report(name, snapshot()). Da chiamare periodicamente (Ad esempio con uno ScheduledExecutorService)
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public void publishTo(MetricsSink sink) {
+        if(sink == null)
+            throw new NullPointerException();
+
+        sink.report(name, snapshot());
+    }
+
+    /*
+     *   OVERVIEW: Espone le metriche tramite JMX
+     *   REQUIRES:
+     *   MODIFIES: this
+     *   EFFECTS: Registra nel platform MBeanServer un MBean SecureDataContainer:type=Metrics,name=<name> con un attributo
+     *            di sola lettura per ogni metrica di snapshot() (Letto al momento della richiesta). Ritorna il nome dell'MBean.
+     *            Se le metriche sono già registrate ritorna il nome esistente
+     *   THROWS:
+     *      JMException, quando esiste già un MBean con lo stesso nome o la registrazione fallisce (Checked)
+     */
+    public synchronized ObjectName registerMBean() throws JMException {
+        if(registeredName != null)
+            return registeredName;
+
+        ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=Metrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), objectName);
+        registeredName = objectName;
+        return objectName;
+    }
+
+    /*
+     *   OVERVIEW: Rimuove le metriche da JMX (Non fa nulla se non sono registrate)
+     *   THROWS:
+     *      JMException, quando la rimozione fallisce (Checked)
+     */
+    public synchronized void unregisterMBean() throws JMException {
+        if(registeredName == null)
+            return;
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+        } catch(InstanceNotFoundException e) {
+            //Già rimosso da altri
+        }
+        registeredName = null;
+    }
+
+    //MBean dinamico: gli attributi sono le metriche presenti in snapshot() al momento della richiesta
+    private final class MetricsMBean implements DynamicMBean {
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Number value = snapshot().get(attribute);
+            if(value == null)
+                throw new AttributeNotFoundException(attribute);
+            return value;
+        }
+
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Number> snapshot = snapshot();
+            AttributeList list = new AttributeList();
+            for(String attribute : attributes) {
+                Number value = snapshot.get(attribute);
+                if(value != null)
+                    list.add(new Attribute(attribute, value));
+            }
+            return list;
+        }
+
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Le metriche sono di sola lettura: " + attribute.getName());
+        }
+
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        public MBeanInfo getMBeanInfo() {
+            Map<String, Number> snapshot = snapshot();
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[snapshot.size()];
+            int i = 0;
+            for(Map.Entry<String, Number> entry : snapshot.entrySet())
+                attributes[i++] = new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(), entry.getKey(), true, false, false);
+
+            return new MBeanInfo(ContainerMetrics.class.getName(), "Metriche della collezione " + name, attributes, null, null, null);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/*
+Funzione di astrazione:
+    f(cf) = <{(Thread, buffer)0,...,(Thread, buffer)n}> -->
+    dove ogni thread riusa il proprio buffer di codifica per calcolare l'impronta dei dati (Lo stato dell'impronta è nella FingerprintStrategy)
+
+Invariante di rappresentazione:
+    forall(s appartenente a STATE) => (s.buffer != null &&
+        s.buffer.size() == 0 se s.inUse == false && il buffer non contiene byte di un dato già codificato)
+*/
+
+//Calcolo dell'impronta dei dati: unica sorgente delle chiavi di ricerca di tutte le collezioni (Vedi FingerprintStrategy)
+final class ContentFingerprinter {
+    //Oltre questa dimensione il buffer di un thread non viene trattenuto (Un dato molto grande non deve occupare memoria per sempre)
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    private static final ThreadLocal<State> STATE = new ThreadLocal<>();
+
+    private ContentFingerprinter() {
+    }
+
+    /*
+     *   OVERVIEW: Calcola l'impronta SHA-512 di un dato (Vedi fingerprint(value, strategy))
+     */
+    static DataHash fingerprint(Object value) throws IOException, NoSuchAlgorithmException {
+        return fingerprint(value, FingerprintStrategies.sha512());
+    }
+
+    /*
+     *   OVERVIEW: Calcola l'impronta di un dato
+     *   REQUIRES: value, strategy != null
+     *   MODIFIES:
+     *   EFFECTS: Ritorna l'impronta della codifica del dato (Vedi DataCodecs) come DataHash, senza creare oggetti temporanei oltre all'impronta stessa
+     *            (Il buffer di codifica viene riusato dal thread chiamante). I byte codificati vengono azzerati
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente (Unchecked)
+     *      NoSuchAlgorithmException, quando viene chiesto di usare un algoritmo di crittografia non presente nell'ambiente (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    static DataHash fingerprint(Object value, FingerprintStrategy strategy) throws IOException, NoSuchAlgorithmException {
+        if(value == null || strategy == null)
+            throw new NullPointerException();
+
+        State state = acquire();
+        try {
+            DataCodecs.encode(value, state.buffer);
+            return new DataHash(digest(state.buffer.array(), 0, state.buffer.size(), strategy));
+        } finally {
+            release(state);
+        }
+    }
+
+    /*
+     *   OVERVIEW: Calcola l'impronta di un dato già codificato
+     *   REQUIRES: encoded, strategy != null, 0 <= offset, 0 <= length, offset + length <= encoded.length
+     *   MODIFIES:
+     *   EFFECTS: Ritorna l'impronta dei length byte di encoded a partire da offset (Uguale a fingerprint dello stesso dato)
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    static byte[] digest(byte[] encoded, int offset, int length, FingerprintStrategy strategy) {
+        if(encoded == null || strategy == null)
+            throw new NullPointerException();
+
+        long start = Tracing.start();
+        byte[] digest = strategy.fingerprint(encoded, offset, length);
+        Tracing.end(OperationPhase.DIGEST, start);
+        return digest;
+    }
+
+    //Ritorna il buffer del thread, oppure uno nuovo se è già in uso (Un DataCodec che calcola a sua volta un'impronta)
+    private static State acquire() {
+        State state = STATE.get();
+        if(state == null) {
+            state = new State();
+            STATE.set(state);
+        } else if(state.inUse) {
+            return new State();
+        }
+        state.inUse = true;
+        return state;
+    }
+
+    private static void release(State state) {
+        state.buffer.wipe();
+        if(state.buffer.capacity() > MAX_RETAINED_BUFFER)
+            state.buffer = new EncodingBuffer();
+        state.inUse = false;
+    }
+
+    private static final class State {
+        private EncodingBuffer buffer = new EncodingBuffer();
+        private boolean inUse;
+    }
+
+    //Buffer di codifica che permette di leggere i byte senza copiarli e di azzerarli dopo l'uso
+    private static final class EncodingBuffer extends ByteArrayOutputStream {
+        EncodingBuffer() {
+            super(256);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+
+        //Il dato codificato non deve restare in memoria dopo il calcolo dell'hash
+        void wipe() {
+            Arrays.fill(buf, 0, count, (byte) 0);
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+Funzione di astrazione:
+    f(c) = <{(hash, value, references)0,...,(hash, value, references)n}> -->
+    dove value è l'unica copia condivisa dei dati pubblici con impronta hash e references il numero di dati che la usano
+
+Invariante di rappresentazione:
+    contents != null && forall(e appartenente a contents.values()) => (e.value != null && e.references > 0)
+*/
+
+/*
+ *   OVERVIEW: Archivio indirizzato per contenuto dei dati pubblici (in chiaro) di una collezione.
+ *             Dati pubblici con la stessa impronta e lo stesso contenuto condividono un'unica istanza del valore, con un contatore
+ *             di riferimenti: l'istanza resta nell'archivio finché l'ultimo dato che la usa non viene rimosso (Vedi SecureDataInfo.internValue).
+ *             I dati cifrati non vengono deduplicati tra utenti diversi: ognuno è cifrato con una chiave derivata dalla chiave master del proprietario.
+ *             Tutte le operazioni sono thread-safe.
+ */
+final class ContentStore {
+    private final ConcurrentHashMap<DataHash, Entry> contents = new ConcurrentHashMap<>();
+
+    /*
+     *   OVERVIEW: Registra un riferimento al valore
+     *   REQUIRES: hash, value != null, hash è l'impronta di value
+     *   MODIFIES: this
+     *   EFFECTS: Se l'archivio contiene un valore uguale a value (Objects.deepEquals) con la stessa impronta, aggiunge un riferimento
+     *            e ritorna l'istanza condivisa. Se l'impronta non è presente, value diventa l'istanza condivisa con un riferimento.
+     *            Se l'impronta è presente con un valore diverso (Collisione, o un tipo senza equals) ritorna value senza registrarlo
+     */
+    Object intern(DataHash hash, Object value) {
+        Object[] shared = new Object[1];
+        contents.compute(hash, (key, entry) -> {
+            if(entry == null) {
+                shared[0] = value;
+                return new Entry(value);
+            }
+            if(entry.value == value || Objects.deepEquals(entry.value, value)) {
+                entry.references++;
+                shared[0] = entry.value;
+            } else {
+                shared[0] = value;
+            }
+            return entry;
+        });
+        return shared[0];
+    }
+
+    /*
+     *   OVERVIEW: Rilascia un riferimento al valore
+     *   REQUIRES: hash, value != null
+     *   MODIFIES: this
+     *   EFFECTS: Se value è l'istanza condivisa per hash rilascia un riferimento e, all'ultimo, rimuove il valore dall'archivio.
+     *            Altrimenti (Valore mai registrato) non fa nulla
+     */
+    void release(DataHash hash, Object value) {
+        contents.computeIfPresent(hash, (key, entry) -> {
+            if(entry.value != value)
+                return entry;
+            return --entry.references > 0 ? entry : null;
+        });
+    }
+
+    /*
+     *   OVERVIEW: Ritorna il numero di riferimenti al valore con impronta hash, 0 se non è presente
+     */
+    int getReferenceCount(DataHash hash) {
+        Entry entry = contents.get(hash);
+        return entry == null ? 0 : entry.references;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna il numero di valori distinti nell'archivio
+     */
+    int size() {
+        return contents.size();
+    }
+
+    //Modificato solo dentro compute/computeIfPresent (Sotto il lock della chiave)
+    private static final class Entry {
+        private final Object value;
+        private volatile int references = 1;
+
+        private Entry(Object value) {
+            this.value = value;
+        }
+    }
+}
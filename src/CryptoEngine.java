@@ -0,0 +1,119 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKeyFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/*
+ *   OVERVIEW: Istanze condivise delle primitive crittografiche usate dalla collezione.
+ *             Cipher, SecretKeyFactory, Mac e MessageDigest non sono thread-safe: ogni thread riceve la propria istanza, creata al primo uso
+ *             e riutilizzata per tutte le operazioni successive (La ricerca del provider avviene una sola volta per thread).
+ *             Il chiamante deve inizializzare l'istanza (init) prima di ogni operazione e non deve conservarla oltre l'operazione
+ *             né passarla ad altri thread. Chi mantiene un cifrario tra più chiamate (Vedi ChunkedGcm.openStream) ne crea uno proprio.
+ *             SecureRandom è thread-safe: un'unica istanza, inizializzata dal seed del sistema operativo, serve tutti i thread.
+ */
+final class CryptoEngine {
+    static final String AES_GCM = "AES/GCM/NoPadding";
+    static final String PBKDF2 = "PBKDF2WithHmacSHA512";
+    static final String HMAC_SHA256 = "HmacSHA256";
+    static final String SHA256 = "SHA-256";
+
+    private static final ThreadLocal<Cipher> ciphers = new ThreadLocal<>();
+    private static final ThreadLocal<SecretKeyFactory> keyFactories = new ThreadLocal<>();
+    private static final ThreadLocal<Mac> macs = new ThreadLocal<>();
+    private static final ThreadLocal<MessageDigest> digests = new ThreadLocal<>();
+
+    //Sorgente casuale condivisa (Creata al primo uso: il seed viene letto una sola volta)
+    private static final class Random {
+        static final SecureRandom INSTANCE = new SecureRandom();
+    }
+
+    private CryptoEngine() {
+    }
+
+    /*
+     *   OVERVIEW: Ritorna il cifrario AES-GCM del thread corrente
+     *   REQUIRES:
+     *   MODIFIES:
+     *   EFFECTS: Ritorna il cifrario AES/GCM/NoPadding del thread corrente, da inizializzare prima dell'uso
+     *   THROWS:
+     *      NoSuchAlgorithmException, quando viene chiesto di usare un algoritmo di crittografia non presente nell'ambiente (Unchecked)
+     *      NoSuchPaddingException, quando viene chiesto di usare un particolare meccanismo di padding non presente nell'ambiente (Unchecked)
+     */
+    static Cipher aesGcm() throws NoSuchAlgorithmException, NoSuchPaddingException {
+        Cipher cipher = ciphers.get();
+        if(cipher == null) {
+            cipher = Cipher.getInstance(AES_GCM);
+            ciphers.set(cipher);
+        }
+        return cipher;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna la SecretKeyFactory PBKDF2-HMAC-SHA512 del thread corrente
+     *   THROWS:
+     *      NoSuchAlgorithmException, quando viene chiesto di usare un algoritmo di crittografia non presente nell'ambiente (Unchecked)
+     */
+    static SecretKeyFactory pbkdf2() throws NoSuchAlgorithmException {
+        SecretKeyFactory secretKeyFactory = keyFactories.get();
+        if(secretKeyFactory == null) {
+            secretKeyFactory = SecretKeyFactory.getInstance(PBKDF2);
+            keyFactories.set(secretKeyFactory);
+        }
+        return secretKeyFactory;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna il Mac HMAC-SHA256 del thread corrente, da inizializzare prima dell'uso
+     *   THROWS:
+     *      NoSuchAlgorithmException, quando viene chiesto di usare un algoritmo di crittografia non presente nell'ambiente (Unchecked)
+     */
+    static Mac hmacSha256() throws NoSuchAlgorithmException {
+        Mac mac = macs.get();
+        if(mac == null) {
+            mac = Mac.getInstance(HMAC_SHA256);
+            macs.set(mac);
+        }
+        return mac;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna il MessageDigest SHA-256 del thread corrente (Senza stato tra le chiamate: digest lo reimposta)
+     *   THROWS:
+     *      NoSuchAlgorithmException, quando viene chiesto di usare un algoritmo di crittografia non presente nell'ambiente (Unchecked)
+     */
+    static MessageDigest sha256() throws NoSuchAlgorithmException {
+        MessageDigest digest = digests.get();
+        if(digest == null) {
+            digest = MessageDigest.getInstance(SHA256);
+            digests.set(digest);
+        }
+        return digest;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna la sorgente casuale condivisa
+     */
+    static SecureRandom random() {
+        return Random.INSTANCE;
+    }
+
+    /*
+     *   OVERVIEW: Riempie bytes di byte casuali
+     *   REQUIRES: bytes != null
+     *   MODIFIES: bytes
+     *   EFFECTS: Scrive in bytes byte casuali della sorgente condivisa
+     */
+    static void nextBytes(byte[] bytes) {
+        Random.INSTANCE.nextBytes(bytes);
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+ *   OVERVIEW: Codifica compatta di un tipo di dato in byte (Vedi DataCodecs per la registrazione)
+ *            La codifica deve essere deterministica: dati uguali (equals) producono gli stessi byte,
+ *            perché i byte vengono usati anche per calcolare l'hash che identifica il dato
+ */
+public interface DataCodec<T> {
+    /*
+     *   OVERVIEW: Ritorna l'etichetta che identifica la codifica
+     *   REQUIRES:
+     *   MODIFIES:
+     *   EFFECTS: Ritorna l'etichetta scritta come primo byte di ogni dato codificato (Le etichette 0-31 sono riservate)
+     *   THROWS:
+     *
+     */
+    public byte getTag();
+
+    /*
+     *   OVERVIEW: Codifica il dato
+     *   REQUIRES: value, out != null
+     *   MODIFIES: out
+     *   EFFECTS: Scrive in out la rappresentazione in byte del dato (Senza etichetta)
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public void encode(T value, OutputStream out) throws IOException;
+
+    /*
+     *   OVERVIEW: Decodifica il dato
+     *   REQUIRES: data != null, 0 <= offset, 0 <= length, offset + length <= data.length
+     *   MODIFIES:
+     *   EFFECTS: Ritorna il dato rappresentato dai length byte di data a partire da offset
+     *   THROWS:
+     *      IOException, quando i byte non rappresentano un dato valido (Unchecked)
+     *      ClassNotFoundException, quando si prova a caricare una classe, che non è presente, tramite una stringa (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public T decode(byte[] data, int offset, int length) throws IOException, ClassNotFoundException;
+}
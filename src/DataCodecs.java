@@ -0,0 +1,312 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+Funzione di astrazione:
+    f(dc) = <byClass, byTag> -->
+    <{(Class, DataCodec)0,...,(Class, DataCodec)n}> -->
+    dove ogni dato codificato è composto dall'etichetta della codifica seguita dai byte prodotti dal DataCodec.
+    I tipi senza una codifica registrata usano la serializzazione Java (etichetta JAVA_SERIALIZATION)
+
+Invariante di rappresentazione:
+    byClass != null && byTag != null && byTag.length == 256 &&
+    forall(c appartenente a byClass.getAllKeys()) => (byTag[byClass.get(c).getTag() & 0xFF] == byClass.get(c))
+*/
+
+//Registro delle codifiche dei dati: un dato viene serializzato una sola volta e i byte servono sia per l'hash sia per la cifratura
+public final class DataCodecs {
+    //Etichette delle codifiche predefinite (0-31 riservate)
+    public static final byte JAVA_SERIALIZATION = 0;
+    public static final byte STRING = 1;
+    public static final byte INTEGER = 2;
+    public static final byte LONG = 3;
+    public static final byte SHORT = 4;
+    public static final byte BYTE = 5;
+    public static final byte DOUBLE = 6;
+    public static final byte FLOAT = 7;
+    public static final byte BOOLEAN = 8;
+    public static final byte CHARACTER = 9;
+    public static final byte BYTE_ARRAY = 10;
+
+    private static final int FIRST_USER_TAG = 32;
+
+    private static final ConcurrentHashMap<Class<?>, DataCodec<?>> byClass = new ConcurrentHashMap<>();
+    private static final DataCodec<?>[] byTag = new DataCodec<?>[256];
+
+    private static final DataCodec<Object> serializationCodec = new JavaSerializationCodec();
+
+    static {
+        byTag[JAVA_SERIALIZATION & 0xFF] = serializationCodec;
+        builtin(String.class, new StringCodec());
+        builtin(Integer.class, new FixedCodec<Integer>(INTEGER, 4) {
+            long bits(Integer v) { return v; }
+            Integer value(long bits) { return (int) bits; }
+        });
+        builtin(Long.class, new FixedCodec<Long>(LONG, 8) {
+            long bits(Long v) { return v; }
+            Long value(long bits) { return bits; }
+        });
+        builtin(Short.class, new FixedCodec<Short>(SHORT, 2) {
+            long bits(Short v) { return v; }
+            Short value(long bits) { return (short) bits; }
+        });
+        builtin(Byte.class, new FixedCodec<Byte>(BYTE, 1) {
+            long bits(Byte v) { return v; }
+            Byte value(long bits) { return (byte) bits; }
+        });
+        //I bit canonici di NaN rendono la codifica coerente con Double.equals e Float.equals
+        builtin(Double.class, new FixedCodec<Double>(DOUBLE, 8) {
+            long bits(Double v) { return Double.doubleToLongBits(v); }
+            Double value(long bits) { return Double.longBitsToDouble(bits); }
+        });
+        builtin(Float.class, new FixedCodec<Float>(FLOAT, 4) {
+            long bits(Float v) { return Float.floatToIntBits(v); }
+            Float value(long bits) { return Float.intBitsToFloat((int) bits); }
+        });
+        builtin(Boolean.class, new FixedCodec<Boolean>(BOOLEAN, 1) {
+            long bits(Boolean v) { return v ? 1 : 0; }
+            Boolean value(long bits) { return bits != 0; }
+        });
+        builtin(Character.class, new FixedCodec<Character>(CHARACTER, 2) {
+            long bits(Character v) { return v; }
+            Character value(long bits) { return (char) bits; }
+        });
+        builtin(byte[].class, new ByteArrayCodec());
+    }
+
+    private DataCodecs() {
+    }
+
+    /*
+     *   OVERVIEW: Registra una codifica per un tipo di dato
+     *   REQUIRES: type, codec != null, codec.getTag() >= 32
+     *   MODIFIES: this
+     *   EFFECTS: I dati della classe type (esattamente) vengono codificati con codec
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     *      IllegalArgumentException, quando l'etichetta è riservata o già usata da un'altra codifica (Unchecked)
+     */
+    public static synchronized <T> void register(Class<T> type, DataCodec<T> codec) throws IllegalArgumentException {
+        if(type == null || codec == null)
+            throw new NullPointerException();
+
+        int tag = codec.getTag() & 0xFF;
+        if(tag < FIRST_USER_TAG)
+            throw new IllegalArgumentException("Le etichette 0-" + (FIRST_USER_TAG - 1) + " sono riservate");
+        if(byTag[tag] != null && byTag[tag] != codec)
+            throw new IllegalArgumentException("L'etichetta " + tag + " è già registrata");
+        if(byClass.containsKey(type))
+            throw new IllegalArgumentException("Esiste già una codifica per " + type.getName());
+
+        byTag[tag] = codec;
+        byClass.put(type, codec);
+    }
+
+    /*
+     *   OVERVIEW: Codifica il dato
+     *   REQUIRES: value != null
+     *   MODIFIES:
+     *   EFFECTS: Ritorna un byte array contenente l'etichetta della codifica seguita dal dato codificato
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public static byte[] encode(Object value) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        encode(value, out);
+        return out.toByteArray();
+    }
+
+    /*
+     *   OVERVIEW: Codifica il dato scrivendolo su uno stream
+     *   REQUIRES: value, out != null
+     *   MODIFIES: out
+     *   EFFECTS: Scrive in out l'etichetta della codifica seguita dal dato codificato
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    @SuppressWarnings("unchecked")
+    public static void encode(Object value, OutputStream out) throws IOException {
+        if(value == null || out == null)
+            throw new NullPointerException();
+
+        DataCodec<Object> codec = (DataCodec<Object>) byClass.get(value.getClass());
+        if(codec == null)
+            codec = serializationCodec;
+
+        long start = Tracing.start();
+        out.write(codec.getTag());
+        codec.encode(value, out);
+        Tracing.end(OperationPhase.SERIALIZATION, start);
+    }
+
+    /*
+     *   OVERVIEW: Decodifica un dato codificato con encode
+     *   REQUIRES: data != null
+     *   MODIFIES:
+     *   EFFECTS: Ritorna il dato rappresentato da data
+     *   THROWS:
+     *      IOException, quando i byte non rappresentano un dato valido o la codifica non è registrata (Unchecked)
+     *      ClassNotFoundException, quando si prova a caricare una classe, che non è presente, tramite una stringa (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public static Object decode(byte[] data) throws IOException, ClassNotFoundException {
+        return decode(data, 0, data.length);
+    }
+
+    /*
+     *   OVERVIEW: Decodifica un dato codificato con encode contenuto in una porzione di un byte array
+     */
+    public static Object decode(byte[] data, int offset, int length) throws IOException, ClassNotFoundException {
+        if(data == null)
+            throw new NullPointerException();
+
+        if(length < 1)
+            throw new IOException("Dato codificato vuoto");
+
+        DataCodec<?> codec = byTag[data[offset] & 0xFF];
+        if(codec == null)
+            throw new IOException("Codifica sconosciuta: " + (data[offset] & 0xFF));
+
+        long start = Tracing.start();
+        Object value = codec.decode(data, offset + 1, length - 1);
+        Tracing.end(OperationPhase.SERIALIZATION, start);
+        return value;
+    }
+
+    private static <T> void builtin(Class<T> type, DataCodec<T> codec) {
+        byTag[codec.getTag() & 0xFF] = codec;
+        byClass.put(type, codec);
+    }
+
+    //Serializzazione Java: usata per tutti i tipi senza una codifica registrata
+    private static class JavaSerializationCodec implements DataCodec<Object> {
+        public byte getTag() {
+            return JAVA_SERIALIZATION;
+        }
+
+        public void encode(Object value, OutputStream out) throws IOException {
+            ObjectOutputStream objectOutput = new ObjectOutputStream(out);
+            objectOutput.writeObject(value);
+            objectOutput.flush();
+        }
+
+        public Object decode(byte[] data, int offset, int length) throws IOException, ClassNotFoundException {
+            ObjectInputStream objectInput = new ObjectInputStream(new ByteArrayInputStream(data, offset, length));
+            return objectInput.readObject();
+        }
+    }
+
+    //Stringhe: un byte per carattere se tutti i caratteri sono Latin-1, altrimenti le unità UTF-16 (La conversione è sempre reversibile)
+    private static class StringCodec implements DataCodec<String> {
+        private static final int LATIN1 = 0;
+        private static final int UTF16 = 1;
+
+        public byte getTag() {
+            return STRING;
+        }
+
+        public void encode(String value, OutputStream out) throws IOException {
+            int length = value.length();
+            boolean latin1 = true;
+            for(int i = 0; i < length && latin1; i++)
+                latin1 = value.charAt(i) <= 0xFF;
+
+            if(latin1) {
+                out.write(LATIN1);
+                out.write(value.getBytes(StandardCharsets.ISO_8859_1));
+            } else {
+                byte[] bytes = new byte[length * 2];
+                for(int i = 0; i < length; i++) {
+                    char c = value.charAt(i);
+                    bytes[2 * i] = (byte) (c >>> 8);
+                    bytes[2 * i + 1] = (byte) c;
+                }
+                out.write(UTF16);
+                out.write(bytes);
+            }
+        }
+
+        public String decode(byte[] data, int offset, int length) throws IOException {
+            if(length < 1)
+                throw new IOException("Stringa codificata non valida");
+
+            if(data[offset] == LATIN1)
+                return new String(data, offset + 1, length - 1, StandardCharsets.ISO_8859_1);
+
+            if(data[offset] != UTF16 || (length - 1) % 2 != 0)
+                throw new IOException("Stringa codificata non valida");
+
+            char[] chars = new char[(length - 1) / 2];
+            for(int i = 0, p = offset + 1; i < chars.length; i++, p += 2)
+                chars[i] = (char) (((data[p] & 0xFF) << 8) | (data[p + 1] & 0xFF));
+            return new String(chars);
+        }
+    }
+
+    //Byte array: i byte vengono scritti così come sono
+    private static class ByteArrayCodec implements DataCodec<byte[]> {
+        public byte getTag() {
+            return BYTE_ARRAY;
+        }
+
+        public void encode(byte[] value, OutputStream out) throws IOException {
+            out.write(value);
+        }
+
+        public byte[] decode(byte[] data, int offset, int length) {
+            byte[] result = new byte[length];
+            System.arraycopy(data, offset, result, 0, length);
+            return result;
+        }
+    }
+
+    //Tipi primitivi: size byte in ordine big-endian
+    private abstract static class FixedCodec<T> implements DataCodec<T> {
+        private final byte tag;
+        private final int size;
+
+        FixedCodec(byte tag, int size) {
+            this.tag = tag;
+            this.size = size;
+        }
+
+        abstract long bits(T value);
+
+        abstract T value(long bits);
+
+        public byte getTag() {
+            return tag;
+        }
+
+        public void encode(T value, OutputStream out) throws IOException {
+            long bits = bits(value);
+            byte[] bytes = new byte[size];
+            for(int i = size - 1; i >= 0; i--) {
+                bytes[i] = (byte) bits;
+                bits >>>= 8;
+            }
+            out.write(bytes);
+        }
+
+        public T decode(byte[] data, int offset, int length) throws IOException {
+            if(length != size)
+                throw new IOException("Dato codificato non valido");
+
+            //Estensione del segno dal byte più significativo
+            long bits = data[offset];
+            for(int i = 1; i < size; i++)
+                bits = (bits << 8) | (data[offset + i] & 0xFF);
+            return value(bits);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import java.util.Arrays;
+
+/*
+Funzione di astrazione:
+    f(h) = <digest> -->
+    dove digest è l'hash del dato non cifrato, utilizzabile come chiave di una HashMap
+
+Invariante di rappresentazione:
+    digest != null && hashCode == Arrays.hashCode(digest)
+*/
+
+//Hash di un dato confrontabile per contenuto (un byte array non può essere usato come chiave di una HashMap)
+final class DataHash {
+    private final byte[] digest;
+    private final int hashCode;
+
+    /*
+     *   OVERVIEW: Crea la chiave a partire dall'hash fornito
+     *   REQUIRES: digest != null
+     *   MODIFIES: this
+     *   EFFECTS: Crea la chiave senza copiare l'hash, che non deve essere più modificato
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    DataHash(byte[] digest) {
+        if(digest == null)
+            throw new NullPointerException();
+
+        this.digest = digest;
+        this.hashCode = Arrays.hashCode(digest);
+    }
+
+    /*
+     *   OVERVIEW: Ritorna l'hash
+     *   REQUIRES:
+     *   MODIFIES:
+     *   EFFECTS: Ritorna il byte array contenente l'hash (Non deve essere modificato)
+     *   THROWS:
+     *
+     */
+    byte[] getDigest() {
+        return digest;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o)
+            return true;
+        if(!(o instanceof DataHash))
+            return false;
+        DataHash other = (DataHash) o;
+        return hashCode == other.hashCode && Arrays.equals(digest, other.digest);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/*
+Funzione di astrazione:
+    f(it) = <snapshot, position> -->
+    la sequenza dei dati decifrati di snapshot[position..snapshot.size()-1] ancora presenti nella collezione
+
+Invariante di rappresentazione:
+    snapshot != null && present != null && key != null && 0 <= position <= snapshot.size() &&
+    forall(i < position) => (snapshot.get(i) == null)
+*/
+
+//Iteratore (senza remove) che decifra ogni dato solo quando viene letto. I dati rimossi dopo la creazione vengono saltati
+class DecryptingIterator<E> implements Iterator<E>, AutoCloseable {
+    private final List<SecureDataInfo<E>> snapshot;
+    private final Predicate<SecureDataInfo<E>> present;
+    private final MasterKey key;
+    private final boolean ownsKey;
+
+    private int position;
+    private SecureDataInfo<E> pending;
+    private boolean closed;
+
+    /*
+     *   OVERVIEW: Crea l'iteratore sui dati forniti
+     *   REQUIRES: snapshot, present, key != null
+     *   MODIFIES: this
+     *   EFFECTS: Crea l'iteratore senza decifrare nulla. present dice se un dato è ancora nella collezione al momento della lettura.
+     *            Se ownsKey è true la chiave viene distrutta quando l'iteratore termina o viene chiuso
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    DecryptingIterator(List<SecureDataInfo<E>> snapshot, Predicate<SecureDataInfo<E>> present, MasterKey key, boolean ownsKey) {
+        if(snapshot == null || present == null || key == null)
+            throw new NullPointerException();
+
+        this.snapshot = snapshot;
+        this.present = present;
+        this.key = key;
+        this.ownsKey = ownsKey;
+    }
+
+    /*
+     *   OVERVIEW: Controlla se esiste un altro dato, senza decifrarlo
+     */
+    @Override
+    public boolean hasNext() {
+        while(pending == null && position < snapshot.size()) {
+            SecureDataInfo<E> element = snapshot.get(position);
+            //Il riferimento viene rilasciato: i dati già letti possono essere liberati
+            snapshot.set(position++, null);
+            if(present.test(element))
+                pending = element;
+        }
+
+        if(pending == null)
+            close();
+        return pending != null;
+    }
+
+    /*
+     *   OVERVIEW: Decifra e ritorna il dato successivo
+     *   REQUIRES:
+     *   MODIFIES: this
+     *   EFFECTS: Ritorna il dato successivo decifrato
+     *   THROWS:
+     *      NoSuchElementException, quando non ci sono altri dati (Unchecked)
+     *      DataAccessException, quando il dato non può essere decifrato (Chiave distrutta, sessione chiusa ecc...) (Unchecked)
+     */
+    @Override
+    public E next() {
+        if(!hasNext())
+            throw new NoSuchElementException();
+
+        SecureDataInfo<E> element = pending;
+        pending = null;
+        try {
+            return element.getValue(key);
+        } catch(Exception e) {
+            throw new DataAccessException("Impossibile decifrare il dato", e);
+        }
+    }
+
+    /*
+     *   OVERVIEW: Termina l'iterazione distruggendo la chiave se appartiene all'iteratore
+     */
+    @Override
+    public void close() {
+        if(closed)
+            return;
+        closed = true;
+        position = snapshot.size();
+        pending = null;
+        if(ownsKey)
+            key.destroy();
+    }
+
+    /*
+     *   OVERVIEW: Ritorna uno Spliterator sequenziale che consuma questo iteratore
+     *   REQUIRES:
+     *   MODIFIES: this
+     *   EFFECTS: Ritorna uno Spliterator con dimensione stimata pari ai dati ancora da leggere (Non esatta: i dati rimossi vengono saltati)
+     *   THROWS:
+     *
+     */
+    Spliterator<E> spliterator() {
+        return new Spliterators.AbstractSpliterator<E>(snapshot.size() - position, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super E> action) {
+                if(!hasNext())
+                    return false;
+                action.accept(next());
+                return true;
+            }
+        };
+    }
+
+    /*
+     *   OVERVIEW: Ritorna uno Stream sequenziale che consuma questo iteratore. La chiusura dello Stream chiude l'iteratore
+     */
+    Stream<E> stream() {
+        return StreamSupport.stream(spliterator(), false).onClose(this::close);
+    }
+
+    /*
+     *   OVERVIEW: Ritorna uno Stream parallelo sui dati ancora da leggere
+     *   REQUIRES:
+     *   MODIFIES: this
+     *   EFFECTS: Ritorna uno Stream parallelo che divide i dati in intervalli: ogni intervallo viene decifrato (derivazione della chiave,
+     *            AES-GCM e decodifica) da un thread del ForkJoinPool che esegue l'operazione terminale.
+     *            Se ordered è false lo Stream non mantiene l'ordine dei dati, altrimenti sì (Con un costo maggiore per alcune operazioni).
+     *            La chiave (se appartiene all'iteratore) viene distrutta quando tutti gli intervalli sono stati letti o alla chiusura dello Stream.
+     *            Dopo questa chiamata l'iteratore non va più usato
+     *   THROWS:
+     *
+     */
+    Stream<E> parallelStream(boolean ordered) {
+        Stream<E> stream = StreamSupport.stream(new RangeSpliterator(position, snapshot.size(), ordered, new AtomicInteger(1)), true).onClose(this::close);
+        position = snapshot.size();
+        return stream;
+    }
+
+    //Decifra un dato dello snapshot se è ancora nella collezione, altrimenti ritorna null
+    private E decryptAt(int index) {
+        SecureDataInfo<E> element = snapshot.get(index);
+        if(element == null || !present.test(element))
+            return null;
+
+        try {
+            return element.getValue(key);
+        } catch(Exception e) {
+            throw new DataAccessException("Impossibile decifrare il dato", e);
+        }
+    }
+
+    /*
+    Funzione di astrazione:
+        f(rs) = <from, to> --> la sequenza dei dati decifrati di snapshot[from..to-1] ancora presenti nella collezione
+
+    Invariante di rappresentazione:
+        0 <= from <= to <= snapshot.size() && openRanges.get() >= 0
+    */
+
+    //Spliterator divisibile su un intervallo dello snapshot. Gli intervalli sono disgiunti, quindi ogni dato viene decifrato da un solo thread
+    private class RangeSpliterator implements Spliterator<E> {
+        private int from;
+        private final int to;
+        private final boolean ordered;
+        //Intervalli non ancora terminati: l'ultimo che termina distrugge la chiave
+        private final AtomicInteger openRanges;
+        private boolean finished;
+
+        RangeSpliterator(int from, int to, boolean ordered, AtomicInteger openRanges) {
+            this.from = from;
+            this.to = to;
+            this.ordered = ordered;
+            this.openRanges = openRanges;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super E> action) {
+            while(from < to) {
+                E value = decryptAt(from++);
+                if(value != null) {
+                    action.accept(value);
+                    return true;
+                }
+            }
+            finish();
+            return false;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super E> action) {
+            while(from < to) {
+                E value = decryptAt(from++);
+                if(value != null)
+                    action.accept(value);
+            }
+            finish();
+        }
+
+        @Override
+        public Spliterator<E> trySplit() {
+            int middle = (from + to) >>> 1;
+            if(middle <= from)
+                return null;
+
+            openRanges.incrementAndGet();
+            RangeSpliterator prefix = new RangeSpliterator(from, middle, ordered, openRanges);
+            from = middle;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return to - from;
+        }
+
+        @Override
+        public int characteristics() {
+            return ordered ? Spliterator.ORDERED | Spliterator.NONNULL : Spliterator.NONNULL;
+        }
+
+        private void finish() {
+            if(finished)
+                return;
+            finished = true;
+            if(openRanges.decrementAndGet() == 0 && ownsKey)
+                key.destroy();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+/*
+Funzione di astrazione:
+    f(k) = <hash, owner> -->
+    dove hash è l'hash del dato non cifrato e owner è l'id numerico del proprietario, oppure SHARED se il dato è condiviso
+
+Invariante di rappresentazione:
+    hash != null && (owner >= 0 || owner == SHARED) && hashCode == 31 * hash.hashCode() + owner
+*/
+
+//Chiave di un dato nella seconda implementazione: hash del dato e id del proprietario (Sostituisce la stringa Base64(hash) + "." + owner)
+final class ElementKey {
+    //Id del proprietario dei dati condivisi
+    static final int SHARED = -1;
+
+    private final DataHash hash;
+    private final int owner;
+    private final int hashCode;
+
+    /*
+     *   OVERVIEW: Crea la chiave del dato
+     *   REQUIRES: hash != null, owner >= 0 || owner == SHARED
+     *   MODIFIES: this
+     *   EFFECTS: Crea la chiave senza copiare l'hash (Può essere lo stesso DataHash del dato, Vedi SecureDataInfo.getDataHash)
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     *      IllegalArgumentException, quando l'id del proprietario non è valido (Unchecked)
+     */
+    ElementKey(DataHash hash, int owner) throws IllegalArgumentException {
+        if(hash == null)
+            throw new NullPointerException();
+
+        if(owner < 0 && owner != SHARED)
+            throw new IllegalArgumentException("Id del proprietario non valido: " + owner);
+
+        this.hash = hash;
+        this.owner = owner;
+        this.hashCode = 31 * hash.hashCode() + owner;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna la chiave della versione condivisa dello stesso dato
+     */
+    ElementKey toShared() {
+        return owner == SHARED ? this : new ElementKey(hash, SHARED);
+    }
+
+    /*
+     *   OVERVIEW: Ritorna la chiave dello stesso dato appartenente a un altro proprietario
+     */
+    ElementKey withOwner(int owner) {
+        return owner == this.owner ? this : new ElementKey(hash, owner);
+    }
+
+    DataHash getHash() {
+        return hash;
+    }
+
+    int getOwner() {
+        return owner;
+    }
+
+    boolean isShared() {
+        return owner == SHARED;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o)
+            return true;
+        if(!(o instanceof ElementKey))
+            return false;
+
+        ElementKey other = (ElementKey) o;
+        return owner == other.owner && hashCode == other.hashCode && hash.equals(other.hash);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/*
+ *   Impronte predefinite dei dati e registrazione dell'impronta usata da un archivio.
+ *
+ *   SHA-512         (predefinita) 64 byte, resistente alle collisioni. Compatibile con le collezioni e gli archivi esistenti
+ *   MURMUR3-128     16 byte, non crittografica e molto più veloce: solo per collezioni i cui dati non sono scelti da utenti ostili
+ *   HMAC-SHA256     32 byte, con chiave: resistente alle collisioni e non rivela il contenuto dei dati a chi non conosce la chiave
+ */
+public final class FingerprintStrategies {
+    public static final String SHA512 = "SHA-512";
+    public static final String MURMUR3_128 = "MURMUR3-128";
+    public static final String HMAC_SHA256 = "HMAC-SHA256";
+
+    //Record dell'archivio con il nome dell'impronta e il valore di controllo
+    static final String META_KEY = "m:fingerprint";
+
+    //Dato di cui viene salvata l'impronta nell'archivio: permette di riconoscere una chiave HMAC diversa da quella usata per scriverlo
+    private static final byte[] CHECK_LABEL = "SecureDataContainer fingerprint check".getBytes(StandardCharsets.UTF_8);
+
+    private static final FingerprintStrategy sha512 = new Sha512Strategy();
+    private static final FingerprintStrategy murmur3 = new Murmur3Strategy();
+
+    private FingerprintStrategies() {
+    }
+
+    /*
+     *   OVERVIEW: Ritorna l'impronta SHA-512 (Predefinita)
+     */
+    public static FingerprintStrategy sha512() {
+        return sha512;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna l'impronta MurmurHash3 x64 a 128 bit
+     */
+    public static FingerprintStrategy murmur3() {
+        return murmur3;
+    }
+
+    /*
+     *   OVERVIEW: Crea un'impronta HMAC-SHA256 con la chiave fornita
+     *   REQUIRES: key != null, key.length >= 16
+     *   MODIFIES:
+     *   EFFECTS: Ritorna un'impronta HMAC-SHA256 che usa una copia della chiave. La chiave non viene salvata nell'archivio:
+     *            va fornita ogni volta che la collezione viene aperta
+     *   THROWS:
+     *      NoSuchAlgorithmException, quando viene chiesto di usare un algoritmo di crittografia non presente nell'ambiente (Unchecked)
+     *      IllegalArgumentException, quando la chiave è troppo corta (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public static FingerprintStrategy hmacSha256(byte[] key) throws NoSuchAlgorithmException, IllegalArgumentException {
+        if(key == null)
+            throw new NullPointerException();
+
+        if(key.length < 16)
+            throw new IllegalArgumentException("La chiave deve essere lunga almeno 16 byte");
+
+        return new HmacStrategy(key);
+    }
+
+    /*
+     *   OVERVIEW: Ritorna l'impronta senza chiave con il nome fornito
+     *   REQUIRES: name != null
+     *   MODIFIES:
+     *   EFFECTS: Ritorna l'impronta predefinita con quel nome
+     *   THROWS:
+     *      IllegalArgumentException, quando il nome è sconosciuto o l'impronta richiede una chiave (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public static FingerprintStrategy forName(String name) throws IllegalArgumentException {
+        if(name == null)
+            throw new NullPointerException();
+
+        if(name.equals(SHA512))
+            return sha512;
+        if(name.equals(MURMUR3_128))
+            return murmur3;
+        if(name.equals(HMAC_SHA256))
+            throw new IllegalArgumentException("L'impronta " + name + " richiede una chiave");
+        throw new IllegalArgumentException("Impronta sconosciuta: " + name);
+    }
+
+    /*
+     *   OVERVIEW: Controlla e registra l'impronta usata dall'archivio
+     *   REQUIRES: store != null
+     *   MODIFIES: store
+     *   EFFECTS: Se l'archivio ha già un'impronta registrata ritorna requested (o l'impronta registrata se requested è null) solo se coincide
+     *            con quella registrata, chiave compresa. Se l'archivio non ha un'impronta registrata registra requested (SHA-512 se null);
+     *            un archivio non vuoto senza impronta è stato scritto con SHA-512 e può essere aperto solo con SHA-512
+     *   THROWS:
+     *      IOException, quando l'impronta non coincide con quella dell'archivio o le operazioni di input/output non avvengono correttamente (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    static FingerprintStrategy bind(LogStore store, FingerprintStrategy requested) throws IOException {
+        if(store == null)
+            throw new NullPointerException();
+
+        ByteBuffer record = store.map(META_KEY);
+        if(record == null) {
+            FingerprintStrategy strategy = requested != null ? requested : sha512;
+            if(!strategy.getName().equals(SHA512) && !store.load().isEmpty())
+                throw new IOException("L'archivio è stato scritto con l'impronta " + SHA512 + " e non può essere aperto con " + strategy.getName());
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            writeTo(strategy, new DataOutputStream(bytes));
+            store.put(META_KEY, bytes.toByteArray());
+            return strategy;
+        }
+
+        return readFrom(new DataInputStream(new ByteBufferInputStream(record.duplicate())), requested);
+    }
+
+    /*
+     *   OVERVIEW: Scrive il nome dell'impronta e un'impronta di controllo (Verifica la chiave di un'impronta con chiave senza salvarla)
+     *   REQUIRES: strategy, out != null
+     *   MODIFIES: out
+     *   EFFECTS: Scrive in out quanto serve a readFrom per scegliere e verificare l'impronta
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente (Unchecked)
+     */
+    static void writeTo(FingerprintStrategy strategy, DataOutput out) throws IOException {
+        byte[] check = strategy.fingerprint(CHECK_LABEL, 0, CHECK_LABEL.length);
+        out.writeUTF(strategy.getName());
+        out.writeInt(check.length);
+        out.write(check);
+    }
+
+    /*
+     *   OVERVIEW: Legge l'impronta scritta con writeTo e la verifica
+     *   REQUIRES: in != null
+     *   MODIFIES:
+     *   EFFECTS: Ritorna requested, oppure l'impronta registrata se requested == null, dopo averne verificato nome e chiave
+     *   THROWS:
+     *      IOException, quando i dati non sono validi o l'impronta non corrisponde a quella registrata (Unchecked)
+     */
+    static FingerprintStrategy readFrom(DataInput in, FingerprintStrategy requested) throws IOException {
+        String name = in.readUTF();
+        int length = in.readInt();
+        if(length < 0 || length > 1024)
+            throw new IOException("Record dell'impronta non valido");
+        byte[] check = new byte[length];
+        in.readFully(check);
+
+        FingerprintStrategy strategy;
+        if(requested != null) {
+            strategy = requested;
+        } else {
+            try {
+                strategy = forName(name);
+            } catch(IllegalArgumentException e) {
+                throw new IOException("L'archivio usa l'impronta " + name + ": " + e.getMessage(), e);
+            }
+        }
+
+        if(!strategy.getName().equals(name))
+            throw new IOException("L'archivio usa l'impronta " + name + " e non può essere aperto con " + strategy.getName());
+        if(!MessageDigest.isEqual(check, strategy.fingerprint(CHECK_LABEL, 0, CHECK_LABEL.length)))
+            throw new IOException("La chiave dell'impronta " + name + " non corrisponde a quella dell'archivio");
+        return strategy;
+    }
+
+    //SHA-512: un MessageDigest per thread
+    private static final class Sha512Strategy implements FingerprintStrategy {
+        private final ThreadLocal<MessageDigest> digests = new ThreadLocal<>();
+
+        public String getName() {
+            return SHA512;
+        }
+
+        public byte[] fingerprint(byte[] encoded, int offset, int length) {
+            MessageDigest digest = digests.get();
+            if(digest == null) {
+                try {
+                    digest = MessageDigest.getInstance("SHA-512");
+                } catch(NoSuchAlgorithmException e) {
+                    //SHA-512 è obbligatorio in ogni JVM
+                    throw new IllegalStateException(e);
+                }
+                digests.set(digest);
+            }
+            digest.update(encoded, offset, length);
+            return digest.digest();
+        }
+    }
+
+    //HMAC-SHA256: un Mac per thread, inizializzato una sola volta con la chiave
+    private static final class HmacStrategy implements FingerprintStrategy {
+        private final SecretKeySpec key;
+        private final ThreadLocal<Mac> macs = new ThreadLocal<>();
+
+        HmacStrategy(byte[] key) throws NoSuchAlgorithmException {
+            this.key = new SecretKeySpec(key, "HmacSHA256");
+            //Controlla subito che l'algoritmo sia disponibile
+            Mac.getInstance("HmacSHA256");
+        }
+
+        public String getName() {
+            return HMAC_SHA256;
+        }
+
+        public byte[] fingerprint(byte[] encoded, int offset, int length) {
+            Mac mac = macs.get();
+            if(mac == null) {
+                try {
+                    mac = Mac.getInstance("HmacSHA256");
+                    mac.init(key);
+                } catch(GeneralSecurityException e) {
+                    throw new IllegalStateException(e);
+                }
+                macs.set(mac);
+            }
+            mac.update(encoded, offset, length);
+            return mac.doFinal();
+        }
+    }
+
+    //MurmurHash3 x64 128 bit con seed 0 (I byte sono nello stesso ordine dell'implementazione di riferimento: h1 e h2 little-endian)
+    private static final class Murmur3Strategy implements FingerprintStrategy {
+        private static final long C1 = 0x87c37b91114253d5L;
+        private static final long C2 = 0x4cf5ad432745937fL;
+
+        public String getName() {
+            return MURMUR3_128;
+        }
+
+        @SuppressWarnings("fallthrough")
+        public byte[] fingerprint(byte[] data, int offset, int length) {
+            if(data == null)
+                throw new NullPointerException();
+
+            long h1 = 0;
+            long h2 = 0;
+            int blocks = length / 16;
+
+            for(int i = 0; i < blocks; i++) {
+                int p = offset + i * 16;
+                long k1 = getLong(data, p);
+                long k2 = getLong(data, p + 8);
+
+                h1 ^= mixK1(k1);
+                h1 = Long.rotateLeft(h1, 27);
+                h1 += h2;
+                h1 = h1 * 5 + 0x52dce729;
+
+                h2 ^= mixK2(k2);
+                h2 = Long.rotateLeft(h2, 31);
+                h2 += h1;
+                h2 = h2 * 5 + 0x38495ab5;
+            }
+
+            //Ultimi 0-15 byte: ogni caso prosegue volutamente nei successivi (Fall-through, come nell'implementazione di riferimento)
+            int tail = offset + blocks * 16;
+            long k1 = 0;
+            long k2 = 0;
+            switch(length & 15) {
+                case 15: k2 ^= (long) (data[tail + 14] & 0xFF) << 48;
+                case 14: k2 ^= (long) (data[tail + 13] & 0xFF) << 40;
+                case 13: k2 ^= (long) (data[tail + 12] & 0xFF) << 32;
+                case 12: k2 ^= (long) (data[tail + 11] & 0xFF) << 24;
+                case 11: k2 ^= (long) (data[tail + 10] & 0xFF) << 16;
+                case 10: k2 ^= (long) (data[tail + 9] & 0xFF) << 8;
+                case 9:
+                    k2 ^= data[tail + 8] & 0xFF;
+                    h2 ^= mixK2(k2);
+                case 8: k1 ^= (long) (data[tail + 7] & 0xFF) << 56;
+                case 7: k1 ^= (long) (data[tail + 6] & 0xFF) << 48;
+                case 6: k1 ^= (long) (data[tail + 5] & 0xFF) << 40;
+                case 5: k1 ^= (long) (data[tail + 4] & 0xFF) << 32;
+                case 4: k1 ^= (long) (data[tail + 3] & 0xFF) << 24;
+                case 3: k1 ^= (long) (data[tail + 2] & 0xFF) << 16;
+                case 2: k1 ^= (long) (data[tail + 1] & 0xFF) << 8;
+                case 1:
+                    k1 ^= data[tail] & 0xFF;
+                    h1 ^= mixK1(k1);
+                default:
+                    break;
+            }
+
+            h1 ^= length;
+            h2 ^= length;
+            h1 += h2;
+            h2 += h1;
+            h1 = fmix(h1);
+            h2 = fmix(h2);
+            h1 += h2;
+            h2 += h1;
+
+            byte[] result = new byte[16];
+            putLong(result, 0, h1);
+            putLong(result, 8, h2);
+            return result;
+        }
+
+        private static long mixK1(long k1) {
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            return k1 * C2;
+        }
+
+        private static long mixK2(long k2) {
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            return k2 * C1;
+        }
+
+        private static long fmix(long k) {
+            k ^= k >>> 33;
+            k *= 0xff51afd7ed558ccdL;
+            k ^= k >>> 33;
+            k *= 0xc4ceb9fe1a85ec53L;
+            k ^= k >>> 33;
+            return k;
+        }
+
+        private static long getLong(byte[] data, int p) {
+            long value = 0;
+            for(int i = 7; i >= 0; i--)
+                value = (value << 8) | (data[p + i] & 0xFF);
+            return value;
+        }
+
+        private static void putLong(byte[] result, int p, long value) {
+            for(int i = 0; i < 8; i++) {
+                result[p + i] = (byte) value;
+                value >>>= 8;
+            }
+        }
+    }
+}
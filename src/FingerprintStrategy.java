@@ -0,0 +1,33 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+/*
+ *   OVERVIEW: Funzione che calcola l'impronta (l'identità) di un dato a partire dalla sua codifica (Vedi FingerprintStrategies per quelle predefinite)
+ *            L'impronta deve essere deterministica: codifiche uguali producono impronte uguali, altrimenti un dato non può essere ritrovato.
+ *            Le implementazioni devono poter essere usate da più thread contemporaneamente
+ */
+public interface FingerprintStrategy {
+    /*
+     *   OVERVIEW: Ritorna il nome dell'impronta
+     *   REQUIRES:
+     *   MODIFIES:
+     *   EFFECTS: Ritorna il nome registrato nell'archivio insieme ai dati (Due strategie con lo stesso nome devono calcolare le stesse impronte, a meno della chiave)
+     *   THROWS:
+     *
+     */
+    public String getName();
+
+    /*
+     *   OVERVIEW: Calcola l'impronta di un dato codificato
+     *   REQUIRES: encoded != null, 0 <= offset, 0 <= length, offset + length <= encoded.length
+     *   MODIFIES:
+     *   EFFECTS: Ritorna l'impronta dei length byte di encoded a partire da offset, senza modificarli
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public byte[] fingerprint(byte[] encoded, int offset, int length);
+}
@@ -0,0 +1,162 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import java.security.InvalidKeyException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+Funzione di astrazione:
+    f(kc) = <entries, maxEntries, timeToLive> -->
+    <{(owner, MasterKey, expiresAt)0,...,(owner, MasterKey, expiresAt)n}> in ordine di accesso
+
+Invariante di rappresentazione:
+    entries != null && entries.size() <= maxEntries && maxEntries > 0 && timeToLive > 0 &&
+    forall(e appartenente a entries.getAllElements()) => (e != null && !e.key.isDestroyed())
+*/
+
+//Cache limitata delle chiavi master sbloccate. Le chiavi rimosse o scadute vengono azzerate
+class KeyCache {
+    //Impostazioni predefinite della cache
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+    public static final long DEFAULT_TIME_TO_LIVE = 5 * 60 * 1000L;
+
+    private final int maxEntries;
+    private final long timeToLive;
+    private final LinkedHashMap<String, CachedKey> entries;
+
+    /*
+     *   OVERVIEW: Crea una cache con le impostazioni predefinite
+     */
+    public KeyCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE);
+    }
+
+    /*
+     *   OVERVIEW: Crea una cache che contiene al massimo maxEntries chiavi, ognuna valida per timeToLive millisecondi
+     *   REQUIRES: maxEntries > 0, timeToLive > 0
+     *   MODIFIES: this
+     *   EFFECTS: Crea una cache vuota
+     *   THROWS:
+     *      IllegalArgumentException, quando le impostazioni non sono valide (Unchecked)
+     */
+    public KeyCache(final int maxEntries, long timeToLive) throws IllegalArgumentException {
+        if(maxEntries <= 0 || timeToLive <= 0)
+            throw new IllegalArgumentException("maxEntries e timeToLive devono essere > 0");
+
+        this.maxEntries = maxEntries;
+        this.timeToLive = timeToLive;
+        this.entries = new LinkedHashMap<String, CachedKey>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedKey> eldest) {
+                //Rimuove la chiave usata meno di recente azzerandola
+                if(size() > KeyCache.this.maxEntries) {
+                    eldest.getValue().key.destroy();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /*
+     *   OVERVIEW: Ritorna la chiave master sbloccata dell'utente
+     *   REQUIRES: owner != null
+     *   MODIFIES: this
+     *   EFFECTS: Ritorna la chiave se presente e non scaduta, altrimenti null. Una chiave scaduta viene azzerata e rimossa
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public synchronized MasterKey get(String owner) {
+        if(owner == null)
+            throw new NullPointerException();
+
+        CachedKey entry = entries.get(owner);
+        if(entry == null)
+            return null;
+
+        if(System.currentTimeMillis() > entry.expiresAt) {
+            entries.remove(owner);
+            entry.key.destroy();
+            return null;
+        }
+        return entry.key;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna una copia della chiave master sbloccata dell'utente
+     *   REQUIRES: owner != null
+     *   MODIFIES: this
+     *   EFFECTS: Ritorna una copia indipendente della chiave se presente e non scaduta, altrimenti null.
+     *            La copia non viene azzerata da una successiva rimozione dalla cache: il chiamante deve distruggerla
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public synchronized MasterKey copyOf(String owner) {
+        MasterKey key = get(owner);
+        if(key == null)
+            return null;
+
+        try {
+            return key.copy();
+        } catch(InvalidKeyException e) {
+            //Le chiavi in cache non vengono mai distrutte senza essere rimosse
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+     *   OVERVIEW: Inserisce la chiave master sbloccata dell'utente
+     *   REQUIRES: owner, key != null
+     *   MODIFIES: this
+     *   EFFECTS: Inserisce la chiave, azzerando quella eventualmente già presente per lo stesso utente
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public synchronized void put(String owner, MasterKey key) {
+        if(owner == null || key == null)
+            throw new NullPointerException();
+
+        CachedKey old = entries.put(owner, new CachedKey(key, System.currentTimeMillis() + timeToLive));
+        if(old != null && old.key != key)
+            old.key.destroy();
+    }
+
+    /*
+     *   OVERVIEW: Rimuove e azzera la chiave dell'utente
+     */
+    public synchronized void invalidate(String owner) {
+        if(owner == null)
+            throw new NullPointerException();
+
+        CachedKey entry = entries.remove(owner);
+        if(entry != null)
+            entry.key.destroy();
+    }
+
+    /*
+     *   OVERVIEW: Rimuove e azzera tutte le chiavi
+     */
+    public synchronized void clear() {
+        Iterator<CachedKey> iter = entries.values().iterator();
+        while(iter.hasNext()) {
+            iter.next().key.destroy();
+            iter.remove();
+        }
+    }
+
+    private static class CachedKey {
+        private final MasterKey key;
+        private final long expiresAt;
+
+        private CachedKey(MasterKey key, long expiresAt) {
+            this.key = key;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
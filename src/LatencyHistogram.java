@@ -0,0 +1,101 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+Funzione di astrazione:
+    f(h) = <count, total, max, {buckets[0],...,buckets[63]}> -->
+    dove buckets[i] è il numero di durate d registrate con 2^(i-1) <= d < 2^i nanosecondi (buckets[0]: d == 0)
+
+Invariante di rappresentazione:
+    buckets != null && buckets.length == 64 && forall(i. buckets[i] != null) && count == somma di buckets[i] (a riposo)
+*/
+
+//Istogramma di latenze con intervalli a potenze di 2: la registrazione non usa lock ed è adatta a restare sempre attiva
+public final class LatencyHistogram {
+    private final LongAdder[] buckets = new LongAdder[64];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for(int i = 0; i < buckets.length; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    /*
+     *   OVERVIEW: Registra una durata
+     *   REQUIRES:
+     *   MODIFIES: this
+     *   EFFECTS: Aggiunge nanos all'istogramma (Una durata negativa, dovuta al timer, vale 0)
+     */
+    public void record(long nanos) {
+        if(nanos < 0)
+            nanos = 0;
+
+        buckets[64 - Long.numberOfLeadingZeros(nanos)].increment();
+        count.increment();
+        total.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return total.sum();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    /*
+     *   OVERVIEW: Ritorna la durata media in nanosecondi (0 se l'istogramma è vuoto)
+     */
+    public double getMeanNanos() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) total.sum() / n;
+    }
+
+    /*
+     *   OVERVIEW: Stima un percentile delle durate registrate
+     *   REQUIRES: 0 <= p <= 1
+     *   MODIFIES:
+     *   EFFECTS: Ritorna il limite superiore dell'intervallo che contiene il percentile p (nearest-rank), al massimo la durata massima.
+     *            L'errore è inferiore a un fattore 2. Con registrazioni concorrenti il risultato è una stima coerente solo a riposo
+     *   THROWS:
+     *      IllegalArgumentException, quando p non è compreso tra 0 e 1 (Unchecked)
+     */
+    public long getPercentileNanos(double p) throws IllegalArgumentException {
+        if(p < 0 || p > 1)
+            throw new IllegalArgumentException("p deve essere compreso tra 0 e 1");
+
+        long[] counts = new long[buckets.length];
+        long n = 0;
+        for(int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+            n += counts[i];
+        }
+        if(n == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(p * n));
+        long seen = 0;
+        for(int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if(seen >= rank) {
+                long upper = i == 0 ? 0 : (i == 63 ? Long.MAX_VALUE : (1L << i) - 1);
+                return Math.min(upper, max.get());
+            }
+        }
+        return max.get();
+    }
+}
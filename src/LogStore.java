@@ -0,0 +1,662 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/*
+Funzione di astrazione:
+    f(ls) = <index> -->
+    <{(key, payload)0,...,(key, payload)n}> -->
+    dove per ogni chiave vale l'ultimo record PUT presente nel file, se non seguito da un record REMOVE
+
+Invariante di rappresentazione:
+    path != null && index != null && liveBytes >= 0 && deadBytes >= 0 &&
+    HEADER_LENGTH + liveBytes + deadBytes == writePosition && durableSeq <= appendedSeq &&
+    forall(k appartenente a index.getAllKeys()) => (index.get(k) è la posizione di un record PUT valido con chiave k)
+*/
+
+//Archivio persistente append-only: ogni modifica viene aggiunta in coda al file e resa durevole con un fsync condiviso (Thread-safe)
+public class LogStore implements Closeable {
+    //Formato del file: intestazione, poi record [lunghezza][CRC32][tipo][lunghezza chiave][chiave UTF-8][payload]
+    static final int MAGIC = 0x53444353;
+    static final int VERSION = 1;
+    static final int HEADER_LENGTH = 8;
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int RECORD_OVERHEAD = 4 + 4 + 1 + 2;
+
+    //Dimensione dei segmenti mappati in memoria: ogni segmento viene mappato per intero una sola volta (Il file viene esteso fino
+    //alla fine del segmento, vedi mapRegion). Un record che attraversa due segmenti viene mappato da solo
+    static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    //Compatta il file quando i record superati occupano almeno questi byte e più dei record validi
+    public static final long DEFAULT_COMPACTION_THRESHOLD = 4L * 1024 * 1024;
+
+    private final Path path;
+    private final long compactionThreshold;
+
+    //Protegge il canale, l'indice e le posizioni di scrittura
+    private final Object lock = new Object();
+    //Impedisce di sostituire il canale durante un fsync (Vedi compact)
+    private final ReentrantReadWriteLock channelLock = new ReentrantReadWriteLock();
+    //Protegge lo stato del group commit: il thread di sincronizzazione attende syncNeeded, le scritture attendono synced
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Condition syncNeeded = syncLock.newCondition();
+    private final Condition synced = syncLock.newCondition();
+
+    private FileChannel channel;
+    private LinkedHashMap<String, Location> index = new LinkedHashMap<>();
+    //Segmenti del file mappati in memoria (Indice del segmento -> mappatura dell'intero segmento)
+    private HashMap<Long, MappedByteBuffer> segments = new HashMap<>();
+    //Numero di compattazioni eseguite: le viste restituite prima dell'ultima compattazione mantengono in vita il vecchio file
+    private long generation;
+    private long writePosition;
+    private long liveBytes;
+    private long deadBytes;
+
+    //Numero di record aggiunti e numero di record resi durevoli
+    private long appendedSeq;
+    private long durableSeq;
+    private boolean syncRequested;
+    private volatile boolean closed;
+    //close ha terminato l'ultimo fsync (Protetto da syncLock): da qui in poi nessun record aggiunto può diventare durevole
+    private boolean terminated;
+    private volatile IOException failure;
+
+    private final Thread syncer;
+
+    /*
+     *   OVERVIEW: Apre l'archivio con la soglia di compattazione predefinita
+     */
+    public LogStore(Path path) throws IOException {
+        this(path, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /*
+     *   OVERVIEW: Apre (o crea) l'archivio nel file fornito
+     *   REQUIRES: path != null, compactionThreshold > 0
+     *   MODIFIES: this
+     *   EFFECTS: Apre il file e ricostruisce l'indice dei record validi senza leggerne il contenuto.
+     *            Un record finale incompleto o corrotto (scrittura interrotta da un crash) viene scartato e il file troncato
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente o il file non è un archivio valido (Unchecked)
+     *      IllegalArgumentException, quando la soglia non è valida (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public LogStore(Path path, long compactionThreshold) throws IOException, IllegalArgumentException {
+        if(path == null)
+            throw new NullPointerException();
+
+        if(compactionThreshold <= 0)
+            throw new IllegalArgumentException("compactionThreshold deve essere > 0");
+
+        this.path = path;
+        this.compactionThreshold = compactionThreshold;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            replay();
+        } catch(IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        this.syncer = new Thread(this::syncLoop, "LogStore-sync");
+        this.syncer.setDaemon(true);
+        this.syncer.start();
+    }
+
+    /*
+     *   OVERVIEW: Inserisce o sostituisce il payload associato alla chiave
+     *   REQUIRES: key, payload != null
+     *   MODIFIES: this
+     *   EFFECTS: Aggiunge un record PUT e ritorna solo quando il record è stato reso durevole (fsync condiviso con le scritture concorrenti)
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente o l'archivio è chiuso (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public void put(String key, byte[] payload) throws IOException {
+        if(key == null || payload == null)
+            throw new NullPointerException();
+
+        awaitDurable(append(PUT, key, payload));
+    }
+
+    /*
+     *   OVERVIEW: Rimuove la chiave
+     *   REQUIRES: key != null
+     *   MODIFIES: this
+     *   EFFECTS: Se la chiave è presente aggiunge un record REMOVE e ritorna quando è stato reso durevole, altrimenti non fa nulla
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente o l'archivio è chiuso (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public void remove(String key) throws IOException {
+        if(key == null)
+            throw new NullPointerException();
+
+        long seq;
+        synchronized(lock) {
+            if(!index.containsKey(key))
+                return;
+            seq = append(REMOVE, key, new byte[0]);
+        }
+        awaitDurable(seq);
+    }
+
+    /*
+     *   OVERVIEW: Esegue più inserimenti e rimozioni con un solo fsync
+     *   REQUIRES: puts, removes != null, nessuna chiave o payload nullo
+     *   MODIFIES: this
+     *   EFFECTS: Aggiunge un record per ogni inserimento e per ogni chiave rimossa presente, nell'ordine fornito,
+     *            e ritorna quando sono stati tutti resi durevoli. In caso di crash può essere applicata solo una parte delle modifiche
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente o l'archivio è chiuso (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public void update(Map<String, byte[]> puts, Collection<String> removes) throws IOException {
+        if(puts == null || removes == null)
+            throw new NullPointerException();
+
+        long seq = 0;
+        synchronized(lock) {
+            for(Map.Entry<String, byte[]> entry : puts.entrySet()) {
+                if(entry.getKey() == null || entry.getValue() == null)
+                    throw new NullPointerException();
+                seq = append(PUT, entry.getKey(), entry.getValue());
+            }
+            for(String key : removes) {
+                if(index.containsKey(key))
+                    seq = append(REMOVE, key, new byte[0]);
+            }
+        }
+        if(seq > 0)
+            awaitDurable(seq);
+    }
+
+    /*
+     *   OVERVIEW: Legge tutti i record validi
+     *   REQUIRES:
+     *   MODIFIES:
+     *   EFFECTS: Ritorna le coppie (chiave, payload) valide nell'ordine in cui le chiavi sono state inserite la prima volta.
+     *            I payload sono viste in sola lettura del file mappato in memoria (Nessuna copia nello heap)
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente o l'archivio è chiuso (Unchecked)
+     */
+    public Map<String, ByteBuffer> load() throws IOException {
+        synchronized(lock) {
+            ensureOpen();
+            LinkedHashMap<String, ByteBuffer> result = new LinkedHashMap<>();
+            for(Map.Entry<String, Location> entry : index.entrySet())
+                result.put(entry.getKey(), mapRegion(entry.getValue().payloadOffset, entry.getValue().payloadLength));
+            return result;
+        }
+    }
+
+    /*
+     *   OVERVIEW: Ritorna il payload associato alla chiave mappato in memoria
+     *   REQUIRES: key != null
+     *   MODIFIES: this
+     *   EFFECTS: Ritorna una vista in sola lettura del payload nel file mappato, altrimenti null se la chiave non è presente.
+     *            La vista resta valida anche dopo una compattazione o la chiusura dell'archivio, ma dopo una compattazione
+     *            mantiene in vita il vecchio file: va richiesta di nuovo (Vedi getGeneration)
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente o l'archivio è chiuso (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public ByteBuffer map(String key) throws IOException {
+        if(key == null)
+            throw new NullPointerException();
+
+        synchronized(lock) {
+            ensureOpen();
+            Location location = index.get(key);
+            if(location == null)
+                return null;
+            return mapRegion(location.payloadOffset, location.payloadLength);
+        }
+    }
+
+    /*
+     *   OVERVIEW: Compatta il file
+     *   REQUIRES:
+     *   MODIFIES: this
+     *   EFFECTS: Riscrive in un nuovo file solo i record validi e lo sostituisce in modo atomico a quello corrente (Vedi getGeneration)
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente o l'archivio è chiuso (Unchecked)
+     */
+    public void compact() throws IOException {
+        synchronized(lock) {
+            ensureOpen();
+            channelLock.writeLock().lock();
+            try {
+                rewrite();
+            } finally {
+                channelLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /*
+     *   OVERVIEW: Ritorna il numero di compattazioni eseguite (Anche quelle avviate automaticamente da una scrittura).
+     *            Quando cambia, chi conserva viste restituite da map o load deve richiederle di nuovo per liberare il vecchio file
+     */
+    public long getGeneration() {
+        synchronized(lock) {
+            return generation;
+        }
+    }
+
+    /*
+     *   OVERVIEW: Ritorna il numero di byte occupati dai record superati o rimossi
+     */
+    public long getDeadBytes() {
+        synchronized(lock) {
+            return deadBytes;
+        }
+    }
+
+    /*
+     *   OVERVIEW: Ritorna la dimensione in byte dei record nel file (Senza l'estensione dell'ultimo segmento mappato)
+     */
+    public long getFileSize() {
+        synchronized(lock) {
+            return writePosition;
+        }
+    }
+
+    /*
+     *   OVERVIEW: Chiude l'archivio
+     *   REQUIRES:
+     *   MODIFIES: this
+     *   EFFECTS: Attende il fsync delle scritture in corso, termina il thread di sincronizzazione, rimuove l'estensione dell'ultimo segmento e chiude il file
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente (Unchecked)
+     */
+    @Override
+    public void close() throws IOException {
+        syncLock.lock();
+        try {
+            if(closed)
+                return;
+            //Il thread di sincronizzazione termina dopo aver servito le richieste in sospeso
+            closed = true;
+            syncNeeded.signal();
+        } finally {
+            syncLock.unlock();
+        }
+        try {
+            syncer.join();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized(lock) {
+            long target = appendedSeq;
+            boolean forced = false;
+            try {
+                if(failure == null) {
+                    //Le viste ancora in uso non arrivano oltre writePosition
+                    if(channel.size() > writePosition)
+                        channel.truncate(writePosition);
+                    channel.force(false);
+                    forced = true;
+                }
+            } catch(IOException e) {
+                failure = e;
+                throw e;
+            } finally {
+                try {
+                    channel.close();
+                } finally {
+                    //Le scritture aggiunte prima della chiusura ma non ancora sincronizzate sono rese durevoli dall'ultimo fsync
+                    syncLock.lock();
+                    try {
+                        if(forced && target > durableSeq)
+                            durableSeq = target;
+                        terminated = true;
+                        synced.signalAll();
+                    } finally {
+                        syncLock.unlock();
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     *   OVERVIEW: Aggiunge un record in coda al file senza attendere il fsync e ritorna il suo numero di sequenza
+     */
+    private long append(byte type, String key, byte[] payload) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if(keyBytes.length > 0xFFFF)
+            throw new IllegalArgumentException("La chiave è troppo lunga");
+
+        int bodyLength = 1 + 2 + keyBytes.length + payload.length;
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + bodyLength);
+        buffer.putInt(bodyLength);
+        buffer.putInt(0);
+        buffer.put(type);
+        buffer.putShort((short) keyBytes.length);
+        buffer.put(keyBytes);
+        buffer.put(payload);
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 8, bodyLength);
+        buffer.putInt(4, (int) crc.getValue());
+        buffer.flip();
+
+        synchronized(lock) {
+            ensureOpen();
+            long offset = writePosition;
+            try {
+                while(buffer.hasRemaining())
+                    channel.write(buffer, offset + buffer.position());
+            } catch(IOException e) {
+                //Un record scritto a metà verrebbe sovrascritto dal successivo: l'archivio non è più utilizzabile
+                failure = e;
+                throw e;
+            }
+            writePosition += buffer.limit();
+            apply(type, key, offset, buffer.limit(), keyBytes.length);
+            long seq = ++appendedSeq;
+
+            if(deadBytes >= compactionThreshold && deadBytes > liveBytes) {
+                channelLock.writeLock().lock();
+                try {
+                    rewrite();
+                } finally {
+                    channelLock.writeLock().unlock();
+                }
+            }
+            return seq;
+        }
+    }
+
+    /*
+     *   OVERVIEW: Aggiorna l'indice e il conteggio dei byte con un record posizionato in offset
+     */
+    private void apply(byte type, String key, long offset, int recordLength, int keyLength) {
+        Location old;
+        if(type == PUT) {
+            Location location = new Location(offset, recordLength, offset + RECORD_OVERHEAD + keyLength, recordLength - RECORD_OVERHEAD - keyLength);
+            old = index.put(key, location);
+            liveBytes += recordLength;
+        } else {
+            old = index.remove(key);
+            deadBytes += recordLength;
+        }
+
+        if(old != null) {
+            liveBytes -= old.recordLength;
+            deadBytes += old.recordLength;
+        }
+    }
+
+    /*
+     *   OVERVIEW: Attende che il record con numero di sequenza seq sia reso durevole
+     */
+    private void awaitDurable(long seq) throws IOException {
+        syncLock.lock();
+        try {
+            while(durableSeq < seq) {
+                if(failure != null)
+                    throw new IOException("Sincronizzazione dell'archivio fallita", failure);
+                if(terminated)
+                    throw new IOException("Archivio chiuso");
+
+                //Una sola richiesta per tutte le scritture in attesa (Durante la chiusura il record viene reso durevole da close)
+                if(!syncRequested && !closed) {
+                    syncRequested = true;
+                    syncNeeded.signal();
+                }
+                //Il record è già nel file: si attende il fsync anche se il thread viene interrotto
+                synced.awaitUninterruptibly();
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /*
+     *   OVERVIEW: Thread di sincronizzazione: un solo fsync rende durevoli tutti i record aggiunti fino a quel momento
+     */
+    private void syncLoop() {
+        while(true) {
+            syncLock.lock();
+            try {
+                while(!syncRequested && !closed)
+                    syncNeeded.awaitUninterruptibly();
+                if(!syncRequested)
+                    return;
+                syncRequested = false;
+            } finally {
+                syncLock.unlock();
+            }
+
+            long target;
+            synchronized(lock) {
+                target = appendedSeq;
+            }
+
+            IOException error = null;
+            channelLock.readLock().lock();
+            try {
+                channel.force(false);
+            } catch(IOException e) {
+                error = e;
+            } finally {
+                channelLock.readLock().unlock();
+            }
+
+            syncLock.lock();
+            try {
+                if(error != null)
+                    failure = error;
+                else if(target > durableSeq)
+                    durableSeq = target;
+                synced.signalAll();
+            } finally {
+                syncLock.unlock();
+            }
+        }
+    }
+
+    /*
+     *   OVERVIEW: Legge l'intestazione e tutti i record del file ricostruendo l'indice
+     */
+    private void replay() throws IOException {
+        long size = channel.size();
+        if(size == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            while(header.hasRemaining())
+                channel.write(header, header.position());
+            channel.force(true);
+            writePosition = HEADER_LENGTH;
+            return;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        if(size < HEADER_LENGTH || !readFully(channel, header, 0) || header.getInt(0) != MAGIC)
+            throw new IOException("Il file " + path + " non è un archivio valido");
+        if(header.getInt(4) != VERSION)
+            throw new IOException("Versione dell'archivio non supportata: " + header.getInt(4));
+
+        long position = HEADER_LENGTH;
+        ByteBuffer prefix = ByteBuffer.allocate(8);
+        CRC32 crc = new CRC32();
+        while(position < size) {
+            prefix.clear();
+            if(!readFully(channel, prefix, position))
+                break;
+            int bodyLength = prefix.getInt(0);
+            if(bodyLength < 3 || position + 8 + bodyLength > size)
+                break;
+
+            ByteBuffer body = ByteBuffer.allocate(bodyLength);
+            readFully(channel, body, position + 8);
+            crc.reset();
+            crc.update(body.array(), 0, bodyLength);
+            if((int) crc.getValue() != prefix.getInt(4))
+                break;
+
+            byte type = body.get(0);
+            int keyLength = body.getShort(1) & 0xFFFF;
+            if((type != PUT && type != REMOVE) || 3 + keyLength > bodyLength)
+                break;
+
+            String key = new String(body.array(), 3, keyLength, StandardCharsets.UTF_8);
+            apply(type, key, position, 8 + bodyLength, keyLength);
+            position += 8 + bodyLength;
+        }
+
+        //Scarta la coda non valida lasciata da una scrittura interrotta o l'estensione dell'ultimo segmento (Zeri) se il file non è stato chiuso
+        if(position < size) {
+            channel.truncate(position);
+            channel.force(true);
+        }
+        writePosition = position;
+    }
+
+    /*
+     *   OVERVIEW: Riscrive i record validi in un nuovo file e lo sostituisce a quello corrente (Richiede lock e channelLock in scrittura)
+     */
+    private void rewrite() throws IOException {
+        //I record già scritti devono essere durevoli prima di abbandonare il file corrente
+        channel.force(false);
+        syncLock.lock();
+        try {
+            durableSeq = appendedSeq;
+            synced.signalAll();
+        } finally {
+            syncLock.unlock();
+        }
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".compact");
+        LinkedHashMap<String, Location> newIndex = new LinkedHashMap<>();
+        long position = HEADER_LENGTH;
+        try(FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            while(header.hasRemaining())
+                out.write(header);
+
+            for(Map.Entry<String, Location> entry : index.entrySet()) {
+                Location old = entry.getValue();
+                long copied = 0;
+                while(copied < old.recordLength)
+                    copied += channel.transferTo(old.recordOffset + copied, old.recordLength - copied, out);
+
+                long shift = position - old.recordOffset;
+                newIndex.put(entry.getKey(), new Location(position, old.recordLength, old.payloadOffset + shift, old.payloadLength));
+                position += old.recordLength;
+            }
+            out.force(true);
+        }
+
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+
+        channel.close();
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index = newIndex;
+        //Le viste già restituite restano valide: la mappatura mantiene in vita il vecchio file finché non vengono sostituite
+        segments = new HashMap<>();
+        generation++;
+        writePosition = position;
+        liveBytes = position - HEADER_LENGTH;
+        deadBytes = 0;
+    }
+
+    /*
+     *   OVERVIEW: Rende durevole la sostituzione del file (Non supportato da tutti i sistemi operativi)
+     */
+    private void syncDirectory() {
+        Path dir = path.toAbsolutePath().getParent();
+        if(dir == null)
+            return;
+        try(FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch(IOException e) {
+            //Su alcuni sistemi non è possibile aprire una directory: la sostituzione resta atomica ma non subito durevole
+        }
+    }
+
+    /*
+     *   OVERVIEW: Ritorna una vista in sola lettura di length byte del file a partire da offset (Richiede lock)
+     */
+    private ByteBuffer mapRegion(long offset, int length) throws IOException {
+        long segment = offset / SEGMENT_SIZE;
+        long segmentStart = segment * SEGMENT_SIZE;
+        long end = offset + length;
+        if(end > segmentStart + SEGMENT_SIZE)
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).asReadOnlyBuffer();
+
+        //Ogni segmento viene mappato una sola volta: il segmento finale viene prima esteso con zeri fino alla sua fine (File sparso),
+        //così i record aggiunti in seguito sono già visibili nella stessa mappatura. Rimappare il segmento a ogni scrittura creerebbe
+        //una mappatura per record, oltre il limite del sistema operativo (vm.max_map_count)
+        MappedByteBuffer mapped = segments.get(segment);
+        if(mapped == null) {
+            long segmentEnd = segmentStart + SEGMENT_SIZE;
+            if(channel.size() < segmentEnd)
+                channel.write(ByteBuffer.allocate(1), segmentEnd - 1);
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, SEGMENT_SIZE);
+            segments.put(segment, mapped);
+        }
+
+        ByteBuffer view = mapped.duplicate();
+        view.position((int) (offset - segmentStart));
+        view.limit((int) (end - segmentStart));
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    private void ensureOpen() throws IOException {
+        if(failure != null)
+            throw new IOException("Sincronizzazione dell'archivio fallita", failure);
+        if(closed)
+            throw new IOException("Archivio chiuso");
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if(n < 0)
+                return false;
+        }
+        return true;
+    }
+
+    //Posizione di un record PUT valido nel file
+    private static class Location {
+        private final long recordOffset;
+        private final int recordLength;
+        private final long payloadOffset;
+        private final int payloadLength;
+
+        private Location(long recordOffset, int recordLength, long payloadOffset, int payloadLength) {
+            this.recordOffset = recordOffset;
+            this.recordLength = recordLength;
+            this.payloadOffset = payloadOffset;
+            this.payloadLength = payloadLength;
+        }
+    }
+}
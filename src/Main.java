@@ -16,5 +16,126 @@ public class Main {
         TestClass.testSecondaImp();
         System.out.println("\nTEST ECCEZIONI SECONDA IMPLEMENTAZIONE\n");
         TestClass.testExceptionSecondaImp();
+
+        System.out.println("\nTEST SESSIONI PRIMA IMPLEMENTAZIONE\n");
+        TestClass.testSessioni(new SecureDataCollection<>());
+        System.out.println("\nTEST SESSIONI SECONDA IMPLEMENTAZIONE\n");
+        TestClass.testSessioni(new SecureDataCollectionSecImp<>());
+
+        System.out.println("\nTEST TERZA IMPLEMENTAZIONE\n");
+        TestClass.testSessioni(new SecureDataCollectionConcurrent<>());
+        System.out.println("\nTEST CONCORRENZA TERZA IMPLEMENTAZIONE\n");
+        TestClass.testConcorrenza(16, 50);
+
+        System.out.println("\nTEST CODIFICHE\n");
+        TestClass.testCodifiche();
+
+        System.out.println("\nTEST PERSISTENZA PRIMA IMPLEMENTAZIONE\n");
+        TestClass.testPersistenza(false);
+        System.out.println("\nTEST PERSISTENZA SECONDA IMPLEMENTAZIONE\n");
+        TestClass.testPersistenza(true);
+        System.out.println("\nTEST ARCHIVIO GRANDE PRIMA IMPLEMENTAZIONE\n");
+        TestClass.testArchivioGrande(false);
+        System.out.println("\nTEST ARCHIVIO GRANDE SECONDA IMPLEMENTAZIONE\n");
+        TestClass.testArchivioGrande(true);
+
+        System.out.println("\nTEST ITERATORE PRIMA IMPLEMENTAZIONE\n");
+        TestClass.testIteratore(new SecureDataCollection<>());
+        System.out.println("\nTEST ITERATORE SECONDA IMPLEMENTAZIONE\n");
+        TestClass.testIteratore(new SecureDataCollectionSecImp<>());
+        System.out.println("\nTEST ITERATORE TERZA IMPLEMENTAZIONE\n");
+        TestClass.testIteratore(new SecureDataCollectionConcurrent<>());
+
+        System.out.println("\nTEST STREAM PARALLELO PRIMA IMPLEMENTAZIONE\n");
+        TestClass.testStreamParallelo(new SecureDataCollection<>());
+        System.out.println("\nTEST STREAM PARALLELO SECONDA IMPLEMENTAZIONE\n");
+        TestClass.testStreamParallelo(new SecureDataCollectionSecImp<>());
+        System.out.println("\nTEST STREAM PARALLELO TERZA IMPLEMENTAZIONE\n");
+        TestClass.testStreamParallelo(new SecureDataCollectionConcurrent<>());
+
+        System.out.println("\nTEST LOTTI PRIMA IMPLEMENTAZIONE\n");
+        TestClass.testLotti(new SecureDataCollection<>());
+        System.out.println("\nTEST LOTTI SECONDA IMPLEMENTAZIONE\n");
+        TestClass.testLotti(new SecureDataCollectionSecImp<>());
+        System.out.println("\nTEST LOTTI TERZA IMPLEMENTAZIONE\n");
+        TestClass.testLotti(new SecureDataCollectionConcurrent<>());
+
+        System.out.println("\nTEST CONDIVISIONE SECONDA IMPLEMENTAZIONE\n");
+        TestClass.testCondivisioneSecImp();
+
+        System.out.println("\nTEST IMPRONTE PRIMA IMPLEMENTAZIONE\n");
+        TestClass.testImpronte(false);
+
+        System.out.println("\nTEST IMPRONTE SECONDA IMPLEMENTAZIONE\n");
+        TestClass.testImpronte(true);
+
+        System.out.println("\nTEST POLITICA DELLE PASSWORD PRIMA IMPLEMENTAZIONE\n");
+        TestClass.testPolitica(false);
+
+        System.out.println("\nTEST POLITICA DELLE PASSWORD SECONDA IMPLEMENTAZIONE\n");
+        TestClass.testPolitica(true);
+
+        System.out.println("\nTEST AUTENTICAZIONE ASINCRONA TERZA IMPLEMENTAZIONE\n");
+        TestClass.testAutenticazioneAsincrona();
+
+        System.out.println("\nTEST ADATTATORE ASINCRONO PRIMA IMPLEMENTAZIONE\n");
+        TestClass.testAsincrono(new SecureDataCollection<String>());
+
+        System.out.println("\nTEST ADATTATORE ASINCRONO TERZA IMPLEMENTAZIONE\n");
+        TestClass.testAsincrono(new SecureDataCollectionConcurrent<String>());
+
+        System.out.println("\nTEST STREAMING CIFRATO PRIMA IMPLEMENTAZIONE\n");
+        TestClass.testStreamingCifrato(new SecureDataCollection<byte[]>());
+
+        System.out.println("\nTEST STREAMING CIFRATO SECONDA IMPLEMENTAZIONE\n");
+        TestClass.testStreamingCifrato(new SecureDataCollectionSecImp<byte[]>());
+
+        System.out.println("\nTEST STREAMING CIFRATO TERZA IMPLEMENTAZIONE\n");
+        TestClass.testStreamingCifrato(new SecureDataCollectionConcurrent<byte[]>());
+
+        System.out.println("\nTEST METRICHE PRIMA IMPLEMENTAZIONE\n");
+        TestClass.testMetriche(new SecureDataCollection<String>());
+
+        System.out.println("\nTEST METRICHE TERZA IMPLEMENTAZIONE\n");
+        TestClass.testMetriche(new SecureDataCollectionConcurrent<String>());
+
+        System.out.println("\nTEST ARENA OFF-HEAP PRIMA IMPLEMENTAZIONE\n");
+        TestClass.testArena(false);
+
+        System.out.println("\nTEST ARENA OFF-HEAP TERZA IMPLEMENTAZIONE\n");
+        TestClass.testArena(true);
+
+        System.out.println("\nTEST DEDUPLICAZIONE PRIMA IMPLEMENTAZIONE\n");
+        SecureDataCollection<String> deduplicazionePrima = new SecureDataCollection<>();
+        TestClass.testDeduplicazione(deduplicazionePrima, deduplicazionePrima.getContentStore());
+
+        System.out.println("\nTEST DEDUPLICAZIONE SECONDA IMPLEMENTAZIONE\n");
+        SecureDataCollectionSecImp<String> deduplicazioneSeconda = new SecureDataCollectionSecImp<>();
+        TestClass.testDeduplicazione(deduplicazioneSeconda, deduplicazioneSeconda.getContentStore());
+
+        System.out.println("\nTEST DEDUPLICAZIONE TERZA IMPLEMENTAZIONE\n");
+        SecureDataCollectionConcurrent<String> deduplicazioneTerza = new SecureDataCollectionConcurrent<>();
+        TestClass.testDeduplicazione(deduplicazioneTerza, deduplicazioneTerza.getContentStore());
+
+        System.out.println("\nTEST SNAPSHOT PRIMA IMPLEMENTAZIONE\n");
+        TestClass.testSnapshot(false);
+
+        System.out.println("\nTEST SNAPSHOT SECONDA IMPLEMENTAZIONE\n");
+        TestClass.testSnapshot(true);
+
+        System.out.println("\nTEST FLUSSO DELLE MODIFICHE PRIMA IMPLEMENTAZIONE\n");
+        SecureDataCollection<String> modifichePrima = new SecureDataCollection<>();
+        modifichePrima.setChangeLog(new ChangeLog(4));
+        TestClass.testChangeLog(modifichePrima, modifichePrima.getChangeLog());
+
+        System.out.println("\nTEST FLUSSO DELLE MODIFICHE SECONDA IMPLEMENTAZIONE\n");
+        SecureDataCollectionSecImp<String> modificheSeconda = new SecureDataCollectionSecImp<>();
+        modificheSeconda.setChangeLog(new ChangeLog(4));
+        TestClass.testChangeLog(modificheSeconda, modificheSeconda.getChangeLog());
+
+        System.out.println("\nTEST FLUSSO DELLE MODIFICHE TERZA IMPLEMENTAZIONE\n");
+        SecureDataCollectionConcurrent<String> modificheTerza = new SecureDataCollectionConcurrent<>();
+        modificheTerza.setChangeLog(new ChangeLog(4));
+        TestClass.testChangeLog(modificheTerza, modificheTerza.getChangeLog());
     }
 }
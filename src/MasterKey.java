@@ -0,0 +1,176 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+Funzione di astrazione:
+    f(mk) = <key, destroyed> -->
+    dove key è la chiave master dell'utente da cui vengono derivate le chiavi dei singoli dati
+
+Invariante di rappresentazione:
+    key != null && key.length == KEY_LENGTH && (destroyed => forall(b appartenente a key).(b == 0))
+*/
+
+//Chiave master di un utente, sbloccata una sola volta tramite la password (Vedi UserKeyring)
+class MasterKey {
+    static final int KEY_LENGTH = 32;
+
+    //Etichetta HKDF per le chiavi di cifratura dei dati
+    private static final byte[] ELEMENT_KEY_INFO = "SecureDataInfo AES-GCM".getBytes(StandardCharsets.UTF_8);
+
+    private final byte[] key;
+    private volatile boolean destroyed = false;
+
+    //La chiave di una sessione può essere distrutta (logout, scadenza) mentre un'operazione della stessa sessione la sta usando
+    //su un altro thread: le letture di key avvengono in lettura, destroy in scrittura, così nessuna lettura vede una chiave azzerata a metà
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /*
+     *   OVERVIEW: Crea la chiave master a partire dai byte forniti
+     *   REQUIRES: key != null, key.length == KEY_LENGTH
+     *   MODIFIES: this
+     *   EFFECTS: Crea la chiave master copiando i byte forniti
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     *      IllegalArgumentException, quando la lunghezza della chiave non è valida (Unchecked)
+     */
+    MasterKey(byte[] key) throws IllegalArgumentException {
+        if(key == null)
+            throw new NullPointerException();
+
+        if(key.length != KEY_LENGTH)
+            throw new IllegalArgumentException("key deve essere lunga " + KEY_LENGTH + " byte");
+
+        this.key = Arrays.copyOf(key, key.length);
+    }
+
+    /*
+     *   OVERVIEW: Genera una nuova chiave master casuale
+     *   REQUIRES: secureRandom != null
+     *   MODIFIES:
+     *   EFFECTS: Ritorna una nuova chiave master casuale
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    static MasterKey generate(SecureRandom secureRandom) {
+        byte[] bytes = new byte[KEY_LENGTH];
+        secureRandom.nextBytes(bytes);
+        MasterKey masterKey = new MasterKey(bytes);
+        Arrays.fill(bytes, (byte) 0);
+        return masterKey;
+    }
+
+    /*
+     *   OVERVIEW: Deriva la chiave AES di un dato tramite HKDF-SHA256
+     *   REQUIRES: salt != null, 0 < length <= 32
+     *   MODIFIES:
+     *   EFFECTS: Ritorna la chiave AES di length byte derivata dalla chiave master e dal salt del dato
+     *   THROWS:
+     *      NoSuchAlgorithmException, quando viene chiesto di usare un algoritmo di crittografia non presente nell'ambiente (Unchecked)
+     *      InvalidKeyException, quando la chiave master è stata distrutta (Unchecked)
+     *      IllegalArgumentException, quando la lunghezza richiesta non è valida (Unchecked)
+     */
+    SecretKeySpec deriveElementKey(byte[] salt, int length) throws NoSuchAlgorithmException, InvalidKeyException, IllegalArgumentException {
+        if(salt == null)
+            throw new NullPointerException();
+
+        if(length <= 0 || length > 32)
+            throw new IllegalArgumentException("length deve essere compresa tra 1 e 32");
+
+        lock.readLock().lock();
+        try {
+            if(destroyed)
+                throw new InvalidKeyException("La chiave master è stata distrutta");
+
+            return derive(salt, length);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     *   OVERVIEW: Deriva la chiave AES di un dato (Richiede lock in lettura)
+     */
+    private SecretKeySpec derive(byte[] salt, int length) throws NoSuchAlgorithmException, InvalidKeyException {
+        long start = Tracing.start();
+
+        //HKDF-Extract: PRK = HMAC(salt, key)
+        Mac mac = CryptoEngine.hmacSha256();
+        mac.init(new SecretKeySpec(salt, "HmacSHA256"));
+        byte[] prk = mac.doFinal(key);
+
+        //HKDF-Expand (un solo blocco): OKM = HMAC(PRK, info || 0x01)
+        mac.init(new SecretKeySpec(prk, "HmacSHA256"));
+        mac.update(ELEMENT_KEY_INFO);
+        mac.update((byte) 1);
+        byte[] okm = mac.doFinal();
+
+        SecretKeySpec elementKey = new SecretKeySpec(okm, 0, length, "AES");
+        Arrays.fill(prk, (byte) 0);
+        Arrays.fill(okm, (byte) 0);
+        Tracing.end(OperationPhase.KEY_DERIVATION, start);
+        return elementKey;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna una copia dei byte della chiave (Solo per la cifratura della chiave stessa)
+     */
+    byte[] getEncoded() throws InvalidKeyException {
+        lock.readLock().lock();
+        try {
+            if(destroyed)
+                throw new InvalidKeyException("La chiave master è stata distrutta");
+
+            return Arrays.copyOf(key, key.length);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     *   OVERVIEW: Ritorna una copia indipendente della chiave
+     */
+    MasterKey copy() throws InvalidKeyException {
+        byte[] bytes = getEncoded();
+        MasterKey copy = new MasterKey(bytes);
+        Arrays.fill(bytes, (byte) 0);
+        return copy;
+    }
+
+    /*
+     *   OVERVIEW: Azzera la chiave in memoria
+     *   REQUIRES:
+     *   MODIFIES: this
+     *   EFFECTS: Attende le derivazioni e le copie in corso, poi sovrascrive con zeri i byte della chiave, che non è più utilizzabile
+     *   THROWS:
+     *
+     */
+    void destroy() {
+        lock.writeLock().lock();
+        try {
+            destroyed = true;
+            Arrays.fill(key, (byte) 0);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /*
+     *   OVERVIEW: Ritorna true se la chiave è stata distrutta
+     */
+    boolean isDestroyed() {
+        return destroyed;
+    }
+}
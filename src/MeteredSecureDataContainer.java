@@ -0,0 +1,439 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/*
+Funzione di astrazione:
+    f(m) = f(delegate)
+
+Invariante di rappresentazione:
+    delegate != null && metrics != null
+*/
+
+/*
+ *   OVERVIEW: Decoratore che misura ogni operazione di una SecureDataContainer qualsiasi.
+ *             Per ogni operazione registra durata e fallimenti (per causa) in ContainerMetrics; durante l'operazione le fasi interne
+ *             delle collezioni (autenticazione, derivazione delle chiavi, codifica, impronta, cifratura, ricerca) vengono attribuite
+ *             alle stesse metriche (Vedi Tracing). Il costo è di due letture del timer e qualche contatore LongAdder per operazione e per fase.
+ *             Le operazioni con sessione sono registrate come <operazione>.sessione. L'iteratore ritornato misura ogni next come iterator.next;
+ *             gli stream e gli InputStream sono misurati solo alla creazione.
+ *             Il decoratore è thread-safe se lo è la collezione decorata.
+ */
+public class MeteredSecureDataContainer<E> implements SecureDataContainer<E> {
+    private final SecureDataContainer<E> delegate;
+    private final ContainerMetrics metrics;
+
+    /*
+     *   OVERVIEW: Decora la collezione con metriche nuove chiamate come la classe della collezione
+     *   REQUIRES: delegate != null
+     *   MODIFIES: this
+     *   EFFECTS: Crea un decoratore di delegate con metriche vuote
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public MeteredSecureDataContainer(SecureDataContainer<E> delegate) {
+        this(delegate, new ContainerMetrics(delegate.getClass().getSimpleName()));
+    }
+
+    /*
+     *   OVERVIEW: Decora la collezione registrando nelle metriche fornite (Più collezioni possono condividere le stesse metriche)
+     *   REQUIRES: delegate, metrics != null
+     *   MODIFIES: this
+     *   EFFECTS: Crea un decoratore di delegate che registra in metrics
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public MeteredSecureDataContainer(SecureDataContainer<E> delegate, ContainerMetrics metrics) {
+        if(delegate == null || metrics == null)
+            throw new NullPointerException();
+
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna le metriche della collezione (Vedi ContainerMetrics.registerMBean e publishTo)
+     */
+    public ContainerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna la collezione decorata
+     */
+    public SecureDataContainer<E> getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void createUser(String id, String passw) throws InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidSizeException, UsernameNotAvailableException {
+        Measurement measurement = begin("createUser");
+        try {
+            delegate.createUser(id, passw);
+        } catch(Throwable e) {
+            measurement.fail(e);
+            throw e;
+        } finally {
+            measurement.end();
+        }
+    }
+
+    @Override
+    public int getSize(String owner, String passw) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException {
+        Measurement measurement = begin("getSize");
+        try {
+            return delegate.getSize(owner, passw);
+        } catch(Throwable e) {
+            measurement.fail(e);
+            throw e;
+        } finally {
+            measurement.end();
+        }
+    }
+
+    @Override
+    public boolean put(String owner, String passw, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, IOException, IllegalBlockSizeException, InvalidKeyException, BadPaddingException, InvalidAlgorithmParameterException, NoSuchPaddingException {
+        Measurement measurement = begin("put");
+        try {
+            return delegate.put(owner, passw, data);
+        } catch(Throwable e) {
+            measurement.fail(e);
+            throw e;
+        } finally {
+            measurement.end();
+        }
+    }
+
+    @Override
+    public E get(String owner, String passw, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        Measurement measurement = begin("get");
+        try {
+            return delegate.get(owner, passw, data);
+        } catch(Throwable e) {
+            measurement.fail(e);
+            throw e;
+        } finally {
+            measurement.end();
+        }
+    }
+
+    @Override
+    public E remove(String owner, String passw, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, IOException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, IllegalBlockSizeException, InvalidKeyException, ClassNotFoundException {
+        Measurement measurement = begin("remove");
+        try {
+            return delegate.remove(owner, passw, data);
+        } catch(Throwable e) {
+            measurement.fail(e);
+            throw e;
+        } finally {
+            measurement.end();
+        }
+    }
+
+    @Override
+    public void copy(String owner, String passw, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, IOException, IllegalBlockSizeException, InvalidKeyException, BadPaddingException, InvalidAlgorithmParameterException, NoSuchPaddingException, AlreadyInCollection {
+        Measurement measurement = begin("copy");
+        try {
+            delegate.copy(owner, passw, data);
+        } catch(Throwable e) {
+            measurement.fail(e);
+            throw e;
+        } finally {
+            measurement.end();
+        }
+    }
+
+    @Override
+    public void share(String owner, String passw, String other, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, IOException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, IllegalBlockSizeException, InvalidKeyException, ClassNotFoundException, UsernameNotAvailableException, AlreadySharedException {
+        Measurement measurement = begin("share");
+        try {
+            delegate.share(owner, passw, other, data);
+        } catch(Throwable e) {
+            measurement.fail(e);
+            throw e;
+        } finally {
+            measurement.end();
+        }
+    }
+
+    @Override
+    public Iterator<E> getIterator(String owner, String passw) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        Measurement measurement = begin("getIterator");
+        try {
+            return new MeteredIterator<>(delegate.getIterator(owner, passw));
+        } catch(Throwable e) {
+            measurement.fail(e);
+            throw e;
+        } finally {
+            measurement.end();
+        }
+    }
+
+    @Override
+    public SessionToken login(String id, String passw) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidKeyException {
+        Measurement measurement = begin("login");
+        try {
+            return delegate.login(id, passw);
+        } catch(Throwable e) {
+            measurement.fail(e);
+            throw e;
+        } finally {
+            measurement.end();
+        }
+    }
+
+    @Override
+    public boolean logout(SessionToken session) {
+        Measurement measurement = begin("logout.sessione");
+        try {
+            return delegate.logout(session);
+        } catch(Throwable e) {
+            measurement.fail(e);
+            throw e;
+        } finally {
+            measurement.end();
+        }
+    }
+
+    @Override
+    public int getSize(SessionToken session) throws InvalidAuthenticationException {
+        Measurement measurement = begin("getSize.sessione");
+        try {
+            return delegate.getSize(session);
+        } catch(Throwable e) {
+            measurement.fail(e);
+            throw e;
+        } finally {
+            measurement.end();
+        }
+    }
+
+    @Override
+    public boolean put(SessionToken session, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, IOException, IllegalBlockSizeException, InvalidKeyException, BadPaddingException, InvalidAlgorithmParameterException, NoSuchPaddingException {
+        Measurement measurement = begin("put.sessione");
+        try {
+            return delegate.put(session, data);
+        } catch(Throwable e) {
+            measurement.fail(e);
+            throw e;
+        } finally {
+            measurement.end();
+        }
+    }
+
+    @Override
+    public E get(SessionToken session, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        Measurement measurement = begin("get.sessione");
+        try {
+            return delegate.get(session, data);
+        } catch(Throwable e) {
+            measurement.fail(e);
+            throw e;
+        } finally {
+            measurement.end();
+        }
+    }
+
+    @Override
+    public E remove(SessionToken session, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, IOException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, IllegalBlockSizeException, InvalidKeyException, ClassNotFoundException {
+        Measurement measurement = begin("remove.sessione");
+        try {
+            return delegate.remove(session, data);
+        } catch(Throwable e) {
+            measurement.fail(e);
+            throw e;
+        } finally {
+            measurement.end();
+        }
+    }
+
+    @Override
+    public void copy(SessionToken session, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, IOException, IllegalBlockSizeException, InvalidKeyException, BadPaddingException, InvalidAlgorithmParameterException, NoSuchPaddingException, AlreadyInCollection {
+        Measurement measurement = begin("copy.sessione");
+        try {
+            delegate.copy(session, data);
+        } catch(Throwable e) {
+            measurement.fail(e);
+            throw e;
+        } finally {
+            measurement.end();
+        }
+    }
+
+    @Override
+    public void share(SessionToken session, String other, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, IOException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, IllegalBlockSizeException, InvalidKeyException, ClassNotFoundException, UsernameNotAvailableException, AlreadySharedException {
+        Measurement measurement = begin("share.sessione");
+        try {
+            delegate.share(session, other, data);
+        } catch(Throwable e) {
+            measurement.fail(e);
+            throw e;
+        } finally {
+            measurement.end();
+        }
+    }
+
+    @Override
+    public Iterator<E> getIterator(SessionToken session) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        Measurement measurement = begin("getIterator.sessione");
+        try {
+            return new MeteredIterator<>(delegate.getIterator(session));
+        } catch(Throwable e) {
+            measurement.fail(e);
+            throw e;
+        } finally {
+            measurement.end();
+        }
+    }
+
+    @Override
+    public InputStream getInputStream(String owner, String passw, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        Measurement measurement = begin("getInputStream");
+        try {
+            return delegate.getInputStream(owner, passw, data);
+        } catch(Throwable e) {
+            measurement.fail(e);
+            throw e;
+        } finally {
+            measurement.end();
+        }
+    }
+
+    @Override
+    public InputStream getInputStream(SessionToken session, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        Measurement measurement = begin("getInputStream.sessione");
+        try {
+            return delegate.getInputStream(session, data);
+        } catch(Throwable e) {
+            measurement.fail(e);
+            throw e;
+        } finally {
+            measurement.end();
+        }
+    }
+
+    @Override
+    public Stream<E> getStream(String owner, String passw) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        Measurement measurement = begin("getStream");
+        try {
+            return delegate.getStream(owner, passw);
+        } catch(Throwable e) {
+            measurement.fail(e);
+            throw e;
+        } finally {
+            measurement.end();
+        }
+    }
+
+    @Override
+    public Stream<E> getStream(SessionToken session) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        Measurement measurement = begin("getStream.sessione");
+        try {
+            return delegate.getStream(session);
+        } catch(Throwable e) {
+            measurement.fail(e);
+            throw e;
+        } finally {
+            measurement.end();
+        }
+    }
+
+    @Override
+    public Stream<E> getParallelStream(String owner, String passw, boolean ordered) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        Measurement measurement = begin("getParallelStream");
+        try {
+            return delegate.getParallelStream(owner, passw, ordered);
+        } catch(Throwable e) {
+            measurement.fail(e);
+            throw e;
+        } finally {
+            measurement.end();
+        }
+    }
+
+    @Override
+    public Stream<E> getParallelStream(SessionToken session, boolean ordered) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        Measurement measurement = begin("getParallelStream.sessione");
+        try {
+            return delegate.getParallelStream(session, ordered);
+        } catch(Throwable e) {
+            measurement.fail(e);
+            throw e;
+        } finally {
+            measurement.end();
+        }
+    }
+
+    /*
+     *   OVERVIEW: Inizia la misura di un'operazione attivando le metriche nel thread corrente
+     */
+    private Measurement begin(String operation) {
+        return new Measurement(operation);
+    }
+
+    //Misura di un'operazione in corso: end registra durata ed eventuale fallimento e ripristina le metriche attive in precedenza
+    private final class Measurement {
+        private final String operation;
+        private final ContainerMetrics previous;
+        private final long start;
+        private Throwable failure;
+
+        private Measurement(String operation) {
+            this.operation = operation;
+            this.previous = Tracing.enter(metrics);
+            this.start = System.nanoTime();
+        }
+
+        private void fail(Throwable failure) {
+            this.failure = failure;
+        }
+
+        private void end() {
+            long elapsed = System.nanoTime() - start;
+            Tracing.exit(previous);
+            metrics.recordOperation(operation, elapsed, failure);
+        }
+    }
+
+    //Iteratore che misura ogni next (I dati vengono decifrati durante l'iterazione, Vedi DecryptingIterator)
+    private final class MeteredIterator<T> implements Iterator<T> {
+        private final Iterator<T> iterator;
+
+        private MeteredIterator(Iterator<T> iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public T next() {
+            Measurement measurement = begin("iterator.next");
+            try {
+                return iterator.next();
+            } catch(Throwable e) {
+                measurement.fail(e);
+                throw e;
+            } finally {
+                measurement.end();
+            }
+        }
+    }
+}
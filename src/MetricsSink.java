@@ -0,0 +1,21 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import java.util.Map;
+
+//Destinazione delle metriche di una collezione (Vedi ContainerMetrics.publishTo): log, sistema di monitoraggio, test...
+@FunctionalInterface
+public interface MetricsSink {
+    /*
+     *   OVERVIEW: Riceve un'istantanea delle metriche
+     *   REQUIRES: source, metrics != null
+     *   MODIFIES:
+     *   EFFECTS: Consuma le metriche di source. metrics è una mappa non modificabile dal nome della metrica al valore
+     *            (Vedi ContainerMetrics.snapshot per i nomi)
+     */
+    void report(String source, Map<String, Number> metrics);
+}
@@ -0,0 +1,37 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+//Fasi interne di un'operazione misurate da ContainerMetrics (Vedi MeteredSecureDataContainer)
+public enum OperationPhase {
+    //Verifica PBKDF2 della password dell'utente
+    AUTHENTICATION("authentication"),
+    //Sblocco della chiave master (PBKDF2 + AES-GCM) e derivazione HKDF della chiave di un dato
+    KEY_DERIVATION("key_derivation"),
+    //Codifica e decodifica del dato (Vedi DataCodecs)
+    SERIALIZATION("serialization"),
+    //Calcolo dell'impronta del dato codificato (Vedi ContentFingerprinter)
+    DIGEST("digest"),
+    //Cifratura AES-GCM del dato codificato
+    ENCRYPTION("encryption"),
+    //Decifratura AES-GCM del dato
+    DECRYPTION("decryption"),
+    //Ricerca del dato negli indici della collezione
+    INDEX_LOOKUP("index_lookup");
+
+    private final String name;
+
+    OperationPhase(String name) {
+        this.name = name;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna il nome della fase usato nelle metriche esportate
+     */
+    public String getName() {
+        return name;
+    }
+}
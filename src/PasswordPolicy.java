@@ -0,0 +1,153 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import javax.crypto.spec.PBEKeySpec;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+
+/*
+Funzione di astrazione:
+    f(p) = <iterations, keyLength, saltLength> -->
+    dove iterations, keyLength (bit) e saltLength (byte) sono le impostazioni PBKDF2 con cui vengono cifrate le password
+    e i portachiavi degli utenti
+
+Invariante di rappresentazione:
+    iterations >= MIN_ITERATIONS && iterations <= MAX_ITERATIONS && keyLength >= 128 && keyLength % 8 == 0 && saltLength >= 16 && saltLength <= 1024
+*/
+
+//Impostazioni PBKDF2 delle password: una collezione cifra di nuovo la password di un utente al primo login riuscito dopo un cambio di impostazioni
+public final class PasswordPolicy {
+    public static final int MIN_ITERATIONS = 1000;
+    public static final int MAX_ITERATIONS = 10000000;
+
+    private static final int DEFAULT_KEY_LENGTH = 512;
+    private static final int DEFAULT_SALT_LENGTH = 64;
+
+    //Durata minima di una misura durante la calibrazione (Misure più brevi sono dominate dal rumore del timer)
+    private static final long SAMPLE_NANOS = 20000000L;
+
+    //Impostazioni predefinite (Le stesse delle versioni precedenti: 5000 iterazioni, chiave di 512 bit, salt di 64 byte)
+    public static final PasswordPolicy DEFAULT = valid(5000, DEFAULT_KEY_LENGTH, DEFAULT_SALT_LENGTH);
+
+    private final int iterations;
+    private final int keyLength;
+    private final int saltLength;
+
+    /*
+     *   OVERVIEW: Crea una politica con le impostazioni fornite
+     *   REQUIRES: MIN_ITERATIONS <= iterations <= MAX_ITERATIONS, keyLength >= 128 multiplo di 8, 16 <= saltLength <= 1024
+     *   MODIFIES: this
+     *   EFFECTS: Crea una politica con le impostazioni fornite
+     *   THROWS:
+     *      InvalidSizeException, quando le impostazioni non sono valide (Checked)
+     */
+    public PasswordPolicy(int iterations, int keyLength, int saltLength) throws InvalidSizeException {
+        if(iterations < MIN_ITERATIONS || iterations > MAX_ITERATIONS || keyLength < 128 || keyLength % 8 != 0 || saltLength < 16 || saltLength > 1024)
+            throw new InvalidSizeException("iterations deve essere tra " + MIN_ITERATIONS + " e " + MAX_ITERATIONS + ", key_length deve essere >= 128 e multiplo di 8, salt_length deve essere tra 16 e 1024");
+
+        this.iterations = iterations;
+        this.keyLength = keyLength;
+        this.saltLength = saltLength;
+    }
+
+    /*
+     *   OVERVIEW: Crea una politica con impostazioni che il chiamante sa essere valide (Costanti e calibrazione)
+     *   THROWS:
+     *      IllegalStateException, quando le impostazioni non sono valide (Errore di programmazione) (Unchecked)
+     */
+    private static PasswordPolicy valid(int iterations, int keyLength, int saltLength) {
+        try {
+            return new PasswordPolicy(iterations, keyLength, saltLength);
+        } catch(InvalidSizeException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+     *   OVERVIEW: Misura la velocità di PBKDF2 su questa macchina e crea una politica con la latenza di verifica richiesta
+     *   REQUIRES: targetMillis > 0
+     *   MODIFIES:
+     *   EFFECTS: Ritorna una politica con chiave e salt predefiniti e il numero di iterazioni (multiplo di 1000, tra MIN_ITERATIONS e MAX_ITERATIONS)
+     *            per cui una verifica della password dura circa targetMillis millisecondi. Da chiamare all'avvio: la misura dura
+     *            qualche decina di millisecondi oltre a targetMillis. Il primo accesso di un utente esegue due derivazioni (password e portachiavi)
+     *   THROWS:
+     *      NoSuchAlgorithmException, quando viene chiesto di usare un algoritmo di crittografia non presente nell'ambiente (Unchecked)
+     *      InvalidKeySpecException, quando le specifiche per l'oggetto KeySpec non sono valide (Unchecked)
+     *      IllegalArgumentException, quando targetMillis <= 0 (Unchecked)
+     */
+    public static PasswordPolicy calibrate(long targetMillis) throws NoSuchAlgorithmException, InvalidKeySpecException, IllegalArgumentException {
+        if(targetMillis <= 0)
+            throw new IllegalArgumentException("targetMillis deve essere > 0");
+
+        char[] password = "calibrazione".toCharArray();
+        byte[] salt = new byte[DEFAULT_SALT_LENGTH];
+
+        //Riscaldamento: la prima derivazione include il caricamento delle classi e la compilazione JIT
+        for(int i = 0; i < 3; i++)
+            measure(password, salt, MIN_ITERATIONS);
+
+        //Raddoppia le iterazioni finché una misura non è abbastanza lunga da essere affidabile
+        int iterations = MIN_ITERATIONS;
+        long elapsed = measure(password, salt, iterations);
+        while(elapsed < SAMPLE_NANOS && iterations < MAX_ITERATIONS / 2) {
+            iterations *= 2;
+            elapsed = measure(password, salt, iterations);
+        }
+
+        double nanosPerIteration = (double) Math.max(elapsed, 1) / iterations;
+        long target = Math.round(targetMillis * 1000000.0 / nanosPerIteration / 1000.0) * 1000L;
+        target = Math.max(MIN_ITERATIONS, Math.min(MAX_ITERATIONS, target));
+        return valid((int) target, DEFAULT_KEY_LENGTH, DEFAULT_SALT_LENGTH);
+    }
+
+    //Migliore di tre derivazioni (La più veloce è la meno disturbata da GC e da altri processi).
+    //Usa la stessa SecretKeyFactory della verifica delle password (Vedi CryptoEngine.pbkdf2)
+    private static long measure(char[] password, byte[] salt, int iterations) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        long best = Long.MAX_VALUE;
+        for(int i = 0; i < 3; i++) {
+            PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, DEFAULT_KEY_LENGTH);
+            long start = System.nanoTime();
+            CryptoEngine.pbkdf2().generateSecret(spec);
+            best = Math.min(best, System.nanoTime() - start);
+            spec.clearPassword();
+        }
+        return best;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public int getKeyLength() {
+        return keyLength;
+    }
+
+    public int getSaltLength() {
+        return saltLength;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o)
+            return true;
+        if(!(o instanceof PasswordPolicy))
+            return false;
+
+        PasswordPolicy other = (PasswordPolicy) o;
+        return iterations == other.iterations && keyLength == other.keyLength && saltLength == other.saltLength;
+    }
+
+    @Override
+    public int hashCode() {
+        return (iterations * 31 + keyLength) * 31 + saltLength;
+    }
+
+    @Override
+    public String toString() {
+        return "PasswordPolicy[iterations=" + iterations + ", key_length=" + keyLength + ", salt_length=" + saltLength + "]";
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+Funzione di astrazione:
+    f(a) = <{(handle, record, references)0,...,(handle, record, references)n}> -->
+    dove record è la sequenza di byte allocata con allocate e identificata da handle, references il numero di riferimenti
+    (allocate e retain) non ancora rilasciati con free, n == recordCount-1
+
+Invariante di rappresentazione:
+    slabs != null && locations != null && generations != null && references != null &&
+    locations.length == generations.length && locations.length == references.length &&
+    forall(s. 0 <= s < nextSlot) => (locations[s] == FREE <=> references[s] == 0) &&
+    forall(s. 0 <= s < nextSlot) => (locations[s] == FREE || (slabs[slabIndex(locations[s])] != null &&
+        l'intestazione del record in locations[s] contiene s)) &&
+    forall(slab appartenente a slabs, slab != null) => (0 <= slab.live <= slab.top <= slabSize) &&
+    liveBytes == somma delle lunghezze dei record vivi && recordCount == numero di s con locations[s] != FREE
+*/
+
+/*
+ *   OVERVIEW: Memoria off-heap per i dati cifrati di piccole dimensioni (Vedi SecureDataInfo.moveTo).
+ *             I record vengono scritti uno dopo l'altro in slab di memoria diretta (ByteBuffer.allocateDirect) e sono identificati
+ *             da un handle (long) che resta valido anche quando il record viene spostato dalla deframmentazione.
+ *             Più dati possono condividere lo stesso record (Vedi retain e SecureDataInfo.copyFor): il record viene liberato all'ultimo free.
+ *             Lo spazio di un record liberato non viene riusato all'interno del suo slab: uno slab senza record vivi viene abbandonato,
+ *             uno slab con meno di un quarto di byte vivi viene deframmentato spostando i suoi record nello slab corrente.
+ *             Una vista ottenuta con view resta quindi leggibile anche dopo free o compact: la memoria di uno slab abbandonato viene
+ *             restituita al sistema dal garbage collector quando nessuna vista la usa più.
+ *             Tutte le operazioni sono thread-safe; la lettura di una vista avviene fuori dal lock.
+ */
+public final class PayloadArena {
+    //Dimensione predefinita degli slab
+    public static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+
+    //Intestazione di ogni record: slot (int) e lunghezza (int). Un record liberato ha slot FREE
+    private static final int HEADER = 8;
+    private static final int FREE = -1;
+
+    //Uno slab (non corrente) con meno di questa frazione di byte vivi viene deframmentato a ogni free
+    private static final double EVACUATE_BELOW = 0.25;
+
+    private final int slabSize;
+    private final int maxRecordSize;
+
+    private Slab[] slabs = new Slab[8];
+    private int[] freeSlabIndexes = new int[8];
+    private int freeSlabCount;
+    private int slabCount;
+    private Slab current;
+
+    //Posizione di ogni record (indice dello slab << 32 | offset dell'intestazione), generazione dello slot (Invalida gli handle liberati)
+    //e numero di riferimenti al record
+    private long[] locations = new long[1024];
+    private int[] generations = new int[1024];
+    private int[] references = new int[1024];
+    private int[] freeSlots = new int[64];
+    private int freeSlotCount;
+    private int nextSlot;
+
+    private long liveBytes;
+    private int recordCount;
+
+    /*
+     *   OVERVIEW: Crea un'arena vuota con slab di dimensione predefinita
+     */
+    public PayloadArena() {
+        this(DEFAULT_SLAB_SIZE);
+    }
+
+    /*
+     *   OVERVIEW: Crea un'arena vuota con slab della dimensione fornita
+     *   REQUIRES: slabSize >= 4096
+     *   MODIFIES: this
+     *   EFFECTS: Crea un'arena vuota (La memoria viene allocata al primo record). Un record può occupare al massimo un quarto di slab
+     *   THROWS:
+     *      IllegalArgumentException, quando slabSize < 4096 (Unchecked)
+     */
+    public PayloadArena(int slabSize) throws IllegalArgumentException {
+        if(slabSize < 4096)
+            throw new IllegalArgumentException("slabSize deve essere >= 4096");
+
+        this.slabSize = slabSize;
+        this.maxRecordSize = slabSize / 4 - HEADER;
+        Arrays.fill(locations, FREE);
+    }
+
+    /*
+     *   OVERVIEW: Ritorna true se un record di length byte può essere allocato nell'arena
+     */
+    boolean fits(int length) {
+        return length >= 0 && length <= maxRecordSize;
+    }
+
+    /*
+     *   OVERVIEW: Alloca un record
+     *   REQUIRES: fits(length)
+     *   MODIFIES: this
+     *   EFFECTS: Ritorna l'handle di un nuovo record di length byte (Da scrivere tramite view prima di renderlo visibile ad altri thread)
+     *   THROWS:
+     *      IllegalArgumentException, quando length non è valida (Unchecked)
+     *      OutOfMemoryError, quando la memoria diretta della JVM è esaurita (Vedi -XX:MaxDirectMemorySize)
+     */
+    synchronized long allocate(int length) throws IllegalArgumentException {
+        if(!fits(length))
+            throw new IllegalArgumentException("Lunghezza del record non valida: " + length);
+
+        int slot = takeSlot();
+        long location = reserve(length);
+        Slab slab = slabs[(int) (location >>> 32)];
+        int offset = (int) location;
+        slab.buffer.putInt(offset, slot);
+        slab.buffer.putInt(offset + 4, length);
+
+        locations[slot] = location;
+        references[slot] = 1;
+        liveBytes += length;
+        recordCount++;
+        return ((long) generations[slot] << 32) | slot;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna una vista del record
+     *   REQUIRES:
+     *   MODIFIES:
+     *   EFFECTS: Ritorna un ByteBuffer (posizione 0, limite pari alla lunghezza del record) che condivide la memoria del record,
+     *            oppure null se handle è stato liberato. La vista resta leggibile anche se il record viene poi liberato o spostato
+     */
+    synchronized ByteBuffer view(long handle) {
+        int slot = validSlot(handle);
+        if(slot == FREE)
+            return null;
+
+        long location = locations[slot];
+        ByteBuffer buffer = slabs[(int) (location >>> 32)].buffer.duplicate();
+        int offset = (int) location + HEADER;
+        buffer.limit(offset + buffer.getInt(offset - 4));
+        buffer.position(offset);
+        return buffer.slice();
+    }
+
+    /*
+     *   OVERVIEW: Aggiunge un riferimento al record (Un dato che condivide il record di un altro)
+     *   REQUIRES:
+     *   MODIFIES: this
+     *   EFFECTS: Aggiunge un riferimento al record di handle e ritorna true, oppure false se il record è già stato liberato
+     */
+    synchronized boolean retain(long handle) {
+        int slot = validSlot(handle);
+        if(slot == FREE)
+            return false;
+
+        references[slot]++;
+        return true;
+    }
+
+    /*
+     *   OVERVIEW: Rilascia un riferimento al record
+     *   REQUIRES:
+     *   MODIFIES: this
+     *   EFFECTS: Rilascia un riferimento al record di handle e ritorna true, oppure false se era già stato liberato.
+     *            All'ultimo riferimento il record viene liberato: uno slab rimasto senza record vivi viene abbandonato,
+     *            uno slab con meno di un quarto di byte vivi viene deframmentato
+     */
+    synchronized boolean free(long handle) {
+        int slot = validSlot(handle);
+        if(slot == FREE)
+            return false;
+
+        if(--references[slot] > 0)
+            return true;
+
+        long location = locations[slot];
+        Slab slab = slabs[(int) (location >>> 32)];
+        int offset = (int) location;
+        int length = slab.buffer.getInt(offset + 4);
+        slab.buffer.putInt(offset, FREE);
+        slab.live -= size(length);
+
+        locations[slot] = FREE;
+        generations[slot]++;
+        if(freeSlotCount == freeSlots.length)
+            freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+        freeSlots[freeSlotCount++] = slot;
+        liveBytes -= length;
+        recordCount--;
+
+        if(slab != current) {
+            if(slab.live == 0)
+                drop(slab);
+            else if(slab.live < slabSize * EVACUATE_BELOW)
+                evacuate(slab);
+        }
+        return true;
+    }
+
+    /*
+     *   OVERVIEW: Deframmenta l'arena
+     *   REQUIRES:
+     *   MODIFIES: this
+     *   EFFECTS: Sposta i record vivi di ogni slab (tranne quello corrente) che contiene spazio liberato negli slab successivi,
+     *            abbandonando gli slab svuotati. Gli handle restano validi. Ritorna il numero di byte di slab restituiti
+     */
+    public synchronized long compact() {
+        int before = slabCount;
+        List<Slab> fragmented = new ArrayList<>();
+        for(Slab slab : slabs) {
+            if(slab != null && slab != current && slab.live < slab.top)
+                fragmented.add(slab);
+        }
+        for(Slab slab : fragmented)
+            evacuate(slab);
+        return (long) (before - slabCount) * slabSize;
+    }
+
+    public int getSlabSize() {
+        return slabSize;
+    }
+
+    public synchronized int getSlabCount() {
+        return slabCount;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna i byte di memoria diretta occupati dagli slab in uso
+     */
+    public synchronized long getReservedBytes() {
+        return (long) slabCount * slabSize;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna la somma delle lunghezze dei record vivi (Senza intestazioni e allineamento)
+     */
+    public synchronized long getLiveBytes() {
+        return liveBytes;
+    }
+
+    public synchronized int getRecordCount() {
+        return recordCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PayloadArena[records=" + recordCount + ", live_bytes=" + liveBytes + ", slabs=" + slabCount + ", slab_size=" + slabSize + "]";
+    }
+
+    //Ritorna lo slot di handle, FREE se handle non identifica un record vivo
+    private int validSlot(long handle) {
+        int slot = (int) handle;
+        if(slot < 0 || slot >= nextSlot || generations[slot] != (int) (handle >>> 32) || locations[slot] == FREE)
+            return FREE;
+        return slot;
+    }
+
+    private int takeSlot() {
+        if(freeSlotCount > 0)
+            return freeSlots[--freeSlotCount];
+
+        if(nextSlot == locations.length) {
+            int size = locations.length * 2;
+            locations = Arrays.copyOf(locations, size);
+            Arrays.fill(locations, nextSlot, size, FREE);
+            generations = Arrays.copyOf(generations, size);
+            references = Arrays.copyOf(references, size);
+        }
+        return nextSlot++;
+    }
+
+    //Spazio occupato da un record di length byte (Intestazione e allineamento a 8 byte compresi)
+    private static int size(int length) {
+        return (HEADER + length + 7) & ~7;
+    }
+
+    //Riserva lo spazio di un record nello slab corrente (o in uno nuovo) e ritorna la sua posizione
+    private long reserve(int length) {
+        int size = size(length);
+        if(current == null || current.top + size > slabSize)
+            current = newSlab();
+
+        int offset = current.top;
+        current.top += size;
+        current.live += size;
+        return ((long) current.index << 32) | offset;
+    }
+
+    private Slab newSlab() {
+        int index;
+        if(freeSlabCount > 0) {
+            index = freeSlabIndexes[--freeSlabCount];
+        } else {
+            //Senza indici liberi gli slab occupano gli indici da 0 a slabCount-1
+            index = slabCount;
+            if(index == slabs.length)
+                slabs = Arrays.copyOf(slabs, slabs.length * 2);
+        }
+
+        Slab slab = new Slab(ByteBuffer.allocateDirect(slabSize), index);
+        slabs[index] = slab;
+        slabCount++;
+        return slab;
+    }
+
+    //Abbandona lo slab: la memoria viene liberata quando nessuna vista la usa più
+    private void drop(Slab slab) {
+        slabs[slab.index] = null;
+        if(freeSlabCount == freeSlabIndexes.length)
+            freeSlabIndexes = Arrays.copyOf(freeSlabIndexes, freeSlabIndexes.length * 2);
+        freeSlabIndexes[freeSlabCount++] = slab.index;
+        slabCount--;
+        if(slab == current)
+            current = null;
+    }
+
+    //Copia i record vivi dello slab nello slab corrente, aggiorna le loro posizioni e abbandona lo slab
+    private void evacuate(Slab slab) {
+        int offset = 0;
+        while(offset < slab.top) {
+            int slot = slab.buffer.getInt(offset);
+            int length = slab.buffer.getInt(offset + 4);
+            if(slot != FREE) {
+                long location = reserve(length);
+                ByteBuffer target = slabs[(int) (location >>> 32)].buffer.duplicate();
+                target.position((int) location);
+                ByteBuffer source = slab.buffer.duplicate();
+                source.limit(offset + HEADER + length);
+                source.position(offset);
+                target.put(source);
+                locations[slot] = location;
+            }
+            offset += size(length);
+        }
+        drop(slab);
+    }
+
+    private static final class Slab {
+        private final ByteBuffer buffer;
+        private final int index;
+        //Fine dell'ultimo record scritto e byte occupati dai record vivi
+        private int top;
+        private int live;
+
+        private Slab(ByteBuffer buffer, int index) {
+            this.buffer = buffer;
+            this.index = index;
+        }
+    }
+}
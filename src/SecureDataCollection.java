@@ -8,31 +8,324 @@
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
-import java.io.IOException;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
 import java.util.*;
+import java.util.stream.Stream;
 
 /*
 Funzione di astrazione: 
         f(sdc)= <credentials,storage> -->
         <{(String,SecurePassword)0,...,(String,SecurePassword)n},{SecureDataInfo0,...,SecureDataInfoK}> -->
-        dove SecureDataInfo è composto dal dato cifrato e dalla lista di utenti autorizzati. n == credentials.size()-1 && K == storage.size()-1
+        dove SecureDataInfo è composto dal dato cifrato e dalla lista di utenti autorizzati. n == credentials.size()-1 &&
+        storage = unione di tutte le liste in hashIndex.getAllElements() && K == storage.size()-1
 
 Invariante di rappresentazione:
-    credentials != null, storage != null && 
+    credentials != null, hashIndex != null, ownerIndex != null && 
     forall(k,y appartenente a credentials.getAllKeys()).(k != null && k != y) => (credentials.get(k) != null)
     forall(e appartenente a storage.getAllElements()) => (e != null && forall(owner appartenente a e.getAllOwners()) => (owner appartiene a credentials.getAllKeys()))
+    forall(h appartenente a hashIndex.getAllKeys()) => (hashIndex.get(h) != {} && forall(e appartenente a hashIndex.get(h)) => (e.getDataHash().equals(h)))
+    forall(e appartenente a storage.getAllElements()) => (forall(owner appartenente a e.getAllOwners()) => (e appartiene a ownerIndex.get(owner)))
+    forall(owner appartenente a ownerIndex.getAllKeys()) => (forall(e appartenente a ownerIndex.get(owner)) => (e appartiene a storage && e.hasOwner(owner)))
 */
 
 public class SecureDataCollection<E> implements SecureDataContainer<E> {
     //Tabella hash contente le credenziali degli utenti registrati
     private HashMap<String, SecurePassword> credentials = new HashMap<>();
 
-    //Lista contenente tutti i dati degli utenti
-    private List<SecureDataInfo<E>> storage = new ArrayList<>();
+    //Tabella hash contenente le chiavi master cifrate degli utenti registrati
+    private HashMap<String, UserKeyring> keyrings = new HashMap<>();
+
+    //Chiavi master già sbloccate (evita una derivazione PBKDF2 per ogni operazione)
+    private KeyCache keyCache = new KeyCache();
+
+    //Indice dei dati per hash del contenuto (Più utenti possono possedere dati con lo stesso hash)
+    private HashMap<DataHash, List<SecureDataInfo<E>>> hashIndex = new HashMap<>();
+
+    //Indice dei dati per utente (Insieme per identità, mantiene l'ordine di inserimento)
+    private HashMap<String, Set<SecureDataInfo<E>>> ownerIndex = new HashMap<>();
+
+    //Sessioni autenticate degli utenti
+    private SessionManager sessions;
+
+    //Archivio persistente (null se la collezione è solo in memoria) e identificativi dei dati al suo interno
+    private LogStore store;
+    private IdentityHashMap<SecureDataInfo<E>, Long> elementIds = new IdentityHashMap<>();
+    private long nextElementId;
+    //Compattazioni dell'archivio già viste: i dati cifrati sono viste del file corrente (Vedi refreshStoredPayloads)
+    private long storeGeneration;
+
+    //Impronta con cui vengono identificati i dati (Registrata nell'archivio, Vedi FingerprintStrategies)
+    private FingerprintStrategy fingerprints = FingerprintStrategies.sha512();
+
+    //Impostazioni PBKDF2 delle password (Le credenziali con impostazioni diverse vengono aggiornate al login, Vedi PasswordPolicy)
+    private PasswordPolicy passwordPolicy = PasswordPolicy.DEFAULT;
+
+    //Arena off-heap dei dati cifrati (null: i dati cifrati restano nello heap, Vedi setPayloadArena)
+    private PayloadArena arena;
+
+    //Unica istanza di ogni valore pubblico, con un riferimento per ogni dato che la usa (Vedi ContentStore)
+    private final ContentStore contents = new ContentStore();
+
+    //Flusso delle modifiche (null: le modifiche non vengono registrate, Vedi setChangeLog)
+    private ChangeLog changeLog;
+
+    private static final String USER_PREFIX = "u:";
+    private static final String ELEMENT_PREFIX = "e:";
+
+    /*
+     *   OVERVIEW: Crea una collezione vuota con le scadenze di sessione predefinite
+     */
+    public SecureDataCollection() {
+        this.sessions = new SessionManager();
+    }
+
+    /*
+     *   OVERVIEW: Crea una collezione vuota con le scadenze di sessione fornite (millisecondi)
+     *   REQUIRES: idleTimeout > 0, maxLifetime >= idleTimeout
+     *   MODIFIES: this
+     *   EFFECTS: Crea una collezione vuota le cui sessioni scadono dopo idleTimeout di inattività o dopo maxLifetime dalla creazione
+     *   THROWS:
+     *      IllegalArgumentException, quando le scadenze non sono valide (Unchecked)
+     */
+    public SecureDataCollection(long idleTimeout, long maxLifetime) throws IllegalArgumentException {
+        this.sessions = new SessionManager(idleTimeout, maxLifetime);
+    }
+
+    /*
+     *   OVERVIEW: Crea una collezione vuota che identifica i dati con l'impronta fornita
+     *   REQUIRES: fingerprints != null
+     *   MODIFIES: this
+     *   EFFECTS: Crea una collezione vuota con le scadenze di sessione predefinite in cui due dati sono uguali se hanno la stessa impronta (Vedi FingerprintStrategies)
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public SecureDataCollection(FingerprintStrategy fingerprints) {
+        if(fingerprints == null)
+            throw new NullPointerException();
+
+        this.sessions = new SessionManager();
+        this.fingerprints = fingerprints;
+    }
+
+    /*
+     *   OVERVIEW: Crea una collezione persistente ricostruita dall'archivio fornito
+     *   REQUIRES: store != null
+     *   MODIFIES: this
+     *   EFFECTS: Carica utenti e dati dall'archivio senza decifrare nulla (Nessuna derivazione PBKDF2).
+     *            Ogni modifica successiva viene scritta nell'archivio prima di essere applicata in memoria
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente o l'archivio non è valido (Unchecked)
+     *      ClassNotFoundException, quando si prova a caricare una classe, che non è presente, tramite una stringa (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public SecureDataCollection(LogStore store) throws IOException, ClassNotFoundException {
+        this(store, null);
+    }
+
+    /*
+     *   OVERVIEW: Crea una collezione persistente ricostruita dall'archivio fornito, che identifica i dati con l'impronta fornita
+     *   REQUIRES: store != null
+     *   MODIFIES: this, store
+     *   EFFECTS: Come SecureDataCollection(store). Un archivio nuovo registra l'impronta fornita (SHA-512 se fingerprints == null);
+     *            un archivio esistente va aperto con la stessa impronta e la stessa chiave con cui è stato scritto (Con fingerprints == null viene usata quella registrata)
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente, l'archivio non è valido o l'impronta non corrisponde a quella registrata (Unchecked)
+     *      ClassNotFoundException, quando si prova a caricare una classe, che non è presente, tramite una stringa (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public SecureDataCollection(LogStore store, FingerprintStrategy fingerprints) throws IOException, ClassNotFoundException {
+        if(store == null)
+            throw new NullPointerException();
+
+        this.sessions = new SessionManager();
+        this.store = store;
+        this.fingerprints = FingerprintStrategies.bind(store, fingerprints);
+        load();
+    }
+
+    /*
+     *   OVERVIEW: Ricostruisce una collezione da uno snapshot (Vedi snapshotTo)
+     *   REQUIRES: path != null
+     *   MODIFIES:
+     *   EFFECTS: Ritorna una nuova collezione in memoria con gli utenti e i dati dello snapshot, usando l'impronta registrata.
+     *            I blocchi dello snapshot vengono decodificati in parallelo e nulla viene decifrato (Nessuna derivazione PBKDF2)
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente o lo snapshot non è valido (Unchecked)
+     *      ClassNotFoundException, quando si prova a caricare una classe, che non è presente, tramite una stringa (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public static <E> SecureDataCollection<E> restore(Path path) throws IOException, ClassNotFoundException {
+        return restore(path, null);
+    }
+
+    /*
+     *   OVERVIEW: Come restore(path), con l'impronta fornita (Necessaria per un'impronta con chiave, Vedi FingerprintStrategies.hmacSha256)
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente, lo snapshot non è valido o l'impronta non corrisponde a quella registrata (Unchecked)
+     *      ClassNotFoundException, quando si prova a caricare una classe, che non è presente, tramite una stringa (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> SecureDataCollection<E> restore(Path path, FingerprintStrategy fingerprints) throws IOException, ClassNotFoundException {
+        if(path == null)
+            throw new NullPointerException();
+
+        try(SnapshotFile.Reader reader = new SnapshotFile.Reader(path, SnapshotFile.SECURE_DATA_COLLECTION, fingerprints)) {
+            SecureDataCollection<E> collection = new SecureDataCollection<>(reader.getFingerprintStrategy());
+            //Gli utenti precedono i dati nello snapshot
+            for(Object record : reader.parse(SecureDataCollection::readSnapshotRecord)) {
+                if(record instanceof SnapshotUser) {
+                    SnapshotUser user = (SnapshotUser) record;
+                    collection.credentials.put(user.id, user.password);
+                    collection.keyrings.put(user.id, user.keyring);
+                } else {
+                    SecureDataInfo<E> element = (SecureDataInfo<E>) record;
+                    for(String owner : element.getOwners()) {
+                        if(!collection.credentials.containsKey(owner))
+                            throw new IOException("Utente sconosciuto nello snapshot: " + owner);
+                    }
+                    element.internValue(collection.contents);
+                    collection.index(element);
+                }
+            }
+            return collection;
+        }
+    }
+
+    /*
+     *   OVERVIEW: Scrive uno snapshot della collezione
+     *   REQUIRES: path != null, nessuna modifica concorrente della collezione durante la scrittura
+     *   MODIFIES: il file system
+     *   EFFECTS: Scrive in path (In modo atomico: un eventuale snapshot precedente viene sostituito solo a scrittura completata)
+     *            l'impronta, le password cifrate e i portachiavi degli utenti e tutti i dati così come sono in memoria (Vedi SnapshotFile).
+     *            Nulla viene decifrato: lo snapshot contiene solo i dati cifrati e i dati pubblici. Sessioni e chiavi in cache non vengono salvate
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public void snapshotTo(Path path) throws IOException {
+        if(path == null)
+            throw new NullPointerException();
+
+        try(SnapshotFile.Writer writer = new SnapshotFile.Writer(path, SnapshotFile.SECURE_DATA_COLLECTION, fingerprints)) {
+            for(Map.Entry<String, SecurePassword> entry : credentials.entrySet()) {
+                DataOutput out = writer.beginRecord(SnapshotFile.USER_RECORD);
+                out.writeUTF(entry.getKey());
+                entry.getValue().writeTo(out);
+                keyrings.get(entry.getKey()).writeTo(out);
+                writer.endRecord();
+            }
+
+            //Ogni dato una sola volta (Un dato condiviso è in più insiemi), nell'ordine degli insiemi degli utenti
+            Set<SecureDataInfo<E>> written = Collections.newSetFromMap(new IdentityHashMap<>());
+            for(Set<SecureDataInfo<E>> elements : ownerIndex.values()) {
+                for(SecureDataInfo<E> element : elements) {
+                    if(written.add(element)) {
+                        element.writeTo(writer.beginRecord(SnapshotFile.ELEMENT_RECORD));
+                        writer.endRecord();
+                    }
+                }
+            }
+            writer.commit();
+        }
+    }
+
+    /*
+     *   OVERVIEW: Decodifica un record dello snapshot (In parallelo, Vedi SnapshotFile.Reader.parse)
+     */
+    private static Object readSnapshotRecord(byte type, ByteBuffer record) throws IOException, ClassNotFoundException {
+        if(type == SnapshotFile.USER_RECORD) {
+            DataInputStream in = new DataInputStream(new ByteBufferInputStream(record));
+            return new SnapshotUser(in.readUTF(), SecurePassword.readFrom(in), UserKeyring.readFrom(in));
+        } else if(type == SnapshotFile.ELEMENT_RECORD) {
+            SecureDataInfo<Object> element = SecureDataInfo.readFrom(record);
+            //Il blocco dello snapshot non viene trattenuto in memoria; l'hash viene preparato per gli indici
+            element.detachPayload();
+            element.getDataHash();
+            return element;
+        }
+        throw new IOException("Tipo di record non valido nello snapshot: " + type);
+    }
+
+    /*
+     *   OVERVIEW: Ritorna l'impronta con cui la collezione identifica i dati
+     */
+    public FingerprintStrategy getFingerprintStrategy() {
+        return fingerprints;
+    }
+
+    /*
+     *   OVERVIEW: Imposta le impostazioni PBKDF2 delle password (Vedi PasswordPolicy.calibrate)
+     *   REQUIRES: policy != null
+     *   MODIFIES: this
+     *   EFFECTS: I nuovi utenti usano policy. La password e il portachiavi di un utente esistente con impostazioni diverse
+     *            vengono cifrati di nuovo al suo prossimo accesso riuscito (I dati non vengono cifrati di nuovo: la chiave master non cambia)
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public void setPasswordPolicy(PasswordPolicy policy) {
+        if(policy == null)
+            throw new NullPointerException();
+
+        this.passwordPolicy = policy;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna le impostazioni PBKDF2 delle password
+     */
+    public PasswordPolicy getPasswordPolicy() {
+        return passwordPolicy;
+    }
+
+    /*
+     *   OVERVIEW: Imposta l'arena off-heap in cui vengono spostati i dati cifrati
+     *   REQUIRES:
+     *   MODIFIES: this
+     *   EFFECTS: Salt, IV e dato cifrato dei dati inseriti da ora in poi vengono spostati in arena (Vedi PayloadArena) e liberati alla rimozione:
+     *            nello heap resta solo l'handle del record. I dati già presenti non vengono spostati. null disattiva l'arena.
+     *            Con un archivio (LogStore) l'arena non viene usata: i dati cifrati sono già letti dal file mappato in memoria
+     */
+    public void setPayloadArena(PayloadArena arena) {
+        this.arena = arena;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna l'arena off-heap dei dati cifrati, null se non è impostata
+     */
+    public PayloadArena getPayloadArena() {
+        return arena;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna l'archivio dei valori pubblici della collezione (Vedi ContentStore)
+     */
+    ContentStore getContentStore() {
+        return contents;
+    }
+
+    /*
+     *   OVERVIEW: Imposta il flusso in cui vengono registrate le modifiche della collezione
+     *   REQUIRES:
+     *   MODIFIES: this
+     *   EFFECTS: Da ora ogni modifica riuscita (Nuovo utente, put, remove, copy, share) viene aggiunta a changeLog nell'ordine
+     *            in cui viene applicata, con lo stato cifrato del dato (Vedi ChangeType). null disattiva la registrazione
+     */
+    public void setChangeLog(ChangeLog changeLog) {
+        this.changeLog = changeLog;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna il flusso delle modifiche della collezione, null se non è impostato
+     */
+    public ChangeLog getChangeLog() {
+        return changeLog;
+    }
 
     /*
     *   OVERVIEW: Crea l’identità di un nuovo utente della collezione
@@ -47,11 +340,23 @@ public class SecureDataCollection<E> implements SecureDataContainer<E> {
             throw new IllegalArgumentException("id e passw devono contenere almeno un carattere");
 
         //Cifra la password
-        SecurePassword encrypted_password = new SecurePassword(passw);
+        SecurePassword encrypted_password = new SecurePassword(passw, passwordPolicy);
 
         //Aggiunge l'utente se non esiste
         if(credentials.putIfAbsent(id, encrypted_password) != null)
             throw new UsernameNotAvailableException("Utente già registrato");
+
+        //Genera la chiave master dell'utente, cifrata con la password
+        keyrings.put(id, UserKeyring.create(passw, passwordPolicy));
+        persistUser(id);
+
+        ChangeLog log = changeLog;
+        if(log != null) {
+            log.append(ChangeType.USER_CREATED, id, null, null, out -> {
+                credentials.get(id).writeTo(out);
+                keyrings.get(id).writeTo(out);
+            });
+        }
     }
 
     /*
@@ -63,19 +368,19 @@ public class SecureDataCollection<E> implements SecureDataContainer<E> {
             throw new NullPointerException();
 
         if(authenticate_user(owner, passw))
-        {
-            int size = 0;
-            for(SecureDataInfo<E> data : storage) {
-                //Controlla se l'elemento appartiene all'utente
-                if(data.getOwners().contains(owner))
-                    size++;
-            }
-            return size;
-        }
+            return size(owner);
         else
             throw new InvalidAuthenticationException("Autenticazione fallita");
     }
 
+    /*
+     *   OVERVIEW: Restituisce il numero degli elementi di un utente autenticato tramite sessione
+     */
+    @Override
+    public int getSize(SessionToken session) throws InvalidAuthenticationException {
+        return size(sessions.resolve(session).getOwner());
+    }
+
     /*
      *   OVERVIEW: Inserisce il valore del dato nella collezione se vengono rispettati i controlli di identità
      */
@@ -85,14 +390,23 @@ public class SecureDataCollection<E> implements SecureDataContainer<E> {
             throw new NullPointerException();
 
         if(authenticate_user(owner, passw))
-        {
-            SecureDataInfo<E> element = new SecureDataInfo<>(owner, data, passw);
-            return storage.add(element);
-        }
+            return insert(owner, unlockKey(owner, passw), data);
         else
             throw new InvalidAuthenticationException("Autenticazione fallita");
     }
 
+    /*
+     *   OVERVIEW: Inserisce il valore del dato nella collezione di un utente autenticato tramite sessione
+     */
+    @Override
+    public boolean put(SessionToken session, E data) throws InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, IOException, IllegalBlockSizeException, InvalidKeyException, BadPaddingException, InvalidAlgorithmParameterException, NoSuchPaddingException, InvalidAuthenticationException {
+        if(data == null)
+            throw new NullPointerException();
+
+        SessionManager.Session s = sessions.resolve(session);
+        return insert(s.getOwner(), s.getMasterKey(), data);
+    }
+
     /*
      *   OVERVIEW: Ottiene una copia del valore del dato nella collezione se vengono rispettati i controlli di identità
      */
@@ -102,19 +416,49 @@ public class SecureDataCollection<E> implements SecureDataContainer<E> {
             throw new NullPointerException();
 
         if(authenticate_user(owner, passw))
-        {
-            SecureDataInfo<E> element_to_search = new SecureDataInfo<>(owner, data);
-            for(SecureDataInfo<E> element : storage) {
-                //Controlla se l'elemento appartiene all'utente (La ricerca avviene per confronto tra hash)
-                if(Arrays.equals(element.getHash(), element_to_search.getHash()) && element.getOwners().contains(owner))
-                    return element.getValue(passw);
-            }
-            throw new NoSuchElementException("Il dato non è presente nella collezione");
-        }
+            return find(owner, unlockKey(owner, passw), data);
+        else
+            throw new InvalidAuthenticationException("Autenticazione fallita");
+    }
+
+    /*
+     *   OVERVIEW: Ottiene una copia del valore del dato di un utente autenticato tramite sessione
+     */
+    @Override
+    public E get(SessionToken session, E data) throws InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, IOException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, IllegalBlockSizeException, InvalidKeyException, ClassNotFoundException, NoSuchElementException, InvalidAuthenticationException {
+        if(data == null)
+            throw new NullPointerException();
+
+        SessionManager.Session s = sessions.resolve(session);
+        return find(s.getOwner(), s.getMasterKey(), data);
+    }
+
+    /*
+     *   OVERVIEW: Ottiene il valore del dato come stream di byte, decifrando i dati grandi un blocco alla volta
+     */
+    @Override
+    public InputStream getInputStream(String owner, String passw, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException {
+        if(owner == null || passw == null || data == null)
+            throw new NullPointerException();
+
+        if(authenticate_user(owner, passw))
+            return openStream(owner, unlockKey(owner, passw), data);
         else
             throw new InvalidAuthenticationException("Autenticazione fallita");
     }
 
+    /*
+     *   OVERVIEW: Ottiene il valore del dato come stream di byte di un utente autenticato tramite sessione
+     */
+    @Override
+    public InputStream getInputStream(SessionToken session, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException {
+        if(data == null)
+            throw new NullPointerException();
+
+        SessionManager.Session s = sessions.resolve(session);
+        return openStream(s.getOwner(), s.getMasterKey(), data);
+    }
+
     /*
      *   OVERVIEW: Rimuove il dato nella collezione se vengono rispettati i controlli di identità
      */
@@ -124,24 +468,23 @@ public class SecureDataCollection<E> implements SecureDataContainer<E> {
             throw new NullPointerException();
 
         if(authenticate_user(owner, passw))
-        {
-            SecureDataInfo<E> element_to_search = new SecureDataInfo<>(owner, data);
-            for(SecureDataInfo<E> element : storage) {
-                //Controlla se l'elemento appartiene all'utente (La ricerca avviene per confronto tra hash)
-                if(Arrays.equals(element.getHash(), element_to_search.getHash()) && element.getOwners().contains(owner))
-                {
-                    if(storage.remove(element))
-                        return element.getValue(passw);
-                    else
-                        throw new NoSuchElementException("Il dato non è presente nella collezione");
-                }
-            }
-            return null;
-        }
+            return delete(owner, unlockKey(owner, passw), data);
         else
             throw new InvalidAuthenticationException("Autenticazione fallita");
     }
 
+    /*
+     *   OVERVIEW: Rimuove il dato dalla collezione di un utente autenticato tramite sessione
+     */
+    @Override
+    public E remove(SessionToken session, E data) throws InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, IOException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, IllegalBlockSizeException, InvalidKeyException, ClassNotFoundException, NoSuchElementException, InvalidAuthenticationException {
+        if(data == null)
+            throw new NullPointerException();
+
+        SessionManager.Session s = sessions.resolve(session);
+        return delete(s.getOwner(), s.getMasterKey(), data);
+    }
+
     /*
      *   OVERVIEW: Crea una copia del dato nella collezione se vengono rispettati i controlli di identità
      */
@@ -151,33 +494,23 @@ public class SecureDataCollection<E> implements SecureDataContainer<E> {
             throw new NullPointerException();
 
         if(authenticate_user(owner, passw))
-        {
-            boolean found = false;
-            SecureDataInfo<E> element_to_search = new SecureDataInfo<>(owner, data);
-            for(SecureDataInfo<E> element : storage) {
-                //Controlla se l'elemento appartiene all'utente (La ricerca avviene per confronto tra hash)
-                if(Arrays.equals(element.getHash(), element_to_search.getHash()) && element.getOwners().contains(owner))
-                {
-                    SecureDataInfo<E> newElement;
-                    //Se il dato è cifrato crea una copia mantenendo la cifratura, altrimenti crea una copia non cifrata
-                    if(element.isEncrypted())
-                        newElement = new SecureDataInfo<>(owner, data, passw);
-                    else
-                        newElement = new SecureDataInfo<>(owner, data);
-
-                    storage.add(newElement);
-                    found = true;
-                    break;
-                }
-            }
-
-            if(!found)
-                throw new NoSuchElementException("Il dato non è presente nella collezione");
-        }
+            duplicate(owner, data);
         else
             throw new InvalidAuthenticationException("Autenticazione fallita");
     }
 
+    /*
+     *   OVERVIEW: Crea una copia del dato nella collezione di un utente autenticato tramite sessione
+     */
+    @Override
+    public void copy(SessionToken session, E data) throws InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, IOException, IllegalBlockSizeException, InvalidKeyException, BadPaddingException, InvalidAlgorithmParameterException, NoSuchPaddingException, NoSuchElementException, InvalidAuthenticationException {
+        if(data == null)
+            throw new NullPointerException();
+
+        SessionManager.Session s = sessions.resolve(session);
+        duplicate(s.getOwner(), data);
+    }
+
     /*
      *   OVERVIEW: Condivide il dato nella collezione con un altro utente se vengono rispettati i controlli di identità
      */
@@ -187,37 +520,23 @@ public class SecureDataCollection<E> implements SecureDataContainer<E> {
             throw new NullPointerException();
 
         if(authenticate_user(owner, passw))
-        {
-            //Controllo se l'utente con cui condividere il dato esiste
-            if(!credentials.containsKey(other))
-                throw new UsernameNotAvailableException("L'utente " + other + " non esiste");
-            else if(owner.equals(other))
-                throw new UsernameNotAvailableException("L'utente non può condividere un dato con se stesso");
-
-            boolean found = false;
-            SecureDataInfo<E> element_to_search = new SecureDataInfo<>(owner, data);
-            for(int i = 0; i < storage.size(); i++) {
-                //Controlla se l'elemento appartiene all'utente (La ricerca avviene per confronto tra hash)
-                if(Arrays.equals(storage.get(i).getHash(), element_to_search.getHash()) && storage.get(i).getOwners().contains(owner))
-                {
-                    //Decifra il dato in modo irreversibile
-                    // (La cifratura del dato è disponibile solo se privato, condividendolo diventa pubblico)
-                    storage.get(i).makePublic(passw);
-                    //Aggiunge l'utente alla lista di owner di un certo elemento
-                    storage.get(i).addOwner(other);
-
-                    found = true;
-                    break;
-                }
-            }
-
-            if(!found)
-                throw new NoSuchElementException("Il dato non è presente nella collezione");
-        }
+            shareWith(owner, unlockKey(owner, passw), other, data);
         else
             throw new InvalidAuthenticationException("Autenticazione fallita");
     }
 
+    /*
+     *   OVERVIEW: Condivide il dato di un utente autenticato tramite sessione con un altro utente
+     */
+    @Override
+    public void share(SessionToken session, String other, E data) throws NoSuchAlgorithmException, InvalidKeySpecException, IllegalArgumentException, IOException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, IllegalBlockSizeException, InvalidKeyException, ClassNotFoundException, NoSuchElementException, InvalidAuthenticationException, UsernameNotAvailableException {
+        if(other == null || data == null)
+            throw new NullPointerException();
+
+        SessionManager.Session s = sessions.resolve(session);
+        shareWith(s.getOwner(), s.getMasterKey(), other, data);
+    }
+
     /*
      *   OVERVIEW: Restituisce un iteratore (senza remove) che genera tutti i dati dell'utente in ordine arbitrario se vengono rispettati i controlli di identità
      */
@@ -226,21 +545,399 @@ public class SecureDataCollection<E> implements SecureDataContainer<E> {
         if(owner == null || passw == null)
             throw new NullPointerException();
 
+        //L'iteratore usa una copia della chiave: la chiave in cache può scadere durante l'iterazione
         if(authenticate_user(owner, passw))
-        {
-            List<E> iter_list = new ArrayList<>();
-            for(SecureDataInfo<E> element : storage) {
-                //Controlla se l'elemento appartiene all'utente (La ricerca avviene per confronto tra hash)
-                if(element.getOwners().contains(owner))
-                    iter_list.add(element.getValue(passw));
-            }
+            return iterate(owner, unlockKey(owner, passw).copy(), true);
+        else
+            throw new InvalidAuthenticationException("Autenticazione fallita");
+    }
 
-            return Collections.unmodifiableList(iter_list).iterator();
-        }
+    /*
+     *   OVERVIEW: Restituisce un iteratore (senza remove) sui dati di un utente autenticato tramite sessione
+     */
+    @Override
+    public Iterator<E> getIterator(SessionToken session) throws InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException, InvalidAuthenticationException {
+        SessionManager.Session s = sessions.resolve(session);
+        return iterate(s.getOwner(), s.getMasterKey(), false);
+    }
+
+    /*
+     *   OVERVIEW: Restituisce uno Stream sequenziale che decifra i dati dell'utente solo quando vengono consumati
+     */
+    @Override
+    public Stream<E> getStream(String owner, String passw) throws InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException, InvalidAuthenticationException {
+        if(owner == null || passw == null)
+            throw new NullPointerException();
+
+        if(authenticate_user(owner, passw))
+            return iterate(owner, unlockKey(owner, passw).copy(), true).stream();
         else
             throw new InvalidAuthenticationException("Autenticazione fallita");
     }
 
+    /*
+     *   OVERVIEW: Restituisce uno Stream sequenziale sui dati di un utente autenticato tramite sessione
+     */
+    @Override
+    public Stream<E> getStream(SessionToken session) throws InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException, InvalidAuthenticationException {
+        SessionManager.Session s = sessions.resolve(session);
+        return iterate(s.getOwner(), s.getMasterKey(), false).stream();
+    }
+
+    /*
+     *   OVERVIEW: Restituisce uno Stream parallelo che divide i dati dell'utente tra i thread del ForkJoinPool per decifrarli
+     */
+    @Override
+    public Stream<E> getParallelStream(String owner, String passw, boolean ordered) throws InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException, InvalidAuthenticationException {
+        if(owner == null || passw == null)
+            throw new NullPointerException();
+
+        if(authenticate_user(owner, passw))
+            return iterate(owner, unlockKey(owner, passw).copy(), true).parallelStream(ordered);
+        else
+            throw new InvalidAuthenticationException("Autenticazione fallita");
+    }
+
+    /*
+     *   OVERVIEW: Restituisce uno Stream parallelo sui dati di un utente autenticato tramite sessione
+     */
+    @Override
+    public Stream<E> getParallelStream(SessionToken session, boolean ordered) throws InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException, InvalidAuthenticationException {
+        SessionManager.Session s = sessions.resolve(session);
+        return iterate(s.getOwner(), s.getMasterKey(), false).parallelStream(ordered);
+    }
+
+    /*
+     *   OVERVIEW: Autentica l'utente una sola volta e apre una sessione
+     */
+    @Override
+    public SessionToken login(String id, String passw) throws InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidKeyException, InvalidAuthenticationException {
+        if(id == null || passw == null)
+            throw new NullPointerException();
+
+        if(authenticate_user(id, passw))
+            return sessions.open(id, unlockKey(id, passw));
+        else
+            throw new InvalidAuthenticationException("Autenticazione fallita");
+    }
+
+    /*
+     *   OVERVIEW: Chiude una sessione
+     */
+    @Override
+    public boolean logout(SessionToken session) {
+        return sessions.close(session);
+    }
+
+    /*
+     *   OVERVIEW: Conta gli elementi dell'utente senza scorrere la collezione (L'utente deve essere già autenticato)
+     */
+    private int size(String owner) {
+        Set<SecureDataInfo<E>> elements = ownerIndex.get(owner);
+        return elements == null ? 0 : elements.size();
+    }
+
+    /*
+     *   OVERVIEW: Cifra e inserisce il dato (L'utente deve essere già autenticato)
+     */
+    private boolean insert(String owner, MasterKey key, E data) throws NoSuchAlgorithmException, IOException, NoSuchPaddingException, InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException, InvalidKeySpecException {
+        SecureDataInfo<E> element = new SecureDataInfo<>(owner, data, key, fingerprints);
+        place(element);
+        persist(element);
+        index(element);
+        publish(ChangeType.ELEMENT_PUT, owner, null, element);
+        return true;
+    }
+
+    /*
+     *   OVERVIEW: Cerca e decifra il dato (L'utente deve essere già autenticato)
+     */
+    private E find(String owner, MasterKey key, E data) throws IOException, NoSuchAlgorithmException, InvalidKeyException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, InvalidKeySpecException, IllegalBlockSizeException, ClassNotFoundException {
+        SecureDataInfo<E> element = lookup(owner, ContentFingerprinter.fingerprint(data, fingerprints));
+        if(element == null)
+            throw new NoSuchElementException("Il dato non è presente nella collezione");
+
+        return element.getValue(key);
+    }
+
+    /*
+     *   OVERVIEW: Apre lo stream del valore del dato (L'utente deve essere già autenticato)
+     */
+    private InputStream openStream(String owner, MasterKey key, E data) throws IOException, NoSuchAlgorithmException, InvalidKeyException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, IllegalBlockSizeException {
+        SecureDataInfo<E> element = lookup(owner, ContentFingerprinter.fingerprint(data, fingerprints));
+        if(element == null)
+            throw new NoSuchElementException("Il dato non è presente nella collezione");
+
+        return element.openStream(key);
+    }
+
+    /*
+     *   OVERVIEW: Rimuove il dato (L'utente deve essere già autenticato)
+     */
+    private E delete(String owner, MasterKey key, E data) throws IOException, NoSuchAlgorithmException, InvalidKeyException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, InvalidKeySpecException, IllegalBlockSizeException, ClassNotFoundException {
+        SecureDataInfo<E> element = lookup(owner, ContentFingerprinter.fingerprint(data, fingerprints));
+        if(element == null)
+            return null;
+
+        //Il dato viene rimosso per tutti gli utenti che lo possiedono
+        forget(element);
+        unindex(element);
+        publish(ChangeType.ELEMENT_REMOVED, owner, null, element);
+        try {
+            return element.getValue(key);
+        } finally {
+            element.release();
+            element.releaseValue(contents);
+        }
+    }
+
+    /*
+     *   OVERVIEW: Crea una copia del dato (L'utente deve essere già autenticato). La copia condivide il contenuto del dato
+     *             (Il dato cifrato o il valore pubblico, Vedi SecureDataInfo.copyFor): non serve la chiave master e nulla viene cifrato
+     */
+    private void duplicate(String owner, E data) throws NoSuchAlgorithmException, IOException {
+        SecureDataInfo<E> element = lookup(owner, ContentFingerprinter.fingerprint(data, fingerprints));
+        if(element == null)
+            throw new NoSuchElementException("Il dato non è presente nella collezione");
+
+        //Se il dato è cifrato la copia mantiene la cifratura (Il dato cifrato appartiene solo a owner), altrimenti è una copia non cifrata
+        SecureDataInfo<E> newElement = element.copyFor(owner);
+        newElement.internValue(contents);
+        persist(newElement);
+        index(newElement);
+        publish(ChangeType.ELEMENT_COPIED, owner, null, newElement);
+    }
+
+    /*
+     *   OVERVIEW: Condivide il dato con un altro utente (L'utente deve essere già autenticato)
+     */
+    private void shareWith(String owner, MasterKey key, String other, E data) throws IOException, NoSuchAlgorithmException, InvalidKeyException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, InvalidKeySpecException, IllegalBlockSizeException, ClassNotFoundException, UsernameNotAvailableException {
+        //Controllo se l'utente con cui condividere il dato esiste
+        if(!credentials.containsKey(other))
+            throw new UsernameNotAvailableException("L'utente " + other + " non esiste");
+        else if(owner.equals(other))
+            throw new UsernameNotAvailableException("L'utente non può condividere un dato con se stesso");
+
+        SecureDataInfo<E> element = lookup(owner, ContentFingerprinter.fingerprint(data, fingerprints));
+        if(element == null)
+            throw new NoSuchElementException("Il dato non è presente nella collezione");
+
+        //Decifra il dato in modo irreversibile
+        // (La cifratura del dato è disponibile solo se privato, condividendolo diventa pubblico)
+        element.makePublic(key, contents);
+        //Aggiunge l'utente alla lista di owner di un certo elemento
+        element.addOwner(other);
+        ownerIndex.computeIfAbsent(other, k -> new LinkedHashSet<>()).add(element);
+        persist(element);
+        publish(ChangeType.ELEMENT_SHARED, owner, other, element);
+    }
+
+    /*
+     *   OVERVIEW: Ritorna un iteratore che decifra i dati dell'utente uno alla volta (L'utente deve essere già autenticato)
+     */
+    private DecryptingIterator<E> iterate(String owner, MasterKey key, boolean ownsKey) {
+        //Copia dei soli riferimenti: i dati vengono decifrati durante l'iterazione
+        Set<SecureDataInfo<E>> elements = ownerIndex.get(owner);
+        List<SecureDataInfo<E>> snapshot = elements == null ? new ArrayList<>() : new ArrayList<>(elements);
+
+        return new DecryptingIterator<>(snapshot, element -> {
+            Set<SecureDataInfo<E>> current = ownerIndex.get(owner);
+            return current != null && current.contains(element);
+        }, key, ownsKey);
+    }
+
+    /*
+     *   OVERVIEW: Registra la modifica del dato nel flusso delle modifiche, se impostato (Il dato rimosso non ha contenuto)
+     */
+    private void publish(ChangeType type, String user, String target, SecureDataInfo<E> element) {
+        ChangeLog log = changeLog;
+        if(log != null)
+            log.append(type, user, target, element.getHash(), type == ChangeType.ELEMENT_REMOVED ? null : element::writeTo);
+    }
+
+    /*
+     *   OVERVIEW: Sposta il dato appena creato nell'arena off-heap, se impostata e la collezione non ha un archivio
+     */
+    private void place(SecureDataInfo<E> element) {
+        PayloadArena target = arena;
+        if(target != null && store == null)
+            element.moveTo(target);
+    }
+
+    /*
+     *   OVERVIEW: Cerca tramite gli indici il primo dato con l'hash fornito che appartiene all'utente, altrimenti ritorna null
+     */
+    private SecureDataInfo<E> lookup(String owner, DataHash hash) {
+        long start = Tracing.start();
+        try {
+            List<SecureDataInfo<E>> candidates = hashIndex.get(hash);
+            if(candidates != null) {
+                for(SecureDataInfo<E> element : candidates) {
+                    if(element.hasOwner(owner))
+                        return element;
+                }
+            }
+            return null;
+        } finally {
+            Tracing.end(OperationPhase.INDEX_LOOKUP, start);
+        }
+    }
+
+    /*
+     *   OVERVIEW: Aggiunge il dato agli indici per hash e per utente
+     */
+    private void index(SecureDataInfo<E> element) {
+        hashIndex.computeIfAbsent(element.getDataHash(), k -> new ArrayList<>(1)).add(element);
+        for(String owner : element.getOwners())
+            ownerIndex.computeIfAbsent(owner, k -> new LinkedHashSet<>()).add(element);
+    }
+
+    /*
+     *   OVERVIEW: Rimuove il dato dagli indici per hash e per utente
+     */
+    private void unindex(SecureDataInfo<E> element) {
+        List<SecureDataInfo<E>> candidates = hashIndex.get(element.getDataHash());
+        if(candidates != null) {
+            //Confronto per identità: dati diversi possono avere lo stesso hash
+            for(int i = 0; i < candidates.size(); i++) {
+                if(candidates.get(i) == element) {
+                    candidates.remove(i);
+                    break;
+                }
+            }
+            if(candidates.isEmpty())
+                hashIndex.remove(element.getDataHash());
+        }
+
+        for(String owner : element.getOwners()) {
+            Set<SecureDataInfo<E>> elements = ownerIndex.get(owner);
+            if(elements != null)
+                elements.remove(element);
+        }
+    }
+
+    /*
+     *   OVERVIEW: Scrive nell'archivio la password cifrata e il portachiavi dell'utente. Se la scrittura fallisce l'utente viene rimosso
+     */
+    private void persistUser(String id) {
+        if(store == null)
+            return;
+
+        try {
+            writeUser(id);
+        } catch(IOException e) {
+            credentials.remove(id);
+            keyrings.remove(id);
+            throw new UncheckedIOException("Impossibile salvare l'utente " + id, e);
+        }
+    }
+
+    /*
+     *   OVERVIEW: Scrive (o sostituisce) il record dell'utente nell'archivio
+     */
+    private void writeUser(String id) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        credentials.get(id).writeTo(out);
+        keyrings.get(id).writeTo(out);
+        store.put(USER_PREFIX + id, bytes.toByteArray());
+        refreshStoredPayloads();
+    }
+
+    /*
+     *   OVERVIEW: Scrive (o sostituisce) il dato nell'archivio e libera il dato cifrato nello heap
+     */
+    private void persist(SecureDataInfo<E> element) throws IOException {
+        if(store == null)
+            return;
+
+        Long elementId = elementIds.get(element);
+        if(elementId == null)
+            elementId = nextElementId++;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        element.writeTo(new DataOutputStream(bytes));
+        store.put(ELEMENT_PREFIX + elementId, bytes.toByteArray());
+        elementIds.put(element, elementId);
+
+        //Da ora il dato cifrato viene letto dal file mappato in memoria
+        element.useStoredPayload(store.map(ELEMENT_PREFIX + elementId));
+        refreshStoredPayloads();
+    }
+
+    /*
+     *   OVERVIEW: Rimuove il dato dall'archivio
+     */
+    private void forget(SecureDataInfo<E> element) throws IOException {
+        if(store == null)
+            return;
+
+        Long elementId = elementIds.get(element);
+        if(elementId != null) {
+            store.remove(ELEMENT_PREFIX + elementId);
+            elementIds.remove(element);
+            refreshStoredPayloads();
+        }
+    }
+
+    /*
+     *   OVERVIEW: Dopo una compattazione dell'archivio (Anche esplicita, vista alla prima scrittura successiva) sostituisce le viste
+     *            dei dati cifrati con quelle del nuovo file: altrimenti le vecchie mappature manterrebbero in vita il file sostituito
+     */
+    private void refreshStoredPayloads() throws IOException {
+        long generation = store.getGeneration();
+        if(generation == storeGeneration)
+            return;
+
+        for(Map.Entry<SecureDataInfo<E>, Long> entry : elementIds.entrySet()) {
+            ByteBuffer record = store.map(ELEMENT_PREFIX + entry.getValue());
+            if(entry.getKey().isEncrypted() && record != null)
+                entry.getKey().useStoredPayload(record);
+        }
+        storeGeneration = generation;
+    }
+
+    /*
+     *   OVERVIEW: Ricostruisce utenti e indici dai record dell'archivio
+     */
+    private void load() throws IOException, ClassNotFoundException {
+        for(Map.Entry<String, ByteBuffer> record : store.load().entrySet()) {
+            String key = record.getKey();
+            DataInputStream in = new DataInputStream(new ByteBufferInputStream(record.getValue().duplicate()));
+            if(key.startsWith(USER_PREFIX)) {
+                String id = key.substring(USER_PREFIX.length());
+                credentials.put(id, SecurePassword.readFrom(in));
+                keyrings.put(id, UserKeyring.readFrom(in));
+            } else if(key.startsWith(ELEMENT_PREFIX)) {
+                long elementId;
+                try {
+                    elementId = Long.parseLong(key.substring(ELEMENT_PREFIX.length()));
+                } catch(NumberFormatException e) {
+                    throw new IOException("Chiave non valida nell'archivio: " + key);
+                }
+                SecureDataInfo<E> element = SecureDataInfo.readFrom(record.getValue());
+                element.internValue(contents);
+                elementIds.put(element, elementId);
+                nextElementId = Math.max(nextElementId, elementId + 1);
+                index(element);
+            } else if(!key.equals(FingerprintStrategies.META_KEY)) {
+                throw new IOException("Chiave non valida nell'archivio: " + key);
+            }
+        }
+    }
+
+    /*
+     *   OVERVIEW: Ritorna la chiave master dell'utente, sbloccandola con la password solo se non è già in cache (L'utente deve essere già autenticato)
+     */
+    private MasterKey unlockKey(String id, String passw) throws NoSuchAlgorithmException, InvalidKeySpecException, InvalidAuthenticationException {
+        MasterKey key = keyCache.get(id);
+        if(key == null) {
+            key = keyrings.get(id).unlock(passw);
+            keyCache.put(id, key);
+        }
+        return key;
+    }
+
     /*
      *   OVERVIEW: Autentica l'utente tramite id(username) e password
      */
@@ -249,9 +946,49 @@ public class SecureDataCollection<E> implements SecureDataContainer<E> {
             throw new NullPointerException();
 
         SecurePassword encrypted_password = credentials.get(id);
-        if(encrypted_password != null && encrypted_password.verify_password(passw))
-            return true;
-        else
+        if(encrypted_password == null || !encrypted_password.verify_password(passw))
             return false;
+
+        if(encrypted_password.needsRehash(passwordPolicy) || keyrings.get(id).needsRehash(passwordPolicy))
+            rehash(id, passw);
+        return true;
+    }
+
+    /*
+     *   OVERVIEW: Cifra di nuovo password e chiave master dell'utente con le impostazioni correnti (L'utente deve essere già autenticato)
+     *            Se l'archivio non è scrivibile le nuove credenziali restano solo in memoria: quelle salvate restano valide
+     *            (Stessa password, stessa chiave master) e vengono aggiornate al prossimo accesso dopo la riapertura
+     */
+    private void rehash(String id, String passw) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        MasterKey key;
+        try {
+            key = unlockKey(id, passw);
+        } catch(InvalidAuthenticationException e) {
+            //La password è stata appena verificata: il portachiavi non corrisponde alle credenziali
+            throw new IllegalStateException("Portachiavi dell'utente " + id + " non valido", e);
+        }
+
+        credentials.put(id, new SecurePassword(passw, passwordPolicy));
+        keyrings.put(id, UserKeyring.wrap(key, passw, passwordPolicy));
+        if(store != null) {
+            try {
+                writeUser(id);
+            } catch(IOException e) {
+                //Le credenziali precedenti nell'archivio restano utilizzabili
+            }
+        }
+    }
+
+    //Utente letto da uno snapshot
+    private static final class SnapshotUser {
+        private final String id;
+        private final SecurePassword password;
+        private final UserKeyring keyring;
+
+        private SnapshotUser(String id, SecurePassword password, UserKeyring keyring) {
+            this.id = id;
+            this.password = password;
+            this.keyring = keyring;
+        }
     }
 }
@@ -0,0 +1,862 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+Funzione di astrazione:
+    f(sdc) = <users> -->
+    <{(String, UserState)0,...,(String, UserState)n}> -->
+    dove UserState contiene la password cifrata, la chiave master cifrata e gli indici (per hash e per inserimento) dei dati
+    leggibili dall'utente. Un dato condiviso compare negli indici di tutti i suoi owners. n == users.size()-1
+
+Invariante di rappresentazione:
+    users != null && stripes != null && stripes.length è una potenza di 2 &&
+    forall(k appartenente a users.getAllKeys()) => (k != null && users.get(k) != null) &&
+    forall(u appartenente a users.getAllKeys()) => (forall(e appartenente a users.get(u).elements) =>
+        (e.hasOwner(u) && e appartiene a users.get(u).byHash.get(e.getDataHash())))
+    forall(u appartenente a users.getAllKeys()) => (forall(e appartenente a users.get(u).elements) =>
+        (forall(o appartenente a e.getOwners()) => (e appartiene a users.get(o).elements)))
+
+Sincronizzazione:
+    Gli indici di un utente vengono letti e modificati solo tenendo il lock della sua stripe.
+    Le operazioni che coinvolgono più utenti (share, remove di un dato condiviso) acquisiscono i lock
+    di tutte le stripe coinvolte in ordine crescente di indice, evitando deadlock.
+    Le operazioni crittografiche (PBKDF2, HKDF, AES-GCM) avvengono fuori dai lock quando possibile.
+*/
+
+//Terza implementazione (Thread-safe): stessa semantica di SecureDataCollection, utenti indipendenti scalano su più core
+public class SecureDataCollectionConcurrent<E> implements SecureDataContainer<E> {
+    //Numero predefinito di stripe di lock
+    public static final int DEFAULT_STRIPES = 64;
+
+    //Stato degli utenti registrati
+    private ConcurrentHashMap<String, UserState<E>> users = new ConcurrentHashMap<>();
+
+    //Lock per gruppi di utenti (lock striping)
+    private final ReentrantLock[] stripes;
+
+    //Chiavi master già sbloccate (evita una derivazione PBKDF2 per ogni operazione)
+    private KeyCache keyCache = new KeyCache();
+
+    //Sessioni autenticate degli utenti
+    private SessionManager sessions;
+
+    //Impronta con cui vengono identificati i dati (Vedi FingerprintStrategies)
+    private final FingerprintStrategy fingerprints;
+
+    //Impostazioni PBKDF2 delle password (Le credenziali con impostazioni diverse vengono aggiornate al login, Vedi PasswordPolicy)
+    private volatile PasswordPolicy passwordPolicy = PasswordPolicy.DEFAULT;
+
+    //Arena off-heap dei dati cifrati (null: i dati cifrati restano nello heap, Vedi setPayloadArena)
+    private volatile PayloadArena arena;
+
+    //Unica istanza di ogni valore pubblico, con un riferimento per ogni dato che la usa (Vedi ContentStore)
+    private final ContentStore contents = new ContentStore();
+
+    //Flusso delle modifiche (null: le modifiche non vengono registrate, Vedi setChangeLog)
+    private volatile ChangeLog changeLog;
+
+    /*
+     *   OVERVIEW: Crea una collezione vuota con le impostazioni predefinite
+     */
+    public SecureDataCollectionConcurrent() {
+        this(DEFAULT_STRIPES, SessionManager.DEFAULT_IDLE_TIMEOUT, SessionManager.DEFAULT_MAX_LIFETIME);
+    }
+
+    /*
+     *   OVERVIEW: Crea una collezione vuota con il numero di stripe e le scadenze di sessione fornite
+     *   REQUIRES: stripeCount > 0, idleTimeout > 0, maxLifetime >= idleTimeout
+     *   MODIFIES: this
+     *   EFFECTS: Crea una collezione vuota con almeno stripeCount lock (arrotondato alla potenza di 2 successiva)
+     *   THROWS:
+     *      IllegalArgumentException, quando le impostazioni non sono valide (Unchecked)
+     */
+    public SecureDataCollectionConcurrent(int stripeCount, long idleTimeout, long maxLifetime) throws IllegalArgumentException {
+        this(stripeCount, idleTimeout, maxLifetime, FingerprintStrategies.sha512());
+    }
+
+    /*
+     *   OVERVIEW: Crea una collezione vuota con il numero di stripe, le scadenze di sessione e l'impronta dei dati fornite
+     *   REQUIRES: stripeCount > 0, idleTimeout > 0, maxLifetime >= idleTimeout, fingerprints != null
+     *   MODIFIES: this
+     *   EFFECTS: Come SecureDataCollectionConcurrent(stripeCount, idleTimeout, maxLifetime), in cui due dati sono uguali se hanno la stessa impronta
+     *   THROWS:
+     *      IllegalArgumentException, quando le impostazioni non sono valide (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public SecureDataCollectionConcurrent(int stripeCount, long idleTimeout, long maxLifetime, FingerprintStrategy fingerprints) throws IllegalArgumentException {
+        if(fingerprints == null)
+            throw new NullPointerException();
+
+        if(stripeCount <= 0)
+            throw new IllegalArgumentException("stripeCount deve essere > 0");
+
+        int size = Integer.highestOneBit(stripeCount);
+        if(size < stripeCount)
+            size <<= 1;
+
+        this.stripes = new ReentrantLock[size];
+        for(int i = 0; i < size; i++)
+            this.stripes[i] = new ReentrantLock();
+
+        this.sessions = new SessionManager(idleTimeout, maxLifetime);
+        this.fingerprints = fingerprints;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna l'impronta con cui la collezione identifica i dati
+     */
+    public FingerprintStrategy getFingerprintStrategy() {
+        return fingerprints;
+    }
+
+    /*
+     *   OVERVIEW: Imposta le impostazioni PBKDF2 delle password (Vedi PasswordPolicy.calibrate)
+     *   REQUIRES: policy != null
+     *   MODIFIES: this
+     *   EFFECTS: I nuovi utenti usano policy. La password e il portachiavi di un utente esistente con impostazioni diverse
+     *            vengono cifrati di nuovo al suo prossimo accesso riuscito (I dati non vengono cifrati di nuovo: la chiave master non cambia)
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public void setPasswordPolicy(PasswordPolicy policy) {
+        if(policy == null)
+            throw new NullPointerException();
+
+        this.passwordPolicy = policy;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna le impostazioni PBKDF2 delle password
+     */
+    public PasswordPolicy getPasswordPolicy() {
+        return passwordPolicy;
+    }
+
+    /*
+     *   OVERVIEW: Imposta l'arena off-heap in cui vengono spostati i dati cifrati
+     *   REQUIRES:
+     *   MODIFIES: this
+     *   EFFECTS: Salt, IV e dato cifrato dei dati inseriti da ora in poi vengono spostati in arena (Vedi PayloadArena) e liberati alla rimozione:
+     *            nello heap resta solo l'handle del record. I dati già presenti non vengono spostati. null disattiva l'arena
+     */
+    public void setPayloadArena(PayloadArena arena) {
+        this.arena = arena;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna l'arena off-heap dei dati cifrati, null se non è impostata
+     */
+    public PayloadArena getPayloadArena() {
+        return arena;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna l'archivio dei valori pubblici della collezione (Vedi ContentStore)
+     */
+    ContentStore getContentStore() {
+        return contents;
+    }
+
+    /*
+     *   OVERVIEW: Imposta il flusso in cui vengono registrate le modifiche della collezione
+     *   REQUIRES:
+     *   MODIFIES: this
+     *   EFFECTS: Da ora ogni modifica riuscita (Nuovo utente, put, remove, copy, share) viene aggiunta a changeLog nell'ordine
+     *            in cui viene applicata, con lo stato cifrato del dato (Vedi ChangeType). La modifica viene registrata mentre la collezione
+     *            tiene i lock degli utenti coinvolti: le modifiche di uno stesso utente o dato hanno sequenze nel loro ordine. null disattiva la registrazione
+     */
+    public void setChangeLog(ChangeLog changeLog) {
+        this.changeLog = changeLog;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna il flusso delle modifiche della collezione, null se non è impostato
+     */
+    public ChangeLog getChangeLog() {
+        return changeLog;
+    }
+
+    /*
+     *   OVERVIEW: Crea l’identità di un nuovo utente della collezione
+     */
+    @Override
+    public void createUser(String id, String passw) throws InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, UsernameNotAvailableException {
+        if(id == null || passw == null)
+            throw new NullPointerException();
+
+        if(id.equals("") || passw.equals(""))
+            throw new IllegalArgumentException("id e passw devono contenere almeno un carattere");
+
+        if(users.containsKey(id))
+            throw new UsernameNotAvailableException("Utente già registrato");
+
+        //Le derivazioni PBKDF2 avvengono fuori da ogni lock
+        PasswordPolicy policy = passwordPolicy;
+        UserState<E> state = new UserState<>(new SecurePassword(passw, policy), UserKeyring.create(passw, policy));
+
+        //Aggiunge l'utente se non esiste (atomico). Il lock della sua stripe ordina la registrazione prima delle sue modifiche
+        ReentrantLock lock = stripeOf(id);
+        lock.lock();
+        try {
+            if(users.putIfAbsent(id, state) != null)
+                throw new UsernameNotAvailableException("Utente già registrato");
+
+            ChangeLog log = changeLog;
+            if(log != null) {
+                log.append(ChangeType.USER_CREATED, id, null, null, out -> {
+                    state.password.writeTo(out);
+                    state.keyring.writeTo(out);
+                });
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     *   OVERVIEW: Restituisce il numero degli elementi di un utente presenti nella collezione
+     */
+    @Override
+    public int getSize(String owner, String passw) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException {
+        if(owner == null || passw == null)
+            throw new NullPointerException();
+
+        authenticate_user(owner, passw);
+        return size(owner);
+    }
+
+    /*
+     *   OVERVIEW: Restituisce il numero degli elementi di un utente autenticato tramite sessione
+     */
+    @Override
+    public int getSize(SessionToken session) throws InvalidAuthenticationException {
+        return size(sessions.resolve(session).getOwner());
+    }
+
+    /*
+     *   OVERVIEW: Inserisce il valore del dato nella collezione se vengono rispettati i controlli di identità
+     */
+    @Override
+    public boolean put(String owner, String passw, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, IOException, IllegalBlockSizeException, InvalidKeyException, BadPaddingException, InvalidAlgorithmParameterException, NoSuchPaddingException {
+        if(owner == null || passw == null || data == null)
+            throw new NullPointerException();
+
+        MasterKey key = acquireKey(owner, passw);
+        try {
+            return insert(owner, key, data);
+        } finally {
+            key.destroy();
+        }
+    }
+
+    /*
+     *   OVERVIEW: Inserisce il valore del dato nella collezione di un utente autenticato tramite sessione
+     */
+    @Override
+    public boolean put(SessionToken session, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, IOException, IllegalBlockSizeException, InvalidKeyException, BadPaddingException, InvalidAlgorithmParameterException, NoSuchPaddingException {
+        if(data == null)
+            throw new NullPointerException();
+
+        SessionManager.Session s = sessions.resolve(session);
+        return insert(s.getOwner(), s.getMasterKey(), data);
+    }
+
+    /*
+     *   OVERVIEW: Ottiene una copia del valore del dato nella collezione se vengono rispettati i controlli di identità
+     */
+    @Override
+    public E get(String owner, String passw, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        if(owner == null || passw == null || data == null)
+            throw new NullPointerException();
+
+        MasterKey key = acquireKey(owner, passw);
+        try {
+            return find(owner, key, data);
+        } finally {
+            key.destroy();
+        }
+    }
+
+    /*
+     *   OVERVIEW: Ottiene una copia del valore del dato di un utente autenticato tramite sessione
+     */
+    @Override
+    public E get(SessionToken session, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        if(data == null)
+            throw new NullPointerException();
+
+        SessionManager.Session s = sessions.resolve(session);
+        return find(s.getOwner(), s.getMasterKey(), data);
+    }
+
+    /*
+     *   OVERVIEW: Ottiene il valore del dato come stream di byte, decifrando i dati grandi un blocco alla volta
+     */
+    @Override
+    public InputStream getInputStream(String owner, String passw, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException {
+        if(owner == null || passw == null || data == null)
+            throw new NullPointerException();
+
+        MasterKey key = acquireKey(owner, passw);
+        try {
+            return openStream(owner, key, data);
+        } finally {
+            key.destroy();
+        }
+    }
+
+    /*
+     *   OVERVIEW: Ottiene il valore del dato come stream di byte di un utente autenticato tramite sessione
+     */
+    @Override
+    public InputStream getInputStream(SessionToken session, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException {
+        if(data == null)
+            throw new NullPointerException();
+
+        SessionManager.Session s = sessions.resolve(session);
+        return openStream(s.getOwner(), s.getMasterKey(), data);
+    }
+
+    /*
+     *   OVERVIEW: Rimuove il dato nella collezione se vengono rispettati i controlli di identità
+     */
+    @Override
+    public E remove(String owner, String passw, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, IOException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, IllegalBlockSizeException, InvalidKeyException, ClassNotFoundException {
+        if(owner == null || passw == null || data == null)
+            throw new NullPointerException();
+
+        MasterKey key = acquireKey(owner, passw);
+        try {
+            return delete(owner, key, data);
+        } finally {
+            key.destroy();
+        }
+    }
+
+    /*
+     *   OVERVIEW: Rimuove il dato dalla collezione di un utente autenticato tramite sessione
+     */
+    @Override
+    public E remove(SessionToken session, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, IOException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, IllegalBlockSizeException, InvalidKeyException, ClassNotFoundException {
+        if(data == null)
+            throw new NullPointerException();
+
+        SessionManager.Session s = sessions.resolve(session);
+        return delete(s.getOwner(), s.getMasterKey(), data);
+    }
+
+    /*
+     *   OVERVIEW: Crea una copia del dato nella collezione se vengono rispettati i controlli di identità
+     */
+    @Override
+    public void copy(String owner, String passw, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, IOException, IllegalBlockSizeException, InvalidKeyException, BadPaddingException, InvalidAlgorithmParameterException, NoSuchPaddingException {
+        if(owner == null || passw == null || data == null)
+            throw new NullPointerException();
+
+        //La copia non usa la chiave master (Vedi SecureDataInfo.copyFor): basta autenticare l'utente
+        authenticate_user(owner, passw);
+        duplicate(owner, data);
+    }
+
+    /*
+     *   OVERVIEW: Crea una copia del dato nella collezione di un utente autenticato tramite sessione
+     */
+    @Override
+    public void copy(SessionToken session, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, IOException, IllegalBlockSizeException, InvalidKeyException, BadPaddingException, InvalidAlgorithmParameterException, NoSuchPaddingException {
+        if(data == null)
+            throw new NullPointerException();
+
+        SessionManager.Session s = sessions.resolve(session);
+        duplicate(s.getOwner(), data);
+    }
+
+    /*
+     *   OVERVIEW: Condivide il dato nella collezione con un altro utente se vengono rispettati i controlli di identità
+     */
+    @Override
+    public void share(String owner, String passw, String other, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, IOException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, IllegalBlockSizeException, InvalidKeyException, ClassNotFoundException, UsernameNotAvailableException {
+        if(owner == null || passw == null || other == null || data == null)
+            throw new NullPointerException();
+
+        MasterKey key = acquireKey(owner, passw);
+        try {
+            shareWith(owner, key, other, data);
+        } finally {
+            key.destroy();
+        }
+    }
+
+    /*
+     *   OVERVIEW: Condivide il dato di un utente autenticato tramite sessione con un altro utente
+     */
+    @Override
+    public void share(SessionToken session, String other, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, IOException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, IllegalBlockSizeException, InvalidKeyException, ClassNotFoundException, UsernameNotAvailableException {
+        if(other == null || data == null)
+            throw new NullPointerException();
+
+        SessionManager.Session s = sessions.resolve(session);
+        shareWith(s.getOwner(), s.getMasterKey(), other, data);
+    }
+
+    /*
+     *   OVERVIEW: Restituisce un iteratore (senza remove) che genera tutti i dati dell'utente in ordine arbitrario se vengono rispettati i controlli di identità
+     */
+    @Override
+    public Iterator<E> getIterator(String owner, String passw) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        if(owner == null || passw == null)
+            throw new NullPointerException();
+
+        //La copia privata della chiave passa all'iteratore, che la distrugge quando termina o viene chiuso
+        return iterate(owner, acquireKey(owner, passw), true);
+    }
+
+    /*
+     *   OVERVIEW: Restituisce un iteratore (senza remove) sui dati di un utente autenticato tramite sessione
+     */
+    @Override
+    public Iterator<E> getIterator(SessionToken session) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        SessionManager.Session s = sessions.resolve(session);
+        return iterate(s.getOwner(), s.getMasterKey(), false);
+    }
+
+    /*
+     *   OVERVIEW: Restituisce uno Stream sequenziale che decifra i dati dell'utente solo quando vengono consumati
+     */
+    @Override
+    public Stream<E> getStream(String owner, String passw) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        if(owner == null || passw == null)
+            throw new NullPointerException();
+
+        return iterate(owner, acquireKey(owner, passw), true).stream();
+    }
+
+    /*
+     *   OVERVIEW: Restituisce uno Stream sequenziale sui dati di un utente autenticato tramite sessione
+     */
+    @Override
+    public Stream<E> getStream(SessionToken session) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        SessionManager.Session s = sessions.resolve(session);
+        return iterate(s.getOwner(), s.getMasterKey(), false).stream();
+    }
+
+    /*
+     *   OVERVIEW: Restituisce uno Stream parallelo che divide i dati dell'utente tra i thread del ForkJoinPool per decifrarli
+     */
+    @Override
+    public Stream<E> getParallelStream(String owner, String passw, boolean ordered) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        if(owner == null || passw == null)
+            throw new NullPointerException();
+
+        return iterate(owner, acquireKey(owner, passw), true).parallelStream(ordered);
+    }
+
+    /*
+     *   OVERVIEW: Restituisce uno Stream parallelo sui dati di un utente autenticato tramite sessione
+     */
+    @Override
+    public Stream<E> getParallelStream(SessionToken session, boolean ordered) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        SessionManager.Session s = sessions.resolve(session);
+        return iterate(s.getOwner(), s.getMasterKey(), false).parallelStream(ordered);
+    }
+
+    /*
+     *   OVERVIEW: Autentica l'utente una sola volta e apre una sessione
+     */
+    @Override
+    public SessionToken login(String id, String passw) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidKeyException {
+        if(id == null || passw == null)
+            throw new NullPointerException();
+
+        MasterKey key = acquireKey(id, passw);
+        try {
+            return sessions.open(id, key);
+        } finally {
+            key.destroy();
+        }
+    }
+
+    /*
+     *   OVERVIEW: Chiude una sessione
+     */
+    @Override
+    public boolean logout(SessionToken session) {
+        return sessions.close(session);
+    }
+
+    /*
+     *   OVERVIEW: Conta gli elementi dell'utente (L'utente deve essere già autenticato)
+     */
+    private int size(String owner) {
+        ReentrantLock lock = stripeOf(owner);
+        lock.lock();
+        try {
+            return users.get(owner).elements.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     *   OVERVIEW: Cifra (fuori dal lock) e inserisce il dato (L'utente deve essere già autenticato)
+     */
+    private boolean insert(String owner, MasterKey key, E data) throws NoSuchAlgorithmException, IOException, NoSuchPaddingException, InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException {
+        SecureDataInfo<E> element = new SecureDataInfo<>(owner, data, key, fingerprints);
+        place(element);
+
+        ReentrantLock lock = stripeOf(owner);
+        lock.lock();
+        try {
+            users.get(owner).index(element);
+            publish(ChangeType.ELEMENT_PUT, owner, null, element);
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    /*
+     *   OVERVIEW: Cerca (nel lock) e decifra (fuori dal lock) il dato (L'utente deve essere già autenticato)
+     */
+    private E find(String owner, MasterKey key, E data) throws IOException, NoSuchAlgorithmException, InvalidKeyException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, IllegalBlockSizeException, ClassNotFoundException {
+        return locate(owner, data).getValue(key);
+    }
+
+    /*
+     *   OVERVIEW: Apre lo stream del valore del dato (L'utente deve essere già autenticato). La chiave di cifratura viene derivata subito:
+     *             key può essere distrutta dopo la chiamata
+     */
+    private InputStream openStream(String owner, MasterKey key, E data) throws IOException, NoSuchAlgorithmException, InvalidKeyException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, IllegalBlockSizeException {
+        return locate(owner, data).openStream(key);
+    }
+
+    /*
+     *   OVERVIEW: Registra la modifica del dato nel flusso delle modifiche, se impostato (Da chiamare tenendo i lock degli utenti coinvolti)
+     */
+    private void publish(ChangeType type, String user, String target, SecureDataInfo<E> element) {
+        ChangeLog log = changeLog;
+        if(log != null)
+            log.append(type, user, target, element.getHash(), type == ChangeType.ELEMENT_REMOVED ? null : element::writeTo);
+    }
+
+    /*
+     *   OVERVIEW: Sposta il dato appena creato nell'arena off-heap, se impostata
+     */
+    private void place(SecureDataInfo<E> element) {
+        PayloadArena target = arena;
+        if(target != null)
+            element.moveTo(target);
+    }
+
+    /*
+     *   OVERVIEW: Cerca il dato dell'utente tenendo il lock della sua stripe solo durante la ricerca
+     */
+    private SecureDataInfo<E> locate(String owner, E data) throws IOException, NoSuchAlgorithmException {
+        DataHash hash = ContentFingerprinter.fingerprint(data, fingerprints);
+
+        SecureDataInfo<E> element;
+        ReentrantLock lock = stripeOf(owner);
+        lock.lock();
+        try {
+            element = users.get(owner).lookup(hash);
+        } finally {
+            lock.unlock();
+        }
+
+        if(element == null)
+            throw new NoSuchElementException("Il dato non è presente nella collezione");
+
+        return element;
+    }
+
+    /*
+     *   OVERVIEW: Rimuove il dato per tutti i suoi owners in modo atomico (L'utente deve essere già autenticato)
+     */
+    private E delete(String owner, MasterKey key, E data) throws IOException, NoSuchAlgorithmException, InvalidKeyException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, IllegalBlockSizeException, ClassNotFoundException {
+        DataHash hash = ContentFingerprinter.fingerprint(data, fingerprints);
+
+        while(true) {
+            SecureDataInfo<E> element;
+            ReentrantLock lock = stripeOf(owner);
+            lock.lock();
+            try {
+                element = users.get(owner).lookup(hash);
+            } finally {
+                lock.unlock();
+            }
+
+            if(element == null)
+                return null;
+
+            //Blocca tutti gli owners del dato; se nel frattempo sono cambiati ritenta
+            List<String> owners = element.getOwners();
+            List<ReentrantLock> locks = lockAll(owners);
+            try {
+                if(!element.getOwners().equals(owners) || !users.get(owner).contains(element))
+                    continue;
+
+                for(String o : owners)
+                    users.get(o).unindex(element);
+                publish(ChangeType.ELEMENT_REMOVED, owner, null, element);
+            } finally {
+                unlockAll(locks);
+            }
+
+            //Una lettura concorrente del dato appena rimosso resta valida (Vedi SecureDataInfo.release)
+            try {
+                return element.getValue(key);
+            } finally {
+                element.release();
+                element.releaseValue(contents);
+            }
+        }
+    }
+
+    /*
+     *   OVERVIEW: Crea una copia del dato in modo atomico (L'utente deve essere già autenticato). La copia condivide il contenuto del dato
+     *             (Vedi SecureDataInfo.copyFor): nulla viene cifrato e il lock viene tenuto per un tempo costante
+     */
+    private void duplicate(String owner, E data) throws NoSuchAlgorithmException, IOException {
+        DataHash hash = ContentFingerprinter.fingerprint(data, fingerprints);
+
+        ReentrantLock lock = stripeOf(owner);
+        lock.lock();
+        try {
+            UserState<E> state = users.get(owner);
+            SecureDataInfo<E> element = state.lookup(hash);
+            if(element == null)
+                throw new NoSuchElementException("Il dato non è presente nella collezione");
+
+            //Se il dato è cifrato la copia mantiene la cifratura (Il dato cifrato appartiene solo a owner), altrimenti è una copia non cifrata
+            SecureDataInfo<E> newElement = element.copyFor(owner);
+            newElement.internValue(contents);
+            state.index(newElement);
+            publish(ChangeType.ELEMENT_COPIED, owner, null, newElement);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     *   OVERVIEW: Condivide il dato con un altro utente in modo atomico rispetto ad entrambi gli utenti (L'utente deve essere già autenticato)
+     */
+    private void shareWith(String owner, MasterKey key, String other, E data) throws IOException, NoSuchAlgorithmException, InvalidKeyException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, IllegalBlockSizeException, ClassNotFoundException, UsernameNotAvailableException {
+        //Controllo se l'utente con cui condividere il dato esiste
+        if(!users.containsKey(other))
+            throw new UsernameNotAvailableException("L'utente " + other + " non esiste");
+        else if(owner.equals(other))
+            throw new UsernameNotAvailableException("L'utente non può condividere un dato con se stesso");
+
+        DataHash hash = ContentFingerprinter.fingerprint(data, fingerprints);
+
+        List<ReentrantLock> locks = lockAll(Arrays.asList(owner, other));
+        try {
+            SecureDataInfo<E> element = users.get(owner).lookup(hash);
+            if(element == null)
+                throw new NoSuchElementException("Il dato non è presente nella collezione");
+
+            //Decifra il dato in modo irreversibile
+            // (La cifratura del dato è disponibile solo se privato, condividendolo diventa pubblico)
+            element.makePublic(key, contents);
+            //Aggiunge l'utente alla lista di owner e all'indice dell'altro utente
+            element.addOwner(other);
+            users.get(other).index(element);
+            publish(ChangeType.ELEMENT_SHARED, owner, other, element);
+        } finally {
+            unlockAll(locks);
+        }
+    }
+
+    /*
+     *   OVERVIEW: Copia (nel lock) i riferimenti ai dati e ritorna un iteratore che li decifra (fuori dal lock) uno alla volta (L'utente deve essere già autenticato)
+     */
+    private DecryptingIterator<E> iterate(String owner, MasterKey key, boolean ownsKey) {
+        final UserState<E> state = users.get(owner);
+        final ReentrantLock lock = stripeOf(owner);
+        List<SecureDataInfo<E>> snapshot;
+        lock.lock();
+        try {
+            snapshot = new ArrayList<>(state.elements);
+        } finally {
+            lock.unlock();
+        }
+
+        //I dati vengono decifrati fuori dal lock, uno alla volta durante l'iterazione
+        return new DecryptingIterator<>(snapshot, element -> {
+            lock.lock();
+            try {
+                return state.contains(element);
+            } finally {
+                lock.unlock();
+            }
+        }, key, ownsKey);
+    }
+
+    /*
+     *   OVERVIEW: Autentica l'utente e ritorna una copia privata della chiave master, che il chiamante deve distruggere
+     */
+    private MasterKey acquireKey(String id, String passw) throws InvalidAuthenticationException, NoSuchAlgorithmException, InvalidKeySpecException, IllegalArgumentException {
+        UserState<E> state = authenticate_user(id, passw);
+
+        MasterKey key = keyCache.copyOf(id);
+        if(key == null) {
+            key = state.keyring.unlock(passw);
+            try {
+                keyCache.put(id, key.copy());
+            } catch(InvalidKeyException e) {
+                //La chiave è stata appena sbloccata
+                throw new IllegalStateException(e);
+            }
+        }
+        return key;
+    }
+
+    /*
+     *   OVERVIEW: Autentica l'utente tramite id(username) e password (Senza lock: password e portachiavi vengono sostituiti, mai modificati),
+     *             aggiornando le sue credenziali se la politica delle password è cambiata
+     */
+    private UserState<E> authenticate_user(String id, String passw) throws InvalidAuthenticationException, NoSuchAlgorithmException, InvalidKeySpecException, IllegalArgumentException {
+        UserState<E> state = users.get(id);
+        if(state == null || !state.password.verify_password(passw))
+            throw new InvalidAuthenticationException("Autenticazione fallita");
+
+        PasswordPolicy policy = passwordPolicy;
+        if(state.password.needsRehash(policy) || state.keyring.needsRehash(policy))
+            rehash(id, state, passw, policy);
+        return state;
+    }
+
+    /*
+     *   OVERVIEW: Cifra di nuovo password e chiave master dell'utente con la politica fornita (Le derivazioni PBKDF2 avvengono fuori dal lock)
+     *            Un thread concorrente può vedere la nuova password con il vecchio portachiavi: entrambi si sbloccano con la stessa password
+     *            e contengono la stessa chiave master
+     */
+    private void rehash(String id, UserState<E> state, String passw, PasswordPolicy policy) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        SecurePassword current = state.password;
+        MasterKey key = keyCache.copyOf(id);
+        try {
+            if(key == null)
+                key = state.keyring.unlock(passw);
+
+            SecurePassword newPassword = new SecurePassword(passw, policy);
+            UserKeyring newKeyring = UserKeyring.wrap(key, passw, policy);
+
+            ReentrantLock lock = stripeOf(id);
+            lock.lock();
+            try {
+                //Un altro thread ha già aggiornato le credenziali
+                if(state.password == current) {
+                    state.keyring = newKeyring;
+                    state.password = newPassword;
+                }
+            } finally {
+                lock.unlock();
+            }
+        } catch(InvalidAuthenticationException e) {
+            //La password è stata appena verificata: il portachiavi non corrisponde alle credenziali
+            throw new IllegalStateException("Portachiavi dell'utente " + id + " non valido", e);
+        } finally {
+            if(key != null)
+                key.destroy();
+        }
+    }
+
+    /*
+     *   OVERVIEW: Ritorna il lock della stripe dell'utente
+     */
+    private ReentrantLock stripeOf(String user) {
+        return stripes[stripeIndex(user)];
+    }
+
+    private int stripeIndex(String user) {
+        int h = user.hashCode();
+        h ^= (h >>> 16);
+        return h & (stripes.length - 1);
+    }
+
+    /*
+     *   OVERVIEW: Acquisisce i lock delle stripe degli utenti forniti in ordine crescente di indice
+     */
+    private List<ReentrantLock> lockAll(Collection<String> usersToLock) {
+        TreeSet<Integer> indexes = new TreeSet<>();
+        for(String user : usersToLock)
+            indexes.add(stripeIndex(user));
+
+        List<ReentrantLock> locks = new ArrayList<>(indexes.size());
+        for(int i : indexes) {
+            stripes[i].lock();
+            locks.add(stripes[i]);
+        }
+        return locks;
+    }
+
+    /*
+     *   OVERVIEW: Rilascia i lock in ordine inverso di acquisizione
+     */
+    private void unlockAll(List<ReentrantLock> locks) {
+        for(int i = locks.size() - 1; i >= 0; i--)
+            locks.get(i).unlock();
+    }
+
+    //Stato di un utente: credenziali sostituite solo dal rehash (Vedi PasswordPolicy) e indici protetti dal lock della stripe dell'utente
+    private static class UserState<E> {
+        private volatile SecurePassword password;
+        private volatile UserKeyring keyring;
+        private final HashMap<DataHash, List<SecureDataInfo<E>>> byHash = new HashMap<>();
+        private final Set<SecureDataInfo<E>> elements = new LinkedHashSet<>();
+
+        private UserState(SecurePassword password, UserKeyring keyring) {
+            this.password = password;
+            this.keyring = keyring;
+        }
+
+        private SecureDataInfo<E> lookup(DataHash hash) {
+            long start = Tracing.start();
+            List<SecureDataInfo<E>> candidates = byHash.get(hash);
+            Tracing.end(OperationPhase.INDEX_LOOKUP, start);
+            return candidates == null ? null : candidates.get(0);
+        }
+
+        private boolean contains(SecureDataInfo<E> element) {
+            return elements.contains(element);
+        }
+
+        private void index(SecureDataInfo<E> element) {
+            if(elements.add(element))
+                byHash.computeIfAbsent(element.getDataHash(), k -> new ArrayList<>(1)).add(element);
+        }
+
+        private void unindex(SecureDataInfo<E> element) {
+            if(!elements.remove(element))
+                return;
+
+            List<SecureDataInfo<E>> candidates = byHash.get(element.getDataHash());
+            for(int i = 0; i < candidates.size(); i++) {
+                //Confronto per identità: dati diversi possono avere lo stesso hash
+                if(candidates.get(i) == element) {
+                    candidates.remove(i);
+                    break;
+                }
+            }
+            if(candidates.isEmpty())
+                byHash.remove(element.getDataHash());
+        }
+    }
+}
@@ -8,35 +8,359 @@
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
-import java.io.IOException;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
 import java.util.*;
+import java.util.stream.Stream;
 
 /*
 
 Funzione di astrazione:
     <credentials, storage> -->
-    <{(String, UserCredentials)0,...,(String, UserCredentials)n}, {(String, SecureDataInfo)0,...,(String, SecureDataInfo)k}> -->
-    dove UserCredentials contiene la password e una lista di hash dei dati appartenenti all'utente &&
+    <{(String, UserCredentials)0,...,(String, UserCredentials)n}, {(ElementKey, SecureDataInfo)0,...,(ElementKey, SecureDataInfo)k}> -->
+    dove UserCredentials contiene la password e l'insieme delle chiavi dei dati appartenenti all'utente &&
     SecureDataInfo è composto sostanzialmente dal dato cifrato. -->
     n = credentials.size() && k = storage.size()
 
 Invariante di rappresentazione:
     credentials != null, storage != null &&
     forall(k,y appartenente a credentials.getAllKeys()).(k != null && k != y) => (credentials.get(k) != null)
+    forall(k appartenente a credentials.getAllKeys()) => (ownerNames.get(credentials.get(k).getId()).equals(k))
     forall(h,x appartenente a storage.getAllKeys()).(h != null && h != y)
+    forall(h appartenente a holders.getAllKeys()).(storage.containsKey(h) &&
+        forall(u appartenente a holders.get(h)) => (credentials.get(u).elementExist(h)))
 
 */
 public class SecureDataCollectionSecImp<E> implements SecureDataContainer<E> {
 
-    //Gli hash vengono codificati in String Base64 perchè non può essere usato un byte array come chiave per una HashMap
-    //La struttura dell'hash è hash.username o nel caso di un dato condiviso hash.shared
+    //Ogni dato è identificato dall'hash e dall'id numerico del proprietario, oppure da SHARED nel caso di un dato condiviso (Vedi ElementKey)
 
     private HashMap<String, UserCredentials> credentials = new HashMap<>();
-    private HashMap<String, SecureDataInfo<E>> storage = new HashMap<>();
+    private HashMap<ElementKey, SecureDataInfo<E>> storage = new HashMap<>();
+    //Indice inverso: per ogni chiave di storage gli utenti che hanno il dato nel proprio insieme di hash
+    private HashMap<ElementKey, Set<String>> holders = new HashMap<>();
+    //Nome di ogni utente, indicizzato per id (L'id dei proprietari è la posizione in questa lista)
+    private ArrayList<String> ownerNames = new ArrayList<>();
+
+    //Chiavi master già sbloccate (evita una derivazione PBKDF2 per ogni operazione)
+    private KeyCache keyCache = new KeyCache();
+
+    //Sessioni autenticate degli utenti
+    private SessionManager sessions;
+
+    //Archivio persistente (null se la collezione è solo in memoria)
+    //Un record per utente, uno per dato (chiave di storage) e uno vuoto per ogni hash nell'insieme di un utente
+    private LogStore store;
+    //Compattazioni dell'archivio già viste: i dati cifrati sono viste del file corrente (Vedi refreshStoredPayloads)
+    private long storeGeneration;
+
+    //Impronta con cui vengono identificati i dati (Registrata nell'archivio, Vedi FingerprintStrategies)
+    private FingerprintStrategy fingerprints = FingerprintStrategies.sha512();
+
+    //Impostazioni PBKDF2 delle password (Le credenziali con impostazioni diverse vengono aggiornate al login, Vedi PasswordPolicy)
+    private PasswordPolicy passwordPolicy = PasswordPolicy.DEFAULT;
+
+    //Arena off-heap dei dati cifrati (null: i dati cifrati restano nello heap, Vedi setPayloadArena)
+    private PayloadArena arena;
+
+    //Unica istanza di ogni valore pubblico, con un riferimento per ogni dato che la usa (Vedi ContentStore)
+    private final ContentStore contents = new ContentStore();
+
+    //Flusso delle modifiche (null: le modifiche non vengono registrate, Vedi setChangeLog)
+    private ChangeLog changeLog;
+
+    private static final String USER_PREFIX = "u:";
+    private static final String ELEMENT_PREFIX = "e:";
+    private static final String HASH_PREFIX = "h:";
+    private static final String SHARED_SUFFIX = "shared";
+    private static final byte[] EMPTY = new byte[0];
+
+    /*
+     *   OVERVIEW: Crea una collezione vuota con le scadenze di sessione predefinite
+     */
+    public SecureDataCollectionSecImp() {
+        this.sessions = new SessionManager();
+    }
+
+    /*
+     *   OVERVIEW: Crea una collezione vuota con le scadenze di sessione fornite (millisecondi)
+     *   REQUIRES: idleTimeout > 0, maxLifetime >= idleTimeout
+     *   MODIFIES: this
+     *   EFFECTS: Crea una collezione vuota le cui sessioni scadono dopo idleTimeout di inattività o dopo maxLifetime dalla creazione
+     *   THROWS:
+     *      IllegalArgumentException, quando le scadenze non sono valide (Unchecked)
+     */
+    public SecureDataCollectionSecImp(long idleTimeout, long maxLifetime) throws IllegalArgumentException {
+        this.sessions = new SessionManager(idleTimeout, maxLifetime);
+    }
+
+    /*
+     *   OVERVIEW: Crea una collezione vuota che identifica i dati con l'impronta fornita
+     *   REQUIRES: fingerprints != null
+     *   MODIFIES: this
+     *   EFFECTS: Crea una collezione vuota con le scadenze di sessione predefinite in cui due dati sono uguali se hanno la stessa impronta (Vedi FingerprintStrategies)
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public SecureDataCollectionSecImp(FingerprintStrategy fingerprints) {
+        if(fingerprints == null)
+            throw new NullPointerException();
+
+        this.sessions = new SessionManager();
+        this.fingerprints = fingerprints;
+    }
+
+    /*
+     *   OVERVIEW: Crea una collezione persistente ricostruita dall'archivio fornito
+     *   REQUIRES: store != null
+     *   MODIFIES: this
+     *   EFFECTS: Carica utenti e dati dall'archivio senza decifrare nulla (Nessuna derivazione PBKDF2).
+     *            Ogni modifica successiva viene scritta nell'archivio prima di essere applicata in memoria
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente o l'archivio non è valido (Unchecked)
+     *      ClassNotFoundException, quando si prova a caricare una classe, che non è presente, tramite una stringa (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public SecureDataCollectionSecImp(LogStore store) throws IOException, ClassNotFoundException {
+        this(store, null);
+    }
+
+    /*
+     *   OVERVIEW: Crea una collezione persistente ricostruita dall'archivio fornito, che identifica i dati con l'impronta fornita
+     *   REQUIRES: store != null
+     *   MODIFIES: this, store
+     *   EFFECTS: Come SecureDataCollectionSecImp(store). Un archivio nuovo registra l'impronta fornita (SHA-512 se fingerprints == null);
+     *            un archivio esistente va aperto con la stessa impronta e la stessa chiave con cui è stato scritto (Con fingerprints == null viene usata quella registrata)
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente, l'archivio non è valido o l'impronta non corrisponde a quella registrata (Unchecked)
+     *      ClassNotFoundException, quando si prova a caricare una classe, che non è presente, tramite una stringa (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public SecureDataCollectionSecImp(LogStore store, FingerprintStrategy fingerprints) throws IOException, ClassNotFoundException {
+        if(store == null)
+            throw new NullPointerException();
+
+        this.sessions = new SessionManager();
+        this.store = store;
+        this.fingerprints = FingerprintStrategies.bind(store, fingerprints);
+        load();
+    }
+
+    /*
+     *   OVERVIEW: Ricostruisce una collezione da uno snapshot (Vedi snapshotTo)
+     *   REQUIRES: path != null
+     *   MODIFIES:
+     *   EFFECTS: Ritorna una nuova collezione in memoria con gli utenti, i dati e gli insiemi di hash dello snapshot, usando l'impronta registrata.
+     *            I blocchi dello snapshot vengono decodificati in parallelo e nulla viene decifrato (Nessuna derivazione PBKDF2)
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente o lo snapshot non è valido (Unchecked)
+     *      ClassNotFoundException, quando si prova a caricare una classe, che non è presente, tramite una stringa (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public static <E> SecureDataCollectionSecImp<E> restore(Path path) throws IOException, ClassNotFoundException {
+        return restore(path, null);
+    }
+
+    /*
+     *   OVERVIEW: Come restore(path), con l'impronta fornita (Necessaria per un'impronta con chiave, Vedi FingerprintStrategies.hmacSha256)
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente, lo snapshot non è valido o l'impronta non corrisponde a quella registrata (Unchecked)
+     *      ClassNotFoundException, quando si prova a caricare una classe, che non è presente, tramite una stringa (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> SecureDataCollectionSecImp<E> restore(Path path, FingerprintStrategy fingerprints) throws IOException, ClassNotFoundException {
+        if(path == null)
+            throw new NullPointerException();
+
+        try(SnapshotFile.Reader reader = new SnapshotFile.Reader(path, SnapshotFile.SECURE_DATA_COLLECTION_SEC_IMP, fingerprints)) {
+            SecureDataCollectionSecImp<E> collection = new SecureDataCollectionSecImp<>(reader.getFingerprintStrategy());
+            //Gli utenti precedono i dati nello snapshot: gli id vengono riassegnati nell'ordine di lettura
+            for(Object record : reader.parse(SecureDataCollectionSecImp::readSnapshotRecord)) {
+                if(record instanceof SnapshotUser) {
+                    SnapshotUser user = (SnapshotUser) record;
+                    DataInputStream in = new DataInputStream(new ByteBufferInputStream(user.credentials));
+                    collection.registerUser(user.id, UserCredentials.readFrom(in, collection.ownerNames.size()));
+                } else {
+                    SnapshotElement snapshotElement = (SnapshotElement) record;
+                    SecureDataInfo<E> element = (SecureDataInfo<E>) snapshotElement.element;
+                    ElementKey elementKey;
+                    if(snapshotElement.owner == null) {
+                        elementKey = new ElementKey(element.getDataHash(), ElementKey.SHARED);
+                    } else {
+                        UserCredentials owner = collection.credentials.get(snapshotElement.owner);
+                        if(owner == null)
+                            throw new IOException("Utente sconosciuto nello snapshot: " + snapshotElement.owner);
+                        elementKey = new ElementKey(element.getDataHash(), owner.getId());
+                    }
+
+                    element.internValue(collection.contents);
+                    collection.storage.put(elementKey, element);
+                    for(String holder : snapshotElement.holders) {
+                        UserCredentials userCredentials = collection.credentials.get(holder);
+                        if(userCredentials == null)
+                            throw new IOException("Utente sconosciuto nello snapshot: " + holder);
+                        userCredentials.addElementHash(elementKey);
+                        collection.addHolder(elementKey, holder);
+                    }
+                }
+            }
+            return collection;
+        }
+    }
+
+    /*
+     *   OVERVIEW: Scrive uno snapshot della collezione
+     *   REQUIRES: path != null, nessuna modifica concorrente della collezione durante la scrittura
+     *   MODIFIES: il file system
+     *   EFFECTS: Scrive in path (In modo atomico: un eventuale snapshot precedente viene sostituito solo a scrittura completata)
+     *            l'impronta, le password cifrate e i portachiavi degli utenti e tutti i dati così come sono in memoria, ognuno con il
+     *            proprietario e gli utenti che lo hanno nel proprio insieme di hash (Vedi SnapshotFile).
+     *            Nulla viene decifrato: lo snapshot contiene solo i dati cifrati e i dati pubblici. Sessioni e chiavi in cache non vengono salvate
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public void snapshotTo(Path path) throws IOException {
+        if(path == null)
+            throw new NullPointerException();
+
+        try(SnapshotFile.Writer writer = new SnapshotFile.Writer(path, SnapshotFile.SECURE_DATA_COLLECTION_SEC_IMP, fingerprints)) {
+            //Gli utenti nell'ordine dei loro id
+            for(String id : ownerNames) {
+                DataOutput out = writer.beginRecord(SnapshotFile.USER_RECORD);
+                out.writeUTF(id);
+                credentials.get(id).writeTo(out);
+                writer.endRecord();
+            }
+
+            //Ogni dato una sola volta, nell'ordine degli insiemi di hash degli utenti
+            Set<ElementKey> written = new HashSet<>();
+            for(String id : ownerNames) {
+                for(ElementKey elementKey : credentials.get(id).getAllElementsHash()) {
+                    if(!written.add(elementKey))
+                        continue;
+
+                    DataOutput out = writer.beginRecord(SnapshotFile.ELEMENT_RECORD);
+                    out.writeBoolean(elementKey.isShared());
+                    if(!elementKey.isShared())
+                        out.writeUTF(ownerNames.get(elementKey.getOwner()));
+                    Set<String> users = holders.get(elementKey);
+                    out.writeInt(users.size());
+                    for(String user : users)
+                        out.writeUTF(user);
+                    storage.get(elementKey).writeTo(out);
+                    writer.endRecord();
+                }
+            }
+            writer.commit();
+        }
+    }
+
+    /*
+     *   OVERVIEW: Decodifica un record dello snapshot (In parallelo, Vedi SnapshotFile.Reader.parse)
+     */
+    private static Object readSnapshotRecord(byte type, ByteBuffer record) throws IOException, ClassNotFoundException {
+        DataInputStream in = new DataInputStream(new ByteBufferInputStream(record));
+        if(type == SnapshotFile.USER_RECORD) {
+            //Le credenziali vengono lette all'inserimento, quando l'id dell'utente è noto
+            return new SnapshotUser(in.readUTF(), record.slice());
+        } else if(type == SnapshotFile.ELEMENT_RECORD) {
+            String owner = in.readBoolean() ? null : in.readUTF();
+            int count = in.readInt();
+            if(count < 1)
+                throw new IOException("Il dato non ha utenti nello snapshot");
+            String[] users = new String[count];
+            for(int i = 0; i < count; i++)
+                users[i] = in.readUTF();
+
+            SecureDataInfo<Object> element = SecureDataInfo.readFrom(record);
+            //Il blocco dello snapshot non viene trattenuto in memoria; l'hash viene preparato per le chiavi
+            element.detachPayload();
+            element.getDataHash();
+            return new SnapshotElement(owner, users, element);
+        }
+        throw new IOException("Tipo di record non valido nello snapshot: " + type);
+    }
+
+    /*
+     *   OVERVIEW: Ritorna l'impronta con cui la collezione identifica i dati
+     */
+    public FingerprintStrategy getFingerprintStrategy() {
+        return fingerprints;
+    }
+
+    /*
+     *   OVERVIEW: Imposta le impostazioni PBKDF2 delle password (Vedi PasswordPolicy.calibrate)
+     *   REQUIRES: policy != null
+     *   MODIFIES: this
+     *   EFFECTS: I nuovi utenti usano policy. La password e il portachiavi di un utente esistente con impostazioni diverse
+     *            vengono cifrati di nuovo al suo prossimo accesso riuscito (I dati non vengono cifrati di nuovo: la chiave master non cambia)
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public void setPasswordPolicy(PasswordPolicy policy) {
+        if(policy == null)
+            throw new NullPointerException();
+
+        this.passwordPolicy = policy;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna le impostazioni PBKDF2 delle password
+     */
+    public PasswordPolicy getPasswordPolicy() {
+        return passwordPolicy;
+    }
+
+    /*
+     *   OVERVIEW: Imposta l'arena off-heap in cui vengono spostati i dati cifrati
+     *   REQUIRES:
+     *   MODIFIES: this
+     *   EFFECTS: Salt, IV e dato cifrato dei dati inseriti da ora in poi vengono spostati in arena (Vedi PayloadArena) e liberati alla rimozione:
+     *            nello heap resta solo l'handle del record. I dati già presenti non vengono spostati. null disattiva l'arena.
+     *            Con un archivio (LogStore) l'arena non viene usata: i dati cifrati sono già letti dal file mappato in memoria
+     */
+    public void setPayloadArena(PayloadArena arena) {
+        this.arena = arena;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna l'arena off-heap dei dati cifrati, null se non è impostata
+     */
+    public PayloadArena getPayloadArena() {
+        return arena;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna l'archivio dei valori pubblici della collezione (Vedi ContentStore)
+     */
+    ContentStore getContentStore() {
+        return contents;
+    }
+
+    /*
+     *   OVERVIEW: Imposta il flusso in cui vengono registrate le modifiche della collezione
+     *   REQUIRES:
+     *   MODIFIES: this
+     *   EFFECTS: Da ora ogni modifica riuscita (Nuovo utente, put, remove, copy, share) viene aggiunta a changeLog nell'ordine
+     *            in cui viene applicata, con lo stato cifrato del dato (Vedi ChangeType). null disattiva la registrazione
+     */
+    public void setChangeLog(ChangeLog changeLog) {
+        this.changeLog = changeLog;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna il flusso delle modifiche della collezione, null se non è impostato
+     */
+    public ChangeLog getChangeLog() {
+        return changeLog;
+    }
 
     /*
      *   OVERVIEW: Crea l’identità di un nuovo utente della collezione
@@ -54,8 +378,19 @@ public class SecureDataCollectionSecImp<E> implements SecureDataContainer<E> {
             throw new UsernameNotAvailableException("Utente già registrato");
 
         //Registra il nuovo utente
-        UserCredentials userCredentials = new UserCredentials(passw);
-        credentials.put(id, userCredentials);
+        UserCredentials userCredentials = new UserCredentials(passw, ownerNames.size(), passwordPolicy);
+        if(store != null) {
+            try {
+                writeUser(id, userCredentials);
+            } catch(IOException e) {
+                throw new UncheckedIOException("Impossibile salvare l'utente " + id, e);
+            }
+        }
+        registerUser(id, userCredentials);
+
+        ChangeLog log = changeLog;
+        if(log != null)
+            log.append(ChangeType.USER_CREATED, id, null, null, userCredentials::writeTo);
     }
 
     /*
@@ -67,14 +402,21 @@ public class SecureDataCollectionSecImp<E> implements SecureDataContainer<E> {
             throw new NullPointerException();
 
         //Autentica l'utente
-        if(credentials.containsKey(owner) && credentials.get(owner).checkPassword(passw))
-        {
-            return credentials.get(owner).getAllElementsHash().size();
-        }
+        if(authenticate_user(owner, passw))
+            return size(owner);
         else
             throw new InvalidAuthenticationException("Autenticazione fallita");
     }
 
+    /*
+     *   OVERVIEW: Restituisce il numero degli elementi di un utente autenticato tramite sessione
+     */
+    @Override
+    public int getSize(SessionToken session) throws InvalidAuthenticationException {
+        SessionManager.Session s = sessions.resolve(session);
+        return size(s.getOwner());
+    }
+
     /*
      *   OVERVIEW: Inserisce il valore del dato nella collezione se vengono rispettati i controlli di identità
      */
@@ -84,25 +426,24 @@ public class SecureDataCollectionSecImp<E> implements SecureDataContainer<E> {
             throw new NullPointerException();
 
         //Autentica l'utente
-        if(credentials.containsKey(owner) && credentials.get(owner).checkPassword(passw))
-        {
-            SecureDataInfo<E> element = new SecureDataInfo<>(owner, data, passw);
-            String hash = Base64.getEncoder().encodeToString(element.getHash())+ "." + owner;
-
-            if(credentials.get(owner).addElementHash(hash))
-            {
-               if(storage.put(hash, element) == null)
-                   return true;
-               else
-                   return false;
-            }
-            else
-               return false;
-        }
+        if(authenticate_user(owner, passw))
+            return insert(owner, unlockKey(owner, passw), data);
         else
             throw new InvalidAuthenticationException("Autenticazione fallita");
     }
 
+    /*
+     *   OVERVIEW: Inserisce il valore del dato nella collezione di un utente autenticato tramite sessione
+     */
+    @Override
+    public boolean put(SessionToken session, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, IOException, IllegalBlockSizeException, InvalidKeyException, BadPaddingException, InvalidAlgorithmParameterException, NoSuchPaddingException {
+        if(data == null)
+            throw new NullPointerException();
+
+        SessionManager.Session s = sessions.resolve(session);
+        return insert(s.getOwner(), s.getMasterKey(), data);
+    }
+
     /*
      *   OVERVIEW: Ottiene una copia del valore del dato nella collezione se vengono rispettati i controlli di identità
      */
@@ -112,22 +453,48 @@ public class SecureDataCollectionSecImp<E> implements SecureDataContainer<E> {
             throw new NullPointerException();
 
         //Autentica l'utente
-        if(credentials.containsKey(owner) && credentials.get(owner).checkPassword(passw))
-        {
-            String hash = Base64.getEncoder().encodeToString(new SecureDataInfo<>(owner, data).getHash()) + "." + owner;
+        if(authenticate_user(owner, passw))
+            return find(owner, unlockKey(owner, passw), data);
+        else
+                throw new InvalidAuthenticationException("Autenticazione fallita");
+    }
 
-            //Se non esiste un hash, genera l'hash per la versione condivisa
-            if(!credentials.get(owner).elementExist(hash))
-                hash = hash.replace("."+owner, ".shared");
+    /*
+     *   OVERVIEW: Ottiene una copia del valore del dato di un utente autenticato tramite sessione
+     */
+    @Override
+    public E get(SessionToken session, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        if(data == null)
+            throw new NullPointerException();
 
-            //Controlla se il dato appartiene all'utente
-            if(credentials.get(owner).elementExist(hash))
-                return storage.get(hash).getValue(passw); //Ritorna il dato decifrato
-            else
-                throw new NoSuchElementException("Il dato non è presente nella collezione");
-        }
+        SessionManager.Session s = sessions.resolve(session);
+        return find(s.getOwner(), s.getMasterKey(), data);
+    }
+
+    /*
+     *   OVERVIEW: Ottiene il valore del dato come stream di byte, decifrando i dati grandi un blocco alla volta
+     */
+    @Override
+    public InputStream getInputStream(String owner, String passw, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException {
+        if(owner == null || passw == null || data == null)
+            throw new NullPointerException();
+
+        if(authenticate_user(owner, passw))
+            return openStream(owner, unlockKey(owner, passw), data);
         else
-                throw new InvalidAuthenticationException("Autenticazione fallita");
+            throw new InvalidAuthenticationException("Autenticazione fallita");
+    }
+
+    /*
+     *   OVERVIEW: Ottiene il valore del dato come stream di byte di un utente autenticato tramite sessione
+     */
+    @Override
+    public InputStream getInputStream(SessionToken session, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException {
+        if(data == null)
+            throw new NullPointerException();
+
+        SessionManager.Session s = sessions.resolve(session);
+        return openStream(s.getOwner(), s.getMasterKey(), data);
     }
 
     /*
@@ -139,37 +506,24 @@ public class SecureDataCollectionSecImp<E> implements SecureDataContainer<E> {
             throw new NullPointerException();
 
         //Autentica l'utente
-        if(credentials.containsKey(owner) && credentials.get(owner).checkPassword(passw))
-        {
-            String hash = Base64.getEncoder().encodeToString(new SecureDataInfo<E>(owner, data).getHash()) + "." + owner;
-
-            //Se non esiste un hash, genera l'hash per la versione condivisa
-            if(!credentials.get(owner).elementExist(hash))
-                hash = hash.replace("."+owner, ".shared");
-
-            //Controlla se il dato appartiene all'utente
-            if(credentials.get(owner).elementExist(hash))
-            {
-                credentials.get(owner).removeElementHash(hash);
-
-                //Controlla se il dato è privato o pubblico, se pubblico elimina il dato per tutti gli utenti con cui è condiviso
-                if(!storage.get(hash).isEncrypted())
-                {
-                    for(Map.Entry<String, UserCredentials> entry : credentials.entrySet())
-                    {
-                        if(entry.getValue().elementExist(hash))
-                            credentials.get(entry.getKey()).removeElementHash(hash);
-                    }
-                }
-                return storage.remove(hash).getValue(passw);
-            }
-            else
-                throw new NoSuchElementException("Il dato non è presente nella collezione");
-        }
+        if(authenticate_user(owner, passw))
+            return delete(owner, unlockKey(owner, passw), data);
         else
             throw new InvalidAuthenticationException("Autenticazione fallita");
     }
 
+    /*
+     *   OVERVIEW: Rimuove il dato dalla collezione di un utente autenticato tramite sessione
+     */
+    @Override
+    public E remove(SessionToken session, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, IOException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, IllegalBlockSizeException, InvalidKeyException, ClassNotFoundException {
+        if(data == null)
+            throw new NullPointerException();
+
+        SessionManager.Session s = sessions.resolve(session);
+        return delete(s.getOwner(), s.getMasterKey(), data);
+    }
+
     /*
      *   OVERVIEW: Crea una copia del dato nella collezione se vengono rispettati i controlli di identità. Può essere copiato nella propria collezione soltanto un dato condiviso
      */
@@ -179,30 +533,24 @@ public class SecureDataCollectionSecImp<E> implements SecureDataContainer<E> {
             throw new NullPointerException();
 
         //Autentica l'utente
-        if(credentials.containsKey(owner) && credentials.get(owner).checkPassword(passw))
-        {
-            String hash = Base64.getEncoder().encodeToString(new SecureDataInfo<>(owner, data).getHash()) + ".shared";
-
-            //Controlla se il dato è accessibile dall'utente ed è condiviso
-            if(credentials.get(owner).elementExist(hash))
-            {
-                //Crea una copia non cifrata del dato. Tutti i dati condivisi non sono cifrati
-                hash = hash.replace(".shared", "." + owner);
-                SecureDataInfo<E> copyElement = new SecureDataInfo<>(owner, data);
-
-                //Aggiunge il dato alla collezione
-                credentials.get(owner).addElementHash(hash);
-                storage.put(hash, copyElement);
-            }
-            else if (credentials.get(owner).elementExist(hash.replace(".shared", "." + owner))) //Se il dato è gia presente nella collezione dell'utente
-                throw new AlreadyInCollection("Il dato è già presente nella collezione dell'utente");
-            else
-                throw new NoSuchElementException("Il dato non è presente nella collezione");
-        }
+        if(authenticate_user(owner, passw))
+            duplicate(owner, data);
         else
             throw new InvalidAuthenticationException("Autenticazione fallita");
     }
 
+    /*
+     *   OVERVIEW: Crea una copia del dato condiviso nella collezione di un utente autenticato tramite sessione
+     */
+    @Override
+    public void copy(SessionToken session, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, IOException, AlreadyInCollection {
+        if(data == null)
+            throw new NullPointerException();
+
+        SessionManager.Session s = sessions.resolve(session);
+        duplicate(s.getOwner(), data);
+    }
+
     /*
      *   OVERVIEW: Condivide il dato nella collezione con un altro utente se vengono rispettati i controlli di identità
      */
@@ -212,40 +560,24 @@ public class SecureDataCollectionSecImp<E> implements SecureDataContainer<E> {
             throw new NullPointerException();
 
         //Autentica l'utente
-        if(credentials.containsKey(owner) && credentials.get(owner).checkPassword(passw))
-        {
-            //Controlla se l'utente con cui condividere il dato esiste
-            if(!credentials.containsKey(other))
-                throw new UsernameNotAvailableException("L'utente " + other + " non esiste");
-
-            String hash = Base64.getEncoder().encodeToString(new SecureDataInfo<>(owner, data).getHash()) + "." + owner;
-
-            //Controllo che il dato non sia già stato condiviso
-            if(storage.containsKey(hash.replace("."+owner, ".shared")))
-                throw new AlreadySharedException("L'elemento è già stato condiviso");
-
-            //Controlla se il dato appartiene all'utente
-            if(credentials.get(owner).elementExist(hash))
-            {
-                //Decifra il dato in modo irreversibile
-                storage.get(hash).makePublic(passw);
-
-                //Cambia l'hash del dato sostituendo la chiave
-                String newHash = hash.replace("." + owner, ".shared");
-                SecureDataInfo<E> tmpData = storage.get(hash);
-                storage.put(newHash, tmpData);
-                storage.remove(hash);
-
-                //Condivide il dato
-                credentials.get(other).addElementHash(newHash);
-            }
-            else
-                throw new NoSuchElementException("Il dato non è presente nella collezione");
-        }
+        if(authenticate_user(owner, passw))
+            shareWith(owner, unlockKey(owner, passw), other, data);
         else
             throw new InvalidAuthenticationException("Autenticazione fallita");
     }
 
+    /*
+     *   OVERVIEW: Condivide il dato di un utente autenticato tramite sessione con un altro utente
+     */
+    @Override
+    public void share(SessionToken session, String other, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, IOException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, IllegalBlockSizeException, InvalidKeyException, ClassNotFoundException, UsernameNotAvailableException, AlreadySharedException {
+        if(other == null || data == null)
+            throw new NullPointerException();
+
+        SessionManager.Session s = sessions.resolve(session);
+        shareWith(s.getOwner(), s.getMasterKey(), other, data);
+    }
+
     /*
      *   OVERVIEW: Restituisce un iteratore (senza remove) che genera tutti i dati dell'utente in ordine arbitrario se vengono rispettati i controlli di identità
      */
@@ -255,44 +587,655 @@ public class SecureDataCollectionSecImp<E> implements SecureDataContainer<E> {
             throw new NullPointerException();
 
         //Autentica l'utente
-        if(credentials.containsKey(owner) && credentials.get(owner).checkPassword(passw))
+        //L'iteratore usa una copia della chiave: la chiave in cache può scadere durante l'iterazione
+        if(authenticate_user(owner, passw))
+            return iterate(owner, unlockKey(owner, passw).copy(), true);
+        else
+            throw new InvalidAuthenticationException("Autenticazione fallita");
+    }
+
+    /*
+     *   OVERVIEW: Restituisce un iteratore (senza remove) sui dati di un utente autenticato tramite sessione
+     */
+    @Override
+    public Iterator<E> getIterator(SessionToken session) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        SessionManager.Session s = sessions.resolve(session);
+        return iterate(s.getOwner(), s.getMasterKey(), false);
+    }
+
+    /*
+     *   OVERVIEW: Restituisce uno Stream sequenziale che decifra i dati dell'utente solo quando vengono consumati
+     */
+    @Override
+    public Stream<E> getStream(String owner, String passw) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        if(owner == null || passw == null)
+            throw new NullPointerException();
+
+        //Autentica l'utente
+        if(authenticate_user(owner, passw))
+            return iterate(owner, unlockKey(owner, passw).copy(), true).stream();
+        else
+            throw new InvalidAuthenticationException("Autenticazione fallita");
+    }
+
+    /*
+     *   OVERVIEW: Restituisce uno Stream sequenziale sui dati di un utente autenticato tramite sessione
+     */
+    @Override
+    public Stream<E> getStream(SessionToken session) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        SessionManager.Session s = sessions.resolve(session);
+        return iterate(s.getOwner(), s.getMasterKey(), false).stream();
+    }
+
+    /*
+     *   OVERVIEW: Restituisce uno Stream parallelo che divide i dati dell'utente tra i thread del ForkJoinPool per decifrarli
+     */
+    @Override
+    public Stream<E> getParallelStream(String owner, String passw, boolean ordered) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        if(owner == null || passw == null)
+            throw new NullPointerException();
+
+        //Autentica l'utente
+        if(authenticate_user(owner, passw))
+            return iterate(owner, unlockKey(owner, passw).copy(), true).parallelStream(ordered);
+        else
+            throw new InvalidAuthenticationException("Autenticazione fallita");
+    }
+
+    /*
+     *   OVERVIEW: Restituisce uno Stream parallelo sui dati di un utente autenticato tramite sessione
+     */
+    @Override
+    public Stream<E> getParallelStream(SessionToken session, boolean ordered) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        SessionManager.Session s = sessions.resolve(session);
+        return iterate(s.getOwner(), s.getMasterKey(), false).parallelStream(ordered);
+    }
+
+    /*
+     *   OVERVIEW: Autentica l'utente una sola volta e apre una sessione
+     */
+    @Override
+    public SessionToken login(String id, String passw) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidKeyException {
+        if(id == null || passw == null)
+            throw new NullPointerException();
+
+        //Autentica l'utente
+        if(authenticate_user(id, passw))
+            return sessions.open(id, unlockKey(id, passw));
+        else
+            throw new InvalidAuthenticationException("Autenticazione fallita");
+    }
+
+    /*
+     *   OVERVIEW: Chiude una sessione
+     */
+    @Override
+    public boolean logout(SessionToken session) {
+        return sessions.close(session);
+    }
+
+    /*
+     *   OVERVIEW: Ritorna la chiave master dell'utente, sbloccandola con la password solo se non è già in cache (L'utente deve essere già autenticato)
+     */
+    private MasterKey unlockKey(String id, String passw) throws NoSuchAlgorithmException, InvalidKeySpecException, InvalidAuthenticationException {
+        MasterKey key = keyCache.get(id);
+        if(key == null) {
+            key = credentials.get(id).unlockKey(passw);
+            keyCache.put(id, key);
+        }
+        return key;
+    }
+
+    /*
+     *   OVERVIEW: Autentica l'utente tramite id(username) e password, aggiornando le sue credenziali se la politica delle password è cambiata
+     */
+    private boolean authenticate_user(String id, String passw) throws InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException {
+        UserCredentials userCredentials = credentials.get(id);
+        if(userCredentials == null || !userCredentials.checkPassword(passw))
+            return false;
+
+        if(userCredentials.needsRehash(passwordPolicy)) {
+            try {
+                userCredentials.rehash(passw, unlockKey(id, passw), passwordPolicy);
+            } catch(InvalidAuthenticationException e) {
+                //La password è stata appena verificata: il portachiavi non corrisponde alle credenziali
+                throw new IllegalStateException("Portachiavi dell'utente " + id + " non valido", e);
+            }
+
+            //Se l'archivio non è scrivibile le credenziali salvate restano valide (Stessa password, stessa chiave master)
+            if(store != null) {
+                try {
+                    writeUser(id, userCredentials);
+                } catch(IOException e) {
+                    //Le credenziali vengono aggiornate al prossimo accesso dopo la riapertura
+                }
+            }
+        }
+        return true;
+    }
+
+    /*
+     *   OVERVIEW: Scrive (o sostituisce) il record dell'utente nell'archivio
+     */
+    private void writeUser(String id, UserCredentials userCredentials) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        userCredentials.writeTo(new DataOutputStream(bytes));
+        store.put(USER_PREFIX + id, bytes.toByteArray());
+        refreshStoredPayloads();
+    }
+
+    /*
+     *   OVERVIEW: Applica le modifiche all'archivio (Vedi LogStore.update) e, se l'archivio è stato compattato, aggiorna le viste dei dati cifrati
+     */
+    private void update(Map<String, byte[]> puts, Collection<String> removes) throws IOException {
+        store.update(puts, removes);
+        refreshStoredPayloads();
+    }
+
+    /*
+     *   OVERVIEW: Dopo una compattazione dell'archivio (Anche esplicita, vista alla prima scrittura successiva) sostituisce le viste
+     *            dei dati cifrati con quelle del nuovo file: altrimenti le vecchie mappature manterrebbero in vita il file sostituito.
+     *            I dati il cui record è appena stato rimosso o non è ancora stato mappato vengono saltati
+     */
+    private void refreshStoredPayloads() throws IOException {
+        long generation = store.getGeneration();
+        if(generation == storeGeneration)
+            return;
+
+        for(Map.Entry<ElementKey, SecureDataInfo<E>> entry : storage.entrySet()) {
+            if(!entry.getValue().isEncrypted())
+                continue;
+            ByteBuffer record = store.map(ELEMENT_PREFIX + storeKey(entry.getKey()));
+            if(record != null)
+                entry.getValue().useStoredPayload(record);
+        }
+        storeGeneration = generation;
+    }
+
+    /*
+     *   OVERVIEW: Conta gli elementi dell'utente (L'utente deve essere già autenticato)
+     */
+    private int size(String owner) {
+        return credentials.get(owner).countElements();
+    }
+
+    /*
+     *   OVERVIEW: Cifra e inserisce il dato (L'utente deve essere già autenticato)
+     */
+    private boolean insert(String owner, MasterKey key, E data) throws NoSuchAlgorithmException, IOException, NoSuchPaddingException, InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException, InvalidKeySpecException {
+        UserCredentials userCredentials = credentials.get(owner);
+        SecureDataInfo<E> element = new SecureDataInfo<>(owner, data, key, fingerprints);
+        //La chiave riusa l'hash del dato appena calcolato
+        ElementKey elementKey = new ElementKey(element.getDataHash(), userCredentials.getId());
+
+        //Il dato è già nella collezione dell'utente
+        if(userCredentials.elementExist(elementKey))
+            return false;
+
+        if(store != null) {
+            String storeKey = storeKey(elementKey);
+            Map<String, byte[]> puts = new LinkedHashMap<>();
+            puts.put(ELEMENT_PREFIX + storeKey, serialize(element));
+            puts.put(membershipKey(owner, storeKey), EMPTY);
+            update(puts, Collections.<String>emptyList());
+
+            //Da ora il dato cifrato viene letto dal file mappato in memoria
+            element.useStoredPayload(store.map(ELEMENT_PREFIX + storeKey));
+        } else {
+            place(element);
+        }
+
+        userCredentials.addElementHash(elementKey);
+        addHolder(elementKey, owner);
+        storage.put(elementKey, element);
+        publish(ChangeType.ELEMENT_PUT, owner, null, element);
+        return true;
+    }
+
+    /*
+     *   OVERVIEW: Cerca e decifra il dato (L'utente deve essere già autenticato)
+     */
+    private E find(String owner, MasterKey key, E data) throws IOException, NoSuchAlgorithmException, InvalidKeyException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, InvalidKeySpecException, IllegalBlockSizeException, ClassNotFoundException {
+        ElementKey elementKey = lookup(owner, data);
+
+        //Controlla se il dato appartiene all'utente
+        if(elementKey != null)
+            return storage.get(elementKey).getValue(key); //Ritorna il dato decifrato
+        else
+            throw new NoSuchElementException("Il dato non è presente nella collezione");
+    }
+
+    /*
+     *   OVERVIEW: Apre lo stream del valore del dato (L'utente deve essere già autenticato)
+     */
+    private InputStream openStream(String owner, MasterKey key, E data) throws IOException, NoSuchAlgorithmException, InvalidKeyException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, IllegalBlockSizeException {
+        ElementKey elementKey = lookup(owner, data);
+        if(elementKey == null)
+            throw new NoSuchElementException("Il dato non è presente nella collezione");
+
+        return storage.get(elementKey).openStream(key);
+    }
+
+    /*
+     *   OVERVIEW: Rimuove il dato (L'utente deve essere già autenticato)
+     */
+    private E delete(String owner, MasterKey key, E data) throws IOException, NoSuchAlgorithmException, InvalidKeyException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, InvalidKeySpecException, IllegalBlockSizeException, ClassNotFoundException {
+        ElementKey elementKey = lookup(owner, data);
+
+        //Controlla se il dato appartiene all'utente
+        if(elementKey != null)
         {
-            List<E> iter_list = new ArrayList<>();
-            List<String> elementsHash = credentials.get(owner).getAllElementsHash();
-            for(String hash : elementsHash) {
-                iter_list.add(storage.get(hash).getValue(passw));
+            //Il dato viene eliminato per tutti gli utenti che lo hanno (Solo il proprietario se privato, tutti quelli con cui è condiviso se pubblico)
+            Set<String> users = holders.get(elementKey);
+
+            if(store != null) {
+                String storeKey = storeKey(elementKey);
+                List<String> removes = new ArrayList<>();
+                for(String user : users)
+                    removes.add(membershipKey(user, storeKey));
+                removes.add(ELEMENT_PREFIX + storeKey);
+                update(Collections.<String, byte[]>emptyMap(), removes);
+            }
+
+            for(String user : users)
+                credentials.get(user).removeElementHash(elementKey);
+            holders.remove(elementKey);
+            SecureDataInfo<E> element = storage.remove(elementKey);
+            publish(ChangeType.ELEMENT_REMOVED, owner, null, element);
+            try {
+                return element.getValue(key);
+            } finally {
+                element.release();
+                element.releaseValue(contents);
             }
-            return Collections.unmodifiableList(iter_list).iterator();
         }
         else
-            throw new InvalidAuthenticationException("Autenticazione fallita");
+            throw new NoSuchElementException("Il dato non è presente nella collezione");
+    }
+
+    /*
+     *   OVERVIEW: Crea una copia non cifrata di un dato condiviso (L'utente deve essere già autenticato)
+     */
+    private void duplicate(String owner, E data) throws IOException, NoSuchAlgorithmException, AlreadyInCollection {
+        UserCredentials userCredentials = credentials.get(owner);
+        ElementKey privateKey = new ElementKey(ContentFingerprinter.fingerprint(data, fingerprints), userCredentials.getId());
+        ElementKey sharedKey = privateKey.toShared();
+
+        //Il dato è già nella collezione dell'utente: una copia privata oppure il dato che l'utente stesso ha condiviso
+        if(userCredentials.elementExist(privateKey)
+                || (userCredentials.elementExist(sharedKey) && storage.get(sharedKey).hasOwner(owner)))
+            throw new AlreadyInCollection("Il dato è già presente nella collezione dell'utente");
+
+        //Controlla se il dato è accessibile dall'utente ed è condiviso
+        if(userCredentials.elementExist(sharedKey))
+        {
+            //Crea una copia non cifrata del dato, che condivide il valore del dato condiviso. Tutti i dati condivisi non sono cifrati
+            SecureDataInfo<E> copyElement = storage.get(sharedKey).copyFor(owner);
+            copyElement.internValue(contents);
+
+            if(store != null) {
+                String storeKey = storeKey(privateKey);
+                Map<String, byte[]> puts = new LinkedHashMap<>();
+                puts.put(ELEMENT_PREFIX + storeKey, serialize(copyElement));
+                puts.put(membershipKey(owner, storeKey), EMPTY);
+                update(puts, Collections.<String>emptyList());
+            }
+
+            //Aggiunge il dato alla collezione
+            userCredentials.addElementHash(privateKey);
+            addHolder(privateKey, owner);
+            storage.put(privateKey, copyElement);
+            publish(ChangeType.ELEMENT_COPIED, owner, null, copyElement);
+        }
+        else
+            throw new NoSuchElementException("Il dato non è presente nella collezione");
+    }
+
+    /*
+     *   OVERVIEW: Condivide il dato con un altro utente (L'utente deve essere già autenticato)
+     */
+    private void shareWith(String owner, MasterKey key, String other, E data) throws IOException, NoSuchAlgorithmException, InvalidKeyException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, InvalidKeySpecException, IllegalBlockSizeException, ClassNotFoundException, UsernameNotAvailableException, AlreadySharedException {
+        //Controlla se l'utente con cui condividere il dato esiste
+        if(!credentials.containsKey(other))
+            throw new UsernameNotAvailableException("L'utente " + other + " non esiste");
+
+        ElementKey elementKey = new ElementKey(ContentFingerprinter.fingerprint(data, fingerprints), credentials.get(owner).getId());
+        ElementKey sharedKey = elementKey.toShared();
+
+        //Controllo che il dato non sia già stato condiviso
+        if(storage.containsKey(sharedKey))
+            throw new AlreadySharedException("L'elemento è già stato condiviso");
+
+        //Controlla se il dato appartiene all'utente
+        if(credentials.get(owner).elementExist(elementKey))
+        {
+            //Decifra il dato in modo irreversibile
+            storage.get(elementKey).makePublic(key, contents);
+
+            //Cambia la chiave del dato sostituendo il proprietario
+            SecureDataInfo<E> tmpData = storage.get(elementKey);
+
+            if(store != null) {
+                String storeKey = storeKey(elementKey);
+                String sharedStoreKey = storeKey(sharedKey);
+                Map<String, byte[]> puts = new LinkedHashMap<>();
+                puts.put(ELEMENT_PREFIX + sharedStoreKey, serialize(tmpData));
+                puts.put(membershipKey(owner, sharedStoreKey), EMPTY);
+                puts.put(membershipKey(other, sharedStoreKey), EMPTY);
+                List<String> removes = new ArrayList<>();
+                removes.add(ELEMENT_PREFIX + storeKey);
+                removes.add(membershipKey(owner, storeKey));
+                update(puts, removes);
+            }
+
+            storage.put(sharedKey, tmpData);
+            storage.remove(elementKey);
+
+            //Anche il proprietario accede al dato tramite la chiave condivisa
+            credentials.get(owner).removeElementHash(elementKey);
+            credentials.get(owner).addElementHash(sharedKey);
+            holders.remove(elementKey);
+            addHolder(sharedKey, owner);
+
+            //Condivide il dato
+            credentials.get(other).addElementHash(sharedKey);
+            addHolder(sharedKey, other);
+            publish(ChangeType.ELEMENT_SHARED, owner, other, tmpData);
+        }
+        else
+            throw new NoSuchElementException("Il dato non è presente nella collezione");
+    }
+
+    /*
+     *   OVERVIEW: Cerca la chiave con cui il dato è nell'insieme dell'utente: prima la versione privata, poi quella condivisa
+     *   REQUIRES: owner, data != null, owner registrato
+     *   MODIFIES:
+     *   EFFECTS: Ritorna la chiave del dato se appartiene all'utente, altrimenti null
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente (Unchecked)
+     *      NoSuchAlgorithmException, quando viene chiesto di usare un algoritmo di crittografia non presente nell'ambiente (Unchecked)
+     */
+    private ElementKey lookup(String owner, E data) throws IOException, NoSuchAlgorithmException {
+        UserCredentials userCredentials = credentials.get(owner);
+        ElementKey elementKey = new ElementKey(ContentFingerprinter.fingerprint(data, fingerprints), userCredentials.getId());
+        long start = Tracing.start();
+        try {
+            if(userCredentials.elementExist(elementKey))
+                return elementKey;
+
+            elementKey = elementKey.toShared();
+            if(userCredentials.elementExist(elementKey))
+                return elementKey;
+            return null;
+        } finally {
+            Tracing.end(OperationPhase.INDEX_LOOKUP, start);
+        }
+    }
+
+    /*
+     *   OVERVIEW: Registra la modifica del dato nel flusso delle modifiche, se impostato (Il dato rimosso non ha contenuto)
+     */
+    private void publish(ChangeType type, String user, String target, SecureDataInfo<E> element) {
+        ChangeLog log = changeLog;
+        if(log != null)
+            log.append(type, user, target, element.getHash(), type == ChangeType.ELEMENT_REMOVED ? null : element::writeTo);
+    }
+
+    /*
+     *   OVERVIEW: Sposta il dato appena creato nell'arena off-heap, se impostata
+     */
+    private void place(SecureDataInfo<E> element) {
+        PayloadArena target = arena;
+        if(target != null)
+            element.moveTo(target);
+    }
+
+    /*
+     *   OVERVIEW: Registra l'utente tra quelli che hanno il dato nel proprio insieme di hash
+     */
+    private void addHolder(ElementKey elementKey, String user) {
+        Set<String> users = holders.get(elementKey);
+        if(users == null) {
+            users = new HashSet<>(2);
+            holders.put(elementKey, users);
+        }
+        users.add(user);
+    }
+
+    /*
+     *   OVERVIEW: Ritorna la chiave del dato nell'archivio (Base64(hash).owner oppure Base64(hash).shared)
+     */
+    private String storeKey(ElementKey elementKey) {
+        String owner = elementKey.isShared() ? SHARED_SUFFIX : ownerNames.get(elementKey.getOwner());
+        return Base64.getEncoder().encodeToString(elementKey.getHash().getDigest()) + "." + owner;
+    }
+
+    /*
+     *   OVERVIEW: Ricostruisce la chiave del dato a partire dalla chiave nell'archivio
+     *   REQUIRES: storeKey != null
+     *   MODIFIES:
+     *   EFFECTS: Ritorna la chiave del dato rappresentata da storeKey
+     *   THROWS:
+     *      IOException, quando la chiave non è valida o il proprietario non esiste (Unchecked)
+     */
+    private ElementKey parseStoreKey(String storeKey) throws IOException {
+        //Il Base64 non contiene punti: il primo punto separa l'hash dal proprietario
+        int separator = storeKey.indexOf('.');
+        if(separator <= 0)
+            throw new IOException("Chiave di un dato non valida nell'archivio: " + storeKey);
+
+        byte[] digest;
+        try {
+            digest = Base64.getDecoder().decode(storeKey.substring(0, separator));
+        } catch(IllegalArgumentException e) {
+            throw new IOException("Chiave di un dato non valida nell'archivio: " + storeKey, e);
+        }
+
+        String owner = storeKey.substring(separator + 1);
+        if(owner.equals(SHARED_SUFFIX))
+            return new ElementKey(new DataHash(digest), ElementKey.SHARED);
+
+        UserCredentials userCredentials = credentials.get(owner);
+        if(userCredentials == null)
+            throw new IOException("Utente sconosciuto nell'archivio: " + storeKey);
+        return new ElementKey(new DataHash(digest), userCredentials.getId());
+    }
+
+    /*
+     *   OVERVIEW: Chiave del record che indica che il dato è nell'insieme dell'utente
+     */
+    private static String membershipKey(String owner, String storeKey) {
+        return HASH_PREFIX + owner + '\u0000' + storeKey;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna lo stato del dato pronto per l'archivio
+     */
+    private static byte[] serialize(SecureDataInfo<?> element) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        element.writeTo(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    /*
+     *   OVERVIEW: Ricostruisce utenti, dati, insiemi di hash e indice inverso dai record dell'archivio
+     */
+    private void load() throws IOException, ClassNotFoundException {
+        Map<String, ByteBuffer> records = store.load();
+
+        //Prima gli utenti: le chiavi dei dati contengono il nome del proprietario
+        for(Map.Entry<String, ByteBuffer> record : records.entrySet()) {
+            String key = record.getKey();
+            if(key.startsWith(USER_PREFIX)) {
+                DataInputStream in = new DataInputStream(new ByteBufferInputStream(record.getValue().duplicate()));
+                registerUser(key.substring(USER_PREFIX.length()), UserCredentials.readFrom(in, ownerNames.size()));
+            }
+        }
+
+        for(Map.Entry<String, ByteBuffer> record : records.entrySet()) {
+            String key = record.getKey();
+            if(key.startsWith(USER_PREFIX) || key.equals(FingerprintStrategies.META_KEY)) {
+                continue;
+            } else if(key.startsWith(ELEMENT_PREFIX)) {
+                SecureDataInfo<E> element = SecureDataInfo.readFrom(record.getValue());
+                element.internValue(contents);
+                storage.put(parseStoreKey(key.substring(ELEMENT_PREFIX.length())), element);
+            } else if(key.startsWith(HASH_PREFIX) && key.indexOf('\u0000') > 0) {
+                int separator = key.indexOf('\u0000');
+                String owner = key.substring(HASH_PREFIX.length(), separator);
+                UserCredentials userCredentials = credentials.get(owner);
+                if(userCredentials == null)
+                    throw new IOException("Utente sconosciuto nell'archivio: " + key);
+                ElementKey elementKey = parseStoreKey(key.substring(separator + 1));
+                userCredentials.addElementHash(elementKey);
+                addHolder(elementKey, owner);
+            } else {
+                throw new IOException("Chiave non valida nell'archivio: " + key);
+            }
+        }
+    }
+
+    /*
+     *   OVERVIEW: Aggiunge l'utente alla collezione assegnandogli l'id numerico usato nelle chiavi dei dati
+     */
+    private void registerUser(String id, UserCredentials userCredentials) {
+        credentials.put(id, userCredentials);
+        ownerNames.add(id);
+    }
+
+    /*
+     *   OVERVIEW: Ritorna un iteratore che decifra i dati dell'utente uno alla volta (L'utente deve essere già autenticato)
+     */
+    private DecryptingIterator<E> iterate(String owner, MasterKey key, boolean ownsKey) {
+        //Copia dei soli riferimenti: i dati vengono decifrati durante l'iterazione
+        List<SecureDataInfo<E>> snapshot = new ArrayList<>();
+        final IdentityHashMap<SecureDataInfo<E>, ElementKey> keys = new IdentityHashMap<>();
+        for(ElementKey elementKey : credentials.get(owner).getAllElementsHash()) {
+            SecureDataInfo<E> element = storage.get(elementKey);
+            if(element != null) {
+                keys.put(element, elementKey);
+                snapshot.add(element);
+            }
+        }
+
+        //Un dato è ancora presente se la sua chiave di storage punta ancora allo stesso oggetto
+        return new DecryptingIterator<>(snapshot, element -> storage.get(keys.get(element)) == element, key, ownsKey);
+    }
+
+    //Utente letto da uno snapshot: le credenziali restano da decodificare (Vedi restore)
+    private static final class SnapshotUser {
+        private final String id;
+        private final ByteBuffer credentials;
+
+        private SnapshotUser(String id, ByteBuffer credentials) {
+            this.id = id;
+            this.credentials = credentials;
+        }
+    }
+
+    //Dato letto da uno snapshot con il proprietario (null se condiviso) e gli utenti che lo hanno nel proprio insieme di hash
+    private static final class SnapshotElement {
+        private final String owner;
+        private final String[] holders;
+        private final SecureDataInfo<?> element;
+
+        private SnapshotElement(String owner, String[] holders, SecureDataInfo<?> element) {
+            this.owner = owner;
+            this.holders = holders;
+            this.element = element;
+        }
     }
 }
 
 //Classe di supporto per le credenziali dell'utente (Solo seconda implementazione)
 class UserCredentials {
     private SecurePassword encryptedPassword;
-    //Gli hash sono salvati con codifica Base64
-    private List<String> hashStrings = new ArrayList<>();
+    //Chiave master dell'utente cifrata con la password
+    private UserKeyring keyring;
+    //Id numerico dell'utente nelle chiavi dei dati (Non viene salvato: viene riassegnato al caricamento)
+    private int id;
+    //Chiavi dei dati dell'utente (Insieme con ordine di inserimento: ricerca e rimozione in tempo costante)
+    private Set<ElementKey> hashStrings = new LinkedHashSet<>();
+
+    private UserCredentials() {
+    }
 
     /*
      *   OVERVIEW: Crea l'oggetto cifrando la password
-     *   REQUIRES: password != null, password != ""
+     *   REQUIRES: password != null, password != "", id >= 0
      *   MODIFIES: this
-     *   EFFECTS: Crea l'oggetto cifrando la password
+     *   EFFECTS: Crea l'oggetto cifrando la password, con l'id numerico fornito
      *   THROWS:
      *      InvalidKeySpecException, quando le specifiche per l'oggetto KeySpec non sono valide (Unchecked)
      *      NoSuchAlgorithmException, quando viene chiesto di usare un algoritmo di crittografia non presente nell'ambiente (Unchecked)
      *      IllegalArgumentException, quando owner e password non contengono almeno un carattere (Unchecked)
      */
-    public UserCredentials(String password) throws InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException {
-        if(password == null)
+    public UserCredentials(String password, int id) throws InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException {
+        this(password, id, PasswordPolicy.DEFAULT);
+    }
+
+    /*
+     *   OVERVIEW: Come UserCredentials(password, id), cifrando password e chiave master con le impostazioni della politica fornita
+     */
+    public UserCredentials(String password, int id, PasswordPolicy policy) throws InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException {
+        if(password == null || policy == null)
             throw new NullPointerException();
 
         if(password.equals(""))
             throw new IllegalArgumentException("password deve contenere almeno un carattere");
 
-        this.encryptedPassword = new SecurePassword(password);
+        this.id = id;
+        this.encryptedPassword = new SecurePassword(password, policy);
+        this.keyring = UserKeyring.create(password, policy);
+    }
+
+    /*
+     *   OVERVIEW: Ritorna true se password o portachiavi sono cifrati con impostazioni diverse da quelle della politica
+     */
+    public boolean needsRehash(PasswordPolicy policy) {
+        return encryptedPassword.needsRehash(policy) || keyring.needsRehash(policy);
+    }
+
+    /*
+     *   OVERVIEW: Cifra di nuovo password e chiave master con le impostazioni della politica fornita
+     *   REQUIRES: password != null, password != "" (Già verificata), masterKey != null (Sbloccata con password), policy != null
+     *   MODIFIES: this
+     *   EFFECTS: Sostituisce password cifrata e portachiavi con nuovi salt e le impostazioni di policy. La chiave master non cambia
+     *   THROWS:
+     *      InvalidKeySpecException, quando le specifiche per l'oggetto KeySpec non sono valide (Unchecked)
+     *      NoSuchAlgorithmException, quando viene chiesto di usare un algoritmo di crittografia non presente nell'ambiente (Unchecked)
+     *      IllegalArgumentException, quando password non contiene almeno un carattere (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public void rehash(String password, MasterKey masterKey, PasswordPolicy policy) throws InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException {
+        SecurePassword newPassword = new SecurePassword(password, policy);
+        UserKeyring newKeyring = UserKeyring.wrap(masterKey, password, policy);
+        this.encryptedPassword = newPassword;
+        this.keyring = newKeyring;
+    }
+
+    /*
+     *   OVERVIEW: Scrive la password cifrata e il portachiavi (L'insieme degli hash viene salvato a parte, Vedi SecureDataCollectionSecImp)
+     *   REQUIRES: out != null
+     *   MODIFIES: out
+     *   EFFECTS: Scrive in out tutto il necessario per ricostruire le credenziali con readFrom
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente (Unchecked)
+     */
+    void writeTo(DataOutput out) throws IOException {
+        encryptedPassword.writeTo(out);
+        keyring.writeTo(out);
+    }
+
+    /*
+     *   OVERVIEW: Ricostruisce le credenziali scritte con writeTo, con l'id fornito e un insieme degli hash vuoto
+     */
+    static UserCredentials readFrom(DataInput in, int id) throws IOException {
+        UserCredentials userCredentials = new UserCredentials();
+        userCredentials.id = id;
+        userCredentials.encryptedPassword = SecurePassword.readFrom(in);
+        userCredentials.keyring = UserKeyring.readFrom(in);
+        return userCredentials;
     }
 
     /*
@@ -316,56 +1259,62 @@ class UserCredentials {
     }
 
     /*
-     *   OVERVIEW: Aggiunge un hash alla lista
-     *   REQUIRES: hash != null, hash != ""
+     *   OVERVIEW: Sblocca la chiave master dell'utente
+     *   REQUIRES: password != null, password != ""
+     *   MODIFIES:
+     *   EFFECTS: Ritorna la chiave master decifrata con la password
+     *   THROWS:
+     *      InvalidKeySpecException, quando le specifiche per l'oggetto KeySpec non sono valide (Unchecked)
+     *      NoSuchAlgorithmException, quando viene chiesto di usare un algoritmo di crittografia non presente nell'ambiente (Unchecked)
+     *      IllegalArgumentException, quando password non contiene almeno un carattere (Unchecked)
+     *      InvalidAuthenticationException, quando la password non sblocca la chiave (Checked)
+     */
+    public MasterKey unlockKey(String password) throws InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAuthenticationException {
+        return this.keyring.unlock(password);
+    }
+
+    /*
+     *   OVERVIEW: Aggiunge un hash all'insieme
+     *   REQUIRES: hash != null
      *   MODIFIES: this
-     *   EFFECTS: Aggiunge un nuovo hash alla lista hashStrings
+     *   EFFECTS: Aggiunge un nuovo hash all'insieme hashStrings, ritorna false se era già presente
      *   THROWS:
-     *      IllegalArgumentException, quando owner e password non contengono almeno un carattere (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
      */
-    public boolean addElementHash(String hash) throws IllegalArgumentException {
+    public boolean addElementHash(ElementKey hash) {
         if(hash == null)
             throw new NullPointerException();
 
-        if(hash.equals(""))
-            throw new IllegalArgumentException("hash deve contenere almeno un carattere");
-
         return hashStrings.add(hash);
     }
 
     /*
-     *   OVERVIEW: Rimuove un hash dalla lista
-     *   REQUIRES: hash != null, hash != ""
+     *   OVERVIEW: Rimuove un hash dall'insieme
+     *   REQUIRES: hash != null
      *   MODIFIES: this
-     *   EFFECTS: Rimuove un hash dalla lista hashStrings
+     *   EFFECTS: Rimuove un hash dall'insieme hashStrings, ritorna false se non era presente
      *   THROWS:
-     *      IllegalArgumentException, quando owner e password non contengono almeno un carattere (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
      */
-    public boolean removeElementHash(String hash) {
+    public boolean removeElementHash(ElementKey hash) {
         if(hash == null)
             throw new NullPointerException();
 
-        if(hash.equals(""))
-            throw new IllegalArgumentException("hash deve contenere almeno un carattere");
-
         return hashStrings.remove(hash);
     }
 
     /*
-     *   OVERVIEW: Controlla se un hash è presente nella lista
-     *   REQUIRES: hash != null, hash != ""
+     *   OVERVIEW: Controlla se un hash è presente nell'insieme
+     *   REQUIRES: hash != null
      *   MODIFIES:
-     *   EFFECTS: Ritorna true se l'hash cercato è presente nella lista hashStrings, altrimenti false se non è presente
+     *   EFFECTS: Ritorna true se l'hash cercato è presente nell'insieme hashStrings, altrimenti false se non è presente
      *   THROWS:
-     *      IllegalArgumentException, quando owner e password non contengono almeno un carattere (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
      */
-    public boolean elementExist(String hash) {
+    public boolean elementExist(ElementKey hash) {
         if(hash == null)
             throw new NullPointerException();
 
-        if(hash.equals(""))
-            throw new IllegalArgumentException("hash deve contenere almeno un carattere");
-
         return hashStrings.contains(hash);
     }
 
@@ -373,10 +1322,24 @@ class UserCredentials {
      *   OVERVIEW: Ritorna una copia della lista degli hash
      *   REQUIRES:
      *   MODIFIES:
-     *   EFFECTS: Ritorna una copia della lista hashStrings
+     *   EFFECTS: Ritorna una copia degli hash di hashStrings in ordine di inserimento
      *   THROWS:
      */
-    public List<String> getAllElementsHash() {
+    public List<ElementKey> getAllElementsHash() {
         return new ArrayList<>(hashStrings);
     }
+
+    /*
+     *   OVERVIEW: Ritorna l'id numerico dell'utente usato nelle chiavi dei dati
+     */
+    public int getId() {
+        return id;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna il numero di hash nell'insieme (Senza copiarlo)
+     */
+    public int countElements() {
+        return hashStrings.size();
+    }
 }
@@ -8,12 +8,20 @@
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public interface SecureDataContainer<E> {
     /*
@@ -170,4 +178,309 @@ public interface SecureDataContainer<E> {
      *      InvalidAuthenticationException, quando l'autenticazione non è valida (Checked)
      */
     public Iterator<E> getIterator(String owner, String passw) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException;
+
+    /*
+     *   OVERVIEW: Autentica l'utente una sola volta e apre una sessione
+     *   REQUIRES: id, passw != null e id, passw != ""
+     *   MODIFIES: this
+     *   EFFECTS: Ritorna un token di sessione revocabile, valido fino alla scadenza per inattività o per durata massima
+     *   THROWS:
+     *           InvalidKeySpecException, quando le specifiche per l'oggetto KeySpec non sono valide (Unchecked)
+     *           NoSuchAlgorithmException, quando viene chiesto di usare un algoritmo di crittografia non presente nell'ambiente (Unchecked)
+     *           IllegalArgumentException, quando id e passw non contengono almeno un carattere (Unchecked)
+     *           InvalidKeyException, quando la chiave master dell'utente non è utilizzabile (Unchecked)
+     *           NullPointerException, quando un elemento è nullo (Unchecked)
+     *           InvalidAuthenticationException, quando l'autenticazione non è valida (Checked)
+     */
+    public SessionToken login(String id, String passw) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidKeyException;
+
+    /*
+     *   OVERVIEW: Autentica l'utente sull'esecutore delle autenticazioni e apre una sessione
+     *   REQUIRES: id, passw, executor != null
+     *   MODIFIES: this
+     *   EFFECTS: Ritorna subito un CompletableFuture completato con il token di sessione o con l'eccezione di login (Vedi AuthenticationExecutor.login).
+     *            La derivazione PBKDF2 non occupa il thread chiamante
+     *   THROWS:
+     *           NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public default CompletableFuture<SessionToken> loginAsync(String id, String passw, AuthenticationExecutor executor) {
+        if(executor == null)
+            throw new NullPointerException();
+
+        return executor.login(this, id, passw);
+    }
+
+    /*
+     *   OVERVIEW: Chiude una sessione
+     *   REQUIRES: session != null
+     *   MODIFIES: this
+     *   EFFECTS: Revoca la sessione, ritorna true se la sessione era aperta, altrimenti false
+     *   THROWS:
+     *           NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public boolean logout(SessionToken session);
+
+    /*
+     *   OVERVIEW: Come getSize(owner, passw), autenticando l'utente tramite una sessione aperta
+     *   THROWS:
+     *           InvalidAuthenticationException, quando la sessione non è valida o è scaduta (Checked)
+     */
+    public int getSize(SessionToken session) throws InvalidAuthenticationException;
+
+    /*
+     *   OVERVIEW: Come put(owner, passw, data), autenticando l'utente tramite una sessione aperta
+     *   THROWS:
+     *           InvalidAuthenticationException, quando la sessione non è valida o è scaduta (Checked)
+     */
+    public boolean put(SessionToken session, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, IOException, IllegalBlockSizeException, InvalidKeyException, BadPaddingException, InvalidAlgorithmParameterException, NoSuchPaddingException;
+
+    /*
+     *   OVERVIEW: Come get(owner, passw, data), autenticando l'utente tramite una sessione aperta
+     *   THROWS:
+     *           InvalidAuthenticationException, quando la sessione non è valida o è scaduta (Checked)
+     */
+    public E get(SessionToken session, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException;
+
+    /*
+     *   OVERVIEW: Come remove(owner, passw, data), autenticando l'utente tramite una sessione aperta
+     *   THROWS:
+     *           InvalidAuthenticationException, quando la sessione non è valida o è scaduta (Checked)
+     */
+    public E remove(SessionToken session, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, IOException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, IllegalBlockSizeException, InvalidKeyException, ClassNotFoundException;
+
+    /*
+     *   OVERVIEW: Come copy(owner, passw, data), autenticando l'utente tramite una sessione aperta
+     *   THROWS:
+     *           InvalidAuthenticationException, quando la sessione non è valida o è scaduta (Checked)
+     */
+    public void copy(SessionToken session, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, IOException, IllegalBlockSizeException, InvalidKeyException, BadPaddingException, InvalidAlgorithmParameterException, NoSuchPaddingException, AlreadyInCollection;
+
+    /*
+     *   OVERVIEW: Come share(owner, passw, other, data), autenticando l'utente tramite una sessione aperta
+     *   THROWS:
+     *           InvalidAuthenticationException, quando la sessione non è valida o è scaduta (Checked)
+     */
+    public void share(SessionToken session, String other, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, IOException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, IllegalBlockSizeException, InvalidKeyException, ClassNotFoundException, UsernameNotAvailableException, AlreadySharedException;
+
+    /*
+     *   OVERVIEW: Come getIterator(owner, passw), autenticando l'utente tramite una sessione aperta
+     *   THROWS:
+     *           InvalidAuthenticationException, quando la sessione non è valida o è scaduta (Checked)
+     */
+    public Iterator<E> getIterator(SessionToken session) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException;
+
+    /*
+     *   OVERVIEW: Ottiene il valore del dato come stream di byte se vengono rispettati i controlli di identità
+     *   REQUIRES: owner, passw, data != null
+     *   MODIFIES:
+     *   EFFECTS: Ritorna uno stream dei byte della codifica del dato senza l'etichetta (Vedi DataCodecs: per un byte[] sono i byte del dato).
+     *            Le implementazioni decifrano i dati grandi un blocco alla volta mentre lo stream viene letto (Vedi SecureDataInfo.openStream),
+     *            senza ricostruire l'oggetto. Il chiamante deve chiudere lo stream. Un blocco alterato fa fallire read con IOException
+     *   THROWS:
+     *           InvalidKeySpecException, quando le specifiche per l'oggetto KeySpec non sono valide (Unchecked)
+     *           NoSuchAlgorithmException, quando viene chiesto di usare un algoritmo di crittografia non presente nell'ambiente (Unchecked)
+     *           IllegalArgumentException, quando owner e passw non contengono almeno un carattere (Unchecked)
+     *           InvalidAlgorithmParameterException, quando viene chiesto di usare un algoritmo non presente nell'ambiente (Unchecked)
+     *           IOException, quando le operazioni di input/output non avvengono correttamente (Unchecked)
+     *           BadPaddingException, quando il dato cifrato è stato alterato (Unchecked)
+     *           IllegalBlockSizeException, quando il dato fornito non rispetta la lunghezza per il blocco di cifratura (Unchecked)
+     *           NoSuchPaddingException, quando viene chiesto di usare un particolare meccanismo di padding non presente nell'ambiente (Unchecked)
+     *           InvalidKeyException, quando la chiave di cifratura fornita non è valida (Unchecked)
+     *           ClassNotFoundException, quando si prova a caricare una classe, che non è presente, tramite una stringa (Unchecked)
+     *           NoSuchElementException, quando il dato non è presente nella collezione dell'utente (Unchecked)
+     *           NullPointerException, quando un elemento è nullo (Unchecked)
+     *           InvalidAuthenticationException, quando l'autenticazione non è valida (Checked)
+     */
+    public default InputStream getInputStream(String owner, String passw, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        byte[] encoded = DataCodecs.encode(get(owner, passw, data));
+        return new ByteArrayInputStream(encoded, 1, encoded.length - 1);
+    }
+
+    /*
+     *   OVERVIEW: Come getInputStream(owner, passw, data), autenticando l'utente tramite una sessione aperta
+     *   THROWS:
+     *           InvalidAuthenticationException, quando la sessione non è valida o è scaduta (Checked)
+     */
+    public default InputStream getInputStream(SessionToken session, E data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        byte[] encoded = DataCodecs.encode(get(session, data));
+        return new ByteArrayInputStream(encoded, 1, encoded.length - 1);
+    }
+
+    /*
+     *   OVERVIEW: Restituisce uno Stream sequenziale di tutti i dati dell'utente se vengono rispettati i controlli di identità
+     *   REQUIRES: owner, passw != null
+     *   MODIFIES:
+     *   EFFECTS: Restituisce uno Stream sequenziale che genera i dati dell'utente nello stesso ordine di getIterator.
+     *            Le implementazioni possono decifrare ogni dato solo quando viene consumato: un'operazione terminale che si ferma prima (findFirst, limit ecc...)
+     *            decifra solo i dati letti. Un errore di decifratura durante il consumo viene segnalato con DataAccessException (Unchecked)
+     *   THROWS:
+     *      Come getIterator(owner, passw)
+     */
+    public default Stream<E> getStream(String owner, String passw) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        Iterator<E> iter = getIterator(owner, passw);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iter, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /*
+     *   OVERVIEW: Come getStream(owner, passw), autenticando l'utente tramite una sessione aperta
+     *   THROWS:
+     *           InvalidAuthenticationException, quando la sessione non è valida o è scaduta (Checked)
+     */
+    public default Stream<E> getStream(SessionToken session) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        Iterator<E> iter = getIterator(session);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iter, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /*
+     *   OVERVIEW: Restituisce uno Stream parallelo di tutti i dati dell'utente se vengono rispettati i controlli di identità
+     *   REQUIRES: owner, passw != null
+     *   MODIFIES:
+     *   EFFECTS: Restituisce uno Stream parallelo: i dati vengono decifrati contemporaneamente dai thread del ForkJoinPool che esegue l'operazione terminale
+     *            (Il pool comune, oppure un ForkJoinPool dedicato se l'operazione terminale viene eseguita al suo interno).
+     *            Se ordered è true lo Stream mantiene l'ordine di getIterator, altrimenti i dati possono essere generati in qualsiasi ordine.
+     *            Un errore di decifratura durante il consumo viene segnalato con DataAccessException (Unchecked)
+     *   THROWS:
+     *      Come getIterator(owner, passw)
+     */
+    public default Stream<E> getParallelStream(String owner, String passw, boolean ordered) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        Stream<E> stream = getStream(owner, passw).parallel();
+        return ordered ? stream : stream.unordered();
+    }
+
+    /*
+     *   OVERVIEW: Come getParallelStream(owner, passw, ordered), autenticando l'utente tramite una sessione aperta
+     *   THROWS:
+     *           InvalidAuthenticationException, quando la sessione non è valida o è scaduta (Checked)
+     */
+    public default Stream<E> getParallelStream(SessionToken session, boolean ordered) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidAlgorithmParameterException, IOException, BadPaddingException, IllegalBlockSizeException, NoSuchPaddingException, InvalidKeyException, ClassNotFoundException {
+        Stream<E> stream = getStream(session).parallel();
+        return ordered ? stream : stream.unordered();
+    }
+
+    /*
+     *   OVERVIEW: Inserisce un lotto di dati autenticando l'utente una sola volta
+     *   REQUIRES: owner, passw, data != null
+     *   MODIFIES: this
+     *   EFFECTS: Autentica l'utente una sola volta (login) e inserisce ogni dato di data riusando la chiave sbloccata per tutto il lotto.
+     *            Ritorna un esito per ogni dato, nell'ordine di data: il valore ritornato da put oppure l'eccezione che put avrebbe lanciato.
+     *            Un dato che fallisce non interrompe il lotto
+     *   THROWS:
+     *           InvalidKeySpecException, quando le specifiche per l'oggetto KeySpec non sono valide (Unchecked)
+     *           NoSuchAlgorithmException, quando viene chiesto di usare un algoritmo di crittografia non presente nell'ambiente (Unchecked)
+     *           IllegalArgumentException, quando owner e passw non contengono almeno un carattere (Unchecked)
+     *           InvalidKeyException, quando la chiave dell'utente non può essere sbloccata (Unchecked)
+     *           NullPointerException, quando un elemento è nullo (Unchecked)
+     *           InvalidAuthenticationException, quando l'autenticazione non è valida (Checked)
+     */
+    public default BatchResult<Boolean> putAll(String owner, String passw, Collection<? extends E> data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidKeyException {
+        if(data == null)
+            throw new NullPointerException();
+
+        SessionToken session = login(owner, passw);
+        try {
+            return putAll(session, data);
+        } finally {
+            logout(session);
+        }
+    }
+
+    /*
+     *   OVERVIEW: Ottiene una copia di un lotto di dati autenticando l'utente una sola volta
+     *   REQUIRES: owner, passw, data != null
+     *   MODIFIES:
+     *   EFFECTS: Come putAll, ritorna per ogni dato di data il valore ritornato da get oppure l'eccezione che get avrebbe lanciato
+     *   THROWS:
+     *      Come putAll(owner, passw, data)
+     */
+    public default BatchResult<E> getAll(String owner, String passw, Collection<? extends E> data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidKeyException {
+        if(data == null)
+            throw new NullPointerException();
+
+        SessionToken session = login(owner, passw);
+        try {
+            return getAll(session, data);
+        } finally {
+            logout(session);
+        }
+    }
+
+    /*
+     *   OVERVIEW: Rimuove un lotto di dati autenticando l'utente una sola volta
+     *   REQUIRES: owner, passw, data != null
+     *   MODIFIES: this
+     *   EFFECTS: Come putAll, ritorna per ogni dato di data il valore ritornato da remove oppure l'eccezione che remove avrebbe lanciato
+     *   THROWS:
+     *      Come putAll(owner, passw, data)
+     */
+    public default BatchResult<E> removeAll(String owner, String passw, Collection<? extends E> data) throws InvalidAuthenticationException, InvalidKeySpecException, NoSuchAlgorithmException, IllegalArgumentException, InvalidKeyException {
+        if(data == null)
+            throw new NullPointerException();
+
+        SessionToken session = login(owner, passw);
+        try {
+            return removeAll(session, data);
+        } finally {
+            logout(session);
+        }
+    }
+
+    /*
+     *   OVERVIEW: Come putAll(owner, passw, data), autenticando l'utente tramite una sessione aperta
+     *   THROWS:
+     *           NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public default BatchResult<Boolean> putAll(SessionToken session, Collection<? extends E> data) {
+        if(session == null || data == null)
+            throw new NullPointerException();
+
+        BatchResult<Boolean> result = new BatchResult<>(data.size());
+        for(E item : data) {
+            try {
+                result.succeeded(put(session, item));
+            } catch(Exception e) {
+                result.failed(e);
+            }
+        }
+        return result;
+    }
+
+    /*
+     *   OVERVIEW: Come getAll(owner, passw, data), autenticando l'utente tramite una sessione aperta
+     *   THROWS:
+     *           NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public default BatchResult<E> getAll(SessionToken session, Collection<? extends E> data) {
+        if(session == null || data == null)
+            throw new NullPointerException();
+
+        BatchResult<E> result = new BatchResult<>(data.size());
+        for(E item : data) {
+            try {
+                result.succeeded(get(session, item));
+            } catch(Exception e) {
+                result.failed(e);
+            }
+        }
+        return result;
+    }
+
+    /*
+     *   OVERVIEW: Come removeAll(owner, passw, data), autenticando l'utente tramite una sessione aperta
+     *   THROWS:
+     *           NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public default BatchResult<E> removeAll(SessionToken session, Collection<? extends E> data) {
+        if(session == null || data == null)
+            throw new NullPointerException();
+
+        BatchResult<E> result = new BatchResult<>(data.size());
+        for(E item : data) {
+            try {
+                result.succeeded(remove(session, item));
+            } catch(Exception e) {
+                result.failed(e);
+            }
+        }
+        return result;
+    }
 }
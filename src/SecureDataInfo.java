@@ -7,36 +7,64 @@
 
 import javax.crypto.*;
 import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
-import java.io.*;
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.security.*;
-import java.security.spec.InvalidKeySpecException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class SecureDataInfo<E> {
 
-    //Impostazioni chiave di cifratura AES
-    private int encKey_iterations = 5000;
+    //Impostazioni chiave di cifratura AES (derivata dalla chiave master dell'utente tramite HKDF)
     private int encKey_size = 128;
 
-    //Impostazioni di cifratura AES
-    private byte[] saltBytes = new byte[64];
-    private byte[] IV = new byte[12];
-
-    private List<String> owners = new ArrayList<>();
-    private byte[] encryptedValue;
+    //Impostazioni di cifratura AES (null mentre il dato cifrato è nell'arena)
+    private static final int SALT_LENGTH = 32;
+    private static final int IV_LENGTH = 12;
+    private byte[] saltBytes = new byte[SALT_LENGTH];
+    private byte[] IV = new byte[IV_LENGTH];
+
+    //I dati codificati lunghi almeno CHUNKED_THRESHOLD byte vengono cifrati a blocchi indipendenti (Vedi ChunkedGcm)
+    static final int CHUNKED_THRESHOLD = 1024 * 1024;
+    //Dimensione dei blocchi in chiaro, 0 se il dato è cifrato in un solo blocco
+    private int chunkSize;
+
+    //Modalità del dato nell'archivio (Vedi writeTo): i primi due valori coincidono con il boolean delle versioni precedenti
+    private static final int STORED_PLAIN = 0;
+    private static final int STORED_ENCRYPTED = 1;
+    private static final int STORED_CHUNKED = 2;
+
+    //Gli owners possono essere letti durante una condivisione concorrente (Vedi SecureDataCollectionConcurrent):
+    //l'array non viene mai modificato, addOwner lo sostituisce con una copia
+    private volatile String[] owners;
+    //Dato cifrato: nello heap appena creato, poi una vista del file mappato in memoria (Vedi useStoredPayload e LogStore)
+    //oppure, insieme a salt e IV, un record dell'arena off-heap (Vedi moveTo). null mentre il dato è nell'arena
+    private volatile ByteBuffer encryptedValue;
+    //Arena che contiene salt, IV e dato cifrato (null se sono nello heap) e handle del record. handle viene scritto prima di arena.
+    //Le copie di un dato (Vedi copyFor) condividono gli array di salt e IV, il dato cifrato e il record dell'arena, che non vengono mai modificati
+    private volatile PayloadArena arena;
+    private long handle;
     private byte[] hash;
+    private DataHash dataHash;
     private E value;
 
-    private boolean isEncrypted;
+    private volatile boolean isEncrypted;
+
+    private SecureDataInfo() {
+    }
 
     /*
      *   OVERVIEW: Crea l'oggetto cifrando il dato fornito
-     *   REQUIRES: owner, value, password != null, owner, password != ""
+     *   REQUIRES: owner, value, masterKey != null, owner != ""
      *   MODIFIES: this
-     *   EFFECTS: Crea l'oggetto cifrando il dato fornito e calcola l'hash del dato non cifrato
+     *   EFFECTS: Crea l'oggetto cifrando il dato fornito con una chiave derivata dalla chiave master dell'utente e calcola l'hash del dato non cifrato
      *   THROWS:
      *      NoSuchAlgorithmException, quando viene chiesto di usare un algoritmo di crittografia non presente nell'ambiente (Unchecked)
      *      IOException, quando le operazioni di input/output non avvengono correttamente (Unchecked)
@@ -44,20 +72,29 @@ public class SecureDataInfo<E> {
      *      InvalidAlgorithmParameterException, quando viene chiesto di usare un algoritmo non presente nell'ambiente (Unchecked)
      *      IllegalBlockSizeException, quando il dato fornito non rispetta la lunghezza per il blocco di cifratura (Unchecked)
      *      BadPaddingException, quando un dato ha uno schema di padding differente da quello impostato (Unchecked)
-     *      InvalidKeyException, quando la chiave di cifratura fornita non è valida. (Codifica errata, lunghezza errata, non inizializzata ecc...) (Unchecked)
-     *      InvalidKeySpecException, quando le specifiche per l'oggetto KeySpec non sono valide (Unchecked)
-     *      IllegalArgumentException, quando owner e password non contengono almeno un carattere (Unchecked)
+     *      InvalidKeyException, quando la chiave di cifratura fornita non è valida. (Codifica errata, lunghezza errata, distrutta ecc...) (Unchecked)
+     *      IllegalArgumentException, quando owner non contiene almeno un carattere (Unchecked)
      */
-    public SecureDataInfo(String owner, E value, String password) throws NoSuchAlgorithmException, IOException, NoSuchPaddingException, InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException, InvalidKeySpecException, IllegalArgumentException {
-        if(owner == null || value == null || password == null)
+    public SecureDataInfo(String owner, E value, MasterKey masterKey) throws NoSuchAlgorithmException, IOException, NoSuchPaddingException, InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException, IllegalArgumentException {
+        this(owner, value, masterKey, FingerprintStrategies.sha512());
+    }
+
+    /*
+     *   OVERVIEW: Come SecureDataInfo(owner, value, masterKey), calcolando l'impronta del dato con la strategia fornita
+     */
+    SecureDataInfo(String owner, E value, MasterKey masterKey, FingerprintStrategy fingerprints) throws NoSuchAlgorithmException, IOException, NoSuchPaddingException, InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException, IllegalArgumentException {
+        if(owner == null || value == null || masterKey == null || fingerprints == null)
             throw new NullPointerException();
 
-        if(owner.equals("") || password.equals(""))
-            throw new IllegalArgumentException("owner e password devono contenere almeno un carattere");
+        if(owner.equals(""))
+            throw new IllegalArgumentException("owner deve contenere almeno un carattere");
 
-        this.owners.add(owner);
-        this.hash = generateHash(value);
-        this.encryptedValue = encryptData(value, password);
+        //Il dato viene codificato una sola volta: gli stessi byte servono per l'hash e per la cifratura
+        byte[] encoded = DataCodecs.encode(value);
+        this.owners = new String[] {owner};
+        this.hash = ContentFingerprinter.digest(encoded, 0, encoded.length, fingerprints);
+        this.encryptedValue = ByteBuffer.wrap(encryptData(encoded, masterKey)).asReadOnlyBuffer();
+        Arrays.fill(encoded, (byte) 0);
         this.isEncrypted = true;
         this.value = null;
     }
@@ -73,19 +110,44 @@ public class SecureDataInfo<E> {
      *
      */
     public SecureDataInfo(String owner, E value) throws IOException, NoSuchAlgorithmException {
-        if(owner == null || value == null)
+        this(owner, value, FingerprintStrategies.sha512());
+    }
+
+    /*
+     *   OVERVIEW: Come SecureDataInfo(owner, value), calcolando l'impronta del dato con la strategia fornita
+     */
+    SecureDataInfo(String owner, E value, FingerprintStrategy fingerprints) throws IOException, NoSuchAlgorithmException {
+        if(owner == null || value == null || fingerprints == null)
             throw new NullPointerException();
 
         if(owner.equals(""))
             throw new IllegalArgumentException("owner deve contenere almeno un carattere");
 
-        this.owners.add(owner);
-        this.hash = generateHash(value);
+        this.owners = new String[] {owner};
+        this.dataHash = ContentFingerprinter.fingerprint(value, fingerprints);
+        this.hash = dataHash.getDigest();
         this.value = value;
         this.isEncrypted = false;
         this.encryptedValue = null;
     }
 
+    /*
+     *   OVERVIEW: Calcola l'hash di un dato senza creare l'oggetto
+     *   REQUIRES: value != null
+     *   MODIFIES:
+     *   EFFECTS: Ritorna l'hash del dato non cifrato come DataHash, uguale a quello di un SecureDataInfo creato con lo stesso dato
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente (Unchecked)
+     *      NoSuchAlgorithmException, quando viene chiesto di usare un algoritmo di crittografia non presente nell'ambiente (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public static DataHash hashOf(Object value) throws IOException, NoSuchAlgorithmException {
+        if(value == null)
+            throw new NullPointerException();
+
+        return ContentFingerprinter.fingerprint(value);
+    }
+
     /*
      *   OVERVIEW: Aggiunge un nuovo owner al dato
      *   REQUIRES: owner != null, owner != ""
@@ -94,14 +156,19 @@ public class SecureDataInfo<E> {
      *   THROWS:
      *
      */
-    public void addOwner(String owner) {
-        if(!this.owners.contains(owner))
-            this.owners.add(owner);
+    public synchronized void addOwner(String owner) {
+        if(hasOwner(owner))
+            return;
+
+        String[] current = this.owners;
+        String[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = owner;
+        this.owners = updated;
     }
 
     /*
      *   OVERVIEW: Ritorna il dato
-     *   REQUIRES: password != null, password != ""
+     *   REQUIRES: masterKey != null
      *   MODIFIES:
      *   EFFECTS: Se il dato è cifrato ritorna una copia del dato decifrato, altrimenti ritorna il dato non cifrato
      *   THROWS:
@@ -111,24 +178,64 @@ public class SecureDataInfo<E> {
      *      InvalidAlgorithmParameterException, quando viene chiesto di usare un algoritmo non presente nell'ambiente (Unchecked)
      *      IllegalBlockSizeException, quando il dato fornito non rispetta la lunghezza per il blocco di cifratura (Unchecked)
      *      BadPaddingException, quando un dato ha uno schema di padding differente da quello impostato (Unchecked)
-     *      InvalidKeyException, quando la chiave di cifratura fornita non è valida. (Codifica errata, lunghezza errata, non inizializzata ecc...) (Unchecked)
-     *      InvalidKeySpecException, quando le specifiche per l'oggetto KeySpec non sono valide (Unchecked)
-     *      IllegalArgumentException, quando owner e password non contengono almeno un carattere (Unchecked)
+     *      InvalidKeyException, quando la chiave di cifratura fornita non è valida. (Codifica errata, lunghezza errata, distrutta ecc...) (Unchecked)
+     *      ClassNotFoundException, quando si prova a caricare una classe, che non è presente, tramite una stringa (Unchecked)
      *
      */
-    public E getValue(String password) throws IOException, NoSuchAlgorithmException, InvalidKeyException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, InvalidKeySpecException, IllegalBlockSizeException, ClassNotFoundException {
-        if(password == null)
+    public E getValue(MasterKey masterKey) throws IOException, NoSuchAlgorithmException, InvalidKeyException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, IllegalBlockSizeException, ClassNotFoundException {
+        if(masterKey == null)
             throw new NullPointerException();
 
-        if(password.equals(""))
-            throw new IllegalArgumentException("password deve contenere almeno un carattere");
-
         if(isEncrypted)
-            return decryptData(password);
+            return decryptData(masterKey);
         else
             return this.value;
     }
 
+    /*
+     *   OVERVIEW: Ritorna il dato come stream di byte, senza ricostruire l'oggetto
+     *   REQUIRES: masterKey != null
+     *   MODIFIES:
+     *   EFFECTS: Ritorna uno stream dei byte della codifica del dato senza l'etichetta (Vedi DataCodecs: per un byte[] sono i byte del dato).
+     *            Un dato cifrato a blocchi viene decifrato un blocco alla volta mentre viene letto, con memoria costante;
+     *            un dato cifrato in un solo blocco viene decifrato subito. La chiave di cifratura viene derivata subito:
+     *            masterKey può essere distrutta dopo la chiamata. Il chiamante deve chiudere lo stream (Il buffer in chiaro viene azzerato)
+     *   THROWS:
+     *      NoSuchAlgorithmException, quando viene chiesto di usare un algoritmo di crittografia non presente nell'ambiente (Unchecked)
+     *      IOException, quando le operazioni di input/output non avvengono correttamente o il dato cifrato non è valido (Unchecked)
+     *      NoSuchPaddingException, quando viene chiesto di usare un particolare meccanismo di padding non presente nell'ambiente (Unchecked)
+     *      InvalidAlgorithmParameterException, quando viene chiesto di usare un algoritmo non presente nell'ambiente (Unchecked)
+     *      IllegalBlockSizeException, quando il dato fornito non rispetta la lunghezza per il blocco di cifratura (Unchecked)
+     *      BadPaddingException, quando il dato cifrato è stato alterato (Unchecked)
+     *      InvalidKeyException, quando la chiave di cifratura fornita non è valida. (Codifica errata, lunghezza errata, distrutta ecc...) (Unchecked)
+     */
+    public InputStream openStream(MasterKey masterKey) throws IOException, NoSuchAlgorithmException, InvalidKeyException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, IllegalBlockSizeException {
+        if(masterKey == null)
+            throw new NullPointerException();
+
+        if(!isEncrypted) {
+            byte[] encoded = DataCodecs.encode(this.value);
+            return new ByteArrayInputStream(encoded, 1, encoded.length - 1);
+        }
+
+        //Letti una sola volta: makePublic può essere concorrente (Vedi SecureDataCollectionConcurrent)
+        byte[] salt = new byte[SALT_LENGTH];
+        byte[] iv = new byte[IV_LENGTH];
+        ByteBuffer ciphertext = sealed(salt, iv);
+        SecretKeySpec secretKeySpec = masterKey.deriveElementKey(salt, this.encKey_size / 8);
+        if(chunkSize > 0)
+            return ChunkedGcm.openStream(secretKeySpec, iv, ciphertext, chunkSize, 1);
+
+        final byte[] decrypted = decryptEncoded(secretKeySpec, iv, ciphertext);
+        return new ByteArrayInputStream(decrypted, 1, decrypted.length - 1) {
+            @Override
+            public void close() {
+                Arrays.fill(decrypted, (byte) 0);
+                pos = count;
+            }
+        };
+    }
+
     /*
      *   OVERVIEW: Ritorna una copia della lista degli owners del dato
      *   REQUIRES:
@@ -138,10 +245,26 @@ public class SecureDataInfo<E> {
      *
      */
     public List<String> getOwners() {
-       List<String> result = new ArrayList<>(owners);
+       List<String> result = new ArrayList<>(Arrays.asList(owners));
        return result;
     }
 
+    /*
+     *   OVERVIEW: Controlla se l'utente è tra gli owners del dato
+     *   REQUIRES: owner != null
+     *   MODIFIES:
+     *   EFFECTS: Ritorna true se owner è nella lista owners del dato, altrimenti false (Senza copiare la lista)
+     *   THROWS:
+     *
+     */
+    public boolean hasOwner(String owner) {
+        for(String o : owners) {
+            if(o.equals(owner))
+                return true;
+        }
+        return false;
+    }
+
     /*
      *   OVERVIEW: Ritorna l'hash del dato non cifrato
      *   REQUIRES:
@@ -154,6 +277,20 @@ public class SecureDataInfo<E> {
         return hash;
     }
 
+    /*
+     *   OVERVIEW: Ritorna l'hash del dato non cifrato utilizzabile come chiave di una HashMap
+     *   REQUIRES:
+     *   MODIFIES:
+     *   EFFECTS: Ritorna l'hash del dato non cifrato come DataHash
+     *   THROWS:
+     *
+     */
+    public DataHash getDataHash() {
+        if(dataHash == null)
+            dataHash = new DataHash(hash);
+        return dataHash;
+    }
+
     /*
      *   OVERVIEW: Ritorna l'informazione se il dato è cifrato o in chiaro
      *   REQUIRES:
@@ -168,7 +305,7 @@ public class SecureDataInfo<E> {
 
     /*
      *   OVERVIEW: Decifra il dato in modo irreversibile
-     *   REQUIRES: password != null, password != ""
+     *   REQUIRES: masterKey != null
      *   MODIFIES: this
      *   EFFECTS: Decifra il dato in modo irreversibile
      *   THROWS:
@@ -178,88 +315,367 @@ public class SecureDataInfo<E> {
      *      InvalidAlgorithmParameterException, quando viene chiesto di usare un algoritmo non presente nell'ambiente (Unchecked)
      *      IllegalBlockSizeException, quando il dato fornito non rispetta la lunghezza per il blocco di cifratura (Unchecked)
      *      BadPaddingException, quando un dato ha uno schema di padding differente da quello impostato (Unchecked)
-     *      InvalidKeyException, quando la chiave di cifratura fornita non è valida. (Codifica errata, lunghezza errata, non inizializzata ecc...) (Unchecked)
-     *      InvalidKeySpecException, quando le specifiche per l'oggetto KeySpec non sono valide (Unchecked)
-     *      IllegalArgumentException, quando owner e password non contengono almeno un carattere (Unchecked)
+     *      InvalidKeyException, quando la chiave di cifratura fornita non è valida. (Codifica errata, lunghezza errata, distrutta ecc...) (Unchecked)
      *      ClassNotFoundException, quando si prova a caricare una classe, che non è presente, tramite una stringa (Unchecked)
      *
      */
-    public void makePublic(String password) throws IOException, NoSuchAlgorithmException, InvalidKeyException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, InvalidKeySpecException, IllegalBlockSizeException, ClassNotFoundException {
-        if(password == null)
+    public void makePublic(MasterKey masterKey) throws IOException, NoSuchAlgorithmException, InvalidKeyException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, IllegalBlockSizeException, ClassNotFoundException {
+        if(masterKey == null)
             throw new NullPointerException();
 
-        if(password.equals(""))
-            throw new IllegalArgumentException("password deve contenere almeno un carattere");
+        if(!isEncrypted)
+            return;
 
-        this.value = decryptData(password);
+        //Il dato in chiaro viene pubblicato prima del flag
+        this.value = decryptData(masterKey);
         this.isEncrypted = false;
+
+        //Il dato pubblico non usa più il dato cifrato: il record nell'arena viene liberato
+        release();
     }
 
     /*
-     *   OVERVIEW: Genera l'hash di un dato
-     *   REQUIRES: value != null
-     *   MODIFIES:
-     *   EFFECTS: Ritorna un byte array contenente l'hash del dato fornito
+     *   OVERVIEW: Come makePublic(masterKey), registrando il dato in chiaro nell'archivio dei dati pubblici (Vedi internValue)
+     *             solo se il dato diventa pubblico con questa chiamata
+     */
+    void makePublic(MasterKey masterKey, ContentStore contents) throws IOException, NoSuchAlgorithmException, InvalidKeyException, InvalidAlgorithmParameterException, NoSuchPaddingException, BadPaddingException, IllegalBlockSizeException, ClassNotFoundException {
+        boolean encrypted = this.isEncrypted;
+        makePublic(masterKey);
+        if(encrypted)
+            internValue(contents);
+    }
+
+    /*
+     *   OVERVIEW: Crea una copia del dato per un utente senza cifrare né decifrare nulla
+     *   REQUIRES: owner != null, owner != "", se il dato è cifrato owner è il suo proprietario (La copia resta cifrata con la sua chiave)
+     *   MODIFIES: l'arena del dato
+     *   EFFECTS: Ritorna un nuovo dato con owner come unico owner, lo stesso hash e lo stesso contenuto, che condivide con questo dato
+     *            il valore in chiaro se pubblico, oppure salt, IV e dato cifrato (Un riferimento in più al record dell'arena, Vedi PayloadArena.retain).
+     *            La copia va rilasciata con release alla rimozione, indipendentemente da questo dato. Costo costante rispetto alla dimensione del dato
+     */
+    synchronized SecureDataInfo<E> copyFor(String owner) {
+        if(owner == null)
+            throw new NullPointerException();
+
+        SecureDataInfo<E> copy = new SecureDataInfo<>();
+        copy.owners = new String[] {owner};
+        copy.hash = hash;
+        copy.dataHash = getDataHash();
+        copy.encKey_size = encKey_size;
+        copy.chunkSize = chunkSize;
+        copy.value = value;
+
+        //release è sincronizzato: se il dato è nell'arena il record è ancora vivo
+        PayloadArena current = this.arena;
+        if(current != null && current.retain(handle)) {
+            copy.saltBytes = null;
+            copy.IV = null;
+            copy.handle = handle;
+            copy.arena = current;
+        } else {
+            copy.saltBytes = saltBytes;
+            copy.IV = IV;
+            copy.encryptedValue = encryptedValue;
+        }
+        copy.isEncrypted = isEncrypted;
+        return copy;
+    }
+
+    /*
+     *   OVERVIEW: Sostituisce il valore in chiaro con l'istanza condivisa dell'archivio dei dati pubblici
+     *   REQUIRES: contents != null, da chiamare una sola volta per dato, quando il dato pubblico entra nella collezione
+     *   MODIFIES: this, contents
+     *   EFFECTS: Se il dato è pubblico registra un riferimento al suo valore in contents (Vedi ContentStore.intern) e usa l'istanza condivisa.
+     *            Se il dato è cifrato non fa nulla
+     */
+    @SuppressWarnings("unchecked")
+    void internValue(ContentStore contents) {
+        if(!isEncrypted)
+            this.value = (E) contents.intern(getDataHash(), value);
+    }
+
+    /*
+     *   OVERVIEW: Rilascia il riferimento al valore in chiaro registrato con internValue (Da chiamare quando il dato viene rimosso dalla collezione)
+     */
+    void releaseValue(ContentStore contents) {
+        if(!isEncrypted)
+            contents.release(getDataHash(), value);
+    }
+
+    /*
+     *   OVERVIEW: Sposta salt, IV e dato cifrato nell'arena off-heap
+     *   REQUIRES: target != null, il dato non è ancora visibile ad altri thread (Appena creato, prima di essere indicizzato)
+     *   MODIFIES: this, target
+     *   EFFECTS: Se il dato è cifrato, non è già in un'arena e target può contenerlo (Vedi PayloadArena.fits), copia salt, IV e dato cifrato
+     *            in un record di target e libera i corrispondenti array nello heap. Altrimenti non fa nulla (I dati grandi restano nello heap)
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    synchronized void moveTo(PayloadArena target) {
+        if(target == null)
+            throw new NullPointerException();
+
+        if(!isEncrypted || arena != null)
+            return;
+
+        ByteBuffer ciphertext = encryptedValue.duplicate();
+        int length = SALT_LENGTH + IV_LENGTH + ciphertext.remaining();
+        if(!target.fits(length))
+            return;
+
+        long recordHandle = target.allocate(length);
+        target.view(recordHandle).put(saltBytes).put(IV).put(ciphertext);
+        this.handle = recordHandle;
+        this.arena = target;
+        this.saltBytes = null;
+        this.IV = null;
+        this.encryptedValue = null;
+    }
+
+    /*
+     *   OVERVIEW: Libera il record del dato nell'arena (Da chiamare quando il dato viene rimosso dalla collezione)
+     *   REQUIRES:
+     *   MODIFIES: this, l'arena del dato
+     *   EFFECTS: Se il dato è in un'arena, copia salt, IV e dato cifrato nello heap (Una lettura concorrente resta valida) e rilascia
+     *            il suo riferimento al record, che viene liberato se nessuna copia lo usa più. Altrimenti non fa nulla
+     */
+    synchronized void release() {
+        PayloadArena current = this.arena;
+        if(current == null)
+            return;
+
+        ByteBuffer record = current.view(handle);
+        byte[] salt = new byte[SALT_LENGTH];
+        byte[] iv = new byte[IV_LENGTH];
+        record.get(salt).get(iv);
+        byte[] ciphertext = new byte[record.remaining()];
+        record.get(ciphertext);
+
+        //I campi nello heap vengono pubblicati prima di rimuovere l'arena (Vedi sealed)
+        this.saltBytes = salt;
+        this.IV = iv;
+        this.encryptedValue = ByteBuffer.wrap(ciphertext).asReadOnlyBuffer();
+        this.arena = null;
+        current.free(handle);
+    }
+
+    /*
+     *   OVERVIEW: Legge salt, IV e dato cifrato dall'arena oppure dallo heap
+     *   REQUIRES: salt.length == SALT_LENGTH, iv.length == IV_LENGTH, il dato è cifrato
+     *   MODIFIES: salt, iv
+     *   EFFECTS: Copia salt e IV in salt e iv e ritorna il dato cifrato (Una vista: non modificarne il contenuto)
+     */
+    private ByteBuffer sealed(byte[] salt, byte[] iv) {
+        while(true) {
+            PayloadArena current = this.arena;
+            if(current == null) {
+                System.arraycopy(this.saltBytes, 0, salt, 0, SALT_LENGTH);
+                System.arraycopy(this.IV, 0, iv, 0, IV_LENGTH);
+                return this.encryptedValue;
+            }
+
+            //null se release ha appena liberato il record: i campi nello heap sono già validi
+            ByteBuffer record = current.view(handle);
+            if(record != null) {
+                record.get(salt).get(iv);
+                return record.slice();
+            }
+        }
+    }
+
+    /*
+     *   OVERVIEW: Scrive lo stato del dato così com'è (Vedi LogStore)
+     *   REQUIRES: out != null
+     *   MODIFIES: out
+     *   EFFECTS: Scrive in out owners, hash e dato cifrato (o il dato in chiaro codificato se pubblico), senza decifrare nulla
      *   THROWS:
-     *      NoSuchAlgorithmException, quando viene chiesto di usare un algoritmo di crittografia non presente nell'ambiente (Unchecked)
      *      IOException, quando le operazioni di input/output non avvengono correttamente (Unchecked)
-     *
      */
-    private byte[] generateHash(E value) throws NoSuchAlgorithmException, IOException {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        ObjectOutput objectOutput = new ObjectOutputStream(outputStream);
-        objectOutput.writeObject(value);
-        objectOutput.flush();
-        MessageDigest digest = MessageDigest.getInstance("SHA-512");
-        return digest.digest(outputStream.toByteArray());
+    void writeTo(DataOutput out) throws IOException {
+        //Letti una sola volta: makePublic può essere concorrente (Vedi SecureDataCollectionConcurrent)
+        boolean encrypted = this.isEncrypted;
+        List<String> ownersSnapshot = getOwners();
+
+        out.writeByte(encrypted ? (chunkSize > 0 ? STORED_CHUNKED : STORED_ENCRYPTED) : STORED_PLAIN);
+        out.writeInt(ownersSnapshot.size());
+        for(String owner : ownersSnapshot)
+            out.writeUTF(owner);
+        out.writeInt(hash.length);
+        out.write(hash);
+
+        //Il dato (cifrato o codificato) è sempre l'ultimo campo del record (Vedi useStoredPayload)
+        byte[] payload;
+        if(encrypted) {
+            byte[] salt = new byte[SALT_LENGTH];
+            byte[] iv = new byte[IV_LENGTH];
+            ByteBuffer ciphertext = sealed(salt, iv).duplicate();
+            out.write(salt);
+            out.write(iv);
+            if(chunkSize > 0)
+                out.writeInt(chunkSize);
+            payload = new byte[ciphertext.remaining()];
+            ciphertext.get(payload);
+        } else {
+            payload = DataCodecs.encode(value);
+        }
+        out.writeInt(payload.length);
+        out.write(payload);
     }
 
     /*
-     *   OVERVIEW: Cifra il dato fornito tramite l'algoritmo AES con modalità GCM
-     *   REQUIRES: value, password != null, password != ""
+     *   OVERVIEW: Sostituisce il dato cifrato nello heap con la sua copia nell'archivio
+     *   REQUIRES: record != null, record contiene il record scritto con writeTo per questo dato
      *   MODIFIES: this
-     *   EFFECTS: Ritorna un byte array contenente il dato cifrato
+     *   EFFECTS: Se il dato è cifrato, il dato cifrato viene letto dagli ultimi byte di record (Tipicamente una vista di un file mappato in memoria)
+     *            e l'array nello heap può essere liberato dal garbage collector. Se il dato è pubblico non fa nulla
+     *   THROWS:
+     *      IllegalArgumentException, quando record è più corto del dato cifrato (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    void useStoredPayload(ByteBuffer record) throws IllegalArgumentException {
+        if(record == null)
+            throw new NullPointerException();
+
+        if(!isEncrypted)
+            return;
+
+        //Il dato cifrato nell'archivio sostituisce anche il record nell'arena
+        release();
+        int length = encryptedValue.remaining();
+        if(record.remaining() < length)
+            throw new IllegalArgumentException("Il record non contiene il dato cifrato");
+
+        ByteBuffer stored = record.duplicate();
+        stored.position(stored.limit() - length);
+        this.encryptedValue = stored.slice().asReadOnlyBuffer();
+    }
+
+    /*
+     *   OVERVIEW: Copia il dato cifrato in un array proprio nello heap
+     *   REQUIRES: il dato non è ancora visibile ad altri thread (Appena letto con readFrom)
+     *   MODIFIES: this
+     *   EFFECTS: Se il dato è cifrato e nello heap, sostituisce la vista del record da cui è stato letto con una copia,
+     *            così il record (Ad esempio un blocco di uno snapshot, Vedi SnapshotFile) può essere liberato. Altrimenti non fa nulla
+     */
+    void detachPayload() {
+        if(!isEncrypted || arena != null)
+            return;
+
+        ByteBuffer ciphertext = encryptedValue.duplicate();
+        byte[] copy = new byte[ciphertext.remaining()];
+        ciphertext.get(copy);
+        this.encryptedValue = ByteBuffer.wrap(copy).asReadOnlyBuffer();
+    }
+
+    /*
+     *   OVERVIEW: Ricostruisce un dato scritto con writeTo
+     *   REQUIRES: record != null
+     *   MODIFIES:
+     *   EFFECTS: Ritorna il dato letto da record. Un dato cifrato resta cifrato (Non serve la chiave master)
+     *            e il dato cifrato non viene copiato: resta una vista di record (Tipicamente un file mappato in memoria)
+     *   THROWS:
+     *      IOException, quando i dati non sono validi (Unchecked)
+     *      ClassNotFoundException, quando si prova a caricare una classe, che non è presente, tramite una stringa (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    @SuppressWarnings("unchecked")
+    static <E> SecureDataInfo<E> readFrom(ByteBuffer record) throws IOException, ClassNotFoundException {
+        ByteBuffer buffer = record.duplicate();
+        DataInputStream in = new DataInputStream(new ByteBufferInputStream(buffer));
+        SecureDataInfo<E> element = new SecureDataInfo<>();
+        int mode = in.readUnsignedByte();
+        if(mode > STORED_CHUNKED)
+            throw new IOException("Modalità del dato non valida: " + mode);
+        boolean encrypted = mode != STORED_PLAIN;
+
+        int ownersCount = in.readInt();
+        if(ownersCount < 1)
+            throw new IOException("Il dato non ha owners");
+        String[] owners = new String[ownersCount];
+        for(int i = 0; i < ownersCount; i++)
+            owners[i] = in.readUTF();
+        element.owners = owners;
+
+        element.hash = readBytes(in, 1024);
+        if(encrypted) {
+            in.readFully(element.saltBytes);
+            in.readFully(element.IV);
+            if(mode == STORED_CHUNKED) {
+                element.chunkSize = in.readInt();
+                if(element.chunkSize <= 0)
+                    throw new IOException("Dimensione dei blocchi non valida: " + element.chunkSize);
+            }
+            int length = in.readInt();
+            if(length < 16 || length > buffer.remaining())
+                throw new IOException("Lunghezza non valida: " + length);
+            ByteBuffer ciphertext = buffer.slice();
+            ciphertext.limit(length);
+            element.encryptedValue = ciphertext.asReadOnlyBuffer();
+            if(element.chunkSize > 0)
+                ChunkedGcm.plainLength(length, element.chunkSize);
+        } else {
+            element.value = (E) DataCodecs.decode(readBytes(in, Integer.MAX_VALUE));
+        }
+        element.isEncrypted = encrypted;
+        return element;
+    }
+
+    private static byte[] readBytes(DataInput in, int maxLength) throws IOException {
+        int length = in.readInt();
+        if(length < 0 || length > maxLength)
+            throw new IOException("Lunghezza non valida: " + length);
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /*
+     *   OVERVIEW: Cifra il dato codificato fornito tramite l'algoritmo AES con modalità GCM
+     *   REQUIRES: encoded, masterKey != null
+     *   MODIFIES: this
+     *   EFFECTS: Ritorna un byte array contenente il dato cifrato con una chiave derivata dalla chiave master e da un salt casuale.
+     *            Un dato di almeno CHUNKED_THRESHOLD byte viene cifrato a blocchi (Vedi ChunkedGcm): il cifrario non copia il dato in un buffer interno
      *   THROWS:
      *      NoSuchAlgorithmException, quando viene chiesto di usare un algoritmo di crittografia non presente nell'ambiente (Unchecked)
-     *      IOException, quando le operazioni di input/output non avvengono correttamente (Unchecked)
      *      NoSuchPaddingException, quando viene chiesto di usare un particolare meccanismo di padding non presente nell'ambiente (Unchecked)
      *      InvalidAlgorithmParameterException, quando viene chiesto di usare un algoritmo non presente nell'ambiente (Unchecked)
      *      IllegalBlockSizeException, quando il dato fornito non rispetta la lunghezza per il blocco di cifratura (Unchecked)
      *      BadPaddingException, quando un dato ha uno schema di padding differente da quello impostato (Unchecked)
-     *      InvalidKeyException, quando la chiave di cifratura fornita non è valida. (Codifica errata, lunghezza errata, non inizializzata ecc...) (Unchecked)
-     *      InvalidKeySpecException, quando le specifiche per l'oggetto KeySpec non sono valide (Unchecked)
-     *      IllegalArgumentException, quando owner e password non contengono almeno un carattere (Unchecked)
+     *      InvalidKeyException, quando la chiave di cifratura fornita non è valida. (Codifica errata, lunghezza errata, distrutta ecc...) (Unchecked)
      *
      */
-    private byte[] encryptData(E value, String password) throws NoSuchAlgorithmException, InvalidKeySpecException, NoSuchPaddingException, InvalidKeyException, InvalidAlgorithmParameterException, IOException, IllegalBlockSizeException, BadPaddingException {
+    private byte[] encryptData(byte[] encoded, MasterKey masterKey) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException {
         //Genera del Salt Bytes random
-        SecureRandom secureRandom = new SecureRandom();
-        secureRandom.nextBytes(this.saltBytes);
+        CryptoEngine.nextBytes(this.saltBytes);
 
-        //Genera la chiave di cifratura
-        SecretKeyFactory secretKeyFactory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA512");
-        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), this.saltBytes, this.encKey_iterations, this.encKey_size);
-        SecretKey secretKey = secretKeyFactory.generateSecret(spec);
+        //Deriva la chiave di cifratura dalla chiave master (HKDF, nessuna derivazione PBKDF2 per dato)
+        SecretKeySpec secretKeySpec = masterKey.deriveElementKey(this.saltBytes, this.encKey_size / 8);
 
         //Genera un IV random
-        secureRandom.nextBytes(this.IV);
-
-        //Impostazioni cifrario AES
-        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-        SecretKeySpec secretKeySpec = new SecretKeySpec(secretKey.getEncoded(), "AES");
-        cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec, new GCMParameterSpec(128, this.IV));
-
-        //Cifra
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        ObjectOutput objectOutput = new ObjectOutputStream(outputStream);
-        objectOutput.writeObject(value);
-        objectOutput.flush();
-        return cipher.doFinal(outputStream.toByteArray());
+        CryptoEngine.nextBytes(this.IV);
+
+        long start = Tracing.start();
+        try {
+            if(encoded.length >= CHUNKED_THRESHOLD) {
+                this.chunkSize = ChunkedGcm.DEFAULT_CHUNK_SIZE;
+                return ChunkedGcm.encrypt(secretKeySpec, this.IV, encoded, 0, encoded.length, chunkSize);
+            }
+
+            //Impostazioni cifrario AES
+            Cipher cipher = CryptoEngine.aesGcm();
+            cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec, new GCMParameterSpec(128, this.IV));
+
+            //Cifra
+            return cipher.doFinal(encoded);
+        } finally {
+            Tracing.end(OperationPhase.ENCRYPTION, start);
+        }
     }
 
     /*
      *   OVERVIEW: Decifra il dato tramite l'algoritmo AES con modalità GCM
-     *   REQUIRES: password != null, password != ""
+     *   REQUIRES: masterKey != null
      *   MODIFIES:
      *   EFFECTS: Ritorna il dato non cifrato
      *   THROWS:
@@ -269,29 +685,59 @@ public class SecureDataInfo<E> {
      *      InvalidAlgorithmParameterException, quando viene chiesto di usare un algoritmo non presente nell'ambiente (Unchecked)
      *      IllegalBlockSizeException, quando il dato fornito non rispetta la lunghezza per il blocco di cifratura (Unchecked)
      *      BadPaddingException, quando un dato ha uno schema di padding differente da quello impostato (Unchecked)
-     *      InvalidKeyException, quando la chiave di cifratura fornita non è valida. (Codifica errata, lunghezza errata, non inizializzata ecc...) (Unchecked)
-     *      InvalidKeySpecException, quando le specifiche per l'oggetto KeySpec non sono valide (Unchecked)
-     *      IllegalArgumentException, quando owner e password non contengono almeno un carattere (Unchecked)
+     *      InvalidKeyException, quando la chiave di cifratura fornita non è valida. (Codifica errata, lunghezza errata, distrutta ecc...) (Unchecked)
      *      ClassNotFoundException, quando si prova a caricare una classe, che non è presente, tramite una stringa (Unchecked)
      *
      */
-    private E decryptData(String password) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeySpecException, InvalidAlgorithmParameterException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException, IOException, ClassNotFoundException {
-        //Genera la chiave di cifratura
-        SecretKeyFactory secretKeyFactory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA512");
-        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), this.saltBytes, this.encKey_iterations, this.encKey_size);
-        SecretKey secretKey = secretKeyFactory.generateSecret(spec);
+    private E decryptData(MasterKey masterKey) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException, IOException, ClassNotFoundException {
+        //Deriva la chiave di cifratura dalla chiave master
+        byte[] salt = new byte[SALT_LENGTH];
+        byte[] iv = new byte[IV_LENGTH];
+        ByteBuffer ciphertext = sealed(salt, iv);
+        SecretKeySpec secretKeySpec = masterKey.deriveElementKey(salt, this.encKey_size / 8);
+        long start = Tracing.start();
+        byte[] decrypted;
+        try {
+            decrypted = decryptEncoded(secretKeySpec, iv, ciphertext);
+        } finally {
+            Tracing.end(OperationPhase.DECRYPTION, start);
+        }
 
-        //Impostazioni cifrario AES
-        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-        SecretKeySpec secretKeySpec = new SecretKeySpec(secretKey.getEncoded(), "AES");
-        cipher.init(Cipher.DECRYPT_MODE, secretKeySpec, new GCMParameterSpec(128, this.IV));
+        //Converte i bytes decifrati nell'oggetto E
+        try {
+            return (E) DataCodecs.decode(decrypted);
+        } finally {
+            Arrays.fill(decrypted, (byte) 0);
+        }
+    }
 
-        //Decifra
-        byte[] decrypted = cipher.doFinal(this.encryptedValue);
+    /*
+     *   OVERVIEW: Decifra il dato cifrato fornito e ritorna la sua codifica (Vedi DataCodecs), di lunghezza esatta
+     */
+    private byte[] decryptEncoded(SecretKeySpec secretKeySpec, byte[] iv, ByteBuffer ciphertext) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException, IOException {
+        //Decifra un blocco alla volta direttamente nel risultato
+        if(chunkSize > 0)
+            return ChunkedGcm.decrypt(secretKeySpec, iv, ciphertext, chunkSize);
 
-        //Converte i bytes decifrati nell'oggetto E
-        ByteArrayInputStream inputStream = new ByteArrayInputStream(decrypted);
-        ObjectInput objectInput = new ObjectInputStream(inputStream);
-        return (E) objectInput.readObject();
+        //Impostazioni cifrario AES
+        Cipher cipher = CryptoEngine.aesGcm();
+        cipher.init(Cipher.DECRYPT_MODE, secretKeySpec, new GCMParameterSpec(128, iv));
+
+        //Decifra direttamente dal buffer (anche mappato in memoria) senza copiare il dato cifrato nello heap
+        ByteBuffer input = ciphertext.duplicate();
+        byte[] decrypted = new byte[cipher.getOutputSize(input.remaining())];
+        int length;
+        try {
+            length = cipher.doFinal(input, ByteBuffer.wrap(decrypted));
+        } catch(ShortBufferException e) {
+            //Non può accadere: il buffer ha la dimensione richiesta dal cifrario
+            throw new IllegalStateException(e);
+        }
+        if(length == decrypted.length)
+            return decrypted;
+
+        byte[] exact = Arrays.copyOf(decrypted, length);
+        Arrays.fill(decrypted, (byte) 0);
+        return exact;
     }
 }
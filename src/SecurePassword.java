@@ -8,8 +8,10 @@
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
 import java.util.Arrays;
 
@@ -22,6 +24,9 @@ class SecurePassword {
     private int key_length = 512;
     private int salt_length = 64;
 
+    private SecurePassword() {
+    }
+
     /*
      *   OVERVIEW: Genera una password sicura utilizzando le impostazioni predefinite
      *   REQUIRES: plain_password != null, plain_password != ""
@@ -39,15 +44,31 @@ class SecurePassword {
         if(plain_password == "")
             throw new IllegalArgumentException("plain_password deve contenere almeno un carattere");
 
-        this.salt_bytes = new byte[this.salt_length];
-        SecureRandom secureRandom = new SecureRandom();
-        secureRandom.nextBytes(this.salt_bytes);
+        generate(plain_password);
+    }
 
-        SecretKeyFactory secretKeyFactory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA512");
-        PBEKeySpec spec = new PBEKeySpec(plain_password.toCharArray(), this.salt_bytes, this.iterations, this.key_length);
-        SecretKey secretKey = secretKeyFactory.generateSecret(spec);
+    /*
+     *   OVERVIEW: Genera una password sicura utilizzando le impostazioni della politica fornita
+     *   REQUIRES: plain_password != null, plain_password != "", policy != null
+     *   MODIFIES: this
+     *   EFFECTS: Genera una password sicura con iterazioni, lunghezza della chiave e del salt di policy
+     *   THROWS:
+     *      NoSuchAlgorithmException, quando viene chiesto di usare un algoritmo di crittografia non presente nell'ambiente (Unchecked)
+     *      InvalidKeySpecException, quando le specifiche per l'oggetto KeySpec non sono valide (Unchecked)
+     *      IllegalArgumentException, quando plain_password non contiene almeno un carattere (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public SecurePassword(String plain_password, PasswordPolicy policy) throws NoSuchAlgorithmException, InvalidKeySpecException, IllegalArgumentException {
+        if(plain_password == null || policy == null)
+            throw new NullPointerException();
 
-        this.encrypted_password = secretKey.getEncoded();
+        if(plain_password.equals(""))
+            throw new IllegalArgumentException("plain_password deve contenere almeno un carattere");
+
+        this.iterations = policy.getIterations();
+        this.key_length = policy.getKeyLength();
+        this.salt_length = policy.getSaltLength();
+        generate(plain_password);
     }
 
     /*
@@ -78,18 +99,35 @@ class SecurePassword {
         this.iterations = iterations;
         this.key_length = key_length;
         this.salt_length = salt_length;
+        generate(plain_password);
+    }
 
-        this.salt_bytes = new byte[salt_length];
-        SecureRandom secureRandom = new SecureRandom();
-        secureRandom.nextBytes(this.salt_bytes);
+    /*
+     *   OVERVIEW: Genera un nuovo salt e cifra la password con le impostazioni correnti
+     */
+    private void generate(String plain_password) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        this.salt_bytes = new byte[this.salt_length];
+        CryptoEngine.nextBytes(this.salt_bytes);
 
-        SecretKeyFactory secretKeyFactory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA512");
-        PBEKeySpec spec = new PBEKeySpec(plain_password.toCharArray(), salt_bytes, iterations, key_length);
+        SecretKeyFactory secretKeyFactory = CryptoEngine.pbkdf2();
+        PBEKeySpec spec = new PBEKeySpec(plain_password.toCharArray(), this.salt_bytes, this.iterations, this.key_length);
         SecretKey secretKey = secretKeyFactory.generateSecret(spec);
 
         this.encrypted_password = secretKey.getEncoded();
     }
 
+    /*
+     *   OVERVIEW: Controlla se la password è stata cifrata con impostazioni diverse da quelle della politica
+     *   REQUIRES: policy != null
+     *   MODIFIES:
+     *   EFFECTS: Ritorna true se iterazioni, lunghezza della chiave o del salt sono diverse da quelle di policy (La password va cifrata di nuovo)
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    boolean needsRehash(PasswordPolicy policy) {
+        return iterations != policy.getIterations() || key_length != policy.getKeyLength() || salt_length != policy.getSaltLength();
+    }
+
     /*
      *   OVERVIEW: Verifica se la password inserita coincide con la password cifrata
      *   REQUIRES: plain_password != null, plain_password != ""
@@ -108,14 +146,19 @@ class SecurePassword {
         if(plain_password == "")
             throw new IllegalArgumentException("plain_password deve contenere almeno un carattere");
 
-        SecretKeyFactory secretKeyFactory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA512");
-        PBEKeySpec spec = new PBEKeySpec(plain_password.toCharArray(), this.salt_bytes, this.iterations, this.key_length);
-        SecretKey secretKey = secretKeyFactory.generateSecret(spec);
+        long start = Tracing.start();
+        try {
+            SecretKeyFactory secretKeyFactory = CryptoEngine.pbkdf2();
+            PBEKeySpec spec = new PBEKeySpec(plain_password.toCharArray(), this.salt_bytes, this.iterations, this.key_length);
+            SecretKey secretKey = secretKeyFactory.generateSecret(spec);
 
-        if(Arrays.equals(this.encrypted_password, secretKey.getEncoded()))
-            return true;
-        else
-            return false;
+            if(Arrays.equals(this.encrypted_password, secretKey.getEncoded()))
+                return true;
+            else
+                return false;
+        } finally {
+            Tracing.end(OperationPhase.AUTHENTICATION, start);
+        }
     }
 
     /*
@@ -177,4 +220,49 @@ class SecurePassword {
     public int getKey_length() {
         return key_length;
     }
+
+    /*
+     *   OVERVIEW: Scrive la password cifrata e le impostazioni PBKDF2 (Vedi LogStore)
+     *   REQUIRES: out != null
+     *   MODIFIES: out
+     *   EFFECTS: Scrive in out tutto il necessario per ricostruire l'oggetto con readFrom
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente (Unchecked)
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(iterations);
+        out.writeInt(key_length);
+        out.writeInt(salt_bytes.length);
+        out.write(salt_bytes);
+        out.writeInt(encrypted_password.length);
+        out.write(encrypted_password);
+    }
+
+    /*
+     *   OVERVIEW: Ricostruisce una password cifrata scritta con writeTo
+     *   REQUIRES: in != null
+     *   MODIFIES: in
+     *   EFFECTS: Ritorna la password cifrata letta da in, senza eseguire nessuna derivazione PBKDF2
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente o i dati non sono validi (Unchecked)
+     */
+    static SecurePassword readFrom(DataInput in) throws IOException {
+        SecurePassword password = new SecurePassword();
+        password.iterations = in.readInt();
+        password.key_length = in.readInt();
+        int saltLength = in.readInt();
+        if(password.iterations < 1000 || password.key_length < 128 || saltLength < 16 || saltLength > 1024)
+            throw new IOException("Impostazioni della password non valide");
+
+        password.salt_length = saltLength;
+        password.salt_bytes = new byte[saltLength];
+        in.readFully(password.salt_bytes);
+
+        int hashLength = in.readInt();
+        if(hashLength != password.key_length / 8)
+            throw new IOException("Password cifrata non valida");
+        password.encrypted_password = new byte[hashLength];
+        in.readFully(password.encrypted_password);
+        return password;
+    }
 }
@@ -0,0 +1,204 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+Funzione di astrazione:
+    f(sm) = <sessions, idleTimeout, maxLifetime> -->
+    <{(selector, Session)0,...,(selector, Session)n}> -->
+    dove ogni Session contiene l'utente autenticato, la sua chiave master sbloccata, l'hash del validator e gli istanti di creazione e ultimo accesso
+
+Invariante di rappresentazione:
+    sessions != null && idleTimeout > 0 && maxLifetime >= idleTimeout &&
+    forall(s appartenente a sessions.getAllElements()) => (s != null && s.created <= s.lastAccess)
+*/
+
+//Gestisce le sessioni autenticate: la password viene verificata una sola volta al login (Thread-safe)
+class SessionManager {
+    //Impostazioni predefinite delle sessioni (millisecondi)
+    public static final long DEFAULT_IDLE_TIMEOUT = 15 * 60 * 1000L;
+    public static final long DEFAULT_MAX_LIFETIME = 8 * 60 * 60 * 1000L;
+
+    static final int SELECTOR_LENGTH = 16;
+    static final int VALIDATOR_LENGTH = 32;
+
+    private final long idleTimeout;
+    private final long maxLifetime;
+
+    private ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private SecureRandom secureRandom = CryptoEngine.random();
+
+    /*
+     *   OVERVIEW: Crea un gestore di sessioni con le impostazioni predefinite
+     */
+    public SessionManager() {
+        this(DEFAULT_IDLE_TIMEOUT, DEFAULT_MAX_LIFETIME);
+    }
+
+    /*
+     *   OVERVIEW: Crea un gestore di sessioni con le scadenze fornite
+     *   REQUIRES: idleTimeout > 0, maxLifetime >= idleTimeout
+     *   MODIFIES: this
+     *   EFFECTS: Crea un gestore di sessioni con le scadenze fornite
+     *   THROWS:
+     *      IllegalArgumentException, quando le scadenze non sono valide (Unchecked)
+     */
+    public SessionManager(long idleTimeout, long maxLifetime) throws IllegalArgumentException {
+        if(idleTimeout <= 0 || maxLifetime < idleTimeout)
+            throw new IllegalArgumentException("idleTimeout deve essere > 0 e maxLifetime deve essere >= idleTimeout");
+
+        this.idleTimeout = idleTimeout;
+        this.maxLifetime = maxLifetime;
+    }
+
+    /*
+     *   OVERVIEW: Apre una nuova sessione per un utente già autenticato
+     *   REQUIRES: owner, masterKey != null, owner != ""
+     *   MODIFIES: this
+     *   EFFECTS: Registra una nuova sessione che conserva una copia della chiave master e ritorna il token da consegnare al chiamante
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     *      InvalidKeyException, quando la chiave master è stata distrutta (Unchecked)
+     */
+    public SessionToken open(String owner, MasterKey masterKey) throws InvalidKeyException {
+        if(owner == null || masterKey == null)
+            throw new NullPointerException();
+
+        purgeExpired();
+
+        byte[] selectorBytes = new byte[SELECTOR_LENGTH];
+        byte[] validator = new byte[VALIDATOR_LENGTH];
+        secureRandom.nextBytes(validator);
+
+        long now = System.currentTimeMillis();
+        Session session = new Session(owner, masterKey.copy(), sha256(validator), now);
+        String selector;
+        do {
+            secureRandom.nextBytes(selectorBytes);
+            selector = Base64.getUrlEncoder().withoutPadding().encodeToString(selectorBytes);
+        } while(sessions.putIfAbsent(selector, session) != null);
+
+        return new SessionToken(owner, selector, validator);
+    }
+
+    /*
+     *   OVERVIEW: Ritorna la sessione associata al token
+     *   REQUIRES: token != null
+     *   MODIFIES: this
+     *   EFFECTS: Ritorna la sessione se il token è valido e non scaduto, aggiornando l'istante di ultimo accesso.
+     *            Una sessione scaduta viene rimossa e la sua chiave master azzerata
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     *      InvalidAuthenticationException, quando il token non è valido o la sessione è scaduta (Checked)
+     */
+    public Session resolve(SessionToken token) throws InvalidAuthenticationException {
+        if(token == null)
+            throw new NullPointerException();
+
+        Session session = sessions.get(token.getSelector());
+
+        //Il confronto avviene in tempo costante sull'hash del validator
+        if(session == null || !MessageDigest.isEqual(session.validatorHash, sha256(token.getValidator()))
+                || !session.owner.equals(token.getOwner()))
+            throw new InvalidAuthenticationException("Sessione non valida");
+
+        long now = System.currentTimeMillis();
+        if(session.isExpired(now, idleTimeout, maxLifetime)) {
+            if(sessions.remove(token.getSelector(), session))
+                session.masterKey.destroy();
+            throw new InvalidAuthenticationException("Sessione scaduta");
+        }
+
+        session.lastAccess = now;
+        return session;
+    }
+
+    /*
+     *   OVERVIEW: Chiude la sessione associata al token
+     *   REQUIRES: token != null
+     *   MODIFIES: this
+     *   EFFECTS: Rimuove la sessione azzerandone la chiave master, ritorna true se la sessione esisteva ed era valida, altrimenti false
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    public boolean close(SessionToken token) {
+        if(token == null)
+            throw new NullPointerException();
+
+        Session session = sessions.get(token.getSelector());
+        if(session != null && MessageDigest.isEqual(session.validatorHash, sha256(token.getValidator()))
+                && sessions.remove(token.getSelector(), session)) {
+            session.masterKey.destroy();
+            return true;
+        }
+        return false;
+    }
+
+    /*
+     *   OVERVIEW: Rimuove tutte le sessioni scadute
+     */
+    private void purgeExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Session>> iter = sessions.entrySet().iterator();
+        while(iter.hasNext()) {
+            Session session = iter.next().getValue();
+            if(session.isExpired(now, idleTimeout, maxLifetime)) {
+                session.masterKey.destroy();
+                iter.remove();
+            }
+        }
+    }
+
+    /*
+     *   OVERVIEW: Calcola l'hash SHA-256 del validator
+     */
+    private static byte[] sha256(byte[] data) {
+        try {
+            return CryptoEngine.sha256().digest(data);
+        } catch(NoSuchAlgorithmException e) {
+            //SHA-256 è sempre disponibile in ogni implementazione Java
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //Sessione autenticata di un utente
+    static class Session {
+        private final String owner;
+        private final MasterKey masterKey;
+        private final byte[] validatorHash;
+        private final long created;
+        private volatile long lastAccess;
+
+        private Session(String owner, MasterKey masterKey, byte[] validatorHash, long created) {
+            this.owner = owner;
+            this.masterKey = masterKey;
+            this.validatorHash = validatorHash;
+            this.created = created;
+            this.lastAccess = created;
+        }
+
+        public String getOwner() {
+            return owner;
+        }
+
+        public MasterKey getMasterKey() {
+            return masterKey;
+        }
+
+        private boolean isExpired(long now, long idleTimeout, long maxLifetime) {
+            return now - lastAccess > idleTimeout || now - created > maxLifetime;
+        }
+    }
+}
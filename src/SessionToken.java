@@ -0,0 +1,82 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import java.util.Arrays;
+
+/*
+Funzione di astrazione:
+    f(t) = <owner, selector, validator> -->
+    dove selector identifica la sessione lato server e validator è il segreto casuale che la autentica
+
+Invariante di rappresentazione:
+    owner != null && owner != "" && selector != null && validator != null && validator.length == SessionManager.VALIDATOR_LENGTH
+*/
+
+public final class SessionToken {
+    private final String owner;
+    private final String selector;
+    private final byte[] validator;
+
+    /*
+     *   OVERVIEW: Crea un token di sessione (Solo tramite SessionManager)
+     *   REQUIRES: owner, selector, validator != null
+     *   MODIFIES: this
+     *   EFFECTS: Crea un token di sessione contenente una copia del validator
+     *   THROWS:
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    SessionToken(String owner, String selector, byte[] validator) {
+        if(owner == null || selector == null || validator == null)
+            throw new NullPointerException();
+
+        this.owner = owner;
+        this.selector = selector;
+        this.validator = Arrays.copyOf(validator, validator.length);
+    }
+
+    /*
+     *   OVERVIEW: Ritorna l'utente a cui appartiene la sessione
+     *   REQUIRES:
+     *   MODIFIES:
+     *   EFFECTS: Ritorna l'id dell'utente a cui appartiene la sessione
+     *   THROWS:
+     *
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna il selettore della sessione
+     *   REQUIRES:
+     *   MODIFIES:
+     *   EFFECTS: Ritorna la stringa che identifica la sessione lato server
+     *   THROWS:
+     *
+     */
+    String getSelector() {
+        return selector;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna il segreto che autentica la sessione
+     *   REQUIRES:
+     *   MODIFIES:
+     *   EFFECTS: Ritorna una copia del validator
+     *   THROWS:
+     *
+     */
+    byte[] getValidator() {
+        return Arrays.copyOf(validator, validator.length);
+    }
+
+    @Override
+    public String toString() {
+        //Il validator non viene mai esposto
+        return "SessionToken[" + owner + "]";
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/*
+ *   OVERVIEW: Formato binario versionato degli snapshot di una collezione (Vedi SecureDataCollection.snapshotTo).
+ *             Il file contiene un'intestazione seguita da blocchi indipendenti di record, ognuno protetto da un CRC32:
+ *               intestazione: MAGIC (int), VERSION (int), tipo di collezione (byte), impronta (Vedi FingerprintStrategies.writeTo)
+ *               blocco: lunghezza (int), CRC32 (int), numero di record (int), record [lunghezza (int)][tipo (byte)][contenuto]
+ *               fine: un blocco di lunghezza 0 con il numero di blocchi al posto del numero di record
+ *             I record contengono lo stato così com'è (Password cifrate, portachiavi e dati cifrati): né la scrittura né la lettura decifrano nulla.
+ *             Lo snapshot viene scritto in sequenza in un file temporaneo, che sostituisce il file di destinazione solo quando è completo.
+ *             Alla lettura i blocchi vengono letti e decodificati in parallelo.
+ */
+final class SnapshotFile {
+    static final int MAGIC = 0x5344534E;
+    static final int VERSION = 1;
+
+    //Tipi di collezione (Uno snapshot può essere ripristinato solo nel tipo da cui è stato scritto)
+    static final byte SECURE_DATA_COLLECTION = 1;
+    static final byte SECURE_DATA_COLLECTION_SEC_IMP = 2;
+
+    //Tipi di record
+    static final byte USER_RECORD = 1;
+    static final byte ELEMENT_RECORD = 2;
+
+    //Un blocco viene chiuso quando supera questa dimensione (Un record più grande occupa un blocco da solo)
+    static final int BLOCK_SIZE = 4 * 1024 * 1024;
+    private static final int BLOCK_HEADER = 12;
+
+    //L'intestazione contiene al massimo il nome dell'impronta (UTF) e l'impronta di controllo
+    private static final int MAX_HEADER_LENGTH = 9 + 2 + 65535 + 4 + 1024;
+
+    private SnapshotFile() {
+    }
+
+    /*
+     *   OVERVIEW: Decodifica un record dello snapshot (Chiamato in parallelo da più thread)
+     */
+    interface RecordParser<T> {
+        /*
+         *   EFFECTS: Ritorna l'oggetto rappresentato da record (Una vista del blocco: va copiato quanto deve sopravvivere al blocco)
+         *   THROWS:
+         *      IOException, quando il record non è valido (Unchecked)
+         *      ClassNotFoundException, quando si prova a caricare una classe, che non è presente, tramite una stringa (Unchecked)
+         */
+        T parse(byte type, ByteBuffer record) throws IOException, ClassNotFoundException;
+    }
+
+    /*
+     *   OVERVIEW: Scrittura sequenziale di uno snapshot. I record vengono raccolti in blocchi e ogni blocco completo viene scritto
+     *             con un'unica scrittura del canale. Il file di destinazione viene sostituito solo da commit: chiudere il writer
+     *             senza commit elimina il file temporaneo e lascia intatto un eventuale snapshot precedente
+     */
+    static final class Writer implements Closeable {
+        private final Path path;
+        private final Path temporary;
+        private final FileChannel channel;
+        private final Buffer block = new Buffer();
+        private final DataOutputStream blockOut = new DataOutputStream(block);
+        private final Buffer record = new Buffer();
+        private final DataOutputStream recordOut = new DataOutputStream(record);
+        private final ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER);
+        private final CRC32 crc = new CRC32();
+        private int blockRecords;
+        private int blocks;
+        private boolean committed;
+
+        /*
+         *   OVERVIEW: Crea il file temporaneo dello snapshot e ne scrive l'intestazione
+         *   REQUIRES: path, fingerprints != null
+         *   MODIFIES: il file system
+         *   EFFECTS: Crea (o sostituisce) il file <path>.tmp con l'intestazione dello snapshot
+         *   THROWS:
+         *      IOException, quando le operazioni di input/output non avvengono correttamente (Unchecked)
+         */
+        Writer(Path path, byte kind, FingerprintStrategy fingerprints) throws IOException {
+            this.path = path;
+            this.temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeByte(kind);
+                FingerprintStrategies.writeTo(fingerprints, out);
+                writeFully(ByteBuffer.wrap(bytes.toByteArray()));
+            } catch(IOException | RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /*
+         *   OVERVIEW: Inizia un record del tipo fornito e ritorna dove scriverne il contenuto (Fino a endRecord)
+         */
+        DataOutput beginRecord(byte type) throws IOException {
+            record.reset();
+            recordOut.writeByte(type);
+            return recordOut;
+        }
+
+        /*
+         *   OVERVIEW: Aggiunge il record iniziato con beginRecord al blocco corrente, scrivendo il blocco se è completo
+         */
+        void endRecord() throws IOException {
+            blockOut.writeInt(record.size());
+            blockOut.write(record.array(), 0, record.size());
+            blockRecords++;
+            if(block.size() >= BLOCK_SIZE)
+                flushBlock();
+        }
+
+        /*
+         *   OVERVIEW: Completa lo snapshot
+         *   REQUIRES:
+         *   MODIFIES: il file system
+         *   EFFECTS: Scrive l'ultimo blocco e la fine dello snapshot, rende il file durevole e sostituisce in modo atomico il file di destinazione
+         *   THROWS:
+         *      IOException, quando le operazioni di input/output non avvengono correttamente (Unchecked)
+         */
+        void commit() throws IOException {
+            flushBlock();
+            header.clear();
+            header.putInt(0).putInt(0).putInt(blocks).flip();
+            writeFully(header);
+            channel.force(true);
+            channel.close();
+
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(committed)
+                return;
+
+            channel.close();
+            Files.deleteIfExists(temporary);
+        }
+
+        private void flushBlock() throws IOException {
+            if(blockRecords == 0)
+                return;
+
+            crc.reset();
+            crc.update(block.array(), 0, block.size());
+            header.clear();
+            header.putInt(block.size()).putInt((int) crc.getValue()).putInt(blockRecords).flip();
+            writeFully(header, ByteBuffer.wrap(block.array(), 0, block.size()));
+
+            block.reset();
+            blockRecords = 0;
+            blocks++;
+        }
+
+        private void writeFully(ByteBuffer... buffers) throws IOException {
+            ByteBuffer last = buffers[buffers.length - 1];
+            while(last.hasRemaining())
+                channel.write(buffers);
+        }
+    }
+
+    /*
+     *   OVERVIEW: Lettura di uno snapshot. Il costruttore verifica l'intestazione e individua i blocchi senza leggerne il contenuto;
+     *             parse legge, verifica e decodifica i blocchi in parallelo (Letture posizionali indipendenti dello stesso canale)
+     */
+    static final class Reader implements Closeable {
+        private final Path path;
+        private final FileChannel channel;
+        private final FingerprintStrategy fingerprints;
+        //Posizione del contenuto, lunghezza, CRC32 e numero di record di ogni blocco
+        private final List<long[]> blocks = new ArrayList<>();
+
+        /*
+         *   OVERVIEW: Apre lo snapshot
+         *   REQUIRES: path != null
+         *   MODIFIES:
+         *   EFFECTS: Verifica intestazione, tipo di collezione e impronta (Vedi FingerprintStrategies.readFrom; requested == null usa quella registrata)
+         *            e individua i blocchi dello snapshot
+         *   THROWS:
+         *      IOException, quando il file non è uno snapshot valido e completo del tipo richiesto o l'impronta non corrisponde (Unchecked)
+         */
+        Reader(Path path, byte kind, FingerprintStrategy requested) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                long size = channel.size();
+                ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size, MAX_HEADER_LENGTH));
+                readFully(buffer, 0);
+                buffer.flip();
+                if(buffer.remaining() < 9 || buffer.getInt() != MAGIC)
+                    throw new IOException("Il file " + path + " non è uno snapshot valido");
+                int version = buffer.getInt();
+                if(version != VERSION)
+                    throw new IOException("Versione dello snapshot non supportata: " + version);
+                if(buffer.get() != kind)
+                    throw new IOException("Lo snapshot " + path + " è stato scritto da un altro tipo di collezione");
+
+                ByteBufferInputStream in = new ByteBufferInputStream(buffer);
+                this.fingerprints = FingerprintStrategies.readFrom(new DataInputStream(in), requested);
+                scan(buffer.position(), size);
+            } catch(IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        FingerprintStrategy getFingerprintStrategy() {
+            return fingerprints;
+        }
+
+        /*
+         *   OVERVIEW: Decodifica tutti i record dello snapshot
+         *   REQUIRES: parser != null
+         *   MODIFIES:
+         *   EFFECTS: Ritorna i record decodificati con parser, nell'ordine in cui sono stati scritti. I blocchi vengono letti e decodificati
+         *            in parallelo da al massimo un thread per processore
+         *   THROWS:
+         *      IOException, quando un blocco è corrotto o un record non è valido (Unchecked)
+         *      ClassNotFoundException, quando si prova a caricare una classe, che non è presente, tramite una stringa (Unchecked)
+         */
+        <T> List<T> parse(RecordParser<T> parser) throws IOException, ClassNotFoundException {
+            List<T> result = new ArrayList<>();
+            int threads = Math.min(Runtime.getRuntime().availableProcessors(), blocks.size());
+            if(threads <= 1) {
+                for(long[] block : blocks)
+                    result.addAll(parseBlock(block, parser));
+                return result;
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<List<T>>> futures = new ArrayList<>(blocks.size());
+                for(long[] block : blocks)
+                    futures.add(executor.submit(() -> parseBlock(block, parser)));
+
+                for(Future<List<T>> future : futures)
+                    result.addAll(future.get());
+                return result;
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Lettura dello snapshot interrotta", e);
+            } catch(ExecutionException e) {
+                Throwable cause = e.getCause();
+                if(cause instanceof IOException)
+                    throw (IOException) cause;
+                if(cause instanceof ClassNotFoundException)
+                    throw (ClassNotFoundException) cause;
+                if(cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                if(cause instanceof Error)
+                    throw (Error) cause;
+                throw new IOException(cause);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        //Individua i blocchi leggendo solo le loro intestazioni
+        private void scan(long position, long size) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER);
+            while(true) {
+                header.clear();
+                if(position + BLOCK_HEADER > size || !readFully(header, position))
+                    throw new IOException("Lo snapshot " + path + " è incompleto");
+
+                int length = header.getInt(0);
+                int count = header.getInt(8);
+                if(length == 0) {
+                    if(count != blocks.size())
+                        throw new IOException("Lo snapshot " + path + " è incompleto");
+                    return;
+                }
+                if(length < 0 || count < 0 || position + BLOCK_HEADER + length > size)
+                    throw new IOException("Blocco non valido nello snapshot in posizione " + position);
+
+                blocks.add(new long[] {position + BLOCK_HEADER, length, header.getInt(4), count});
+                position += BLOCK_HEADER + length;
+            }
+        }
+
+        private <T> List<T> parseBlock(long[] block, RecordParser<T> parser) throws IOException, ClassNotFoundException {
+            ByteBuffer buffer = ByteBuffer.allocate((int) block[1]);
+            if(!readFully(buffer, block[0]))
+                throw new IOException("Lo snapshot " + path + " è incompleto");
+
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 0, buffer.capacity());
+            if((int) crc.getValue() != (int) block[2])
+                throw new IOException("Blocco corrotto nello snapshot in posizione " + (block[0] - BLOCK_HEADER));
+
+            buffer.flip();
+            int count = (int) block[3];
+            List<T> result = new ArrayList<>(count);
+            for(int i = 0; i < count; i++) {
+                int length = buffer.remaining() >= 4 ? buffer.getInt() : -1;
+                if(length < 1 || length > buffer.remaining())
+                    throw new IOException("Record non valido nello snapshot in posizione " + (block[0] - BLOCK_HEADER));
+
+                ByteBuffer record = buffer.slice();
+                record.limit(length);
+                byte type = record.get();
+                result.add(parser.parse(type, record.slice()));
+                buffer.position(buffer.position() + length);
+            }
+            if(buffer.hasRemaining())
+                throw new IOException("Record non valido nello snapshot in posizione " + (block[0] - BLOCK_HEADER));
+            return result;
+        }
+
+        private boolean readFully(ByteBuffer buffer, long position) throws IOException {
+            while(buffer.hasRemaining()) {
+                int n = channel.read(buffer, position + buffer.position());
+                if(n < 0)
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    //ByteArrayOutputStream che espone il proprio array (Evita una copia per ogni record e per ogni blocco)
+    private static final class Buffer extends ByteArrayOutputStream {
+        private Buffer() {
+            super(8192);
+        }
+
+        private byte[] array() {
+            return buf;
+        }
+    }
+}
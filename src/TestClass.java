@@ -4,8 +4,34 @@
  *  License: Apache License 2.0
  *
  */
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 public class TestClass {
 
@@ -361,4 +387,732 @@ public class TestClass {
             System.out.println(e + "\n");
         }
     }
-}
\ No newline at end of file
+
+    //Test delle sessioni autenticate (entrambe le implementazioni)
+    public static void testSessioni(SecureDataContainer<String> secureDataCollection) {
+        try {
+            secureDataCollection.createUser("bob", "123");
+
+            //Login: la password viene verificata una sola volta
+            System.out.println(">Login dell'utente bob\n");
+            SessionToken session = secureDataCollection.login("bob", "123");
+
+            secureDataCollection.put(session, "Pummarola");
+            secureDataCollection.put(session, "Pasta");
+            System.out.println("L'utente bob ha " + secureDataCollection.getSize(session) + " elementi nella collezione\n");
+            System.out.println("Get tramite sessione: " + secureDataCollection.get(session, "Pasta") + "\n");
+
+            //Logout: la sessione non è più utilizzabile
+            System.out.println(">Logout dell'utente bob");
+            secureDataCollection.logout(session);
+            try {
+                secureDataCollection.getSize(session);
+            } catch(InvalidAuthenticationException e) {
+                System.out.println(e + "\n");
+            }
+
+            //Login con password errata
+            System.out.println(">Login con password errata");
+            try {
+                secureDataCollection.login("bob", "qwerty");
+            } catch(InvalidAuthenticationException e) {
+                System.out.println(e + "\n");
+            }
+        } catch (Exception e) {
+            System.out.println("Eccezione: " + e.getMessage());
+        }
+    }
+
+    //Test dell'archivio persistente: la collezione viene chiusa e ricostruita dal file
+    public static void testPersistenza(boolean secondaImp) {
+        try {
+            Path file = Files.createTempFile("securedata", ".log");
+            try {
+                LogStore store = new LogStore(file);
+                SecureDataContainer<String> secureDataCollection = secondaImp ? new SecureDataCollectionSecImp<String>(store) : new SecureDataCollection<String>(store);
+                secureDataCollection.createUser("bob", "123");
+                secureDataCollection.createUser("alice", "456");
+                secureDataCollection.put("bob", "123", "Pummarola");
+                secureDataCollection.put("bob", "123", "Pasta");
+                secureDataCollection.put("bob", "123", "Mozzarella");
+                secureDataCollection.share("bob", "123", "alice", "Pasta");
+                secureDataCollection.remove("bob", "123", "Mozzarella");
+                store.close();
+
+                //Simula una scrittura interrotta da un crash: la coda non valida viene scartata
+                Files.write(file, new byte[] { 0, 0, 0, 42, 1, 2 }, StandardOpenOption.APPEND);
+
+                System.out.println(">Riapertura dell'archivio\n");
+                store = new LogStore(file);
+                secureDataCollection = secondaImp ? new SecureDataCollectionSecImp<String>(store) : new SecureDataCollection<String>(store);
+                System.out.println("L'utente bob ha " + secureDataCollection.getSize("bob", "123") + " elementi nella collezione");
+                System.out.println("L'utente alice ha " + secureDataCollection.getSize("alice", "456") + " elementi nella collezione");
+                System.out.println("Get dopo la riapertura: " + secureDataCollection.get("alice", "456", "Pasta"));
+                System.out.println("Get di un dato cifrato dal file mappato: " + secureDataCollection.get("bob", "123", "Pummarola") + "\n");
+
+                //Un nuovo dato viene letto dal file mappato subito dopo essere stato scritto
+                secureDataCollection.put("alice", "456", "Basilico");
+                System.out.println("Get di un nuovo dato: " + secureDataCollection.get("alice", "456", "Basilico") + "\n");
+
+                //La compattazione mantiene solo i record validi
+                long before = Files.size(file);
+                store.compact();
+                System.out.println("Compattazione: " + (Files.size(file) < before ? "file ridotto" : "nessuna riduzione") + "\n");
+                store.close();
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        } catch (Exception e) {
+            System.out.println("Eccezione: " + e.getMessage());
+        }
+    }
+
+    //Test di un archivio con più dati del limite di mappature del sistema operativo (vm.max_map_count, 65530 predefinito)
+    public static void testArchivioGrande(boolean secondaImp) {
+        try {
+            Path file = Files.createTempFile("securedata", ".log");
+            try {
+                LogStore store = new LogStore(file);
+                SecureDataContainer<String> secureDataCollection = secondaImp ? new SecureDataCollectionSecImp<String>(store) : new SecureDataCollection<String>(store);
+                secureDataCollection.createUser("tina", "666");
+                SessionToken session = secureDataCollection.login("tina", "666");
+                for(int i = 0; i < 70000; i++)
+                    secureDataCollection.put(session, "Dato " + i);
+                System.out.println("L'utente tina ha " + secureDataCollection.getSize(session) + " elementi nella collezione");
+                System.out.println("Get del primo e dell'ultimo dato: " + secureDataCollection.get(session, "Dato 0") + ", " + secureDataCollection.get(session, "Dato 69999"));
+
+                //Ogni segmento del file viene mappato una sola volta, non una volta per dato
+                Path maps = Paths.get("/proc/self/maps");
+                if(Files.exists(maps)) {
+                    String name = file.getFileName().toString();
+                    long mappings = Files.readAllLines(maps).stream().filter(line -> line.contains(name)).count();
+                    System.out.println("Mappature del file: " + mappings);
+                }
+
+                //Dopo la compattazione i dati cifrati vengono letti dal nuovo file
+                store.compact();
+                secureDataCollection.put(session, "Dato 70000");
+                System.out.println("Get dopo la compattazione: " + secureDataCollection.get(session, "Dato 12345") + "\n");
+                store.close();
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        } catch (Exception e) {
+            System.out.println("Eccezione: " + e.getMessage());
+        }
+    }
+
+    //Test dell'iteratore: i dati vengono decifrati solo quando letti e quelli rimossi dopo la creazione vengono saltati
+    public static void testIteratore(SecureDataContainer<String> secureDataCollection) {
+        try {
+            secureDataCollection.createUser("carol", "789");
+            secureDataCollection.put("carol", "789", "Pummarola");
+            secureDataCollection.put("carol", "789", "Pasta");
+            secureDataCollection.put("carol", "789", "Mozzarella");
+
+            System.out.println("Primo dato dello stream: " + secureDataCollection.getStream("carol", "789").findFirst().orElse("nessuno"));
+
+            Iterator<String> iter = secureDataCollection.getIterator("carol", "789");
+            System.out.println("Primo dato dell'iteratore: " + iter.next());
+            secureDataCollection.remove("carol", "789", "Pasta");
+            System.out.print("Dati restanti dopo la rimozione di Pasta: [ ");
+            while(iter.hasNext())
+                System.out.print(iter.next() + " ");
+            System.out.println("]");
+
+            SessionToken session = secureDataCollection.login("carol", "789");
+            System.out.println("Dati letti tramite sessione: " + secureDataCollection.getStream(session).count() + "\n");
+        } catch (Exception e) {
+            System.out.println("Eccezione: " + e.getMessage());
+        }
+    }
+
+    //Test dello stream parallelo: stessi dati dello stream sequenziale, nello stesso ordine se richiesto
+    public static void testStreamParallelo(SecureDataContainer<String> secureDataCollection) {
+        try {
+            secureDataCollection.createUser("dave", "000");
+            for(int i = 0; i < 100; i++)
+                secureDataCollection.put("dave", "000", "Dato " + i);
+
+            List<String> sequenziale = secureDataCollection.getStream("dave", "000").collect(Collectors.toList());
+            List<String> ordinato = secureDataCollection.getParallelStream("dave", "000", true).collect(Collectors.toList());
+            Set<String> nonOrdinato = secureDataCollection.getParallelStream("dave", "000", false).collect(Collectors.toSet());
+
+            System.out.println("Stream parallelo ordinato uguale al sequenziale: " + sequenziale.equals(ordinato));
+            System.out.println("Stream parallelo non ordinato con gli stessi dati: " + nonOrdinato.equals(new HashSet<>(sequenziale)) + "\n");
+        } catch (Exception e) {
+            System.out.println("Eccezione: " + e.getMessage());
+        }
+    }
+
+    //Test delle operazioni sui lotti: una sola autenticazione e un esito per ogni dato
+    public static void testLotti(SecureDataContainer<String> secureDataCollection) {
+        try {
+            secureDataCollection.createUser("erin", "111");
+
+            BatchResult<Boolean> inseriti = secureDataCollection.putAll("erin", "111", Arrays.asList("Pasta", null, "Pummarola"));
+            System.out.println("Inserimento: " + inseriti + ", errore sul secondo dato: " + inseriti.getError(1).getClass().getSimpleName());
+
+            BatchResult<String> letti = secureDataCollection.getAll("erin", "111", Arrays.asList("Pasta", "Basilico", "Pummarola"));
+            System.out.println("Lettura: " + letti + " " + letti.getResults());
+
+            BatchResult<String> rimossi = secureDataCollection.removeAll("erin", "111", Arrays.asList("Pasta", "Pummarola"));
+            System.out.println("Rimozione: " + rimossi + ", dati rimasti: " + secureDataCollection.getSize("erin", "111"));
+
+            try {
+                secureDataCollection.putAll("erin", "errata", Arrays.asList("Pasta"));
+            } catch (InvalidAuthenticationException e) {
+                System.out.println("Lotto con password errata: " + e.getMessage() + "\n");
+            }
+        } catch (Exception e) {
+            System.out.println("Eccezione: " + e.getMessage());
+        }
+    }
+
+    //Test dei dati condivisi nella seconda implementazione: il proprietario continua ad accedere al dato e la rimozione vale per tutti
+    public static void testCondivisioneSecImp() {
+        SecureDataCollectionSecImp<String> secureDataCollection = new SecureDataCollectionSecImp<>();
+        try {
+            secureDataCollection.createUser("alex", "123");
+            secureDataCollection.createUser("zava", "456");
+            secureDataCollection.put("alex", "123", "Pummarola");
+            secureDataCollection.put("alex", "123", "Pasta");
+            secureDataCollection.share("alex", "123", "zava", "Pummarola");
+
+            System.out.println("Get del proprietario dopo la condivisione: " + secureDataCollection.get("alex", "123", "Pummarola"));
+            System.out.println("Get dell'utente con cui è condiviso: " + secureDataCollection.get("zava", "456", "Pummarola"));
+
+            secureDataCollection.remove("zava", "456", "Pummarola");
+            System.out.println("Dopo la rimozione alex ha " + secureDataCollection.getSize("alex", "123") + " elementi e zava " + secureDataCollection.getSize("zava", "456") + "\n");
+        } catch (Exception e) {
+            System.out.println("Eccezione: " + e + "\n");
+        }
+    }
+
+    //Test di concorrenza della terza implementazione: più thread operano su utenti diversi e condividono dati tra loro
+    public static void testConcorrenza(final int threads, final int elementsPerUser) {
+        final SecureDataCollectionConcurrent<String> secureDataCollection = new SecureDataCollectionConcurrent<>();
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        final AtomicInteger errors = new AtomicInteger();
+        Thread[] workers = new Thread[threads];
+
+        try {
+            System.out.println(">Creazione di " + threads + " utenti\n");
+            for(int i = 0; i < threads; i++)
+                secureDataCollection.createUser("user" + i, "pw" + i);
+
+            for(int i = 0; i < threads; i++) {
+                final int id = i;
+                workers[i] = new Thread(() -> {
+                    String user = "user" + id;
+                    String next = "user" + ((id + 1) % threads);
+                    try {
+                        SessionToken session = secureDataCollection.login(user, "pw" + id);
+                        barrier.await();
+
+                        //Ogni utente inserisce i propri dati, ne condivide uno con l'utente successivo e ne rimuove un altro
+                        for(int j = 0; j < elementsPerUser; j++)
+                            secureDataCollection.put(session, user + "-" + j);
+                        secureDataCollection.share(session, next, user + "-0");
+                        secureDataCollection.copy(session, user + "-2");
+                        if(secureDataCollection.remove(session, user + "-1") == null)
+                            errors.incrementAndGet();
+                        if(!secureDataCollection.get(session, user + "-0").equals(user + "-0"))
+                            errors.incrementAndGet();
+
+                        secureDataCollection.logout(session);
+                    } catch(Exception e) {
+                        System.out.println("Eccezione nel thread " + user + ": " + e);
+                        errors.incrementAndGet();
+                    }
+                });
+                workers[i].start();
+            }
+            for(Thread worker : workers)
+                worker.join();
+
+            //Ogni utente: elementsPerUser inseriti - 1 rimosso + 1 copia + 1 ricevuto in condivisione
+            for(int i = 0; i < threads; i++) {
+                int size = secureDataCollection.getSize("user" + i, "pw" + i);
+                if(size != elementsPerUser + 1) {
+                    System.out.println("L'utente user" + i + " ha " + size + " elementi invece di " + (elementsPerUser + 1));
+                    errors.incrementAndGet();
+                }
+            }
+
+            if(errors.get() == 0)
+                System.out.println("Test di concorrenza superato\n");
+            else
+                System.out.println("Test di concorrenza fallito: " + errors.get() + " errori\n");
+        } catch (Exception e) {
+            System.out.println("Eccezione: " + e.getMessage());
+        }
+    }
+
+    //Test delle codifiche dei dati: ogni dato decodificato deve essere uguale a quello originale
+    public static void testCodifiche() {
+        Object[] values = { "Pummarola", "Caffè ☕", "", 42, -7L, (short) 3, (byte) -1, 3.14, Float.NaN, true, 'z', new Date(0) };
+        int errors = 0;
+        try {
+            for(Object value : values) {
+                byte[] encoded = DataCodecs.encode(value);
+                Object decoded = DataCodecs.decode(encoded);
+                if(!value.equals(decoded) || !SecureDataInfo.hashOf(value).equals(SecureDataInfo.hashOf(decoded))) {
+                    System.out.println("Errore nella codifica di " + value.getClass().getSimpleName());
+                    errors++;
+                }
+            }
+
+            byte[] bytes = { 1, 2, 3 };
+            if(!Arrays.equals(bytes, (byte[]) DataCodecs.decode(DataCodecs.encode(bytes)))) {
+                System.out.println("Errore nella codifica di byte[]");
+                errors++;
+            }
+
+            if(errors == 0)
+                System.out.println("Tutte le codifiche sono reversibili\n");
+        } catch (Exception e) {
+            System.out.println("Eccezione: " + e.getMessage());
+        }
+    }
+
+    //Test delle impronte dei dati: l'impronta scelta viene registrata nell'archivio e una collezione riaperta deve usare la stessa
+    public static void testImpronte(boolean secondaImp) {
+        try {
+            Path file = Files.createTempFile("securedata", ".log");
+            try {
+                byte[] key = "chiave-impronte-16".getBytes("UTF-8");
+                LogStore store = new LogStore(file);
+                SecureDataContainer<String> secureDataCollection = secondaImp ? new SecureDataCollectionSecImp<String>(store, FingerprintStrategies.hmacSha256(key)) : new SecureDataCollection<String>(store, FingerprintStrategies.hmacSha256(key));
+                secureDataCollection.createUser("frank", "222");
+                secureDataCollection.put("frank", "222", "Pummarola");
+                store.close();
+
+                store = new LogStore(file);
+                try {
+                    if(secondaImp)
+                        new SecureDataCollectionSecImp<String>(store, FingerprintStrategies.hmacSha256("un'altra-chiave-16".getBytes("UTF-8")));
+                    else
+                        new SecureDataCollection<String>(store, FingerprintStrategies.hmacSha256("un'altra-chiave-16".getBytes("UTF-8")));
+                    System.out.println("Errore: archivio aperto con una chiave diversa");
+                } catch (IOException e) {
+                    System.out.println("Apertura con una chiave diversa: " + e.getMessage());
+                }
+                try {
+                    if(secondaImp)
+                        new SecureDataCollectionSecImp<String>(store, FingerprintStrategies.murmur3());
+                    else
+                        new SecureDataCollection<String>(store, FingerprintStrategies.murmur3());
+                    System.out.println("Errore: archivio aperto con un'impronta diversa");
+                } catch (IOException e) {
+                    System.out.println("Apertura con un'impronta diversa: " + e.getMessage());
+                }
+
+                secureDataCollection = secondaImp ? new SecureDataCollectionSecImp<String>(store, FingerprintStrategies.hmacSha256(key)) : new SecureDataCollection<String>(store, FingerprintStrategies.hmacSha256(key));
+                System.out.println("Get dopo la riapertura con la stessa chiave: " + secureDataCollection.get("frank", "222", "Pummarola"));
+                store.close();
+            } finally {
+                Files.deleteIfExists(file);
+            }
+
+            SecureDataContainer<String> murmur = secondaImp ? new SecureDataCollectionSecImp<String>(FingerprintStrategies.murmur3()) : new SecureDataCollection<String>(FingerprintStrategies.murmur3());
+            murmur.createUser("frank", "222");
+            murmur.put("frank", "222", "Pasta");
+            System.out.println("Get con impronta " + FingerprintStrategies.MURMUR3_128 + ": " + murmur.get("frank", "222", "Pasta") + "\n");
+        } catch (Exception e) {
+            System.out.println("Eccezione: " + e + "\n");
+        }
+    }
+
+    //Test della politica delle password: le credenziali vengono aggiornate al primo accesso dopo il cambio di impostazioni
+    public static void testPolitica(boolean secondaImp) {
+        try {
+            PasswordPolicy calibrated = PasswordPolicy.calibrate(20);
+            System.out.println("Calibrazione tra " + PasswordPolicy.MIN_ITERATIONS + " e " + PasswordPolicy.MAX_ITERATIONS + " iterazioni: "
+                    + (calibrated.getIterations() >= PasswordPolicy.MIN_ITERATIONS && calibrated.getIterations() <= PasswordPolicy.MAX_ITERATIONS));
+
+            Path file = Files.createTempFile("securedata", ".log");
+            try {
+                LogStore store = new LogStore(file);
+                SecureDataContainer<String> secureDataCollection;
+                if(secondaImp) {
+                    SecureDataCollectionSecImp<String> collection = new SecureDataCollectionSecImp<>(store);
+                    collection.createUser("grace", "333");
+                    collection.put("grace", "333", "Pummarola");
+                    collection.setPasswordPolicy(new PasswordPolicy(2000, 512, 32));
+                    secureDataCollection = collection;
+                } else {
+                    SecureDataCollection<String> collection = new SecureDataCollection<>(store);
+                    collection.createUser("grace", "333");
+                    collection.put("grace", "333", "Pummarola");
+                    collection.setPasswordPolicy(new PasswordPolicy(2000, 512, 32));
+                    secureDataCollection = collection;
+                }
+
+                //Il primo accesso dopo il cambio cifra di nuovo password e chiave master
+                System.out.println("Get dopo il cambio di politica: " + secureDataCollection.get("grace", "333", "Pummarola"));
+                store.close();
+
+                long before = Files.size(file);
+                store = new LogStore(file);
+                secureDataCollection = secondaImp ? new SecureDataCollectionSecImp<String>(store) : new SecureDataCollection<String>(store);
+                System.out.println("Get dopo la riapertura: " + secureDataCollection.get("grace", "333", "Pummarola"));
+                System.out.println("Credenziali aggiornate nell'archivio: " + (store.getFileSize() > before));
+                try {
+                    secureDataCollection.get("grace", "000", "Pummarola");
+                } catch (InvalidAuthenticationException e) {
+                    System.out.println("Password errata dopo l'aggiornamento: " + e.getMessage() + "\n");
+                }
+                store.close();
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        } catch (Exception e) {
+            System.out.println("Eccezione: " + e + "\n");
+        }
+    }
+
+    //Test dell'esecutore delle autenticazioni: i login vengono eseguiti su thread dedicati e un utente non può accodarne troppi
+    public static void testAutenticazioneAsincrona() {
+        SecureDataCollectionConcurrent<String> secureDataCollection = new SecureDataCollectionConcurrent<>();
+        AuthenticationExecutor executor = new AuthenticationExecutor(1, 8, 1);
+        try {
+            secureDataCollection.createUser("heidi", "444");
+            secureDataCollection.put("heidi", "444", "Pummarola");
+
+            CompletableFuture<SessionToken> first = secureDataCollection.loginAsync("heidi", "444", executor);
+            CompletableFuture<SessionToken> second = secureDataCollection.loginAsync("heidi", "444", executor);
+            try {
+                second.join();
+                System.out.println("Errore: secondo login ammesso");
+            } catch (CompletionException e) {
+                System.out.println("Secondo login dello stesso utente: " + e.getCause());
+            }
+
+            SessionToken session = first.join();
+            System.out.println("Get tramite la sessione aperta in modo asincrono: " + secureDataCollection.get(session, "Pummarola"));
+
+            try {
+                secureDataCollection.loginAsync("heidi", "000", executor).join();
+            } catch (CompletionException e) {
+                System.out.println("Login asincrono con password errata: " + e.getCause());
+            }
+            System.out.println("Autenticazioni in corso dopo il completamento: " + executor.getPending("heidi") + "\n");
+        } catch (Exception e) {
+            System.out.println("Eccezione: " + e + "\n");
+        } finally {
+            executor.close();
+        }
+    }
+
+    //Test dell'adattatore asincrono: le operazioni vengono concatenate senza bloccare il thread chiamante
+    public static void testAsincrono(SecureDataContainer<String> secureDataCollection) {
+        ExecutorService executor = AsyncSecureDataCollection.virtualThreadExecutor();
+        try {
+            final AsyncSecureDataContainer<String> async = new AsyncSecureDataCollection<>(secureDataCollection, executor);
+            async.createUser("ivan", "555").join();
+
+            SessionToken session = async.login("ivan", "555").join();
+            List<CompletableFuture<Boolean>> puts = new ArrayList<>();
+            for(String data : Arrays.asList("Pummarola", "Pasta", "Mozzarella"))
+                puts.add(async.put(session, data));
+            CompletableFuture.allOf(puts.toArray(new CompletableFuture<?>[0])).join();
+
+            String value = async.remove(session, "Pasta")
+                    .thenCompose(removed -> async.get(session, "Pummarola"))
+                    .join();
+            System.out.println("Get dopo la rimozione concatenata: " + value);
+            System.out.println("Dati dell'utente: " + async.getSize(session).join());
+
+            try {
+                async.get("ivan", "000", "Pummarola").join();
+            } catch (CompletionException e) {
+                System.out.println("Get asincrono con password errata: " + e.getCause());
+            }
+
+            //L'iteratore decifra sul thread del chiamante mentre altre operazioni modificano la collezione sull'esecutore
+            for(int i = 0; i < 50; i++)
+                async.put(session, "Base " + i).join();
+            Iterator<String> iter = async.getIterator(session).join();
+            List<CompletableFuture<?>> modifiche = new ArrayList<>();
+            for(int i = 0; i < 50; i++) {
+                final String extra = "Extra " + i;
+                modifiche.add(async.put(session, extra).thenCompose(added -> async.remove(session, extra)));
+            }
+            int letti = 0;
+            while(iter.hasNext()) {
+                iter.next();
+                letti++;
+            }
+            for(CompletableFuture<?> modifica : modifiche)
+                modifica.join();
+            System.out.println("Dati letti durante le modifiche concorrenti: " + letti);
+            System.out.println("Dati dopo le modifiche concorrenti: " + async.getSize(session).join());
+            async.logout(session).join();
+            System.out.println();
+        } catch (Exception e) {
+            System.out.println("Eccezione: " + e + "\n");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    //Test dello streaming cifrato: un valore grande viene letto a blocchi con lo stesso contenuto del get, anche saltando byte
+    public static void testStreamingCifrato(SecureDataContainer<byte[]> secureDataCollection) {
+        try {
+            secureDataCollection.createUser("judy", "666");
+
+            //Valore oltre la soglia dei blocchi cifrati separatamente (Vedi SecureDataInfo.CHUNKED_THRESHOLD)
+            byte[] grande = new byte[3 * 1024 * 1024 + 5];
+            new Random(19).nextBytes(grande);
+            byte[] piccolo = "Pummarola".getBytes("UTF-8");
+            secureDataCollection.put("judy", "666", grande);
+            secureDataCollection.put("judy", "666", piccolo);
+
+            System.out.println("Get del valore grande: " + Arrays.equals(grande, secureDataCollection.get("judy", "666", grande)));
+
+            ByteArrayOutputStream letto = new ByteArrayOutputStream();
+            try (InputStream in = secureDataCollection.getInputStream("judy", "666", grande)) {
+                byte[] buffer = new byte[8192];
+                int n;
+                while((n = in.read(buffer)) != -1)
+                    letto.write(buffer, 0, n);
+            }
+            System.out.println("Stream del valore grande: " + Arrays.equals(grande, letto.toByteArray()));
+
+            SessionToken session = secureDataCollection.login("judy", "666");
+            try (InputStream in = secureDataCollection.getInputStream(session, piccolo)) {
+                byte[] buffer = new byte[64];
+                int n = in.read(buffer);
+                System.out.println("Stream del valore piccolo: " + new String(buffer, 0, n, "UTF-8"));
+            }
+
+            try (InputStream in = secureDataCollection.getInputStream(session, grande)) {
+                System.out.println("Byte saltati e primo byte letto: " + in.skip(1024 * 1024) + " " + (in.read() == (grande[1024 * 1024] & 0xff)));
+            }
+            secureDataCollection.logout(session);
+
+            try {
+                secureDataCollection.getInputStream("judy", "000", grande);
+            } catch (InvalidAuthenticationException e) {
+                System.out.println("Stream con password errata: " + e);
+            }
+            System.out.println();
+        } catch (Exception e) {
+            System.out.println("Eccezione: " + e + "\n");
+        }
+    }
+
+    //Test delle metriche: ogni operazione e ogni fase vengono contate, con le cause dei fallimenti, e pubblicate via JMX e sink
+    public static void testMetriche(SecureDataContainer<String> secureDataCollection) {
+        try {
+            MeteredSecureDataContainer<String> metered = new MeteredSecureDataContainer<>(secureDataCollection);
+            ContainerMetrics metrics = metered.getMetrics();
+
+            metered.createUser("kevin", "777");
+            metered.put("kevin", "777", "Pummarola");
+            metered.put("kevin", "777", "Pasta");
+            metered.get("kevin", "777", "Pasta");
+            try {
+                metered.get("kevin", "000", "Pasta");
+            } catch (InvalidAuthenticationException e) {
+                //Conteggiato tra i fallimenti
+            }
+            try {
+                metered.get("kevin", "777", "Mozzarella");
+            } catch (NoSuchElementException e) {
+                //Conteggiato tra i fallimenti
+            }
+
+            SessionToken session = metered.login("kevin", "777");
+            Iterator<String> iter = metered.getIterator(session);
+            while(iter.hasNext())
+                iter.next();
+            metered.logout(session);
+
+            System.out.println("Operazioni: " + metrics.getOperationNames());
+            System.out.println("Esecuzioni di get: " + metrics.getOperation("get").getCount() + ", fallite: " + metrics.getFailureCount("get"));
+            System.out.println("Cause di fallimento: " + metrics.getFailureReasons());
+
+            List<String> phases = new ArrayList<>();
+            for(OperationPhase phase : OperationPhase.values())
+                if(metrics.getPhase(phase).getCount() > 0)
+                    phases.add(phase.getName());
+            System.out.println("Fasi misurate: " + phases);
+
+            ObjectName name = metrics.registerMBean();
+            Object puts = ManagementFactory.getPlatformMBeanServer().getAttribute(name, "operation.put.count");
+            System.out.println("JMX " + name + " operation.put.count = " + puts);
+            metrics.unregisterMBean();
+
+            metrics.publishTo((source, values) -> System.out.println("Sink " + source + ": failure.InvalidAuthenticationException = " + values.get("failure.InvalidAuthenticationException")));
+            System.out.println();
+        } catch (Exception e) {
+            System.out.println("Eccezione: " + e + "\n");
+        }
+    }
+
+    //Test dell'arena off-heap: i dati cifrati vengono letti dall'arena e i record liberati da remove e share
+    public static void testArena(boolean terzaImp) {
+        try {
+            PayloadArena arena = new PayloadArena();
+            SecureDataContainer<String> secureDataCollection;
+            if(terzaImp) {
+                SecureDataCollectionConcurrent<String> collection = new SecureDataCollectionConcurrent<>();
+                collection.setPayloadArena(arena);
+                secureDataCollection = collection;
+            } else {
+                SecureDataCollection<String> collection = new SecureDataCollection<>();
+                collection.setPayloadArena(arena);
+                secureDataCollection = collection;
+            }
+
+            secureDataCollection.createUser("leo", "888");
+            secureDataCollection.createUser("mia", "999");
+            for(String data : Arrays.asList("Pummarola", "Pasta", "Mozzarella", "Basilico"))
+                secureDataCollection.put("leo", "888", data);
+            System.out.println("Record nell'arena dopo 4 put: " + arena.getRecordCount());
+
+            System.out.println("Get dall'arena: " + secureDataCollection.get("leo", "888", "Mozzarella"));
+            secureDataCollection.copy("leo", "888", "Pasta");
+            System.out.println("Record nell'arena dopo copy: " + arena.getRecordCount());
+
+            System.out.println("Remove: " + secureDataCollection.remove("leo", "888", "Pummarola"));
+            System.out.println("Record nell'arena dopo remove: " + arena.getRecordCount());
+
+            //Il dato condiviso diventa pubblico: il suo record viene liberato
+            secureDataCollection.share("leo", "888", "mia", "Basilico");
+            System.out.println("Record nell'arena dopo share: " + arena.getRecordCount());
+            System.out.println("Get del dato condiviso: " + secureDataCollection.get("mia", "999", "Basilico"));
+
+            arena.compact();
+            System.out.println("Get dopo compact: " + secureDataCollection.get("leo", "888", "Mozzarella"));
+            System.out.println("Dati dell'utente: " + secureDataCollection.getSize("leo", "888") + ", " + arena);
+            System.out.println();
+        } catch (Exception e) {
+            System.out.println("Eccezione: " + e + "\n");
+        }
+    }
+
+    //Test della deduplicazione: dati pubblici uguali condividono un solo valore, rilasciato alla rimozione dell'ultimo dato che lo usa
+    public static void testDeduplicazione(SecureDataContainer<String> secureDataCollection, ContentStore contents) {
+        try {
+            secureDataCollection.createUser("nina", "000");
+            secureDataCollection.createUser("oscar", "111");
+            DataHash hash = SecureDataInfo.hashOf("Tiramisu");
+
+            secureDataCollection.put("nina", "000", "Tiramisu");
+            secureDataCollection.share("nina", "000", "oscar", "Tiramisu");
+            System.out.println("Valori pubblici dopo share: " + contents.size() + ", riferimenti: " + contents.getReferenceCount(hash));
+
+            //La copia condivide il valore del dato pubblico
+            secureDataCollection.copy("oscar", "111", "Tiramisu");
+            System.out.println("Riferimenti dopo copy: " + contents.getReferenceCount(hash));
+
+            //La rimozione rilascia solo il riferimento del dato rimosso
+            System.out.println("Remove: " + secureDataCollection.remove("nina", "000", "Tiramisu"));
+            System.out.println("Riferimenti dopo remove: " + contents.getReferenceCount(hash));
+            System.out.println("Get della copia: " + secureDataCollection.get("oscar", "111", "Tiramisu"));
+
+            System.out.println("Remove della copia: " + secureDataCollection.remove("oscar", "111", "Tiramisu"));
+            System.out.println("Valori pubblici: " + contents.size() + ", riferimenti: " + contents.getReferenceCount(hash));
+            System.out.println();
+        } catch (Exception e) {
+            System.out.println("Eccezione: " + e + "\n");
+        }
+    }
+
+    //Test dello snapshot: la collezione viene salvata in un unico file e ricostruita senza decifrare nulla
+    public static void testSnapshot(boolean secondaImp) {
+        try {
+            Path file = Files.createTempFile("securedata", ".snapshot");
+            try {
+                SecureDataContainer<String> secureDataCollection = secondaImp ? new SecureDataCollectionSecImp<String>() : new SecureDataCollection<String>();
+                secureDataCollection.createUser("pia", "222");
+                secureDataCollection.createUser("quinto", "333");
+                secureDataCollection.put("pia", "222", "Arancini");
+                secureDataCollection.put("pia", "222", "Cassata");
+                secureDataCollection.put("quinto", "333", "Cannoli");
+                secureDataCollection.share("pia", "222", "quinto", "Cassata");
+                secureDataCollection.copy("quinto", "333", "Cassata");
+
+                if(secondaImp)
+                    ((SecureDataCollectionSecImp<String>) secureDataCollection).snapshotTo(file);
+                else
+                    ((SecureDataCollection<String>) secureDataCollection).snapshotTo(file);
+
+                System.out.println(">Ripristino dello snapshot\n");
+                SecureDataContainer<String> restored = secondaImp ? SecureDataCollectionSecImp.<String>restore(file) : SecureDataCollection.<String>restore(file);
+                System.out.println("L'utente pia ha " + restored.getSize("pia", "222") + " elementi nella collezione");
+                System.out.println("L'utente quinto ha " + restored.getSize("quinto", "333") + " elementi nella collezione");
+                System.out.println("Get di un dato cifrato: " + restored.get("pia", "222", "Arancini"));
+                System.out.println("Get del dato condiviso: " + restored.get("quinto", "333", "Cassata"));
+                System.out.println("Remove dopo il ripristino: " + restored.remove("quinto", "333", "Cannoli"));
+
+                //Un blocco corrotto viene rilevato dal CRC32
+                byte[] bytes = Files.readAllBytes(file);
+                bytes[bytes.length - 20] ^= 1;
+                Files.write(file, bytes);
+                try {
+                    if(secondaImp)
+                        SecureDataCollectionSecImp.<String>restore(file);
+                    else
+                        SecureDataCollection.<String>restore(file);
+                } catch(IOException e) {
+                    System.out.println("Snapshot corrotto: " + e.getMessage().replace(file.toString(), "<file>"));
+                }
+                System.out.println();
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        } catch (Exception e) {
+            System.out.println("Eccezione: " + e + "\n");
+        }
+    }
+
+    //Test del flusso delle modifiche: log è il ChangeLog impostato nella collezione, con capacità 4
+    public static void testChangeLog(SecureDataContainer<String> secureDataCollection, ChangeLog log) {
+        try {
+            secureDataCollection.createUser("rita", "444");
+            secureDataCollection.createUser("sara", "555");
+            secureDataCollection.put("rita", "444", "Gelato");
+            secureDataCollection.put("rita", "444", "Granita");
+            secureDataCollection.share("rita", "444", "sara", "Gelato");
+            secureDataCollection.copy("sara", "555", "Gelato");
+            secureDataCollection.remove("rita", "444", "Granita");
+
+            //Le modifiche più vecchie della capacità sono state scartate
+            try {
+                log.read(1, 100);
+            } catch(ChangeLogTruncatedException e) {
+                System.out.println("Lettura da 1: " + e.getMessage());
+            }
+            for(ChangeEvent event : log.read(log.getFirstSequence(), 100))
+                System.out.println(event.getSequence() + " " + event.getType() + " " + event.getUser()
+                        + (event.getTarget() != null ? " -> " + event.getTarget() : "")
+                        + (event.getPayload() != null ? " (con contenuto)" : ""));
+
+            //Un consumatore iscritto da una sequenza riceve le modifiche presenti e poi quelle nuove
+            List<ChangeEvent> received = Collections.synchronizedList(new ArrayList<>());
+            ChangeLog.Subscription subscription = log.subscribe(log.getNextSequence() - 1, received::add);
+            secureDataCollection.put("sara", "555", "Cassata");
+            long deadline = System.currentTimeMillis() + 5000;
+            while(subscription.getNextSequence() < log.getNextSequence() && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            subscription.close();
+            synchronized(received) {
+                for(ChangeEvent event : received)
+                    System.out.println("Ricevuto: " + event.getSequence() + " " + event.getType() + " " + event.getUser());
+            }
+
+            //La modifica può essere trasferita in forma binaria (Ad esempio in un file)
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            received.get(received.size() - 1).writeTo(new DataOutputStream(bytes));
+            ChangeEvent copy = ChangeEvent.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            System.out.println("Riletto: " + copy.getSequence() + " " + copy.getType() + " " + copy.getUser());
+            System.out.println();
+        } catch (Exception e) {
+            System.out.println("Eccezione: " + e + "\n");
+        }
+    }
+}
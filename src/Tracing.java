@@ -0,0 +1,60 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+/*
+ *   OVERVIEW: Collega le fasi interne di un'operazione alle metriche della collezione che la esegue.
+ *             MeteredSecureDataContainer registra le proprie metriche nel thread chiamante per la durata dell'operazione;
+ *             il codice interno misura una fase con start/end. Senza metriche attive start non legge il timer e end non fa nulla.
+ *             Il lavoro eseguito su altri thread (ad esempio gli stream paralleli) non viene attribuito.
+ */
+final class Tracing {
+    //Valore di start quando nessuna metrica è attiva nel thread
+    private static final long NOT_TRACED = Long.MIN_VALUE;
+
+    private static final ThreadLocal<ContainerMetrics> current = new ThreadLocal<>();
+
+    private Tracing() {
+    }
+
+    /*
+     *   OVERVIEW: Attiva metrics nel thread corrente e ritorna le metriche attive in precedenza (Da ripristinare con exit)
+     */
+    static ContainerMetrics enter(ContainerMetrics metrics) {
+        ContainerMetrics previous = current.get();
+        current.set(metrics);
+        return previous;
+    }
+
+    /*
+     *   OVERVIEW: Ripristina le metriche ritornate da enter
+     */
+    static void exit(ContainerMetrics previous) {
+        if(previous == null)
+            current.remove();
+        else
+            current.set(previous);
+    }
+
+    /*
+     *   OVERVIEW: Inizia la misura di una fase
+     */
+    static long start() {
+        return current.get() == null ? NOT_TRACED : System.nanoTime();
+    }
+
+    /*
+     *   OVERVIEW: Termina la misura di una fase iniziata con start e la registra nelle metriche attive
+     */
+    static void end(OperationPhase phase, long start) {
+        if(start == NOT_TRACED)
+            return;
+
+        ContainerMetrics metrics = current.get();
+        if(metrics != null)
+            metrics.recordPhase(phase, System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ *  Github: https://github.com/alexzava/unipi-progetto-java
+ *
+ *  License: Apache License 2.0
+ *
+ */
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+
+/*
+Funzione di astrazione:
+    f(kr) = <salt_bytes, iterations, IV, wrappedKey> -->
+    dove wrappedKey è la chiave master dell'utente cifrata con AES-GCM sotto una chiave derivata dalla password tramite PBKDF2
+
+Invariante di rappresentazione:
+    salt_bytes != null && IV != null && IV.length == 12 && wrappedKey != null &&
+    wrappedKey.length == MasterKey.KEY_LENGTH + 16 && iterations >= 1000
+*/
+
+//Portachiavi dell'utente: la password sblocca la chiave master con una sola derivazione PBKDF2
+class UserKeyring {
+    //Impostazioni chiave di cifratura della chiave master
+    private int iterations = 5000;
+    private int key_length = 256;
+
+    private byte[] salt_bytes = new byte[64];
+    private byte[] IV = new byte[12];
+    private byte[] wrappedKey;
+
+    private UserKeyring() {
+    }
+
+    /*
+     *   OVERVIEW: Genera una nuova chiave master e la cifra con la password fornita
+     *   REQUIRES: password != null, password != ""
+     *   MODIFIES:
+     *   EFFECTS: Ritorna un nuovo portachiavi contenente una chiave master casuale cifrata con la password
+     *   THROWS:
+     *      NoSuchAlgorithmException, quando viene chiesto di usare un algoritmo di crittografia non presente nell'ambiente (Unchecked)
+     *      InvalidKeySpecException, quando le specifiche per l'oggetto KeySpec non sono valide (Unchecked)
+     *      IllegalArgumentException, quando password non contiene almeno un carattere (Unchecked)
+     *      IllegalStateException, quando il cifrario AES-GCM non è utilizzabile nell'ambiente (Unchecked)
+     */
+    static UserKeyring create(String password) throws NoSuchAlgorithmException, InvalidKeySpecException, IllegalArgumentException {
+        return create(password, PasswordPolicy.DEFAULT);
+    }
+
+    /*
+     *   OVERVIEW: Come create(password), derivando la chiave di cifratura con le iterazioni della politica fornita
+     */
+    static UserKeyring create(String password, PasswordPolicy policy) throws NoSuchAlgorithmException, InvalidKeySpecException, IllegalArgumentException {
+        if(password == null || policy == null)
+            throw new NullPointerException();
+
+        if(password.equals(""))
+            throw new IllegalArgumentException("password deve contenere almeno un carattere");
+
+        MasterKey masterKey = MasterKey.generate(CryptoEngine.random());
+        try {
+            return wrap(masterKey, password, policy);
+        } finally {
+            masterKey.destroy();
+        }
+    }
+
+    /*
+     *   OVERVIEW: Cifra una chiave master esistente con la password fornita
+     *   REQUIRES: masterKey != null, password != null, password != "", policy != null
+     *   MODIFIES:
+     *   EFFECTS: Ritorna un nuovo portachiavi (nuovi salt e IV) che contiene masterKey cifrata con la password e le iterazioni di policy.
+     *            Usato per aggiornare le impostazioni PBKDF2 senza cifrare di nuovo i dati dell'utente. masterKey non viene distrutta
+     *   THROWS:
+     *      NoSuchAlgorithmException, quando viene chiesto di usare un algoritmo di crittografia non presente nell'ambiente (Unchecked)
+     *      InvalidKeySpecException, quando le specifiche per l'oggetto KeySpec non sono valide (Unchecked)
+     *      IllegalArgumentException, quando password non contiene almeno un carattere (Unchecked)
+     *      IllegalStateException, quando il cifrario AES-GCM non è utilizzabile nell'ambiente o la chiave è già stata distrutta (Unchecked)
+     *      NullPointerException, quando un elemento è nullo (Unchecked)
+     */
+    static UserKeyring wrap(MasterKey masterKey, String password, PasswordPolicy policy) throws NoSuchAlgorithmException, InvalidKeySpecException, IllegalArgumentException {
+        if(masterKey == null || password == null || policy == null)
+            throw new NullPointerException();
+
+        if(password.equals(""))
+            throw new IllegalArgumentException("password deve contenere almeno un carattere");
+
+        UserKeyring keyring = new UserKeyring();
+        keyring.iterations = policy.getIterations();
+        CryptoEngine.nextBytes(keyring.salt_bytes);
+        CryptoEngine.nextBytes(keyring.IV);
+
+        byte[] kek = keyring.deriveKek(password);
+        byte[] plainKey = null;
+        try {
+            plainKey = masterKey.getEncoded();
+            Cipher cipher = CryptoEngine.aesGcm();
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(kek, "AES"), new GCMParameterSpec(128, keyring.IV));
+            keyring.wrappedKey = cipher.doFinal(plainKey);
+        } catch(NoSuchAlgorithmException e) {
+            throw e;
+        } catch(GeneralSecurityException e) {
+            throw new IllegalStateException("Impossibile cifrare la chiave master", e);
+        } finally {
+            Arrays.fill(kek, (byte) 0);
+            if(plainKey != null)
+                Arrays.fill(plainKey, (byte) 0);
+        }
+        return keyring;
+    }
+
+    /*
+     *   OVERVIEW: Ritorna true se la chiave di cifratura è derivata con iterazioni diverse da quelle della politica (Vedi wrap)
+     */
+    boolean needsRehash(PasswordPolicy policy) {
+        return iterations != policy.getIterations();
+    }
+
+    /*
+     *   OVERVIEW: Sblocca la chiave master con la password fornita
+     *   REQUIRES: password != null, password != ""
+     *   MODIFIES:
+     *   EFFECTS: Ritorna la chiave master decifrata. Il chiamante è responsabile di distruggerla quando non serve più
+     *   THROWS:
+     *      NoSuchAlgorithmException, quando viene chiesto di usare un algoritmo di crittografia non presente nell'ambiente (Unchecked)
+     *      InvalidKeySpecException, quando le specifiche per l'oggetto KeySpec non sono valide (Unchecked)
+     *      IllegalArgumentException, quando password non contiene almeno un carattere (Unchecked)
+     *      IllegalStateException, quando il cifrario AES-GCM non è utilizzabile nell'ambiente (Unchecked)
+     *      InvalidAuthenticationException, quando la password non sblocca la chiave (Checked)
+     */
+    MasterKey unlock(String password) throws NoSuchAlgorithmException, InvalidKeySpecException, IllegalArgumentException, InvalidAuthenticationException {
+        if(password == null)
+            throw new NullPointerException();
+
+        if(password.equals(""))
+            throw new IllegalArgumentException("password deve contenere almeno un carattere");
+
+        long start = Tracing.start();
+        byte[] kek = deriveKek(password);
+        byte[] plainKey = null;
+        try {
+            Cipher cipher = CryptoEngine.aesGcm();
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(kek, "AES"), new GCMParameterSpec(128, this.IV));
+            plainKey = cipher.doFinal(this.wrappedKey);
+            return new MasterKey(plainKey);
+        } catch(AEADBadTagException e) {
+            throw new InvalidAuthenticationException("Autenticazione fallita");
+        } catch(NoSuchAlgorithmException e) {
+            throw e;
+        } catch(GeneralSecurityException e) {
+            throw new IllegalStateException("Impossibile decifrare la chiave master", e);
+        } finally {
+            Arrays.fill(kek, (byte) 0);
+            if(plainKey != null)
+                Arrays.fill(plainKey, (byte) 0);
+            Tracing.end(OperationPhase.KEY_DERIVATION, start);
+        }
+    }
+
+    /*
+     *   OVERVIEW: Scrive il portachiavi (La chiave master resta cifrata, Vedi LogStore)
+     *   REQUIRES: out != null
+     *   MODIFIES: out
+     *   EFFECTS: Scrive in out tutto il necessario per ricostruire il portachiavi con readFrom
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente (Unchecked)
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(iterations);
+        out.writeInt(key_length);
+        out.write(salt_bytes);
+        out.write(IV);
+        out.write(wrappedKey);
+    }
+
+    /*
+     *   OVERVIEW: Ricostruisce un portachiavi scritto con writeTo
+     *   REQUIRES: in != null
+     *   MODIFIES: in
+     *   EFFECTS: Ritorna il portachiavi letto da in, senza sbloccare la chiave master
+     *   THROWS:
+     *      IOException, quando le operazioni di input/output non avvengono correttamente o i dati non sono validi (Unchecked)
+     */
+    static UserKeyring readFrom(DataInput in) throws IOException {
+        UserKeyring keyring = new UserKeyring();
+        keyring.iterations = in.readInt();
+        keyring.key_length = in.readInt();
+        if(keyring.iterations < 1000 || keyring.key_length != 256)
+            throw new IOException("Impostazioni del portachiavi non valide");
+
+        in.readFully(keyring.salt_bytes);
+        in.readFully(keyring.IV);
+        keyring.wrappedKey = new byte[MasterKey.KEY_LENGTH + 16];
+        in.readFully(keyring.wrappedKey);
+        return keyring;
+    }
+
+    /*
+     *   OVERVIEW: Deriva dalla password la chiave che cifra la chiave master
+     */
+    private byte[] deriveKek(String password) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        SecretKeyFactory secretKeyFactory = CryptoEngine.pbkdf2();
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), this.salt_bytes, this.iterations, this.key_length);
+        try {
+            return secretKeyFactory.generateSecret(spec).getEncoded();
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}